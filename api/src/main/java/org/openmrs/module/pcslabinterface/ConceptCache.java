@@ -0,0 +1,339 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.ConceptAnswer;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.hl7.HL7Constants;
+import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.util.OpenmrsUtil;
+
+/**
+ * Remembers which concept each (code, coding system) pair in a lab message
+ * resolves to, along with what the HL7 handler needs to know about it: its
+ * datatype and, once a value has been checked against it, the ids of its
+ * answers. It also remembers the concepts standing for true and false.
+ * <p/>
+ * Lab messages repeat the same few concepts over and over, so most lookups
+ * are answered without querying the concept service. Only ids and flags are
+ * kept, never the Concept itself, so nothing here is tied to the Hibernate
+ * session that loaded it. The concepts are kept in an {@link IdCache} of at
+ * most the configured number of entries; it is emptied by
+ * {@link #invalidate()} whenever a concept changes, and when the true or
+ * false concept global property does.
+ * <p/>
+ * Its counters are published over JMX as {@link ConceptCacheMBean}.
+ */
+public class ConceptCache implements ConceptCacheMBean, GlobalPropertyListener {
+
+	private static final Log log = LogFactory.getLog(ConceptCache.class);
+
+	private static volatile ConceptCache instance = new ConceptCache();
+
+	/**
+	 * the cached concepts by coding system and code
+	 */
+	private final IdCache<String, CachedConcept> concepts = new IdCache<String, CachedConcept>(0) {
+
+		@Override
+		protected int getMaxSize() {
+			return ConceptCache.this.getMaxSize();
+		}
+	};
+
+	/**
+	 * ids of the concepts standing for true and false, or null if not looked
+	 * up yet
+	 */
+	private volatile Integer trueConceptId = null;
+
+	private volatile Integer falseConceptId = null;
+
+	/**
+	 * @return the cache shared by the HL7 handler
+	 */
+	public static ConceptCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Finds the concept a code stands for, looking it up if it is not cached
+	 *
+	 * @param code the concept id, or the code in the given coding system
+	 * @param codingSystem the coding system, such as 99DCT for local concepts
+	 * @return the concept, or null if there is none
+	 * @throws NumberFormatException if a local concept id is not a number
+	 * @should look up a concept only once
+	 * @should not cache concepts that are not found
+	 */
+	public CachedConcept get(final String code, final String codingSystem) {
+		return concepts.get(codingSystem + "^" + code, new IdCache.Loader<String, CachedConcept>() {
+
+			public CachedConcept load(String key) {
+				return lookUp(code, codingSystem);
+			}
+		});
+	}
+
+	/**
+	 * Checks whether a concept is one of the answers to a question, indexing
+	 * the question's answers the first time it is asked
+	 *
+	 * @param question the question concept
+	 * @param answerConceptId the id of the answer concept
+	 * @return true if the answer is allowed for the question
+	 * @should index the answers of a question only once
+	 * @should not allow answers that are not in the index
+	 */
+	public boolean isAnswer(CachedConcept question, Integer answerConceptId) {
+		int[] answers = question.answerConceptIds;
+		if (answers == null) {
+			answers = lookUpAnswerConceptIds(question.getConceptId());
+			Arrays.sort(answers);
+			question.answerConceptIds = answers;
+		}
+		return answerConceptId != null && Arrays.binarySearch(answers, answerConceptId) >= 0;
+	}
+
+	/**
+	 * @param value true or false
+	 * @return the id of the concept standing for the value, or null if there
+	 *         is none
+	 * @should look up the true and false concepts only once
+	 */
+	public Integer getBooleanConceptId(boolean value) {
+		Integer conceptId = value ? trueConceptId : falseConceptId;
+		if (conceptId == null) {
+			conceptId = lookUpBooleanConceptId(value);
+			if (value)
+				trueConceptId = conceptId;
+			else
+				falseConceptId = conceptId;
+		}
+		return conceptId;
+	}
+
+	/**
+	 * empties the cache, so every concept is looked up again on next use
+	 */
+	public void invalidate() {
+		concepts.invalidate();
+		trueConceptId = null;
+		falseConceptId = null;
+	}
+
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#supportsPropertyName(java.lang.String)
+	 */
+	public boolean supportsPropertyName(String propertyName) {
+		return OpenmrsConstants.GLOBAL_PROPERTY_TRUE_CONCEPT.equals(propertyName)
+				|| OpenmrsConstants.GLOBAL_PROPERTY_FALSE_CONCEPT.equals(propertyName);
+	}
+
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 */
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		invalidate();
+	}
+
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyDeleted(java.lang.String)
+	 */
+	public void globalPropertyDeleted(String propertyName) {
+		invalidate();
+	}
+
+	/**
+	 * @param code the concept id, or the code in the given coding system
+	 * @param codingSystem the coding system
+	 * @return the concept the code stands for, or null if there is none
+	 */
+	protected CachedConcept lookUp(String code, String codingSystem) {
+		Concept concept;
+		if (OpenmrsUtil.nullSafeEquals(HL7Constants.HL7_LOCAL_CONCEPT, codingSystem))
+			concept = Context.getConceptService().getConcept(Integer.valueOf(code));
+		else
+			concept = Context.getConceptService().getConceptByMapping(code, codingSystem);
+
+		if (concept == null)
+			return null;
+		if (log.isDebugEnabled())
+			log.debug("Caching concept #" + concept.getConceptId() + " for " + codingSystem + " code " + code);
+		return new CachedConcept(concept);
+	}
+
+	/**
+	 * @param conceptId the id of a question concept
+	 * @return the ids of the question's answers, in any order
+	 */
+	protected int[] lookUpAnswerConceptIds(Integer conceptId) {
+		Concept concept = Context.getConceptService().getConcept(conceptId);
+		Collection<ConceptAnswer> answers = (concept == null) ? null : concept.getAnswers();
+		if (answers == null)
+			return new int[0];
+
+		int[] ids = new int[answers.size()];
+		int count = 0;
+		for (ConceptAnswer answer : answers)
+			if (answer.getAnswerConcept() != null && answer.getAnswerConcept().getConceptId() != null)
+				ids[count++] = answer.getAnswerConcept().getConceptId();
+		if (count < ids.length) {
+			int[] found = new int[count];
+			System.arraycopy(ids, 0, found, 0, count);
+			ids = found;
+		}
+		return ids;
+	}
+
+	/**
+	 * @param value true or false
+	 * @return the id of the concept standing for the value, or null if there
+	 *         is none
+	 */
+	protected Integer lookUpBooleanConceptId(boolean value) {
+		Concept concept = value ? Context.getConceptService().getTrueConcept() : Context.getConceptService()
+				.getFalseConcept();
+		return (concept == null) ? null : concept.getConceptId();
+	}
+
+	/**
+	 * @return the most entries to keep
+	 */
+	protected int getMaxSize() {
+		return PcsLabInterfaceUtil.getIntegerGlobalProperty(PcsLabInterfaceConstants.PCSLABINTERFACE_GP_CONCEPT_CACHE_SIZE,
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_CONCEPT_CACHE_SIZE_DEFAULT);
+	}
+
+	/**
+	 * @return the number of concepts cached
+	 */
+	public int getSize() {
+		return concepts.getSize();
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return concepts.getHits();
+	}
+
+	/**
+	 * @return the number of lookups that had to query the concept service
+	 */
+	public long getMisses() {
+		return concepts.getMisses();
+	}
+
+	/**
+	 * @return the share of lookups answered from the cache, between 0 and 1
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * @return the number of concepts dropped to make room for others
+	 */
+	public long getEvictions() {
+		return concepts.getEvictions();
+	}
+
+	/**
+	 * @return the number of times the cache has been emptied
+	 */
+	public long getInvalidations() {
+		return concepts.getInvalidations();
+	}
+
+	@Override
+	public String toString() {
+		return concepts.toString();
+	}
+
+	/**
+	 * What the HL7 handler needs to know about a concept, copied out of it so
+	 * it can be kept between sessions. The answers of a coded question are
+	 * only indexed once a value is checked against them, see
+	 * {@link ConceptCache#isAnswer(CachedConcept, Integer)}.
+	 */
+	public static class CachedConcept {
+
+		private final Integer conceptId;
+
+		private final boolean isBoolean;
+
+		private final boolean isNumeric;
+
+		private final boolean isCoded;
+
+		/**
+		 * the sorted ids of the concept's answers, or null until indexed
+		 */
+		private volatile int[] answerConceptIds = null;
+
+		/**
+		 * @param concept the concept to copy
+		 */
+		public CachedConcept(Concept concept) {
+			this(concept.getConceptId(), concept.getDatatype());
+		}
+
+		private CachedConcept(Integer conceptId, ConceptDatatype datatype) {
+			this(conceptId, datatype != null && datatype.isBoolean(), datatype != null && datatype.isNumeric(),
+					datatype != null && datatype.isCoded());
+		}
+
+		/**
+		 * @param conceptId the id of the concept
+		 * @param isBoolean true if the concept is boolean
+		 * @param isNumeric true if the concept is numeric
+		 * @param isCoded true if the concept is coded
+		 */
+		public CachedConcept(Integer conceptId, boolean isBoolean, boolean isNumeric, boolean isCoded) {
+			this.conceptId = conceptId;
+			this.isBoolean = isBoolean;
+			this.isNumeric = isNumeric;
+			this.isCoded = isCoded;
+		}
+
+		public Integer getConceptId() {
+			return conceptId;
+		}
+
+		public boolean isBoolean() {
+			return isBoolean;
+		}
+
+		public boolean isNumeric() {
+			return isNumeric;
+		}
+
+		public boolean isCoded() {
+			return isCoded;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.PersonAttributeType;
+import org.openmrs.api.context.Context;
+
+/**
+ * Remembers the health center of each patient a lab message has been
+ * received for, so the discharge to location of a message can be checked
+ * without loading the patient.
+ * <p/>
+ * Almost every message names the health center the patient already has, so
+ * the patient is only loaded and saved when it really changes. The id of
+ * the "Health Center" person attribute type is remembered too. The patients
+ * are kept in an {@link IdCache} of at most {@link #MAX_SIZE} patients. A
+ * patient is forgotten whenever the patient is changed,
+ * including by the handler itself, and every patient whenever a person
+ * attribute type is changed.
+ * <p/>
+ * Its counters are published over JMX as {@link HealthCenterCacheMBean}.
+ */
+public class HealthCenterCache implements HealthCenterCacheMBean {
+
+	/**
+	 * the name of the person attribute type holding a patient's health center
+	 */
+	public static final String HEALTH_CENTER = "Health Center";
+
+	/**
+	 * the most patients remembered
+	 */
+	private static final int MAX_SIZE = 10000;
+
+	/**
+	 * remembered for patients without a health center
+	 */
+	private static final String NONE = "";
+
+	private static volatile HealthCenterCache instance = new HealthCenterCache();
+
+	/**
+	 * the health center of each remembered patient
+	 */
+	private final IdCache<Integer, String> healthCenters = new IdCache<Integer, String>(MAX_SIZE);
+
+	/**
+	 * looks up patients that are not remembered
+	 */
+	private final IdCache.Loader<Integer, String> healthCenterLoader = new IdCache.Loader<Integer, String>() {
+
+		public String load(Integer patientId) {
+			Integer typeId = getAttributeTypeId();
+			String healthCenter = (typeId == null) ? null : lookUpHealthCenter(patientId, typeId);
+			return (healthCenter == null) ? NONE : healthCenter;
+		}
+	};
+
+	/**
+	 * the id of the health center attribute type, or null if there is none;
+	 * only meaningful once the type has been looked up
+	 */
+	private volatile Integer attributeTypeId = null;
+
+	private volatile boolean attributeTypeLoaded = false;
+
+	private final AtomicLong unchanged = new AtomicLong();
+
+	private final AtomicLong changed = new AtomicLong();
+
+	/**
+	 * @return the cache shared by the HL7 handler
+	 */
+	public static HealthCenterCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return the id of the health center person attribute type, or null if
+	 *         there is none
+	 * @should look up the attribute type only once
+	 */
+	public Integer getAttributeTypeId() {
+		if (!attributeTypeLoaded) {
+			PersonAttributeType attributeType = lookUpAttributeType();
+			attributeTypeId = (attributeType == null) ? null : attributeType.getPersonAttributeTypeId();
+			attributeTypeLoaded = true;
+		}
+		return attributeTypeId;
+	}
+
+	/**
+	 * Answers whether a patient already has a health center, looking up the
+	 * patient's current one if it is not remembered
+	 *
+	 * @param patientId the id of the patient
+	 * @param healthCenter the health center a message names
+	 * @return true if the patient's health center is the one named, so there
+	 *         is nothing to update
+	 * @should look up a patient only once
+	 * @should not match a patient without a health center
+	 * @should not match a patient with another health center
+	 */
+	public boolean isHealthCenter(Integer patientId, String healthCenter) {
+		String current = healthCenters.get(patientId, healthCenterLoader);
+		if (!NONE.equals(current) && current.equals(healthCenter)) {
+			unchanged.incrementAndGet();
+			return true;
+		}
+		changed.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Forgets a patient's health center after the patient changes
+	 *
+	 * @param patientId the id of the patient that changed
+	 * @should look up the patient again once invalidated
+	 */
+	public void invalidate(Integer patientId) {
+		healthCenters.invalidate(patientId);
+	}
+
+	/**
+	 * forgets every patient and the attribute type, so each is looked up
+	 * again on next use
+	 *
+	 * @should look up the attribute type again once invalidated
+	 */
+	public void invalidate() {
+		healthCenters.invalidate();
+		attributeTypeLoaded = false;
+	}
+
+	/**
+	 * @return the health center person attribute type, or null if there is
+	 *         none
+	 */
+	protected PersonAttributeType lookUpAttributeType() {
+		return Context.getPersonService().getPersonAttributeTypeByName(HEALTH_CENTER);
+	}
+
+	/**
+	 * @param patientId the id of a patient
+	 * @param attributeTypeId the id of the health center attribute type
+	 * @return the patient's health center, or null if the patient has none
+	 */
+	protected String lookUpHealthCenter(Integer patientId, Integer attributeTypeId) {
+		return Context.getService(PcsLabInterfaceService.class).getPersonAttributeValue(patientId, attributeTypeId);
+	}
+
+	/**
+	 * @return the number of patients remembered
+	 */
+	public int getSize() {
+		return healthCenters.getSize();
+	}
+
+	/**
+	 * @return the number of checks answered from the cache
+	 */
+	public long getHits() {
+		return healthCenters.getHits();
+	}
+
+	/**
+	 * @return the number of checks that had to query the database
+	 */
+	public long getMisses() {
+		return healthCenters.getMisses();
+	}
+
+	/**
+	 * @return the number of messages naming the health center the patient
+	 *         already had
+	 */
+	public long getUnchanged() {
+		return unchanged.get();
+	}
+
+	/**
+	 * @return the number of messages naming a new health center
+	 */
+	public long getChanged() {
+		return changed.get();
+	}
+
+	/**
+	 * @return the number of patients dropped to make room for others
+	 */
+	public long getEvictions() {
+		return healthCenters.getEvictions();
+	}
+
+	/**
+	 * @return the number of times patients have been forgotten because they
+	 *         changed
+	 */
+	public long getInvalidations() {
+		return healthCenters.getInvalidations();
+	}
+
+	@Override
+	public String toString() {
+		return getHits() + " hit(s), " + getMisses() + " miss(es), " + getUnchanged() + " unchanged, "
+				+ getChanged() + " changed, " + getEvictions() + " eviction(s)";
+	}
+}
@@ -0,0 +1,284 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers what the keys in lab messages resolve to, for the caches of the
+ * HL7 handler. Each of those caches holds one or more of these, and only
+ * adds its key type, how a key is looked up and what to forget when the
+ * data behind it changes.
+ * <p/>
+ * Values should be ids or small copies of what the handler needs, never a
+ * Hibernate entity, so nothing here is tied to the session that found it.
+ * Null is never remembered; a cache that remembers keys resolving to nothing
+ * keeps a value saying so.
+ * <p/>
+ * At most {@link #getMaxSize()} entries are kept, evicting the least
+ * recently used first. Every invalidation starts a new generation, and a
+ * lookup that started in an older one does not add its result, since it may
+ * have read the data before it changed.
+ */
+public class IdCache<K, V> {
+
+	/**
+	 * entries, least recently used first; guarded by this
+	 */
+	private final Map<K, V> entries = new LinkedHashMap<K, V>(64, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			if (size() <= maxSize)
+				return false;
+			evictions.incrementAndGet();
+			return true;
+		}
+	};
+
+	/**
+	 * the size limit given when the cache was created
+	 */
+	private final int defaultMaxSize;
+
+	/**
+	 * the most entries kept, read when the first entry is added after the
+	 * cache is created or emptied
+	 */
+	private volatile int maxSize = 0;
+
+	/**
+	 * counts invalidations; guarded by this
+	 */
+	private long generation = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong expirations = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * @param maxSize the most entries to keep, unless {@link #getMaxSize()}
+	 *            is overridden
+	 */
+	public IdCache(int maxSize) {
+		this.defaultMaxSize = maxSize;
+	}
+
+	/**
+	 * Gets what a key resolves to, looking it up if it is not remembered
+	 *
+	 * @param key the key
+	 * @param loader looks the key up if it is not remembered
+	 * @return the value, or null if the key resolves to nothing
+	 * @should look up a key only once
+	 * @should not remember null
+	 * @should evict the least recently used entry
+	 * @should look up a key again once it expires
+	 */
+	public V get(K key, Loader<? super K, ? extends V> loader) {
+		long lookupGeneration = getGeneration();
+		V value = get(key);
+		if (value != null)
+			return value;
+
+		value = loader.load(key);
+		put(key, value, lookupGeneration);
+		return value;
+	}
+
+	/**
+	 * Gets what a key resolves to if it is remembered, counting a hit or a
+	 * miss; callers that look keys up themselves read
+	 * {@link #getGeneration()} first and pass it to
+	 * {@link #put(Object, Object, long)}
+	 *
+	 * @param key the key
+	 * @return the value, or null if it is not remembered or has expired
+	 */
+	public V get(K key) {
+		V value;
+		synchronized (this) {
+			value = entries.get(key);
+		}
+		if (value != null && isExpired(value)) {
+			expirations.incrementAndGet();
+			value = null;
+		}
+		if (value != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return value;
+	}
+
+	/**
+	 * Remembers what a key resolves to, unless the cache has been
+	 * invalidated since the lookup started
+	 *
+	 * @param key the key
+	 * @param value the value, ignored if null
+	 * @param lookupGeneration the generation when the lookup started
+	 * @should not add a value looked up before an invalidation
+	 */
+	public void put(K key, V value, long lookupGeneration) {
+		if (value == null)
+			return;
+		int size = (maxSize > 0) ? maxSize : Math.max(1, getMaxSize());
+		synchronized (this) {
+			if (lookupGeneration != generation)
+				return;
+			maxSize = size;
+			entries.put(key, value);
+		}
+	}
+
+	/**
+	 * @return the current generation, to read before looking up a key
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * forgets everything, so each key is looked up again on next use, and
+	 * reads the size limit again
+	 *
+	 * @should look up keys again once invalidated
+	 */
+	public void invalidate() {
+		synchronized (this) {
+			entries.clear();
+			generation++;
+			maxSize = 0;
+		}
+		invalidations.incrementAndGet();
+	}
+
+	/**
+	 * forgets a single key
+	 *
+	 * @param key the key to forget
+	 */
+	public void invalidate(K key) {
+		invalidate(Collections.singleton(key), null);
+	}
+
+	/**
+	 * forgets some keys, and every key that resolves to a value
+	 *
+	 * @param keys the keys to forget
+	 * @param value the value to forget all keys of, or null for none
+	 * @should forget the keys and every key resolving to the value
+	 */
+	public void invalidate(Collection<? extends K> keys, V value) {
+		synchronized (this) {
+			for (K key : keys)
+				entries.remove(key);
+			if (value != null)
+				for (Iterator<V> i = entries.values().iterator(); i.hasNext();)
+					if (value.equals(i.next()))
+						i.remove();
+			generation++;
+		}
+		invalidations.incrementAndGet();
+	}
+
+	/**
+	 * @param value a remembered value
+	 * @return true if the value is too old to use; it is then looked up again
+	 */
+	protected boolean isExpired(V value) {
+		return false;
+	}
+
+	/**
+	 * @return the most entries to keep
+	 */
+	protected int getMaxSize() {
+		return defaultMaxSize;
+	}
+
+	/**
+	 * @return the number of entries remembered
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that were not
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of entries looked up again because they were too old
+	 */
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * @return the number of entries dropped to make room for others
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return the number of times entries have been forgotten
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	@Override
+	public String toString() {
+		return getHits() + " hit(s), " + getMisses() + " miss(es), " + getEvictions() + " eviction(s), "
+				+ getInvalidations() + " invalidation(s)";
+	}
+
+	/**
+	 * Looks up a key that is not remembered
+	 */
+	public static interface Loader<K, V> {
+
+		/**
+		 * @param key the key
+		 * @return what the key resolves to, or null if nothing
+		 */
+		public V load(K key);
+	}
+}
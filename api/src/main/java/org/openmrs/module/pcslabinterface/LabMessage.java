@@ -56,8 +56,11 @@ public class LabMessage {
 									+ this.fileSystemUrl + "'");
 				}
 			
-				// remove trailing newline from file if it exists
-				if (this.data != null && this.data.endsWith("\n"))
+				// remove trailing newline from file if it exists, whichever
+				// line ending the file was written with
+				if (this.data != null && this.data.endsWith("\r\n"))
+					this.data = this.data.substring(0, this.data.length()-2);
+				else if (this.data != null && this.data.endsWith("\n"))
 					this.data = this.data.substring(0, this.data.length()-1);
 		}
 		return this.data;
@@ -0,0 +1,146 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import org.openmrs.module.pcslabinterface.rules.HL7Segment;
+
+/**
+ * What the pre-processor needs to know about a lab message, read from its MSH
+ * segment alone: which application sent it and its control id. Only the first
+ * line of the message is read, however long the rest of it is.
+ */
+public class LabMessageHeader {
+
+	/**
+	 * the applications whose messages the module accepts, as in
+	 * {@link LabORUR01Handler}
+	 */
+	public enum SendingApplication {
+		REFPACS, PCSLABPLUS, EID, OTHER;
+
+		/**
+		 * @param name the name of the sending application (MSH-3), in any case
+		 * @return the application, or {@link #OTHER} if it is not one the
+		 *         module accepts
+		 */
+		public static SendingApplication forName(String name) {
+			if (name != null)
+				for (SendingApplication application : values())
+					if (application != OTHER && application.name().equalsIgnoreCase(name))
+						return application;
+			return OTHER;
+		}
+	}
+
+	/**
+	 * MSH-3; MSH-1, the field separator, is not a field of the view
+	 */
+	private static final int SENDING_APPLICATION = 2;
+
+	/**
+	 * MSH-10
+	 */
+	private static final int MESSAGE_CONTROL_ID = 9;
+
+	private static final LabMessageHeader NONE = new LabMessageHeader(null, SendingApplication.OTHER, null);
+
+	private final String sendingApplicationName;
+
+	private final SendingApplication sendingApplication;
+
+	private final String controlId;
+
+	private LabMessageHeader(String sendingApplicationName, SendingApplication sendingApplication, String controlId) {
+		this.sendingApplicationName = sendingApplicationName;
+		this.sendingApplication = sendingApplication;
+		this.controlId = controlId;
+	}
+
+	/**
+	 * Reads the header of a message
+	 *
+	 * @param data the HL7 message
+	 * @return the header; if the message does not start with an MSH segment,
+	 *         a header with no sending application or control id
+	 * @should classify the sending application
+	 * @should find the message control id
+	 * @should read only the first segment
+	 * @should ignore messages without an MSH segment
+	 */
+	public static LabMessageHeader parse(String data) {
+		if (data == null)
+			return NONE;
+
+		int start = 0;
+		while (start < data.length() && Character.isWhitespace(data.charAt(start)))
+			start++;
+
+		HL7Segment msh = new HL7Segment().reset(data, start);
+		if (!msh.isType("MSH"))
+			return NONE;
+
+		// the namespace id, as the HL7 handler reads it
+		String name = data.substring(msh.getComponentStart(SENDING_APPLICATION, 1),
+				msh.getComponentEnd(SENDING_APPLICATION, 1));
+		return new LabMessageHeader(name, SendingApplication.forName(name), getControlId(msh));
+	}
+
+	/**
+	 * @return MSH-10, if it only holds letters and digits, as source keys
+	 *         always have
+	 */
+	private static String getControlId(HL7Segment msh) {
+		CharSequence text = msh.getText();
+		int start = msh.getFieldStart(MESSAGE_CONTROL_ID);
+		int end = msh.getFieldEnd(MESSAGE_CONTROL_ID);
+		if (start >= end)
+			return null;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')))
+				return null;
+		}
+		return text.subSequence(start, end).toString();
+	}
+
+	/**
+	 * @return the name of the sending application as given (MSH-3), or null
+	 */
+	public String getSendingApplicationName() {
+		return sendingApplicationName;
+	}
+
+	/**
+	 * @return the sending application
+	 */
+	public SendingApplication getSendingApplication() {
+		return sendingApplication;
+	}
+
+	/**
+	 * @return true if the message came from PCS Lab Plus, and so needs
+	 *         pre-processing
+	 */
+	public boolean isPcsLabPlus() {
+		return sendingApplication == SendingApplication.PCSLABPLUS;
+	}
+
+	/**
+	 * @return the message control id (MSH-10), or null if it is missing or
+	 *         not usable as a source key
+	 */
+	public String getControlId() {
+		return controlId;
+	}
+}
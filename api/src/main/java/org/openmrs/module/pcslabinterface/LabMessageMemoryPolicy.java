@@ -0,0 +1,249 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps the queue drain within a heap budget without forcing collections.
+ * <p/>
+ * Before each batch the processor asks for a batch size. While heap use is
+ * under the threshold it gets the configured size. Once the threshold is
+ * crossed the batch size is halved each time until it reaches one message.
+ * If the heap is still over budget at that point, the drain pauses until the
+ * next run of the task, which gives the JVM time to collect on its own. The
+ * batch size grows back once heap use drops again.
+ * <p/>
+ * The garbage collections the JVM ran while draining, and the time they
+ * took, are read from the collector MXBeans and reported together with the
+ * throttling counts. The policy last used to drain the queue is published
+ * over JMX and shown on the module's admin page.
+ */
+public class LabMessageMemoryPolicy implements LabMessageMemoryPolicyMBean {
+
+	private static final Log log = LogFactory.getLog(LabMessageMemoryPolicy.class);
+
+	/**
+	 * the policy last used to drain the queue
+	 *
+	 * @see #publish()
+	 */
+	private static LabMessageMemoryPolicy published = null;
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	private final int thresholdPercent;
+
+	/**
+	 * the batch size currently allowed; zero until first asked
+	 */
+	private int batchSize = 0;
+
+	/**
+	 * the batch size last handed out, which is 0 while paused
+	 */
+	private int currentBatchSize = 0;
+
+	/**
+	 * collections already run by the JVM when this policy was created
+	 */
+	private final long initialCollections;
+
+	/**
+	 * milliseconds the JVM had already spent collecting when this policy was
+	 * created
+	 */
+	private final long initialCollectionTime;
+
+	private long shrinks = 0;
+
+	private long pauses = 0;
+
+	/**
+	 * @param thresholdPercent the share of the maximum heap, in percent,
+	 *            above which the drain is throttled
+	 */
+	public LabMessageMemoryPolicy(int thresholdPercent) {
+		this.thresholdPercent = thresholdPercent;
+		this.initialCollections = getTotalCollections();
+		this.initialCollectionTime = getTotalCollectionTime();
+	}
+
+	/**
+	 * @return the policy last used to drain the queue, or null if the queue
+	 *         has not been drained since the module started
+	 */
+	public static synchronized LabMessageMemoryPolicy getPublished() {
+		return published;
+	}
+
+	/**
+	 * Makes this the policy shown on the admin page and registered over JMX,
+	 * replacing the one published before it
+	 *
+	 * @should replace the policy published before it
+	 */
+	public void publish() {
+		synchronized (LabMessageMemoryPolicy.class) {
+			if (published == this)
+				return;
+			published = this;
+		}
+		PcsLabInterfaceMBeans.register(this, PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.MEMORY_POLICY, null));
+	}
+
+	/**
+	 * Stops publishing whichever policy is published
+	 */
+	public static void unpublish() {
+		synchronized (LabMessageMemoryPolicy.class) {
+			published = null;
+		}
+		PcsLabInterfaceMBeans.unregister(PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.MEMORY_POLICY, null));
+	}
+
+	/**
+	 * @return the heap threshold, in percent
+	 */
+	public int getThresholdPercent() {
+		return thresholdPercent;
+	}
+
+	/**
+	 * Works out how many messages the drain may handle next
+	 *
+	 * @param configuredBatchSize the batch size set by the administrator
+	 * @return the batch size to use, or 0 if draining should pause until the
+	 *         next run
+	 * @should allow the configured batch size while under the threshold
+	 * @should halve the batch size while over the threshold
+	 * @should pause once a single message is over the threshold
+	 * @should grow the batch size back once under the threshold
+	 */
+	public synchronized int getBatchSize(int configuredBatchSize) {
+		if (batchSize < 1 || batchSize > configuredBatchSize)
+			batchSize = configuredBatchSize;
+
+		int used = getHeapUsedPercent();
+		if (used < thresholdPercent) {
+			batchSize = Math.min(configuredBatchSize, batchSize * 2);
+			currentBatchSize = batchSize;
+			return batchSize;
+		}
+
+		if (batchSize > 1) {
+			batchSize = batchSize / 2;
+			shrinks++;
+			if (log.isDebugEnabled())
+				log.debug("Heap is " + used + "% used, shrinking PcsLabInterface batches to " + batchSize);
+			currentBatchSize = batchSize;
+			return batchSize;
+		}
+
+		pauses++;
+		log.info("Heap is " + used + "% used, pausing the PcsLabInterface queue until the next run");
+		currentBatchSize = 0;
+		return 0;
+	}
+
+	/**
+	 * @return the batch size last handed out, 0 if the drain is paused or has
+	 *         not asked yet
+	 * @should report zero while paused
+	 */
+	public synchronized int getCurrentBatchSize() {
+		return currentBatchSize;
+	}
+
+	/**
+	 * @return the share of the maximum heap currently in use, in percent
+	 */
+	protected int getHeapUsedPercent() {
+		MemoryUsage heap = memory.getHeapMemoryUsage();
+		long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+		if (max <= 0)
+			return 0;
+		return (int) (heap.getUsed() * 100 / max);
+	}
+
+	/**
+	 * @return the number of garbage collections the JVM has run since this
+	 *         policy was created
+	 */
+	public long getGarbageCollections() {
+		return getTotalCollections() - initialCollections;
+	}
+
+	/**
+	 * @return the milliseconds the JVM has spent on garbage collection since
+	 *         this policy was created
+	 */
+	public long getGarbageCollectionTime() {
+		return getTotalCollectionTime() - initialCollectionTime;
+	}
+
+	/**
+	 * @return the number of times a batch was shrunk to stay under budget
+	 */
+	public synchronized long getShrinks() {
+		return shrinks;
+	}
+
+	/**
+	 * @return the number of times the drain paused to stay under budget
+	 */
+	public synchronized long getPauses() {
+		return pauses;
+	}
+
+	/**
+	 * @return the collections run by every collector in the JVM so far
+	 */
+	private static long getTotalCollections() {
+		long total = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			long count = collector.getCollectionCount();
+			if (count > 0)
+				total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * @return the milliseconds spent by every collector in the JVM so far
+	 */
+	private static long getTotalCollectionTime() {
+		long total = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			long time = collector.getCollectionTime();
+			if (time > 0)
+				total += time;
+		}
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return "heap threshold " + thresholdPercent + "%, " + getGarbageCollections()
+				+ " garbage collection(s) taking " + getGarbageCollectionTime() + "ms, " + getShrinks() + " batch shrink(s), " + getPauses() + " pause(s)";
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A fixed set of worker threads for pre-processing lab messages in parallel.
+ * <p/>
+ * Work is striped by patient: every message for the same patient identifier
+ * (PID-3) goes to the same single-threaded stripe, so results for a patient
+ * are produced in the order they were submitted. Workers must only do pure
+ * CPU work; they have no OpenMRS session.
+ */
+public class LabMessagePreProcessorPool {
+
+	private static final Log log = LogFactory.getLog(LabMessagePreProcessorPool.class);
+
+	private static final AtomicInteger poolNumber = new AtomicInteger();
+
+	private final ExecutorService[] stripes;
+
+	/**
+	 * used to spread messages without a patient identifier over the stripes
+	 */
+	private final AtomicInteger unkeyed = new AtomicInteger();
+
+	/**
+	 * @param threads the number of worker threads (and stripes)
+	 */
+	public LabMessagePreProcessorPool(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("A pre-processor pool needs at least one thread");
+
+		final int pool = poolNumber.incrementAndGet();
+		stripes = new ExecutorService[threads];
+		for (int i = 0; i < threads; i++) {
+			final int stripe = i;
+			stripes[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "pcslabinterface-preprocessor-" + pool + "-" + stripe);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return the number of worker threads in this pool
+	 */
+	public int getThreads() {
+		return stripes.length;
+	}
+
+	/**
+	 * Queues work on the stripe belonging to the given patient
+	 *
+	 * @param patientKey the patient identifier, or null if unknown
+	 * @param work the pre-processing to do
+	 * @return the pending result
+	 * @should run work for the same patient in submission order
+	 */
+	public <T> Future<T> submit(String patientKey, Callable<T> work) {
+		int stripe;
+		if (patientKey == null)
+			stripe = unkeyed.getAndIncrement();
+		else
+			stripe = patientKey.hashCode();
+		return stripes[(stripe & 0x7fffffff) % stripes.length].submit(work);
+	}
+
+	/**
+	 * stops the worker threads once the work already queued is done
+	 */
+	public void shutdown() {
+		log.debug("Shutting down lab message pre-processor pool");
+		for (ExecutorService stripe : stripes)
+			stripe.shutdown();
+	}
+
+	/**
+	 * Finds the patient identifier list (PID-3) in an HL7 message
+	 *
+	 * @param message the raw HL7 message
+	 * @return the contents of PID-3, or null if there is no PID segment
+	 * @should return the patient identifier list
+	 * @should return null if there is no PID segment
+	 */
+	public static String getPatientIdentifier(String message) {
+		if (message == null)
+			return null;
+
+		int start;
+		if (message.startsWith("PID|")) {
+			start = 0;
+		} else {
+			start = message.indexOf("\rPID|");
+			if (start < 0)
+				start = message.indexOf("\nPID|");
+			if (start < 0)
+				return null;
+			start++;
+		}
+
+		// skip to the start of the third field
+		int pos = start;
+		for (int field = 0; field < 3; field++) {
+			pos = indexOfFieldEnd(message, pos);
+			if (pos >= message.length() || message.charAt(pos) != '|')
+				return null;
+			pos++;
+		}
+		return message.substring(pos, indexOfFieldEnd(message, pos));
+	}
+
+	/**
+	 * @return the index of the next field separator or segment end at or after pos
+	 */
+	private static int indexOfFieldEnd(String message, int pos) {
+		while (pos < message.length()) {
+			char c = message.charAt(pos);
+			if (c == '|' || c == '\r' || c == '\n')
+				return pos;
+			pos++;
+		}
+		return pos;
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * In-memory index of the files waiting in the lab message queue directory.
+ * <p/>
+ * The directory is listed once when the index is first used; after that the
+ * index is kept current by the service (files it creates and deletes) and by
+ * watching the modification time of the queue directory, which changes
+ * whenever LIMS drops or removes a file. The service's own changes move that
+ * timestamp too, so the index takes the timestamp its own {@link #add(File)}
+ * and {@link #remove(File)} leave behind as already seen, and only lists the
+ * directory again when something else moves it, or when the index runs dry.
+ * A file LIMS drops at the very moment the service changes the queue is
+ * therefore picked up late, once the files ahead of it are gone, but never
+ * lost; draining the queue costs no directory reads of its own.
+ * <p/>
+ * Every name in the directory is a queued file except hidden names, such as
+ * the writer's temporary directory, and the error and progress
+ * subdirectories of the queue processor, so a listing needs no further
+ * checks on each entry.
+ * <p/>
+ * Files are handed out in name order; queue file names start with a
+ * timestamp, so this is arrival order.
+ */
+public class LabMessageQueueIndex {
+
+	private static final Log log = LogFactory.getLog(LabMessageQueueIndex.class);
+
+	private final File queueDir;
+
+	/**
+	 * queued file names, oldest first
+	 */
+	private final TreeSet<String> names = new TreeSet<String>();
+
+	/**
+	 * modification time of the queue directory when it was last read, or
+	 * after the index last changed it itself
+	 */
+	private long lastScanned = -1;
+
+	/**
+	 * @param queueDir the directory holding queued lab messages
+	 */
+	public LabMessageQueueIndex(File queueDir) {
+		this.queueDir = queueDir;
+	}
+
+	/**
+	 * @return the directory this index watches
+	 */
+	public File getQueueDir() {
+		return queueDir;
+	}
+
+	/**
+	 * Gets the oldest file in the queue without removing it from the index
+	 *
+	 * @return the next queued file, or null if the queue is empty
+	 * @should return files in name order
+	 * @should pick up files dropped into the directory after the first scan
+	 * @should skip files removed from the directory behind its back
+	 * @should return null when the queue is empty
+	 */
+	public synchronized File peek() {
+		refreshIfChanged();
+		File next = firstExisting();
+		if (next == null) {
+			// confirm the queue really is empty before reporting it
+			rescan();
+			next = firstExisting();
+		}
+		return next;
+	}
+
+	/**
+	 * Gets up to max of the oldest files in the queue without removing them
+	 * from the index
+	 *
+	 * @param max the most files to return
+	 * @return the next queued files, oldest first; empty if the queue is empty
+	 * @should return no more than the requested number of files
+	 */
+	public synchronized List<File> peek(int max) {
+		List<File> files = new ArrayList<File>();
+		File first = peek();
+		if (first == null)
+			return files;
+
+		Iterator<String> i = names.iterator();
+		while (i.hasNext() && files.size() < max) {
+			File file = new File(queueDir, i.next());
+			if (file.exists())
+				files.add(file);
+			else
+				i.remove();
+		}
+		return files;
+	}
+
+	/**
+	 * @return the number of files waiting in the queue
+	 */
+	public synchronized int size() {
+		refreshIfChanged();
+		return names.size();
+	}
+
+	/**
+	 * @return a snapshot of the queued files, oldest first
+	 */
+	public synchronized List<File> getFiles() {
+		refreshIfChanged();
+		List<File> files = new ArrayList<File>(names.size());
+		for (String name : names)
+			files.add(new File(queueDir, name));
+		return files;
+	}
+
+	/**
+	 * records a file that has just been written into the queue directory
+	 *
+	 * @param file the newly queued file
+	 * @should not list the directory again for its own change
+	 */
+	public synchronized void add(File file) {
+		if (lastScanned < 0)
+			return;
+		names.add(file.getName());
+		lastScanned = queueDir.lastModified();
+	}
+
+	/**
+	 * records that a file has left the queue directory
+	 *
+	 * @param file the file that was removed
+	 * @should not return a removed file
+	 * @should not list the directory again for its own change
+	 * @should pick up a file dropped by another process along with its own change once it runs dry
+	 */
+	public synchronized void remove(File file) {
+		if (lastScanned < 0)
+			return;
+		names.remove(file.getName());
+		lastScanned = queueDir.lastModified();
+	}
+
+	/**
+	 * forgets everything and lists the queue directory again
+	 *
+	 * @should leave hidden names and the processor's subdirectories out
+	 */
+	public synchronized void rescan() {
+		names.clear();
+		lastScanned = queueDir.lastModified();
+
+		String[] listing = queueDir.list();
+		if (listing == null) {
+			log.warn("Unable to open queue directory: " + queueDir);
+			return;
+		}
+
+		for (String name : listing)
+			if (isQueueFileName(name))
+				names.add(name);
+
+		if (log.isDebugEnabled())
+			log.debug("Indexed " + names.size() + " lab message(s) in " + queueDir.getAbsolutePath());
+	}
+
+	/**
+	 * @return true unless the name is hidden or one of the queue processor's
+	 *         subdirectories
+	 */
+	static boolean isQueueFileName(String name) {
+		return !name.startsWith(".") && !name.equals(PcsLabInterfaceQueueProcessor.ERROR_DIR)
+				&& !name.equals(PcsLabInterfaceQueueProcessor.PROGRESS_DIR);
+	}
+
+	/**
+	 * lists the queue directory if it has never been read, or if something
+	 * other than this index has touched it since
+	 */
+	private void refreshIfChanged() {
+		if (lastScanned < 0 || queueDir.lastModified() != lastScanned)
+			rescan();
+	}
+
+	/**
+	 * @return the first indexed file that still exists, dropping stale names
+	 */
+	private File firstExisting() {
+		Iterator<String> i = names.iterator();
+		while (i.hasNext()) {
+			File file = new File(queueDir, i.next());
+			if (file.exists())
+				return file;
+			i.remove();
+		}
+		return null;
+	}
+}
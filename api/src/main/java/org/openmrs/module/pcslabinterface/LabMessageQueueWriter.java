@@ -0,0 +1,307 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes lab messages into the queue directory so that the processor never
+ * sees a partly written file, and the contents of a message that has been
+ * accepted survive a crash.
+ * <p/>
+ * Each message is written to its own file in a temporary directory inside
+ * the queue directory, synced to disk and then renamed into the queue. The
+ * queue index leaves hidden names out, so the temporary directory is never
+ * picked up.
+ * <p/>
+ * Writers that arrive together are committed as a group. The first one in
+ * becomes the leader: it takes every write waiting at that point, syncs all
+ * of their files and only then renames them into the queue, one after the
+ * other, while the others wait for it. Writes arriving meanwhile wait for
+ * the next group, so under load the syncs run back to back on one thread
+ * and the queue directory changes once per group rather than once per
+ * message. There is no way to sync several files with one call from this
+ * Java version, nor to open the queue directory for syncing, so a crash
+ * right after a group may still lose its new directory entries on some file
+ * systems; the contents of every file renamed into the queue are on disk.
+ * <p/>
+ * A message is never renamed over a file already in the queue; it is given
+ * the next free name instead.
+ */
+public class LabMessageQueueWriter {
+
+	private static final Log log = LogFactory.getLog(LabMessageQueueWriter.class);
+
+	/**
+	 * name of the directory inside the queue directory for unfinished writes
+	 */
+	public static final String TEMP_DIR_NAME = ".incoming";
+
+	private final File queueDir;
+
+	private final File tempDir;
+
+	/**
+	 * written but not yet synced and renamed; guarded by this
+	 */
+	private final List<PendingWrite> pending = new ArrayList<PendingWrite>();
+
+	/**
+	 * true while a leader is committing a group; guarded by this
+	 */
+	private boolean committing = false;
+
+	/**
+	 * @param queueDir the directory holding queued lab messages
+	 */
+	public LabMessageQueueWriter(File queueDir) {
+		this.queueDir = queueDir;
+		this.tempDir = new File(queueDir, TEMP_DIR_NAME);
+		removeUnfinishedWrites();
+	}
+
+	/**
+	 * @return the directory this writer queues messages in
+	 */
+	public File getQueueDir() {
+		return queueDir;
+	}
+
+	/**
+	 * Writes a message into the queue, returning once it is on disk
+	 *
+	 * @param target the name the file should have in the queue directory
+	 * @param data the message
+	 * @return the file the message was queued as; this has a numbered suffix
+	 *         if the queue already held a file named like the target
+	 * @throws IOException if the message could not be written; nothing is
+	 *             left in the queue in that case
+	 * @should write the message into the queue directory
+	 * @should not leave anything in the temporary directory
+	 * @should commit concurrent writes
+	 * @should commit writes that arrive together as one group
+	 * @should not overwrite a file already in the queue
+	 * @should give concurrent writes of the same name names of their own
+	 */
+	public File write(File target, String data) throws IOException {
+		if (!tempDir.exists() && !tempDir.mkdirs())
+			throw new IOException("Unable to create directory: " + tempDir.getAbsolutePath());
+
+		// a temporary name of its own, so writes for the same target never
+		// share a file
+		File temp = File.createTempFile(target.getName() + ".", "", tempDir);
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out));
+			writer.write(data);
+			writer.flush();
+		} catch (IOException e) {
+			discard(out, temp);
+			throw e;
+		}
+
+		PendingWrite write = new PendingWrite(out, temp, target.getName());
+		commit(write);
+		if (log.isDebugEnabled())
+			log.debug("Queued lab message " + write.queued.getAbsolutePath());
+		return write.queued;
+	}
+
+	/**
+	 * waits for the given write to be committed, committing it and every other
+	 * pending write if no other thread is doing so
+	 */
+	private void commit(PendingWrite write) throws IOException {
+		List<PendingWrite> group;
+		synchronized (this) {
+			pending.add(write);
+			// a pending write is committed whether or not its writer is
+			// interrupted, so the writer waits to hear how it went
+			boolean interrupted = false;
+			while (committing && !write.done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (write.done) {
+				write.rethrow();
+				return;
+			}
+			committing = true;
+			group = new ArrayList<PendingWrite>(pending);
+			pending.clear();
+		}
+
+		try {
+			// every file of the group is on disk before any enters the queue
+			for (PendingWrite member : group)
+				member.sync();
+
+			// only the leader renames, so two writes can not both pick the
+			// same free name
+			for (PendingWrite member : group)
+				member.moveIntoQueue();
+
+			if (log.isDebugEnabled())
+				log.debug("Committed " + group.size() + " lab message(s) to " + queueDir.getAbsolutePath());
+		} finally {
+			synchronized (this) {
+				for (PendingWrite member : group) {
+					if (member.queued == null && member.error == null)
+						member.fail();
+					member.done = true;
+				}
+				committing = false;
+				notifyAll();
+			}
+		}
+		write.rethrow();
+	}
+
+	/**
+	 * forces a written file to disk
+	 *
+	 * @param out the stream the file was written through
+	 */
+	protected void sync(FileOutputStream out) throws IOException {
+		out.getFD().sync();
+	}
+
+	/**
+	 * @return the number of writes waiting for a leader
+	 */
+	synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * deletes anything left in the temporary directory by writes that never
+	 * finished; those messages were never accepted
+	 */
+	private void removeUnfinishedWrites() {
+		File[] unfinished = tempDir.listFiles();
+		if (unfinished == null)
+			return;
+		for (File file : unfinished) {
+			log.warn("Removing unfinished lab message " + file.getAbsolutePath());
+			if (!file.delete())
+				log.warn("Unable to remove unfinished lab message " + file.getAbsolutePath());
+		}
+	}
+
+	private static void discard(FileOutputStream out, File temp) {
+		try {
+			out.close();
+		} catch (IOException e) {
+			log.debug("Error closing " + temp.getAbsolutePath(), e);
+		}
+		if (!temp.delete())
+			log.warn("Unable to remove unfinished lab message " + temp.getAbsolutePath());
+	}
+
+	/**
+	 * a message written to the temporary directory, waiting to be synced and
+	 * moved into the queue
+	 */
+	private class PendingWrite {
+
+		private final FileOutputStream out;
+
+		private final File temp;
+
+		/**
+		 * the name the message should have in the queue
+		 */
+		private final String name;
+
+		/**
+		 * the file the message was queued as, once committed
+		 */
+		private File queued = null;
+
+		/**
+		 * set by the leader; guarded by the writer
+		 */
+		private boolean done = false;
+
+		private IOException error = null;
+
+		public PendingWrite(FileOutputStream out, File temp, String name) {
+			this.out = out;
+			this.temp = temp;
+			this.name = name;
+		}
+
+		/**
+		 * syncs the file to disk, recording any failure for the writer to
+		 * pick up
+		 */
+		public void sync() {
+			try {
+				LabMessageQueueWriter.this.sync(out);
+				out.close();
+			} catch (IOException e) {
+				error = e;
+				discard(out, temp);
+			}
+		}
+
+		/**
+		 * renames a synced file into the queue under the first free name
+		 * starting from the one asked for
+		 */
+		public void moveIntoQueue() {
+			if (error != null)
+				return;
+			File target = new File(queueDir, name);
+			for (int i = 1; target.exists(); i++)
+				target = new File(queueDir, name + "-" + i);
+
+			if (temp.renameTo(target)) {
+				queued = target;
+			} else {
+				error = new IOException("Unable to move " + temp.getAbsolutePath() + " to " + target.getAbsolutePath());
+				if (!temp.delete())
+					log.warn("Unable to remove unfinished lab message " + temp.getAbsolutePath());
+			}
+		}
+
+		/**
+		 * records that the leader gave up before the write was committed
+		 */
+		public void fail() {
+			error = new IOException("Unable to commit " + name);
+			discard(out, temp);
+		}
+
+		public void rethrow() throws IOException {
+			if (error != null)
+				throw error;
+		}
+	}
+}
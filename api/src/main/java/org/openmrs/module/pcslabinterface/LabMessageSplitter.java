@@ -0,0 +1,162 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a queued file into the HL7 messages it holds.
+ * <p/>
+ * Some LIMS exports concatenate many ORU^R01 messages into a single file. A
+ * new message starts at every segment that begins with MSH|. The file is read
+ * through a buffer one segment at a time, and only the message being built
+ * is kept in memory, so the size of the file does not matter. A segment
+ * longer than the limit, such as a whole file without line endings, fails
+ * the file instead of being read into memory.
+ */
+public class LabMessageSplitter {
+
+	private static final String MESSAGE_HEADER = "MSH|";
+
+	/**
+	 * the longest segment read by default, in characters
+	 */
+	public static final int MAX_SEGMENT_LENGTH = 1024 * 1024;
+
+	private final BufferedReader reader;
+
+	private final int maxSegmentLength;
+
+	/**
+	 * the header segment of the next message, already read
+	 */
+	private String nextHeader = null;
+
+	/**
+	 * @param reader the queued file's contents
+	 */
+	public LabMessageSplitter(Reader reader) {
+		this(reader, MAX_SEGMENT_LENGTH);
+	}
+
+	/**
+	 * @param reader the queued file's contents
+	 * @param maxSegmentLength the longest segment to read, in characters
+	 */
+	public LabMessageSplitter(Reader reader, int maxSegmentLength) {
+		if (reader instanceof BufferedReader)
+			this.reader = (BufferedReader) reader;
+		else
+			this.reader = new BufferedReader(reader);
+		this.maxSegmentLength = maxSegmentLength;
+	}
+
+	/**
+	 * Reads the next message from the file
+	 *
+	 * @return the text of the next message without surrounding line endings, or
+	 *         null when there are no more messages
+	 * @throws IOException if the file cannot be read, or holds a segment
+	 *             longer than the limit
+	 * @should return each message in a file
+	 * @should fail for a segment longer than the limit
+	 * @should return a single message unchanged
+	 * @should not split on MSH in the middle of a segment
+	 * @should return null for a blank file
+	 */
+	public String next() throws IOException {
+		StringBuilder message = new StringBuilder();
+		if (nextHeader != null) {
+			message.append(nextHeader);
+			nextHeader = null;
+		}
+
+		String segment;
+		while ((segment = readSegment()) != null) {
+			if (segment.startsWith(MESSAGE_HEADER) && hasText(message)) {
+				nextHeader = segment;
+				break;
+			}
+			message.append(segment);
+		}
+
+		if (!hasText(message))
+			return null;
+
+		int start = 0;
+		while (isLineEnding(message.charAt(start)))
+			start++;
+		int end = message.length();
+		while (isLineEnding(message.charAt(end - 1)))
+			end--;
+		return message.substring(start, end);
+	}
+
+	/**
+	 * closes the underlying reader
+	 */
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Checks whether some HL7 text holds more than one message
+	 *
+	 * @param data the HL7 text
+	 * @return true if a second MSH segment follows the first message
+	 * @should find a second message
+	 * @should not count blank lines before the first message
+	 */
+	public static boolean containsMultipleMessages(String data) {
+		if (data == null)
+			return false;
+		int pos = 0;
+		while ((pos = data.indexOf(MESSAGE_HEADER, pos + 1)) > 0) {
+			if (isLineEnding(data.charAt(pos - 1)) && data.substring(0, pos).trim().length() > 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the next segment including its line ending, or null at the end
+	 *         of the file
+	 */
+	private String readSegment() throws IOException {
+		StringBuilder segment = new StringBuilder();
+		int c;
+		while ((c = reader.read()) >= 0) {
+			segment.append((char) c);
+			if (isLineEnding((char) c))
+				break;
+			if (segment.length() > maxSegmentLength)
+				throw new IOException("Segment longer than " + maxSegmentLength
+						+ " characters, the file may have no line endings");
+		}
+		return segment.length() == 0 ? null : segment.toString();
+	}
+
+	private static boolean isLineEnding(char c) {
+		return c == '\r' || c == '\n';
+	}
+
+	private static boolean hasText(CharSequence text) {
+		for (int i = 0; i < text.length(); i++)
+			if (!Character.isWhitespace(text.charAt(i)))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,222 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import org.openmrs.Form;
+import org.openmrs.api.context.Context;
+
+import ca.uhn.hl7v2.HL7Exception;
+
+/**
+ * Remembers the location, form and encounter type each lab message refers
+ * to, by the codes PCS sends for them.
+ * <p/>
+ * PCS only sends a handful of locations and forms, so almost every message
+ * is answered from memory. Only ids are kept, and the handler gets the
+ * entities it needs from them, so nothing here is tied to the Hibernate
+ * session that found it. A code that resolves to nothing is remembered too,
+ * so a message naming one does not query again. Each kind of code is kept in
+ * an {@link IdCache} of at most {@link #MAX_SIZE} codes, and everything is
+ * forgotten whenever a location, form or encounter type is saved.
+ * <p/>
+ * The handler only gets ids from here. It builds a shell Location holding
+ * nothing but its id, as it always has, but loads the Form and EncounterType
+ * by id from its own session, so the encounter is saved with their name and
+ * edit privilege; loading by id is answered from the session or a single
+ * primary key select, rather than the queries this cache saves.
+ * <p/>
+ * Its counters are published over JMX as {@link LabMetadataCacheMBean}.
+ */
+public class LabMetadataCache implements LabMetadataCacheMBean {
+
+	/**
+	 * the most codes remembered of each kind
+	 */
+	private static final int MAX_SIZE = 1000;
+
+	private static volatile LabMetadataCache instance = new LabMetadataCache();
+
+	/**
+	 * locations by point of care and facility
+	 */
+	private final IdCache<String, CachedIds> locations = new IdCache<String, CachedIds>(MAX_SIZE);
+
+	/**
+	 * forms by id
+	 */
+	private final IdCache<Integer, CachedIds> forms = new IdCache<Integer, CachedIds>(MAX_SIZE);
+
+	/**
+	 * looks up forms that are not remembered
+	 */
+	private final IdCache.Loader<Integer, CachedIds> formLoader = new IdCache.Loader<Integer, CachedIds>() {
+
+		public CachedIds load(Integer formId) {
+			Form form = lookUpForm(formId);
+			if (form == null)
+				return new CachedIds(null, null);
+			return new CachedIds(form.getFormId(), (form.getEncounterType() == null) ? null : form
+					.getEncounterType().getEncounterTypeId());
+		}
+	};
+
+	/**
+	 * @return the cache shared by the HL7 handler
+	 */
+	public static LabMetadataCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Finds the location a message was sent from
+	 *
+	 * @param pointOfCare the point of care (PV1-3.1) of the message
+	 * @param facility the facility (PV1-3.4) of the message, or null
+	 * @param resolver resolves the location if it is not remembered
+	 * @return the id of the location, or null if there is none
+	 * @throws HL7Exception if the location cannot be resolved
+	 * @should resolve a location only once
+	 * @should remember locations that do not exist
+	 */
+	public Integer getLocationId(String pointOfCare, String facility, LocationResolver resolver)
+			throws HL7Exception {
+		String key = pointOfCare + "^" + (facility == null ? "" : facility);
+		long lookupGeneration = locations.getGeneration();
+		CachedIds cached = locations.get(key);
+		if (cached != null)
+			return cached.getId();
+
+		// the resolver can fail, so it is not run as a loader
+		Integer locationId = resolver.resolveLocationId();
+		locations.put(key, new CachedIds(locationId, null), lookupGeneration);
+		return locationId;
+	}
+
+	/**
+	 * @param formId the id of a form named in a message
+	 * @return true if the form exists
+	 * @should look up a form only once
+	 * @should remember forms that do not exist
+	 */
+	public boolean isForm(Integer formId) {
+		return forms.get(formId, formLoader).getId() != null;
+	}
+
+	/**
+	 * @param formId the id of a form named in a message
+	 * @return the id of the encounter type of the form, or null if the form
+	 *         does not exist or has none
+	 * @should find the encounter type of a form
+	 */
+	public Integer getEncounterTypeId(Integer formId) {
+		return forms.get(formId, formLoader).getEncounterTypeId();
+	}
+
+	/**
+	 * forgets every location and form, so each is looked up again on next use
+	 *
+	 * @should look up forms again once invalidated
+	 */
+	public void invalidate() {
+		locations.invalidate();
+		forms.invalidate();
+	}
+
+	/**
+	 * @param formId the id of a form
+	 * @return the form, or null if there is none
+	 */
+	protected Form lookUpForm(Integer formId) {
+		return Context.getFormService().getForm(formId);
+	}
+
+	/**
+	 * @return the number of locations and forms remembered
+	 */
+	public int getSize() {
+		return locations.getSize() + forms.getSize();
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return locations.getHits() + forms.getHits();
+	}
+
+	/**
+	 * @return the number of lookups that had to query the database
+	 */
+	public long getMisses() {
+		return locations.getMisses() + forms.getMisses();
+	}
+
+	/**
+	 * @return the number of locations and forms dropped to make room for
+	 *         others
+	 */
+	public long getEvictions() {
+		return locations.getEvictions() + forms.getEvictions();
+	}
+
+	/**
+	 * @return the number of times the cache has been emptied
+	 */
+	public long getInvalidations() {
+		// both kinds are always emptied together
+		return forms.getInvalidations();
+	}
+
+	@Override
+	public String toString() {
+		return getHits() + " hit(s), " + getMisses() + " miss(es), " + getEvictions() + " eviction(s), "
+				+ getInvalidations() + " invalidation(s)";
+	}
+
+	/**
+	 * Resolves the location of a message that is not remembered yet
+	 */
+	public static interface LocationResolver {
+
+		/**
+		 * @return the id of the location, or null if there is none
+		 * @throws HL7Exception if the location cannot be resolved
+		 */
+		public Integer resolveLocationId() throws HL7Exception;
+	}
+
+	/**
+	 * the id a code resolved to, or null if it resolved to nothing, and for a
+	 * form the id of its encounter type
+	 */
+	private static class CachedIds {
+
+		private final Integer id;
+
+		private final Integer encounterTypeId;
+
+		public CachedIds(Integer id, Integer encounterTypeId) {
+			this.id = id;
+			this.encounterTypeId = encounterTypeId;
+		}
+
+		public Integer getId() {
+			return id;
+		}
+
+		public Integer getEncounterTypeId() {
+			return encounterTypeId;
+		}
+	}
+}
@@ -56,18 +56,14 @@ import org.openmrs.hl7.HL7Constants;
 import org.openmrs.hl7.HL7Service;
 import org.openmrs.hl7.handler.ORUR01Handler;
 import org.openmrs.hl7.handler.ProposingConceptException;
+import org.openmrs.module.pcslabinterface.ConceptCache.CachedConcept;
 import org.openmrs.util.OpenmrsConstants;
 import org.openmrs.util.OpenmrsUtil;
-import org.openmrs.validator.ObsValidator;
 import org.springframework.util.StringUtils;
-import org.springframework.validation.BeanPropertyBindingResult;
-import org.springframework.validation.Errors;
-import org.springframework.validation.Validator;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -238,6 +234,7 @@ public class LabORUR01Handler extends ORUR01Handler {
 			// loop over the obs and create each object, adding it to the encounter
 			int numObs = orderObs.getOBSERVATIONReps();
 			HL7Exception errorInHL7Queue = null;
+			OrderObsValidator<OBX> obsValidator = new OrderObsValidator<OBX>();
 			for (int j = 0; j < numObs; j++) {
 				if (log.isDebugEnabled())
 					log.debug("Processing OBS (" + j + " of " + numObs + ")");
@@ -261,15 +258,9 @@ public class LabORUR01Handler extends ORUR01Handler {
 					// process each obs
 					for (Obs obs : obses) {
 						if (obs != null) {
-                            //Validate the obs
-                            Validator validator = new ObsValidator();
-                            Errors errors = new BeanPropertyBindingResult(obs,"obs");
-                            validator.validate(obs,errors);
-                            if(errors.hasErrors()) {
-                                throw new HL7Exception("Error(s) in obs associated with OBX: "
-                                        + PipeParser.encode(obx, new EncodingCharacters('|', "^~\\&"))
-                                        + errors.getAllErrors().toString());
-                            }
+                            //Validate the obs, reporting all errors of the group below
+                            if (!obsValidator.validate(obs, obx))
+                                continue;
 							// if we're backfilling an encounter, don't use
 							// the creator/dateCreated from the encounter
 							if (encounter.getEncounterId() != null) {
@@ -318,6 +309,9 @@ public class LabORUR01Handler extends ORUR01Handler {
 				}
 			}
 
+			if (obsValidator.hasErrors())
+				throw new HL7Exception(getObsErrorMessage(obsValidator));
+
 		}
 
 		if (log.isDebugEnabled()) {
@@ -329,6 +323,9 @@ public class LabORUR01Handler extends ORUR01Handler {
 		if (isValidEncounter(encounter)) {
 			saveEncounter(encounter);
 
+			// set value group ids for those that need it
+			setValueGroupIds(valueGroups);
+
 			// Notify HL7 service that we have created a new encounter, allowing
 			// features/modules to trigger on HL7-generated encounters.
 			// -This can be removed once we have a obs_group table and all
@@ -343,7 +340,7 @@ public class LabORUR01Handler extends ORUR01Handler {
 			// EncounterService.createEncounter(Encounter).
 			hl7Service.encounterCreated(encounter);
 		} else {
-			saveObsFromEncounter(encounter);
+			saveObsFromEncounter(encounter, valueGroups);
 		}
 
 		// loop over the proposed concepts and save each to the database
@@ -355,9 +352,30 @@ public class LabORUR01Handler extends ORUR01Handler {
 		// flush the session to make sure the obses are saved
 		Context.flushSession();
 
-		// set value group ids for those that need it
+		return oru;
+	}
+
+	/**
+	 * Points each obs of a value group saved with its encounter at the first
+	 * obs of the group.
+	 * <p/>
+	 * Obs ids are generated by the database, so an obs has its id as soon as
+	 * it is saved, before the session is flushed. The obs of a group are
+	 * inserted first and only then given the id of the first one, so each
+	 * still takes an UPDATE; setting the ids in memory means those UPDATEs go
+	 * out with the one flush that follows rather than a second flush of their
+	 * own. Only if an id has not been generated yet is the session flushed
+	 * first. Obs saved without an encounter are given their value group ids
+	 * before they are written, see {@link #saveObsFromEncounter(Encounter, List)}.
+	 */
+	private void setValueGroupIds(List<List<Obs>> valueGroups) {
+		boolean flushed = false;
 		for (List<Obs> valueGroup : valueGroups) {
 			Obs initialObs = valueGroup.get(0);
+			if (initialObs.getObsId() == null && !flushed) {
+				Context.flushSession();
+				flushed = true;
+			}
 			for (Obs obs : valueGroup) {
 				obs.setValueGroupId(initialObs.getObsId());
 
@@ -367,21 +385,20 @@ public class LabORUR01Handler extends ORUR01Handler {
 				}
 			}
 		}
-
-		// flush the session again make sure the obses are saved
-		Context.flushSession();
-
-		return oru;
 	}
 
-	private void saveObsFromEncounter(Encounter encounter) throws HL7Exception {
-		// save each obs but not the encounter object
+	/**
+	 * Saves the obs but not the encounter, with batched inserts that already
+	 * carry the obs group and value group ids
+	 *
+	 * @see PcsLabInterfaceService#saveObs(List, List)
+	 */
+	private void saveObsFromEncounter(Encounter encounter, List<List<Obs>> valueGroups) throws HL7Exception {
 		// can't use getAllObs() method here because of how cascade saving is done
-		for (Obs obs : encounter.getObsAtTopLevel(false)) {
+		List<Obs> obses = new ArrayList<Obs>(encounter.getObsAtTopLevel(false));
+		for (Obs obs : obses)
 			nullifyObsEncounter(obs);
-			// the changeMessage here is not used
-            Context.getObsService().saveObs(obs, "new stand-alone observation from orur01 handler");
-		}
+		Context.getService(PcsLabInterfaceService.class).saveObs(obses, valueGroups);
 	}
 
 	private void saveEncounter(Encounter encounter) throws HL7Exception {
@@ -658,38 +675,34 @@ public class LabORUR01Handler extends ORUR01Handler {
 				log.warn("Not creating null valued obs for concept " + concept);
 				return null;
 			} else if (value.equals("0") || value.equals("1")) {
+				// the datatype and answers come from the cache, the concept
+				// itself has already been loaded
 				Integer conceptId = concept.getConceptId();
-				concept = concept.hydrate(concept.getConceptId().toString());
-				if (concept == null)
+				CachedConcept cachedConcept = ConceptCache.getInstance().get(conceptId.toString(),
+						HL7Constants.HL7_LOCAL_CONCEPT);
+				if (cachedConcept == null)
 					throw new HL7Exception("Could not find concept #" + conceptId);
 
-				obs.setConcept(concept);
-				if (concept.getDatatype().isBoolean())
+				if (cachedConcept.isBoolean())
 					obs.setValueBoolean(value.equals("1"));
-				else if (concept.getDatatype().isNumeric())
+				else if (cachedConcept.isNumeric())
 					try {
 						obs.setValueNumeric(Double.valueOf(value));
 					} catch (NumberFormatException e) {
 						throw new HL7Exception("numeric (NM) value '" + value + "' is not numeric for concept #"
 								+ concept.getConceptId() + " (" + conceptName.getName() + ") in message " + uid, e);
 					}
-				else if (concept.getDatatype().isCoded()) {
-					Concept answer = value.equals("1") ? Context.getConceptService().getTrueConcept() : Context
-							.getConceptService().getFalseConcept();
-					boolean isValidAnswer = false;
-					Collection<ConceptAnswer> conceptAnswers = concept.getAnswers();
-					if (conceptAnswers != null && conceptAnswers.size() > 0) {
-						for (ConceptAnswer conceptAnswer : conceptAnswers) {
-							if (conceptAnswer.getAnswerConcept().equals(answer)) {
-								obs.setValueCoded(answer);
-								isValidAnswer = true;
-								break;
-							}
-						}
-					}
+				else if (cachedConcept.isCoded()) {
+					// the true and false concepts and the question's answers
+					// are looked up once and shared across messages
+					ConceptCache conceptCache = ConceptCache.getInstance();
+					Integer answerId = conceptCache.getBooleanConceptId(value.equals("1"));
+					if (conceptCache.isAnswer(cachedConcept, answerId))
+						obs.setValueCoded(Context.getConceptService().getConcept(answerId));
 					//answer the boolean answer concept was't found
-					if (!isValidAnswer)
-						throw new HL7Exception(answer.toString() + " is not a valid answer for obs with uuid " + uid);
+					else
+						throw new HL7Exception("Concept #" + answerId + " is not a valid answer for obs with uuid "
+								+ uid);
 				} else {
 					//throw this exception to make sure that the handler doesn't silently ignore bad hl7 message
 					throw new HL7Exception("Can't set boolean concept answer for concept with id "
@@ -900,9 +913,10 @@ public class LabORUR01Handler extends ORUR01Handler {
 
 	/**
 	 * Get a concept object representing this conceptId and coding system.<br/>
-	 * If codingSystem is 99DCT, then a new Concept with the given conceptId is returned.<br/>
+	 * If codingSystem is 99DCT, then the Concept with the given conceptId is returned.<br/>
 	 * Otherwise, the coding system is looked up in the ConceptMap for an openmrs concept mapped to
-	 * that code.
+	 * that code.<br/>
+	 * Codes already seen are resolved from the {@link ConceptCache} without a query.
 	 *
 	 * @param hl7ConceptId the given hl7 conceptId
 	 * @param codingSystem the coding system for this conceptid (e.g. 99DCT)
@@ -910,22 +924,21 @@ public class LabORUR01Handler extends ORUR01Handler {
 	 * @return a Concept object or null if no conceptId with given coding system found
 	 */
 	protected Concept getConcept(String hl7ConceptId, String codingSystem, String uid) throws HL7Exception {
-		if (OpenmrsUtil.nullSafeEquals(HL7Constants.HL7_LOCAL_CONCEPT,
-				codingSystem)) {
-            // the concept is local
-			try {
-                return Context.getConceptService().getConcept(Integer.valueOf(hl7ConceptId));
-			} catch (NumberFormatException e) {
-				throw new HL7Exception("Invalid concept ID '" + hl7ConceptId + "' in hl7 message with uid: " + uid);
-			}
-		} else {
-			// the concept is not local, look it up in our mapping
-            Concept concept = Context.getConceptService().getConceptByMapping(hl7ConceptId, codingSystem);
-			if (concept == null)
+		CachedConcept cachedConcept;
+		try {
+			cachedConcept = ConceptCache.getInstance().get(hl7ConceptId, codingSystem);
+		} catch (NumberFormatException e) {
+			// the concept is local, but its id is not a number
+			throw new HL7Exception("Invalid concept ID '" + hl7ConceptId + "' in hl7 message with uid: " + uid);
+		}
+
+		if (cachedConcept == null) {
+			if (!OpenmrsUtil.nullSafeEquals(HL7Constants.HL7_LOCAL_CONCEPT, codingSystem))
 				log.error("Unable to find concept with code: " + hl7ConceptId + " and mapping: " + codingSystem
 						+ " in hl7 message with uid: " + uid);
-			return concept;
+			return null;
 		}
+		return Context.getConceptService().getConcept(cachedConcept.getConceptId());
 	}
 
 	/**
@@ -975,7 +988,7 @@ public class LabORUR01Handler extends ORUR01Handler {
 	}
 
 	private Provider getProviderBySystemId(String systemId) {
-		return Context.getService(PcsLabInterfaceService.class).getProviderBySystemId(systemId);
+		return ProviderCache.getInstance().getProviderBySystemId(systemId);
 	}
 
 	private Provider getProvider(ORU_R01 oru) throws HL7Exception {
@@ -1024,11 +1037,7 @@ public class LabORUR01Handler extends ORUR01Handler {
     }
 
     private Provider getProviderByPersonId(Integer personId) {
-        List<Provider> providers = (List<Provider>)Context.getProviderService().getProvidersByPerson(new Person(personId));
-        if(providers!=null && !providers.isEmpty()) {
-            return providers.get(0);
-        }
-        return null;
+        return ProviderCache.getInstance().getProviderByPersonId(personId);
     }
 	private Patient getPatient(PID pid) throws HL7Exception {
 		Integer patientId = Context.getHL7Service().resolvePatientId(pid);
@@ -1055,9 +1064,18 @@ public class LabORUR01Handler extends ORUR01Handler {
 
 		// try PV1 first
 		PV1 pv1 = getPV1(oru);
-		PL hl7Location = pv1.getAssignedPatientLocation();
-		if (hl7Location.getPointOfCare().getValue() != null) {
-			locationId = Context.getHL7Service().resolveLocationId(hl7Location);
+		final PL hl7Location = pv1.getAssignedPatientLocation();
+		String pointOfCare = hl7Location.getPointOfCare().getValue();
+		if (pointOfCare != null) {
+			// resolved once per point of care and facility
+			String facility = hl7Location.getFacility().getUniversalID().getValue();
+			locationId = LabMetadataCache.getInstance().getLocationId(pointOfCare, facility,
+					new LabMetadataCache.LocationResolver() {
+
+						public Integer resolveLocationId() throws HL7Exception {
+							return Context.getHL7Service().resolveLocationId(hl7Location);
+						}
+					});
 		}
 
 		// try PD1 second
@@ -1078,6 +1096,10 @@ public class LabORUR01Handler extends ORUR01Handler {
 		return location;
 	}
 
+	/**
+	 * gets the form named in MSH-21; whether it exists is remembered, and the
+	 * form itself is loaded by id from the current session
+	 */
 	private Form getForm(MSH msh) throws HL7Exception {
 		Integer formId = null;
 		try {
@@ -1086,21 +1108,29 @@ public class LabORUR01Handler extends ORUR01Handler {
 			log.warn("Error parsing form id from message, using null form");
 		}
 
-		// must get entire form object in order to get its metadata
-		// (encounterType) later
-		Form form = null;
-
-		if (formId != null)
-			form = Context.getFormService().getForm(formId);
+		// give up easily if the form does not exist
+		if (formId == null || !LabMetadataCache.getInstance().isForm(formId))
+			return null;
 
-		return form;
+		// the encounter must be saved with the whole form, not a shell, so
+		// its edit privilege is checked
+		return Context.getFormService().getForm(formId);
 	}
 
+	/**
+	 * gets the encounter type of the form; its id is remembered, and the
+	 * encounter type itself is loaded by id from the current session
+	 */
 	private EncounterType getEncounterType(MSH msh, Form form) {
+		Integer encounterTypeId = null;
 		if (form != null)
-			return form.getEncounterType();
+			encounterTypeId = LabMetadataCache.getInstance().getEncounterTypeId(form.getFormId());
 		// TODO: resolve encounter type from MSH data
-		return null;
+		if (encounterTypeId == null)
+			return null;
+
+		// likewise the whole encounter type, not a shell
+		return Context.getEncounterService().getEncounterType(encounterTypeId);
 	}
 
 	private User getEnterer(ORC orc) throws HL7Exception {
@@ -1142,6 +1172,22 @@ public class LabORUR01Handler extends ORUR01Handler {
 		return cal.getTime();
 	}
 
+	/**
+	 * describes every obs of an order group that is not valid, by its OBX
+	 */
+	private String getObsErrorMessage(OrderObsValidator<OBX> obsValidator) {
+		EncodingCharacters encodingCharacters = new EncodingCharacters('|', "^~\\&");
+		StringBuilder message = new StringBuilder();
+		for (OrderObsValidator.Failure<OBX> failure : obsValidator.getFailures()) {
+			if (message.length() > 0)
+				message.append("\n");
+			message.append("Error(s) in obs associated with OBX: ")
+					.append(PipeParser.encode(failure.getSource(), encodingCharacters))
+					.append(failure.getErrors());
+		}
+		return message.toString();
+	}
+
 	/**
 	 * Creates a ConceptProposal object that will need to be saved to the database at a later point.
 	 */
@@ -1188,22 +1234,30 @@ public class LabORUR01Handler extends ORUR01Handler {
 				}
 			}
 			Integer newLocationId = Integer.parseInt(dischargeToLocation);
-			// Hydrate a full patient object from patient object containing only
-			// identifier
-			patient = Context.getPatientService().getPatient(patient.getPatientId());
-
-			PersonAttributeType healthCenterAttrType = Context.getPersonService().getPersonAttributeTypeByName(
-					"Health Center");
+			HealthCenterCache healthCenters = HealthCenterCache.getInstance();
+			Integer healthCenterAttrTypeId = healthCenters.getAttributeTypeId();
 
-			if (healthCenterAttrType == null) {
+			if (healthCenterAttrTypeId == null) {
 				log.error("A person attribute type with name 'Health Center' is not defined but patient "
 						+ patient.getPatientId() + " is trying to change their health center to " + newLocationId);
 				return;
 			}
 
-			PersonAttribute currentHealthCenter = patient.getAttribute("Health Center");
+			// nothing to do if the patient is already there
+			if (healthCenters.isHealthCenter(patient.getPatientId(), newLocationId.toString())) {
+				log.debug("Patient's location is unchanged");
+				return;
+			}
+
+			// Hydrate a full patient object from patient object containing only
+			// identifier
+			patient = Context.getPatientService().getPatient(patient.getPatientId());
+
+			PersonAttributeType healthCenterAttrType = Context.getPersonService().getPersonAttributeType(
+					healthCenterAttrTypeId);
+			PersonAttribute currentHealthCenter = patient.getAttribute(healthCenterAttrType);
 
-			if (currentHealthCenter == null || !currentHealthCenter.equals(newLocationId.toString())) {
+			if (currentHealthCenter == null || !newLocationId.toString().equals(currentHealthCenter.getValue())) {
 				PersonAttribute newHealthCenter = new PersonAttribute(healthCenterAttrType, newLocationId.toString());
 
 				log.debug("Updating patient's location from " + currentHealthCenter + " to " + newLocationId);
@@ -1215,6 +1269,9 @@ public class LabORUR01Handler extends ORUR01Handler {
 				Context.getPatientService().savePatient(patient);
 			}
 
+			// looked up again next time, as this message may yet be rolled back
+			healthCenters.invalidate(patient.getPatientId());
+
 		}
 		log.debug("finished discharge to location method");
 	}
@@ -1242,19 +1299,23 @@ public class LabORUR01Handler extends ORUR01Handler {
 			throw new HL7Exception("No patient identifiers found in PID segment.");
 
 		Set<String> identifiers = new HashSet<String>();
-		Set<Patient> matchingPatients = new HashSet<Patient>();
 		for (CX identifier : patientIdentifierList) {
 			String idNumber = identifier.getIDNumber().getValue();
 			String checkDigit = identifier.getCheckDigit().getValue();
 			if (!(idNumber.contains("-")) && checkDigit != null)
 				idNumber = idNumber + "-" + checkDigit;
 			identifiers.add(idNumber);
-			matchingPatients.addAll(Context.getPatientService().getPatients(null, idNumber, null, true));
 		}
-		if ((matchingPatients.isEmpty()) || (matchingPatients.size() != 1))
+
+		// all of the identifiers are resolved at once, from the cache or in a
+		// single exact-match query
+		Set<Integer> matchingPatientIds = PatientIdentifierCache.getInstance().getPatientIds(identifiers);
+		if (matchingPatientIds.size() != 1)
 			throw new HL7Exception("Could not find patient matching identifier(s): " + OpenmrsUtil.join(identifiers, ", "));
 
-		p = matchingPatients.iterator().next();
+		p = Context.getPatientService().getPatient(matchingPatientIds.iterator().next());
+		if (p == null)
+			throw new HL7Exception("Could not find patient matching identifier(s): " + OpenmrsUtil.join(identifiers, ", "));
 		log.info("Matching hl7 PID patient_id: " + p.getPatientId() + ", " + p.getPatientIdentifier());
 
 		return p;
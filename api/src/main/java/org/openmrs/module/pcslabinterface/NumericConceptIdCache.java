@@ -0,0 +1,218 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+
+/**
+ * Answers whether a concept is numeric from an in-memory set of numeric
+ * concept ids.
+ * <p/>
+ * Concept ids are small, dense database keys, so the set is a BitSet indexed
+ * by id: a lookup is a single bit test, with no boxing and no scan. The set
+ * is reloaded once it is older than the configured time to live, or after
+ * {@link #invalidate()} is called when a concept changes. Reloading needs an
+ * OpenMRS session, so a thread without one (such as a pre-processing worker)
+ * keeps using the set already loaded until a thread with a session reloads
+ * it.
+ * <p/>
+ * Its counters are published over JMX as {@link NumericConceptIdCacheMBean}.
+ */
+public class NumericConceptIdCache implements NumericConceptIdCacheMBean {
+
+	private static final Log log = LogFactory.getLog(NumericConceptIdCache.class);
+
+	private static volatile NumericConceptIdCache instance = new NumericConceptIdCache();
+
+	/**
+	 * the numeric concept ids; replaced, never changed, once published
+	 */
+	private volatile BitSet numericConceptIds = null;
+
+	/**
+	 * when the ids were last loaded
+	 */
+	private volatile long loadedAt = 0;
+
+	/**
+	 * how long loaded ids are used for, in milliseconds; 0 for no limit
+	 */
+	private volatile long timeToLive = 0;
+
+	/**
+	 * true once a concept has changed since the ids were loaded
+	 */
+	private volatile boolean stale = false;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong loads = new AtomicLong();
+
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * @return the cache shared by the rules
+	 */
+	public static NumericConceptIdCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Replaces the cache shared by the rules, so they can run without an
+	 * OpenMRS context, as in the benchmarks
+	 *
+	 * @param cache the cache to use from now on
+	 */
+	public static void setInstance(NumericConceptIdCache cache) {
+		instance = cache;
+	}
+
+	/**
+	 * Answers whether a concept is numeric, loading the ids first if they
+	 * have not been loaded or are out of date
+	 *
+	 * @param conceptId the concept id
+	 * @return true if the concept is numeric
+	 * @should find numeric concepts
+	 * @should load the ids only once
+	 * @should reload the ids once they are invalidated
+	 * @should reload the ids once they expire
+	 * @should keep using the loaded ids without a session
+	 */
+	public boolean contains(int conceptId) {
+		BitSet ids = numericConceptIds;
+		if (ids == null || (isStale() && canLoad())) {
+			misses.incrementAndGet();
+			ids = load();
+		} else {
+			hits.incrementAndGet();
+		}
+		return conceptId >= 0 && ids.get(conceptId);
+	}
+
+	/**
+	 * Loads the ids if they have not been loaded or are out of date; this
+	 * needs an OpenMRS session, so it should be called before the cache is
+	 * used from a thread that does not have one
+	 */
+	public void refresh() {
+		if (numericConceptIds == null || isStale())
+			load();
+	}
+
+	/**
+	 * marks the loaded ids as out of date, so they are reloaded on next use
+	 */
+	public void invalidate() {
+		stale = true;
+		invalidations.incrementAndGet();
+	}
+
+	/**
+	 * @return true if the loaded ids are out of date
+	 */
+	public boolean isStale() {
+		return stale || (timeToLive > 0 && System.currentTimeMillis() - loadedAt >= timeToLive);
+	}
+
+	/**
+	 * loads the ids, unless another thread has just done so
+	 */
+	private synchronized BitSet load() {
+		if (numericConceptIds != null && !isStale())
+			return numericConceptIds;
+
+		// a concept changed while loading marks the new ids stale again
+		stale = false;
+		timeToLive = getTimeToLive();
+
+		BitSet ids = new BitSet();
+		for (Integer conceptId : loadNumericConceptIds())
+			if (conceptId != null && conceptId >= 0)
+				ids.set(conceptId);
+
+		numericConceptIds = ids;
+		loadedAt = System.currentTimeMillis();
+		loads.incrementAndGet();
+		if (log.isDebugEnabled())
+			log.debug("Loaded " + ids.cardinality() + " numeric concept id(s)");
+		return ids;
+	}
+
+	/**
+	 * @return true if this thread can load the ids, which needs a session
+	 */
+	protected boolean canLoad() {
+		return Context.isSessionOpen();
+	}
+
+	/**
+	 * @return the ids of all numeric concepts
+	 */
+	protected List<Integer> loadNumericConceptIds() {
+		return Context.getService(PcsLabInterfaceService.class).getNumericConceptIds();
+	}
+
+	/**
+	 * @return how long loaded ids are used for, in milliseconds; 0 for no
+	 *         limit
+	 */
+	protected long getTimeToLive() {
+		return 1000L * PcsLabInterfaceUtil.getIntegerGlobalProperty(
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_NUMERIC_CONCEPT_CACHE_TTL,
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_NUMERIC_CONCEPT_CACHE_TTL_DEFAULT);
+	}
+
+	/**
+	 * @return the number of lookups answered from the loaded ids
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that had to load the ids first
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of times the ids have been loaded
+	 */
+	public long getLoads() {
+		return loads.get();
+	}
+
+	/**
+	 * @return the number of times the ids have been marked out of date
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	@Override
+	public String toString() {
+		return getHits() + " hit(s), " + getMisses() + " miss(es), " + getLoads() + " load(s), "
+				+ getInvalidations() + " invalidation(s)";
+	}
+}
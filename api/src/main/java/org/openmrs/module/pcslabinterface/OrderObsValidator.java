@@ -0,0 +1,128 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.openmrs.Obs;
+import org.openmrs.validator.ObsValidator;
+import org.springframework.validation.Errors;
+import org.springframework.validation.MapBindingResult;
+import org.springframework.validation.ObjectError;
+import org.springframework.validation.Validator;
+
+/**
+ * Validates the obs of one order group (OBR) of a lab message, collecting
+ * the errors of every obs so they can be reported together.
+ * <p/>
+ * Every group is checked by the same ObsValidator, which keeps no state,
+ * and all of its obs share one set of errors. A group without errors costs
+ * nothing more than the validation itself: the list of failures is only
+ * created for the first obs that fails, and describing a failure is left to
+ * the caller, which only has to do it when there are errors.
+ * <p/>
+ * An OrderObsValidator is used by a single thread, for a single group.
+ *
+ * @param <S> the type of the source of each obs, such as its OBX segment
+ */
+public class OrderObsValidator<S> {
+
+	private static final Validator OBS_VALIDATOR = new ObsValidator();
+
+	/**
+	 * the errors of every obs validated so far, or null until one is
+	 */
+	private Errors errors = null;
+
+	/**
+	 * the obs that failed, or null until one does
+	 */
+	private List<Failure<S>> failures = null;
+
+	/**
+	 * Validates an obs, remembering its errors if it is not valid
+	 *
+	 * @param obs the obs to validate
+	 * @param source where the obs came from, to describe its errors
+	 * @return true if the obs is valid
+	 * @should collect the errors of every obs
+	 * @should not remember valid obs
+	 */
+	public boolean validate(Obs obs, S source) {
+		if (errors == null)
+			errors = new MapBindingResult(new HashMap<String, Object>(), "obs");
+
+		int before = errors.getErrorCount();
+		validate(obs, errors);
+		int after = errors.getErrorCount();
+		if (after == before)
+			return true;
+
+		if (failures == null)
+			failures = new ArrayList<Failure<S>>();
+		List<ObjectError> obsErrors = errors.getAllErrors().subList(before, after);
+		failures.add(new Failure<S>(source, new ArrayList<ObjectError>(obsErrors)));
+		return false;
+	}
+
+	/**
+	 * @param obs the obs to validate
+	 * @param errors where to add the errors of the obs
+	 */
+	protected void validate(Obs obs, Errors errors) {
+		OBS_VALIDATOR.validate(obs, errors);
+	}
+
+	/**
+	 * @return true if an obs validated so far is not valid
+	 * @should not have errors before validating
+	 */
+	public boolean hasErrors() {
+		return failures != null;
+	}
+
+	/**
+	 * @return the obs that are not valid, in the order they were validated
+	 */
+	public List<Failure<S>> getFailures() {
+		if (failures == null)
+			return new ArrayList<Failure<S>>();
+		return failures;
+	}
+
+	/**
+	 * the source of an obs that is not valid, and its errors
+	 */
+	public static class Failure<S> {
+
+		private final S source;
+
+		private final List<ObjectError> errors;
+
+		public Failure(S source, List<ObjectError> errors) {
+			this.source = source;
+			this.errors = errors;
+		}
+
+		public S getSource() {
+			return source;
+		}
+
+		public List<ObjectError> getErrors() {
+			return errors;
+		}
+	}
+}
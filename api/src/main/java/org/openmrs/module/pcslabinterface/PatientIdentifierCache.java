@@ -0,0 +1,189 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.api.context.Context;
+
+/**
+ * Resolves the patient identifiers in a PID segment to patients, remembering
+ * which patient each identifier belongs to.
+ * <p/>
+ * Identifiers that are not cached are all looked up in a single exact-match
+ * query. Only identifiers held by exactly one patient are cached, so a
+ * patient registered later with an identifier that was not found is still
+ * found. The identifiers are kept in an {@link IdCache} of at most the
+ * configured number of entries; the identifiers of a patient are forgotten
+ * whenever the patient is changed.
+ * <p/>
+ * Its counters are published over JMX as {@link PatientIdentifierCacheMBean}.
+ */
+public class PatientIdentifierCache implements PatientIdentifierCacheMBean {
+
+	private static volatile PatientIdentifierCache instance = new PatientIdentifierCache();
+
+	/**
+	 * the patient id of each cached identifier
+	 */
+	private final IdCache<String, Integer> patientIds = new IdCache<String, Integer>(0) {
+
+		@Override
+		protected int getMaxSize() {
+			return PatientIdentifierCache.this.getMaxSize();
+		}
+	};
+
+	private final AtomicLong ambiguousMatches = new AtomicLong();
+
+	/**
+	 * @return the cache shared by the HL7 handler
+	 */
+	public static PatientIdentifierCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Finds the patients holding any of the given identifiers
+	 *
+	 * @param identifiers the identifiers of one patient, as sent in a message
+	 * @return the ids of all patients holding one of the identifiers; more
+	 *         than one means the identifiers are ambiguous
+	 * @should look up all identifiers that are not cached in one query
+	 * @should only cache identifiers held by a single patient
+	 * @should count ambiguous matches
+	 */
+	public Set<Integer> getPatientIds(Collection<String> identifiers) {
+		Set<Integer> found = new HashSet<Integer>();
+		Set<String> notCached = new HashSet<String>();
+		long lookupGeneration = patientIds.getGeneration();
+		for (String identifier : identifiers) {
+			Integer patientId = patientIds.get(identifier);
+			if (patientId != null)
+				found.add(patientId);
+			else
+				notCached.add(identifier);
+		}
+
+		if (!notCached.isEmpty()) {
+			Map<String, Set<Integer>> lookedUp = lookUp(notCached);
+			for (Map.Entry<String, Set<Integer>> entry : lookedUp.entrySet()) {
+				found.addAll(entry.getValue());
+				if (entry.getValue().size() == 1)
+					patientIds.put(entry.getKey(), entry.getValue().iterator().next(), lookupGeneration);
+			}
+		}
+
+		if (found.size() > 1)
+			ambiguousMatches.incrementAndGet();
+		return found;
+	}
+
+	/**
+	 * Forgets a patient's identifiers, and any identifier cached for the
+	 * patient, after the patient or one of its identifiers changes
+	 *
+	 * @param patient the patient that changed
+	 * @should forget every identifier of the patient
+	 */
+	public void invalidate(Patient patient) {
+		List<String> identifiers = new ArrayList<String>();
+		if (patient != null && patient.getIdentifiers() != null)
+			for (PatientIdentifier identifier : patient.getIdentifiers())
+				identifiers.add(identifier.getIdentifier());
+		patientIds.invalidate(identifiers, (patient == null) ? null : patient.getPatientId());
+	}
+
+	/**
+	 * empties the cache, so every identifier is looked up again on next use
+	 */
+	public void invalidate() {
+		patientIds.invalidate();
+	}
+
+	/**
+	 * @param identifiers the identifiers to look up
+	 * @return the ids of the patients holding each identifier that was found
+	 */
+	protected Map<String, Set<Integer>> lookUp(Collection<String> identifiers) {
+		return Context.getService(PcsLabInterfaceService.class).getPatientIdsByIdentifier(identifiers);
+	}
+
+	/**
+	 * @return the most identifiers to keep
+	 */
+	protected int getMaxSize() {
+		return PcsLabInterfaceUtil.getIntegerGlobalProperty(
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_PATIENT_IDENTIFIER_CACHE_SIZE,
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_PATIENT_IDENTIFIER_CACHE_SIZE_DEFAULT);
+	}
+
+	/**
+	 * @return the number of identifiers cached
+	 */
+	public int getSize() {
+		return patientIds.getSize();
+	}
+
+	/**
+	 * @return the number of identifiers answered from the cache
+	 */
+	public long getHits() {
+		return patientIds.getHits();
+	}
+
+	/**
+	 * @return the number of identifiers that had to be looked up
+	 */
+	public long getMisses() {
+		return patientIds.getMisses();
+	}
+
+	/**
+	 * @return the number of lookups whose identifiers were held by more than
+	 *         one patient
+	 */
+	public long getAmbiguousMatches() {
+		return ambiguousMatches.get();
+	}
+
+	/**
+	 * @return the number of identifiers dropped to make room for others
+	 */
+	public long getEvictions() {
+		return patientIds.getEvictions();
+	}
+
+	/**
+	 * @return the number of times identifiers have been forgotten because a
+	 *         patient changed
+	 */
+	public long getInvalidations() {
+		return patientIds.getInvalidations();
+	}
+
+	@Override
+	public String toString() {
+		return getHits() + " hit(s), " + getMisses() + " miss(es), " + getAmbiguousMatches()
+				+ " ambiguous match(es), " + getEvictions() + " eviction(s)";
+	}
+}
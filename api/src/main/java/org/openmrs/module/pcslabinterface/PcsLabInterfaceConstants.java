@@ -21,6 +21,23 @@ public class PcsLabInterfaceConstants {
 	public static final String PCSLABINTERFACE_GP_QUEUE_DIR_DEFAULT = "pcslabinterface/queue";
 	public static final String PCSLABINTERFACE_GP_QUEUE_ARCHIVE_DIR = "pcslabinterface.queue_archive_dir";
 	public static final String PCSLABINTERFACE_GP_QUEUE_ARCHIVE_DIR_DEFAULT = "pcslabinterface/archive/%Y/%M";
+	public static final String PCSLABINTERFACE_GP_BATCH_SIZE = "pcslabinterface.batch_size";
+	public static final int PCSLABINTERFACE_GP_BATCH_SIZE_DEFAULT = 25;
+	public static final String PCSLABINTERFACE_GP_BATCH_MAX_WAIT = "pcslabinterface.batch_max_wait";
+	public static final int PCSLABINTERFACE_GP_BATCH_MAX_WAIT_DEFAULT = 2000;
+	public static final String PCSLABINTERFACE_GP_PREPROCESSOR_THREADS = "pcslabinterface.preprocessor_threads";
+	public static final int PCSLABINTERFACE_GP_PREPROCESSOR_THREADS_DEFAULT = 1;
+	public static final String PCSLABINTERFACE_GP_HEAP_THRESHOLD = "pcslabinterface.heap_threshold";
+	public static final int PCSLABINTERFACE_GP_HEAP_THRESHOLD_DEFAULT = 85;
+	public static final String PCSLABINTERFACE_GP_NUMERIC_CONCEPT_CACHE_TTL = "pcslabinterface.numeric_concept_cache_ttl";
+	public static final int PCSLABINTERFACE_GP_NUMERIC_CONCEPT_CACHE_TTL_DEFAULT = 3600;
+	public static final String PCSLABINTERFACE_GP_TRANSFORM_RULES = "pcslabinterface.transform_rules";
+	public static final String PCSLABINTERFACE_GP_CONCEPT_CACHE_SIZE = "pcslabinterface.concept_cache_size";
+	public static final int PCSLABINTERFACE_GP_CONCEPT_CACHE_SIZE_DEFAULT = 1000;
+	public static final String PCSLABINTERFACE_GP_PATIENT_IDENTIFIER_CACHE_SIZE = "pcslabinterface.patient_identifier_cache_size";
+	public static final int PCSLABINTERFACE_GP_PATIENT_IDENTIFIER_CACHE_SIZE_DEFAULT = 10000;
+	public static final String PCSLABINTERFACE_GP_PROVIDER_CACHE_TTL = "pcslabinterface.provider_cache_ttl";
+	public static final int PCSLABINTERFACE_GP_PROVIDER_CACHE_TTL_DEFAULT = 600;
 
 	public static final String PRIV_ADD_LAB_MESSAGE_ARCHIVE = "Add PCSLabInterface Message Archive";
 	public static final String PRIV_VIEW_LAB_MESSAGE_ARCHIVE = "View PcsLabInterface Message Archive";
@@ -49,6 +66,15 @@ public class PcsLabInterfaceConstants {
 		return rules;
 	}
 
+	/**
+	 * @return a dispatcher over {@link #TRANSFORM_RULES()}, and any rules
+	 *         defined in {@link #PCSLABINTERFACE_GP_TRANSFORM_RULES}, that only
+	 *         tests each line against the rules that can change it
+	 */
+	public static final TransformRuleDispatcher TRANSFORM_RULE_DISPATCHER() {
+		return TransformRuleLoader.getDispatcher();
+	}
+
 	;
 
 }
@@ -4,10 +4,15 @@
  */
 package org.openmrs.module.pcslabinterface;
 
+import org.openmrs.Obs;
 import org.openmrs.Person;
 import org.openmrs.Provider;
+import org.openmrs.hl7.HL7InQueue;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  *
@@ -18,4 +23,33 @@ public interface PcsLabInterfaceDAO {
 	public List<Integer> getNumericConceptIds();
 
 	Provider getProviderBySystemId(String systemId);
+
+	Provider getProviderByPersonId(Integer personId);
+
+	/**
+	 * finds the patients holding each of the given identifiers, exactly as
+	 * given, in a single query
+	 */
+	Map<String, Set<Integer>> getPatientIdsByIdentifier(Collection<String> identifiers);
+
+	/**
+	 * finds the value of a person's attribute of one type without loading
+	 * the person
+	 */
+	String getPersonAttributeValue(Integer personId, Integer personAttributeTypeId);
+
+	/**
+	 * inserts all of the given HL7 messages in one JDBC batch
+	 */
+	void saveHL7InQueues(List<HL7InQueue> hl7InQueues);
+
+	/**
+	 * inserts all of the given obs in one JDBC batch, setting the id of each
+	 */
+	void saveObs(List<Obs> obs);
+
+	/**
+	 * sets the value group id of each of the given obs to its own id
+	 */
+	void setValueGroupIdsToObsIds(Collection<Integer> obsIds);
 }
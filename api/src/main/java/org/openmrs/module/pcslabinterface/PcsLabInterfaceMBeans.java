@@ -0,0 +1,103 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Registers the module's management beans with the platform MBean server, so
+ * its metrics can be read with any JMX client. Failing to register a bean is
+ * logged and otherwise ignored; the metrics are still kept, and shown on the
+ * module's admin page.
+ */
+public class PcsLabInterfaceMBeans {
+
+	private static final Log log = LogFactory.getLog(PcsLabInterfaceMBeans.class);
+
+	public static final String DOMAIN = "org.openmrs.module.pcslabinterface";
+
+	public static final String NUMERIC_CONCEPT_ID_CACHE = "NumericConceptIdCache";
+
+	public static final String CONCEPT_CACHE = "ConceptCache";
+
+	public static final String PATIENT_IDENTIFIER_CACHE = "PatientIdentifierCache";
+
+	public static final String PROVIDER_CACHE = "ProviderCache";
+
+	public static final String LAB_METADATA_CACHE = "LabMetadataCache";
+
+	public static final String HEALTH_CENTER_CACHE = "HealthCenterCache";
+
+	public static final String MEMORY_POLICY = "LabMessageMemoryPolicy";
+
+	/**
+	 * @param type the kind of bean
+	 * @param name the name of the bean, or null if there is only one of its
+	 *            type
+	 * @return the name to register the bean under, or null if it is not valid
+	 */
+	public static ObjectName getObjectName(String type, String name) {
+		try {
+			String objectName = DOMAIN + ":type=" + type;
+			if (name != null)
+				objectName += ",name=" + ObjectName.quote(name);
+			return new ObjectName(objectName);
+		} catch (JMException e) {
+			log.warn("Unable to name management bean " + type + " " + name, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Registers a bean, replacing any bean already registered under its name
+	 * (such as one left behind by an earlier start of the module)
+	 *
+	 * @param bean the bean to register
+	 * @param objectName the name to register it under
+	 */
+	public static void register(Object bean, ObjectName objectName) {
+		if (objectName == null)
+			return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(bean, objectName);
+		} catch (JMException e) {
+			log.warn("Unable to register management bean " + objectName, e);
+		}
+	}
+
+	/**
+	 * @param objectName the name of the bean to unregister
+	 */
+	public static void unregister(ObjectName objectName) {
+		if (objectName == null)
+			return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+		} catch (JMException e) {
+			log.warn("Unable to unregister management bean " + objectName, e);
+		}
+	}
+}
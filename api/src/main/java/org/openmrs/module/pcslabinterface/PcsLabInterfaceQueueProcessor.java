@@ -18,67 +18,367 @@ import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.hl7.HL7InQueue;
-import org.openmrs.module.pcslabinterface.rules.TransformRule;
+import org.openmrs.hl7.HL7Source;
+import org.openmrs.module.pcslabinterface.rules.ChangeDatatypeForNumericObservations;
+import org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer;
+import org.openmrs.module.pcslabinterface.rules.HL7SegmentReader;
+import org.openmrs.module.pcslabinterface.rules.TransformRuleDispatcher;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.StringUtils;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 @Transactional
 public class PcsLabInterfaceQueueProcessor {
 	private static final Log log = LogFactory
 			.getLog(PcsLabInterfaceQueueProcessor.class);
 	private static Boolean isRunning = Boolean.valueOf(false);
-	private static final Pattern keyPattern = Pattern
-			.compile("R01\\|([a-zA-Z0-9]+)\\|");
 
 	/**
-	 * processes a given lab message into the HL7 incoming queue
+	 * how often to look for more messages while a partial batch fills up
+	 */
+	private static final long BATCH_POLL_INTERVAL = 100;
+
+	/**
+	 * files larger than this many bytes are never loaded whole; they are
+	 * split and processed a message at a time
+	 */
+	private static final long STREAMING_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * workers for pre-processing batches in parallel; null when only one
+	 * thread is configured
+	 *
+	 * @see #getPreProcessorPool()
+	 */
+	private LabMessagePreProcessorPool preProcessorPool = null;
+
+	/**
+	 * keeps the drain within the heap budget
+	 *
+	 * @see #getMemoryPolicy()
+	 */
+	private LabMessageMemoryPolicy memoryPolicy = null;
+
+	/**
+	 * subdirectory of the queue directory recording how many messages of a
+	 * file saved a chunk at a time have already been saved
+	 */
+	static final String PROGRESS_DIR = "progress";
+
+	/**
+	 * subdirectory of the queue directory that files which could not be
+	 * processed are moved into, so they do not hold up the rest of the queue
+	 */
+	static final String ERROR_DIR = "error";
+
+	/**
+	 * processes a given lab message into the HL7 incoming queue. The file is
+	 * read one HL7 message at a time, and each message it holds becomes its
+	 * own HL7 queue item.
+	 * <p/>
+	 * A file with more messages than the batch size is saved a chunk at a
+	 * time, each chunk in its own transaction, and the number of messages
+	 * saved so far is recorded after each one. If a later chunk, or archiving
+	 * the file, fails, the file stays in the queue and the next attempt
+	 * resumes after the messages already saved instead of saving them again.
+	 *
+	 * @should save each message in a file as its own HL7 queue item
+	 * @should resume after the messages already saved
 	 */
 	public void parseLabMessage(LabMessage labMessage) {
 		log.debug("Transforming LabMessage");
 
-		// build the HL7 message
-		HL7InQueue hl7InQueue = new HL7InQueue();
+		PcsLabInterfaceService pcsService = (PcsLabInterfaceService) Context
+				.getService(PcsLabInterfaceService.class);
+		HL7Source hl7Source = getHL7Source();
+		int chunkSize = Math.max(1, PcsLabInterfaceUtil.getIntegerGlobalProperty(
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_BATCH_SIZE,
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_BATCH_SIZE_DEFAULT));
+
+		List<HL7InQueue> pending = new ArrayList<HL7InQueue>();
+		String message = null;
+		String hl7Message = null;
+		int count = 0;
 
-		// pre-process the HL7 message
+		// messages saved by an earlier attempt that failed part way
+		int saved = getSavedCount(labMessage);
+		if (saved > 0)
+			log.info("Resuming " + labMessage.getFileSystemUrl() + " after " + saved + " saved HL7 message(s)");
 
-		String hl7Message = preProcessMessage(labMessage.getData());
-        if(hl7Message!=null && hl7Message.length()>0) {   //Process non blank files only
-            hl7InQueue.setHL7Data(hl7Message);
+		LabMessageSplitter splitter = openSplitter(labMessage);
+		try {
+			String next;
+			while ((next = splitter.next()) != null) {
+				message = next;
+				if (count < saved) {
+					count++;
+					continue;
+				}
+
+				// pre-process the HL7 message, reading its header only once
+				LabMessageHeader header = LabMessageHeader.parse(message);
+				hl7Message = preProcessMessage(header, message);
 
-            // TODO: do something better than this for choosing HL7Source
-            hl7InQueue.setHL7Source(Context.getHL7Service().getHL7Source(
-                    Integer.valueOf(1)));
+				HL7InQueue hl7InQueue = createHL7InQueue(labMessage, header, hl7Message, count++, hl7Source);
+				if (hl7InQueue != null)
+					pending.add(hl7InQueue);
 
-            // generate the source key
-            String hl7SourceKey = String.valueOf(labMessage.getLabMessageId());
+				// a multi-message file is saved a chunk at a time
+				if (pending.size() > chunkSize) {
+					pcsService.saveHL7InQueues(new ArrayList<HL7InQueue>(pending.subList(0, chunkSize)));
+					pending.subList(0, chunkSize).clear();
+					saved = count - pending.size();
+					setSavedCount(labMessage, saved);
+				}
+			}
+		} catch (IOException e) {
+			throw new PcsLabInterfaceException("Unable to read lab message: " + labMessage.getFileSystemUrl(), e);
+		} finally {
+			try {
+				splitter.close();
+			} catch (IOException e) {
+				log.debug("Error closing lab message " + labMessage.getFileSystemUrl(), e);
+			}
+		}
 
-            // if possible, extract the source key from the lab message
-            // TODO use an HL7 parser to find it
-            Matcher m = keyPattern.matcher(labMessage.getData());
-            if (m.find())
-                hl7SourceKey = m.group(1);
-            hl7InQueue.setHL7SourceKey(hl7SourceKey);
+		if (count == 0)
+			log.warn("The file: " + labMessage.getFileSystemUrl() + " might be blank!");
 
-            // save the HL7 message
-            Context.getHL7Service().saveHL7InQueue(hl7InQueue);
-        }  else {
-           log.warn("The file: "+ labMessage.getFileSystemUrl() +" might be blank!");
-        }
+		if (count == 1 && saved == 0) {
+			if (!pending.isEmpty())
+				// save the HL7 message
+				Context.getHL7Service().saveHL7InQueue(pending.get(0));
+		} else if (!pending.isEmpty()) {
+			pcsService.saveHL7InQueues(pending);
+			if (saved > 0)
+				setSavedCount(labMessage, count);
+		}
+		if (count > 1)
+			log.info("Split " + labMessage.getFileSystemUrl() + " into " + count + " HL7 messages");
 
-		// archive the queue
-		PcsLabInterfaceService pcsService = (PcsLabInterfaceService) Context
-				.getService(PcsLabInterfaceService.class);
+		// archive the queue; a transformed copy is only kept for single
+		// message files, so a large file is never held in memory
+		if (count == 1 && saved == 0) {
+			labMessage.setData(message);
+			pcsService.archiveLabMessage(labMessage, hl7Message);
+		} else {
+			pcsService.archiveLabMessage(labMessage, null);
+		}
+		clearSavedCount(labMessage);
+	}
+
+	/**
+	 * processes a lab message on its own, moving its file into the error
+	 * directory if that fails so the rest of the queue still goes through
+	 *
+	 * @param labMessage the queued message
+	 */
+	private void parseLabMessageOrSetAside(LabMessage labMessage) {
+		try {
+			parseLabMessage(labMessage);
+		} catch (RuntimeException e) {
+			log.error("Unable to process lab message " + labMessage.getFileSystemUrl()
+					+ ", moving it to the error directory", e);
+			setAside(labMessage);
+		}
+	}
+
+	/**
+	 * @return the directory that files which could not be processed are
+	 *         moved into, or null if the message has no file
+	 */
+	protected File getErrorDir(LabMessage labMessage) {
+		if (labMessage.getFileSystemUrl() == null)
+			return null;
+		return new File(new File(labMessage.getFileSystemUrl()).getParentFile(), ERROR_DIR);
+	}
+
+	/**
+	 * moves the file behind a lab message out of the queue and into the error
+	 * directory, keeping its name unless the error directory already has a
+	 * file by that name
+	 *
+	 * @param labMessage the message that could not be processed
+	 * @should move the file into the error directory
+	 * @should not overwrite a file already in the error directory
+	 */
+	protected void setAside(LabMessage labMessage) {
+		File errorDir = getErrorDir(labMessage);
+		if (errorDir == null)
+			return;
+		File file = new File(labMessage.getFileSystemUrl());
+		if (!file.exists())
+			return;
+
+		errorDir.mkdirs();
+		File errorFile = new File(errorDir, file.getName());
+		for (int i = 1; errorFile.exists(); i++)
+			errorFile = new File(errorDir, file.getName() + "-" + i);
+
+		// the queue index notices the file is gone when it reaches it, or
+		// when it rescans the changed queue directory
+		if (file.renameTo(errorFile))
+			log.warn("Moved " + file.getAbsolutePath() + " to " + errorFile.getAbsolutePath());
+		else
+			log.error("Unable to move " + file.getAbsolutePath() + " to " + errorFile.getAbsolutePath());
+	}
+
+	/**
+	 * @return the file recording how many messages of a queued file have been
+	 *         saved, or null if the message has no file
+	 */
+	protected File getProgressFile(LabMessage labMessage) {
+		if (labMessage.getFileSystemUrl() == null)
+			return null;
+		File file = new File(labMessage.getFileSystemUrl());
+		return new File(new File(file.getParentFile(), PROGRESS_DIR), file.getName());
+	}
+
+	/**
+	 * @return the number of messages of a queued file saved by an earlier
+	 *         attempt, or 0 if none were
+	 */
+	private int getSavedCount(LabMessage labMessage) {
+		File progress = getProgressFile(labMessage);
+		if (progress == null || !progress.exists())
+			return 0;
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(progress));
+			try {
+				String line = reader.readLine();
+				return (line == null) ? 0 : Integer.parseInt(line.trim());
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new PcsLabInterfaceException("Unable to read the progress of " + labMessage.getFileSystemUrl(), e);
+		} catch (NumberFormatException e) {
+			throw new PcsLabInterfaceException("Unable to read the progress of " + labMessage.getFileSystemUrl(), e);
+		}
+	}
+
+	/**
+	 * records how many messages of a queued file have been saved
+	 */
+	private void setSavedCount(LabMessage labMessage, int saved) {
+		File progress = getProgressFile(labMessage);
+		if (progress == null)
+			return;
+		try {
+			progress.getParentFile().mkdirs();
+			PcsLabInterfaceUtil.stringToFile(String.valueOf(saved), progress);
+		} catch (IOException e) {
+			throw new PcsLabInterfaceException("Unable to record the progress of " + labMessage.getFileSystemUrl(), e);
+		}
+	}
+
+	/**
+	 * forgets the progress of a queued file once it has been archived
+	 */
+	private void clearSavedCount(LabMessage labMessage) {
+		File progress = getProgressFile(labMessage);
+		if (progress != null && progress.exists() && !progress.delete())
+			log.warn("Unable to delete " + progress.getAbsolutePath());
+	}
+
+	/**
+	 * opens a splitter over the file behind a lab message, or over its data if
+	 * it has no file
+	 */
+	private LabMessageSplitter openSplitter(LabMessage labMessage) {
+		if (labMessage.getFileSystemUrl() != null) {
+			File file = new File(labMessage.getFileSystemUrl());
+			if (file.exists()) {
+				try {
+					return new LabMessageSplitter(new FileReader(file));
+				} catch (FileNotFoundException e) {
+					throw new PcsLabInterfaceException("Unable to open lab message: " + file.getAbsolutePath(), e);
+				}
+			}
+		}
+		String data = labMessage.getData();
+		return new LabMessageSplitter(new StringReader(data == null ? "" : data));
+	}
+
+	/**
+	 * Checks whether a queued message has to be read a message at a time
+	 * rather than handled as part of a batch
+	 *
+	 * @param labMessage the queued message
+	 * @return true if the file is large or holds more than one HL7 message
+	 */
+	protected boolean isSplitRequired(LabMessage labMessage) {
+		if (labMessage.getFileSystemUrl() != null
+				&& new File(labMessage.getFileSystemUrl()).length() > STREAMING_THRESHOLD)
+			return true;
+		return LabMessageSplitter.containsMultipleMessages(labMessage.getData());
+	}
+
+	/**
+	 * Builds the HL7 incoming queue item for an already pre-processed lab
+	 * message, without saving anything
+	 *
+	 * @param labMessage the original message
+	 * @param hl7Message the pre-processed HL7 text
+	 * @param hl7Source the source to attribute the message to
+	 * @return the unsaved HL7 queue item, or null if the message is blank
+	 */
+	protected HL7InQueue createHL7InQueue(LabMessage labMessage, String hl7Message, HL7Source hl7Source) {
+		return createHL7InQueue(labMessage, LabMessageHeader.parse(labMessage.getData()), hl7Message, 0, hl7Source);
+	}
+
+	/**
+	 * Builds the HL7 incoming queue item for one pre-processed message out of
+	 * a lab message file, without saving anything
+	 *
+	 * @param labMessage the file the message came from
+	 * @param header the header of the original message
+	 * @param hl7Message the pre-processed HL7 text
+	 * @param index the position of the message within the file
+	 * @param hl7Source the source to attribute the message to
+	 * @return the unsaved HL7 queue item, or null if the message is blank
+	 */
+	protected HL7InQueue createHL7InQueue(LabMessage labMessage, LabMessageHeader header, String hl7Message,
+			int index, HL7Source hl7Source) {
+		if (hl7Message == null || hl7Message.length() == 0) {
+			log.warn("The file: " + labMessage.getFileSystemUrl() + " might be blank!");
+			return null;
+		}
+
+		// build the HL7 message
+		HL7InQueue hl7InQueue = new HL7InQueue();
+		hl7InQueue.setHL7Data(hl7Message);
+		hl7InQueue.setHL7Source(hl7Source);
+
+		// generate the source key
+		String hl7SourceKey = String.valueOf(labMessage.getLabMessageId());
+		if (index > 0)
+			hl7SourceKey += "-" + index;
 
-		LabMessageArchive labMessageArchive = new LabMessageArchive(labMessage);
-		pcsService.createLabMessageArchive(labMessageArchive);
-		pcsService.deleteLabMessage(labMessage);
+		// if possible, use the message control id as the source key
+		if (header.getControlId() != null)
+			hl7SourceKey = header.getControlId();
+		hl7InQueue.setHL7SourceKey(hl7SourceKey);
 
-		pcsService.garbageCollect();
+		return hl7InQueue;
+	}
+
+	/**
+	 * TODO: do something better than this for choosing HL7Source
+	 */
+	private HL7Source getHL7Source() {
+		return Context.getHL7Service().getHL7Source(Integer.valueOf(1));
 	}
 
 	/**
@@ -94,40 +394,49 @@ public class PcsLabInterfaceQueueProcessor {
 	 * @should remove null strings from final results
 	 */
 	protected String preProcessMessage(String data) {
+		return preProcessMessage(LabMessageHeader.parse(data), data);
+	}
 
-		// bail if not a PCS message
-		if (data == null || !data.contains("PCSLABPLUS")) {
+	/**
+	 * process the message with the rules for the application that sent it
+	 *
+	 * @param header the header of the message
+	 * @param data the message to be processed
+	 * @return results of processing the message
+	 * @should only process messages sent by PCS
+	 * @should read lines ending in CR, LF or CRLF
+	 */
+	protected String preProcessMessage(LabMessageHeader header, String data) {
+
+		// bail if no rules apply to messages from this application
+		TransformRuleDispatcher dispatcher = getDispatcher(header);
+		if (data == null || dispatcher == null) {
 			return data;
 		}
 
-		// TODO '\r' happens to be the character between lines at this time, but
-		// this may not always be the case. we should make this more flexible to
-		// recognize line endings
-		String[] lines = data
-				.split(PcsLabInterfaceConstants.MESSAGE_EOL_SEQUENCE);
-		List<String> results = new ArrayList<String>();
-
-		// loop through lines of the HL7
-		for (String line : lines) {
-			// loop through transform rules
-			for (TransformRule rule : PcsLabInterfaceConstants
-					.TRANSFORM_RULES())
-				if (rule.matches(line))
-					// TODO perhaps expect a list back from transform() so we can addAll() results
-					line = rule.transform(line);
-			// append the line to the results
-			results.add(line);
+		// the rules rewrite each line in place in one buffer, which also
+		// leaves out lines that end up empty; lines may end in \r, \n or
+		// \r\n, and are written back separated by the HL7 segment terminator
+		HL7MessageBuffer message = new HL7MessageBuffer(data.length() + 256);
+		HL7SegmentReader reader = new HL7SegmentReader(data);
+		while (reader.next(message)) {
+			// apply the transform rules that can change this line
+			dispatcher.transform(message);
 		}
 
-		// remove empty strings from list
-		List<String> finished = new ArrayList<String>();
-		for (String line : results) {
-			if (StringUtils.hasText(line))
-				finished.add(line);
-		}
+		return message.toString();
+	}
 
-		return StringUtils.collectionToDelimitedString(finished,
-				PcsLabInterfaceConstants.MESSAGE_EOL_SEQUENCE);
+	/**
+	 * @param header the header of a message
+	 * @return the rules for messages from the application that sent it, or
+	 *         null if its messages are not pre-processed; only PCS Lab Plus
+	 *         messages are
+	 */
+	protected TransformRuleDispatcher getDispatcher(LabMessageHeader header) {
+		if (header.isPcsLabPlus())
+			return PcsLabInterfaceConstants.TRANSFORM_RULE_DISPATCHER();
+		return null;
 	}
 
 	/**
@@ -147,12 +456,193 @@ public class PcsLabInterfaceQueueProcessor {
 		}
 		LabMessage labMessage;
 		if ((labMessage = pcsService.getNextLabMessage()) != null) {
-			parseLabMessage(labMessage);
+			parseLabMessageOrSetAside(labMessage);
 			transformOccurred = true;
 		}
 		return transformOccurred;
 	}
 
+	/**
+	 * Picks up to batchSize messages from the queue and moves them into the
+	 * HL7 incoming queue together: every message is pre-processed, the HL7
+	 * queue items are inserted in one batch and the lab messages are archived
+	 * afterwards. If anything in the batch fails, the messages are handled
+	 * one at a time instead so a single bad file cannot hold up the others.
+	 * A message that fails on its own, including a file split a message at a
+	 * time, is logged and its file moved into the error subdirectory of the
+	 * queue directory.
+	 * <p/>
+	 * If fewer than batchSize messages are waiting, waits up to maxWait
+	 * milliseconds for more to arrive before processing a partial batch.
+	 *
+	 * @param batchSize the most messages to handle together
+	 * @param maxWait how long to wait for a batch to fill up, in milliseconds
+	 * @return true if any messages were transformed
+	 * @see #processLabMessageQueue()
+	 */
+	public boolean transformNextLabMessages(int batchSize, long maxWait) {
+		PcsLabInterfaceService pcsService = null;
+		try {
+			pcsService = Context.getService(PcsLabInterfaceService.class);
+		} catch (APIException e) {
+			log.debug("PcsLabInterfaceService not found");
+			return false;
+		}
+
+		List<LabMessage> batch = getNextBatch(pcsService, batchSize, maxWait);
+		if (batch.isEmpty())
+			return false;
+
+		// files holding several messages are handled on their own
+		for (Iterator<LabMessage> i = batch.iterator(); i.hasNext();) {
+			LabMessage labMessage = i.next();
+			if (isSplitRequired(labMessage)) {
+				i.remove();
+				parseLabMessageOrSetAside(labMessage);
+			}
+		}
+		if (batch.isEmpty())
+			return true;
+
+		List<String> hl7Messages;
+		try {
+			HL7Source hl7Source = getHL7Source();
+			hl7Messages = preProcessMessages(batch);
+			List<HL7InQueue> hl7InQueues = new ArrayList<HL7InQueue>(batch.size());
+			for (int i = 0; i < batch.size(); i++) {
+				HL7InQueue hl7InQueue = createHL7InQueue(batch.get(i), hl7Messages.get(i), hl7Source);
+				if (hl7InQueue != null)
+					hl7InQueues.add(hl7InQueue);
+			}
+			pcsService.saveHL7InQueues(hl7InQueues);
+		} catch (RuntimeException e) {
+			log.warn("Unable to process a batch of " + batch.size()
+					+ " lab messages, processing them one at a time", e);
+			for (LabMessage labMessage : batch)
+				parseLabMessageOrSetAside(labMessage);
+			return true;
+		}
+
+		pcsService.archiveLabMessages(batch, hl7Messages);
+		return true;
+	}
+
+	/**
+	 * Pre-processes a batch of messages, in parallel if a worker pool is
+	 * configured. Messages for the same patient are processed in order and
+	 * the results come back in the same order as the batch.
+	 *
+	 * @param batch the lab messages to pre-process
+	 * @return the pre-processed HL7 text of each message
+	 */
+	protected List<String> preProcessMessages(List<LabMessage> batch) {
+		List<String> results = new ArrayList<String>(batch.size());
+
+		LabMessagePreProcessorPool pool = getPreProcessorPool();
+		if (pool == null) {
+			for (LabMessage labMessage : batch)
+				results.add(preProcessMessage(labMessage.getData()));
+			return results;
+		}
+
+		// anything the rules load from the database has to be loaded here,
+		// the workers have no session
+		PcsLabInterfaceConstants.TRANSFORM_RULE_DISPATCHER();
+		ChangeDatatypeForNumericObservations.loadNumericConceptIds();
+
+		List<Future<String>> pending = new ArrayList<Future<String>>(batch.size());
+		for (LabMessage labMessage : batch) {
+			final String data = labMessage.getData();
+			pending.add(pool.submit(LabMessagePreProcessorPool.getPatientIdentifier(data), new Callable<String>() {
+
+				public String call() {
+					return preProcessMessage(data);
+				}
+			}));
+		}
+
+		for (Future<String> result : pending) {
+			try {
+				results.add(result.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new PcsLabInterfaceException("Interrupted while pre-processing lab messages", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new PcsLabInterfaceException("Unable to pre-process lab message", e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Gets the pre-processing worker pool, resizing it if the number of
+	 * threads configured has changed
+	 *
+	 * @return the worker pool, or null if only one thread is configured
+	 */
+	private synchronized LabMessagePreProcessorPool getPreProcessorPool() {
+		int threads = PcsLabInterfaceUtil.getIntegerGlobalProperty(
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_PREPROCESSOR_THREADS,
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_PREPROCESSOR_THREADS_DEFAULT);
+
+		if (preProcessorPool != null && preProcessorPool.getThreads() != threads) {
+			preProcessorPool.shutdown();
+			preProcessorPool = null;
+		}
+		if (preProcessorPool == null && threads > 1)
+			preProcessorPool = new LabMessagePreProcessorPool(threads);
+
+		return preProcessorPool;
+	}
+
+	/**
+	 * Gets the memory policy for the configured heap threshold, replacing it
+	 * if the threshold has changed
+	 *
+	 * @return the memory policy
+	 */
+	public synchronized LabMessageMemoryPolicy getMemoryPolicy() {
+		int threshold = PcsLabInterfaceUtil.getIntegerGlobalProperty(
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_HEAP_THRESHOLD,
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_HEAP_THRESHOLD_DEFAULT);
+
+		if (memoryPolicy == null || memoryPolicy.getThresholdPercent() != threshold)
+			memoryPolicy = new LabMessageMemoryPolicy(threshold);
+
+		return memoryPolicy;
+	}
+
+	/**
+	 * stops any pre-processing worker threads
+	 */
+	public synchronized void shutdown() {
+		if (preProcessorPool != null) {
+			preProcessorPool.shutdown();
+			preProcessorPool = null;
+		}
+	}
+
+	/**
+	 * collects the next batch of queued messages, waiting up to maxWait
+	 * milliseconds for a partial batch to fill up
+	 */
+	private List<LabMessage> getNextBatch(PcsLabInterfaceService pcsService, int batchSize, long maxWait) {
+		List<LabMessage> batch = pcsService.getNextLabMessages(batchSize);
+		long deadline = System.currentTimeMillis() + maxWait;
+		while (!batch.isEmpty() && batch.size() < batchSize && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(Math.min(BATCH_POLL_INTERVAL, maxWait));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			batch = pcsService.getNextLabMessages(batchSize);
+		}
+		return batch;
+	}
+
 	/**
 	 * iterates over queue contents for transformation
 	 */
@@ -167,9 +657,24 @@ public class PcsLabInterfaceQueueProcessor {
 		try {
 			log.debug("Start processing PcsLabInterface queue");
 			log.debug("PcsLabInterface processor hash: " + super.hashCode());
-			while (transformNextLabMessage())
-				;
-			log.debug("Done processing PcsLabInterface queue");
+			int batchSize = PcsLabInterfaceUtil.getIntegerGlobalProperty(
+					PcsLabInterfaceConstants.PCSLABINTERFACE_GP_BATCH_SIZE,
+					PcsLabInterfaceConstants.PCSLABINTERFACE_GP_BATCH_SIZE_DEFAULT);
+			int maxWait = PcsLabInterfaceUtil.getIntegerGlobalProperty(
+					PcsLabInterfaceConstants.PCSLABINTERFACE_GP_BATCH_MAX_WAIT,
+					PcsLabInterfaceConstants.PCSLABINTERFACE_GP_BATCH_MAX_WAIT_DEFAULT);
+			LabMessageMemoryPolicy policy = getMemoryPolicy();
+			policy.publish();
+			if (batchSize > 1) {
+				int size;
+				while ((size = policy.getBatchSize(batchSize)) > 0
+						&& transformNextLabMessages(size, maxWait))
+					;
+			} else {
+				while (policy.getBatchSize(1) > 0 && transformNextLabMessage())
+					;
+			}
+			log.debug("Done processing PcsLabInterface queue (" + policy + ")");
 		} finally {
 			isRunning = Boolean.valueOf(false);
 		}
@@ -15,11 +15,15 @@ package org.openmrs.module.pcslabinterface;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 
+import org.openmrs.Obs;
 import org.openmrs.Person;
 import org.openmrs.Provider;
 import org.openmrs.annotation.Authorized;
+import org.openmrs.hl7.HL7InQueue;
 import org.springframework.transaction.annotation.Transactional;
 
 @Transactional
@@ -41,10 +45,77 @@ public abstract interface PcsLabInterfaceService {
 	@Authorized({"View PcsLabInterface Queue"})
 	public abstract LabMessage getNextLabMessage();
 
+	/**
+	 * Gets the oldest messages in the queue without removing them
+	 *
+	 * @param max the most messages to return
+	 * @return up to max queued messages, oldest first
+	 */
+	@Transactional(readOnly = true)
+	@Authorized({"View PcsLabInterface Queue"})
+	public List<LabMessage> getNextLabMessages(int max);
+
 	@Transactional(readOnly = true)
 	@Authorized({"View PcsLabInterface Queue"})
 	public abstract Integer getLabMessageQueueSize();
 
+	/**
+	 * Saves a group of HL7 messages into the HL7 incoming queue with a single
+	 * batched insert. Either all of them are saved or none are.
+	 *
+	 * @param hl7InQueues the HL7 messages to save
+	 */
+	public void saveHL7InQueues(List<HL7InQueue> hl7InQueues);
+
+	/**
+	 * Saves the obs of a lab message that has no encounter with batched
+	 * inserts, rather than one insert per obs. The obs are written in as few
+	 * batches as their groups allow, since an obs can only be written once the
+	 * obs it points at has an id. Each obs of a value group but the first is
+	 * taken out of its obs group and given the id of the first as its value
+	 * group id before it is written; the first is then given its own id with a
+	 * single update for all value groups. Like the HL7 messages of
+	 * {@link #saveHL7InQueues(List)}, the obs do not go through the
+	 * ObsService, so its save handlers and advice do not see them.
+	 *
+	 * @param obs the top level obs, along with their group members
+	 * @param valueGroups the obs of each value group, first obs first
+	 * @should save the obs and their group members
+	 * @should point the obs of a value group at the first one
+	 */
+	@Authorized({"Add Observations"})
+	public void saveObs(List<Obs> obs, List<List<Obs>> valueGroups);
+
+	/**
+	 * Moves a processed message out of the queue and into the archive
+	 * directory. The queue file itself is renamed into the archive, so the
+	 * message is not written out again; a second, transformed copy is only
+	 * written when pre-processing changed the text.
+	 *
+	 * @param labMessage the processed message
+	 * @param transformedData the pre-processed text, or null if there is none
+	 * @should move the queue file into the archive directory
+	 * @should only write a transformed copy if the text was changed
+	 */
+	@Authorized(value = {PcsLabInterfaceConstants.PRIV_ADD_LAB_MESSAGE_ARCHIVE, "Delete PcsLabInterface Queue"}, requireAll = true)
+	public void archiveLabMessage(LabMessage labMessage, String transformedData);
+
+	/**
+	 * Archives and then removes each of the given messages from the queue
+	 *
+	 * @param labMessages the processed messages
+	 * @param transformedData the pre-processed text of each message, in the
+	 *            same order, or null if there is none
+	 * @see #archiveLabMessage(LabMessage, String)
+	 */
+	@Authorized(value = {PcsLabInterfaceConstants.PRIV_ADD_LAB_MESSAGE_ARCHIVE, "Delete PcsLabInterface Queue"}, requireAll = true)
+	public void archiveLabMessages(List<LabMessage> labMessages, List<String> transformedData);
+
+	/**
+	 * @deprecated heap use while draining the queue is managed by
+	 *             {@link LabMessageMemoryPolicy}; this no longer does anything
+	 */
+	@Deprecated
 	public abstract void garbageCollect();
 
 	/**
@@ -56,9 +127,11 @@ public abstract interface PcsLabInterfaceService {
 	public void createLabMessageArchive(LabMessageArchive labMessageArchive);
 
 	/**
-	 * Get all lab message archive items
+	 * Get all lab message archive items. The transformed copies kept next
+	 * to archived messages are not items of their own.
 	 *
 	 * @return list of lab message archive items
+	 * @should not list transformed copies
 	 */
 	@Transactional(readOnly = true)
 	@Authorized({PcsLabInterfaceConstants.PRIV_VIEW_LAB_MESSAGE_ARCHIVE})
@@ -71,7 +144,8 @@ public abstract interface PcsLabInterfaceService {
 	public void deleteLabMessageArchive(LabMessageArchive labMessageArchive);
 
 	/**
-	 * Get the number of lab message archive items
+	 * Get the number of lab message archive items, not counting transformed
+	 * copies
 	 *
 	 * @return integer number of archive items
 	 */
@@ -82,6 +156,48 @@ public abstract interface PcsLabInterfaceService {
 	@Transactional(readOnly = true)
 	public List<Integer> getNumericConceptIds();
 
+	/**
+	 * Finds the provider of the user with a system id, in a single query
+	 *
+	 * @param systemId the user's system id
+	 * @return the user's provider, preferring one that is not retired, or null
+	 * @should find the provider of a user in one query
+	 */
 	@Transactional(readOnly = true)
 	public Provider getProviderBySystemId(String systemId);
+
+	/**
+	 * @param personId the id of a person
+	 * @return the person's provider, preferring one that is not retired, or
+	 *         null
+	 * @should find the provider of a person
+	 */
+	@Transactional(readOnly = true)
+	public Provider getProviderByPersonId(Integer personId);
+
+	/**
+	 * Finds the patients holding each of the given identifiers in a single
+	 * query. Identifiers are matched exactly, ignoring their type; voided
+	 * identifiers and patients are left out.
+	 *
+	 * @param identifiers the identifiers to look for
+	 * @return the ids of the patients holding each identifier that was found
+	 * @should find the patient holding each identifier
+	 * @should leave out identifiers that are not found
+	 */
+	@Transactional(readOnly = true)
+	public Map<String, Set<Integer>> getPatientIdsByIdentifier(Collection<String> identifiers);
+
+	/**
+	 * Finds the value of a person's attribute in a single query, without
+	 * loading the person; voided attributes are left out.
+	 *
+	 * @param personId the id of the person
+	 * @param personAttributeTypeId the id of the attribute type
+	 * @return the value of the attribute, or null if the person has none
+	 * @should find the value of a person's attribute
+	 * @should return null for a person without the attribute
+	 */
+	@Transactional(readOnly = true)
+	public String getPersonAttributeValue(Integer personId, Integer personAttributeTypeId);
 }
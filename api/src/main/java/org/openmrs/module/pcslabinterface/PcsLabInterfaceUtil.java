@@ -207,6 +207,27 @@ public class PcsLabInterfaceUtil {
 		return outFile;
 	}
 
+	/**
+	 * Gets a global property as a whole number, falling back to the default
+	 * if the property is missing or not a number
+	 *
+	 * @param propertyName the global property to read
+	 * @param defaultValue value to use if the property is not usable
+	 * @return the integer value of the global property
+	 */
+	public static int getIntegerGlobalProperty(String propertyName, int defaultValue) {
+		String value = Context.getAdministrationService().getGlobalProperty(propertyName);
+		if (!StringUtils.hasText(value))
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			log.warn("Global property " + propertyName + " should be a whole number but is '" + value
+					+ "', using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
 	public static void stringToFile(String fileContents, File outFile)
 			throws IOException {
 		FileWriter writer = new FileWriter(outFile);
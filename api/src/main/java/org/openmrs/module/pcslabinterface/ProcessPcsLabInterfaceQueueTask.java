@@ -46,6 +46,8 @@ public class ProcessPcsLabInterfaceQueueTask extends AbstractTask {
 
 	public void shutdown() {
 		log.debug("Shutting down ProcessPcsLabInterfaceQueue task ...");
+		if (this.processor != null)
+			this.processor.shutdown();
 		this.processor = null;
 	}
 }
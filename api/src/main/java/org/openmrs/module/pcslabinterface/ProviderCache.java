@@ -0,0 +1,259 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.Provider;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+
+/**
+ * Remembers the provider of each ordering clinician named in lab messages,
+ * by the system id PCS sends and by person id.
+ * <p/>
+ * PCS only sends a few dozen clinicians, so almost every message is answered
+ * from memory. Only provider ids are kept, and the provider is loaded by id,
+ * so nothing here is tied to the Hibernate session that found it. A
+ * clinician without a provider is remembered too, so a message naming one
+ * does not query again. Entries are used until they are older than the
+ * configured time to live, which is read again whenever its global property
+ * changes, and all are forgotten whenever a provider or user is saved. Each
+ * key is kept in an {@link IdCache} of at most {@link #MAX_SIZE} clinicians.
+ * <p/>
+ * Its counters are published over JMX as {@link ProviderCacheMBean}.
+ */
+public class ProviderCache implements ProviderCacheMBean, GlobalPropertyListener {
+
+	/**
+	 * the most clinicians remembered by either key
+	 */
+	private static final int MAX_SIZE = 1000;
+
+	private static volatile ProviderCache instance = new ProviderCache();
+
+	/**
+	 * clinicians by system id
+	 */
+	private final IdCache<String, CachedProvider> bySystemId = new ProviderIds<String>();
+
+	/**
+	 * clinicians by person id
+	 */
+	private final IdCache<Integer, CachedProvider> byPersonId = new ProviderIds<Integer>();
+
+	/**
+	 * how long entries are used for, in milliseconds, or -1 until read
+	 */
+	private volatile long timeToLive = -1;
+
+	/**
+	 * @return the cache shared by the HL7 handler
+	 */
+	public static ProviderCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Finds the provider of the user with a system id
+	 *
+	 * @param systemId the user's system id
+	 * @return the provider, or null if the user has none
+	 * @should look up a system id only once
+	 * @should remember system ids without a provider
+	 * @should look up a system id again once it expires
+	 */
+	public Provider getProviderBySystemId(String systemId) {
+		return bySystemId.get(systemId, new IdCache.Loader<String, CachedProvider>() {
+
+			public CachedProvider load(String key) {
+				return new CachedProvider(lookUpBySystemId(key));
+			}
+		}).getProvider();
+	}
+
+	/**
+	 * Finds the provider of a person
+	 *
+	 * @param personId the id of the person
+	 * @return the provider, or null if the person has none
+	 * @should look up a person only once
+	 */
+	public Provider getProviderByPersonId(Integer personId) {
+		return byPersonId.get(personId, new IdCache.Loader<Integer, CachedProvider>() {
+
+			public CachedProvider load(Integer key) {
+				return new CachedProvider(lookUpByPersonId(key));
+			}
+		}).getProvider();
+	}
+
+	/**
+	 * forgets every provider, so each is looked up again on next use
+	 *
+	 * @should look up providers again once invalidated
+	 */
+	public void invalidate() {
+		bySystemId.invalidate();
+		byPersonId.invalidate();
+		timeToLive = -1;
+	}
+
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#supportsPropertyName(java.lang.String)
+	 */
+	public boolean supportsPropertyName(String propertyName) {
+		return PcsLabInterfaceConstants.PCSLABINTERFACE_GP_PROVIDER_CACHE_TTL.equals(propertyName);
+	}
+
+	/**
+	 * reads the time to live again on next use; the clinicians already
+	 * remembered are kept, and expire by the new time to live
+	 *
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 * @should use the new time to live for clinicians already remembered
+	 */
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		timeToLive = -1;
+	}
+
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyDeleted(java.lang.String)
+	 */
+	public void globalPropertyDeleted(String propertyName) {
+		timeToLive = -1;
+	}
+
+	/**
+	 * @param systemId the system id of a user
+	 * @return the user's provider, or null if there is none
+	 */
+	protected Provider lookUpBySystemId(String systemId) {
+		return Context.getService(PcsLabInterfaceService.class).getProviderBySystemId(systemId);
+	}
+
+	/**
+	 * @param personId the id of a person
+	 * @return the person's provider, or null if there is none
+	 */
+	protected Provider lookUpByPersonId(Integer personId) {
+		return Context.getService(PcsLabInterfaceService.class).getProviderByPersonId(personId);
+	}
+
+	/**
+	 * @param providerId the id of a provider
+	 * @return the provider, loaded through the current session
+	 */
+	protected Provider getProvider(Integer providerId) {
+		return Context.getProviderService().getProvider(providerId);
+	}
+
+	/**
+	 * @return how long entries are used for, in milliseconds
+	 */
+	protected long getTimeToLive() {
+		return 1000L * PcsLabInterfaceUtil.getIntegerGlobalProperty(
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_PROVIDER_CACHE_TTL,
+				PcsLabInterfaceConstants.PCSLABINTERFACE_GP_PROVIDER_CACHE_TTL_DEFAULT);
+	}
+
+	/**
+	 * @return the number of clinicians remembered, by either key
+	 */
+	public int getSize() {
+		return bySystemId.getSize() + byPersonId.getSize();
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return bySystemId.getHits() + byPersonId.getHits();
+	}
+
+	/**
+	 * @return the number of lookups that had to query the database
+	 */
+	public long getMisses() {
+		return bySystemId.getMisses() + byPersonId.getMisses();
+	}
+
+	/**
+	 * @return the number of entries looked up again because they were too old
+	 */
+	public long getExpirations() {
+		return bySystemId.getExpirations() + byPersonId.getExpirations();
+	}
+
+	/**
+	 * @return the number of clinicians dropped to make room for others
+	 */
+	public long getEvictions() {
+		return bySystemId.getEvictions() + byPersonId.getEvictions();
+	}
+
+	/**
+	 * @return the number of times the cache has been emptied
+	 */
+	public long getInvalidations() {
+		// both keys are always emptied together
+		return bySystemId.getInvalidations();
+	}
+
+	@Override
+	public String toString() {
+		return getHits() + " hit(s), " + getMisses() + " miss(es), " + getExpirations() + " expiration(s), "
+				+ getEvictions() + " eviction(s), " + getInvalidations() + " invalidation(s)";
+	}
+
+	/**
+	 * clinicians by one key, which expire by the time to live
+	 */
+	private class ProviderIds<K> extends IdCache<K, CachedProvider> {
+
+		public ProviderIds() {
+			super(MAX_SIZE);
+		}
+
+		@Override
+		protected boolean isExpired(CachedProvider cached) {
+			return cached.isExpired();
+		}
+	}
+
+	/**
+	 * the id of a clinician's provider, or null if there is none, and when it
+	 * was found
+	 */
+	private class CachedProvider {
+
+		private final Integer providerId;
+
+		private final long loadedAt = System.currentTimeMillis();
+
+		public CachedProvider(Provider provider) {
+			this.providerId = (provider == null) ? null : provider.getProviderId();
+		}
+
+		public boolean isExpired() {
+			long ttl = timeToLive;
+			if (ttl < 0)
+				timeToLive = ttl = getTimeToLive();
+			return ttl > 0 && System.currentTimeMillis() - loadedAt >= ttl;
+		}
+
+		public Provider getProvider() {
+			return (providerId == null) ? null : ProviderCache.this.getProvider(providerId);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pcslabinterface.rules.TransformRule;
+import org.openmrs.module.pcslabinterface.rules.TransformRuleDispatcher;
+import org.openmrs.module.pcslabinterface.rules.TransformRuleParser;
+
+/**
+ * Keeps the dispatcher used to pre-process messages up to date with the
+ * transform rules defined in the
+ * {@link PcsLabInterfaceConstants#PCSLABINTERFACE_GP_TRANSFORM_RULES} global
+ * property, so rules can be changed without redeploying the module.
+ * <p/>
+ * The built-in rules always run first, followed by the defined rules in the
+ * order they are defined. A new definition is compiled into a new dispatcher
+ * which then replaces the old one, so a message is always transformed by a
+ * single, complete set of rules. A definition that is not valid is logged
+ * and ignored, and the rules already in use are kept.
+ */
+public class TransformRuleLoader implements GlobalPropertyListener {
+
+	private static final Log log = LogFactory.getLog(TransformRuleLoader.class);
+
+	private static volatile TransformRuleDispatcher dispatcher = null;
+
+	/**
+	 * @return the dispatcher over the current transform rules; loads the rules
+	 *         on first use, which needs an OpenMRS session
+	 */
+	public static TransformRuleDispatcher getDispatcher() {
+		TransformRuleDispatcher current = dispatcher;
+		if (current == null) {
+			synchronized (TransformRuleLoader.class) {
+				if (dispatcher == null)
+					load(Context.getAdministrationService().getGlobalProperty(
+							PcsLabInterfaceConstants.PCSLABINTERFACE_GP_TRANSFORM_RULES));
+				current = dispatcher;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Compiles a rule definition and starts using it in place of the current
+	 * rules
+	 *
+	 * @param definition the XML definition of the rules, see
+	 *            {@link TransformRuleParser}; null or blank for none
+	 * @return true if the definition was loaded
+	 * @should add the defined rules after the built-in rules
+	 * @should keep the current rules if the definition is not valid
+	 */
+	public static synchronized boolean load(String definition) {
+		List<TransformRule> custom;
+		try {
+			custom = TransformRuleParser.parse(definition);
+		} catch (PcsLabInterfaceException e) {
+			log.error("Ignoring the transform rules in " + PcsLabInterfaceConstants.PCSLABINTERFACE_GP_TRANSFORM_RULES
+					+ ", they are not valid", e);
+			if (dispatcher == null)
+				dispatcher = new TransformRuleDispatcher(PcsLabInterfaceConstants.TRANSFORM_RULES());
+			return false;
+		}
+
+		List<TransformRule> rules = new ArrayList<TransformRule>(Arrays.asList(PcsLabInterfaceConstants
+				.TRANSFORM_RULES()));
+		rules.addAll(custom);
+		dispatcher = new TransformRuleDispatcher(rules.toArray(new TransformRule[rules.size()]));
+
+		if (!custom.isEmpty())
+			log.info("Loaded " + custom.size() + " transform rule(s) from "
+					+ PcsLabInterfaceConstants.PCSLABINTERFACE_GP_TRANSFORM_RULES);
+		return true;
+	}
+
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#supportsPropertyName(java.lang.String)
+	 */
+	public boolean supportsPropertyName(String propertyName) {
+		return PcsLabInterfaceConstants.PCSLABINTERFACE_GP_TRANSFORM_RULES.equals(propertyName);
+	}
+
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 */
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		load(newValue.getPropertyValue());
+	}
+
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyDeleted(java.lang.String)
+	 * @should go back to the built-in rules once the property is deleted
+	 */
+	public void globalPropertyDeleted(String propertyName) {
+		load(null);
+	}
+}
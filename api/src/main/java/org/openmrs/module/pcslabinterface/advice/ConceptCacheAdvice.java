@@ -0,0 +1,49 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface.advice;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openmrs.module.pcslabinterface.ConceptCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Empties the concept cache used by the HL7 handler whenever a concept or
+ * one of its mappings is changed through the ConceptService, so messages are
+ * never resolved against a concept's old datatype, answers or codes.
+ */
+public class ConceptCacheAdvice implements AfterReturningAdvice {
+
+	/**
+	 * ConceptService methods that can change what a code resolves to
+	 */
+	private static final Set<String> CONCEPT_CHANGES = new HashSet<String>(Arrays.asList("saveConcept",
+			"updateConcept", "retireConcept", "unretireConcept", "purgeConcept", "saveConceptReferenceTerm",
+			"retireConceptReferenceTerm", "unretireConceptReferenceTerm", "purgeConceptReferenceTerm",
+			"saveConceptSource", "retireConceptSource", "purgeConceptSource"));
+
+	/**
+	 * @see org.springframework.aop.AfterReturningAdvice#afterReturning(java.lang.Object,
+	 *      java.lang.reflect.Method, java.lang.Object[], java.lang.Object)
+	 * @should invalidate the cache when a concept is saved
+	 * @should not invalidate the cache for other methods
+	 */
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+		if (CONCEPT_CHANGES.contains(method.getName()))
+			ConceptCache.getInstance().invalidate();
+	}
+}
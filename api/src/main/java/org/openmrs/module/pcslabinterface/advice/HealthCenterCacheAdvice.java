@@ -0,0 +1,78 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface.advice;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openmrs.Person;
+import org.openmrs.module.pcslabinterface.HealthCenterCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Makes the health center cache forget a patient whenever the patient is
+ * changed through the PatientService or PersonService, and every patient
+ * whenever a person attribute type is changed, so a health center changed
+ * outside the module is not taken for the current one.
+ */
+public class HealthCenterCacheAdvice implements AfterReturningAdvice {
+
+	/**
+	 * PatientService and PersonService methods that can change a patient's
+	 * attributes
+	 */
+	private static final Set<String> PERSON_CHANGES = new HashSet<String>(Arrays.asList("savePatient",
+			"voidPatient", "unvoidPatient", "purgePatient", "mergePatients", "savePerson", "voidPerson",
+			"unvoidPerson", "purgePerson"));
+
+	/**
+	 * PersonService methods that can change which attribute type holds the
+	 * health center
+	 */
+	private static final Set<String> ATTRIBUTE_TYPE_CHANGES = new HashSet<String>(Arrays.asList(
+			"savePersonAttributeType", "retirePersonAttributeType", "unretirePersonAttributeType",
+			"purgePersonAttributeType"));
+
+	/**
+	 * @see org.springframework.aop.AfterReturningAdvice#afterReturning(java.lang.Object,
+	 *      java.lang.reflect.Method, java.lang.Object[], java.lang.Object)
+	 * @should forget a saved patient
+	 * @should forget every patient when an attribute type is saved
+	 * @should not change the cache for other methods
+	 */
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+		HealthCenterCache cache = HealthCenterCache.getInstance();
+		if (ATTRIBUTE_TYPE_CHANGES.contains(method.getName())) {
+			cache.invalidate();
+			return;
+		}
+		if (!PERSON_CHANGES.contains(method.getName()))
+			return;
+
+		boolean found = false;
+		if (args != null) {
+			for (Object arg : args) {
+				if (arg instanceof Person && ((Person) arg).getPersonId() != null) {
+					cache.invalidate(((Person) arg).getPersonId());
+					found = true;
+				}
+			}
+		}
+
+		if (!found)
+			cache.invalidate();
+	}
+}
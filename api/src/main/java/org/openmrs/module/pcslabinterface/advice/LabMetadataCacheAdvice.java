@@ -0,0 +1,51 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface.advice;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openmrs.module.pcslabinterface.LabMetadataCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Empties the location and form cache used by the HL7 handler whenever a
+ * location is changed through the LocationService, a form through the
+ * FormService or an encounter type through the EncounterService, so a
+ * message is always filed against the current metadata.
+ */
+public class LabMetadataCacheAdvice implements AfterReturningAdvice {
+
+	/**
+	 * LocationService, FormService and EncounterService methods that can
+	 * change what a location or form code resolves to
+	 */
+	private static final Set<String> METADATA_CHANGES = new HashSet<String>(Arrays.asList("saveLocation",
+			"retireLocation", "unretireLocation", "purgeLocation", "saveForm", "retireForm", "unretireForm",
+			"purgeForm", "saveEncounterType", "retireEncounterType", "unretireEncounterType",
+			"purgeEncounterType"));
+
+	/**
+	 * @see org.springframework.aop.AfterReturningAdvice#afterReturning(java.lang.Object,
+	 *      java.lang.reflect.Method, java.lang.Object[], java.lang.Object)
+	 * @should invalidate the cache when a form is saved
+	 * @should not invalidate the cache for other methods
+	 */
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+		if (METADATA_CHANGES.contains(method.getName()))
+			LabMetadataCache.getInstance().invalidate();
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface.advice;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openmrs.module.pcslabinterface.NumericConceptIdCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Marks the cached numeric concept ids out of date whenever a concept is
+ * saved, retired, unretired or purged through the ConceptService, so a new
+ * numeric concept is recognized without restarting OpenMRS.
+ */
+public class NumericConceptIdCacheAdvice implements AfterReturningAdvice {
+
+	/**
+	 * ConceptService methods that can change which concepts are numeric
+	 */
+	private static final Set<String> CONCEPT_CHANGES = new HashSet<String>(Arrays.asList("saveConcept",
+			"updateConcept", "retireConcept", "unretireConcept", "purgeConcept"));
+
+	/**
+	 * @see org.springframework.aop.AfterReturningAdvice#afterReturning(java.lang.Object,
+	 *      java.lang.reflect.Method, java.lang.Object[], java.lang.Object)
+	 * @should invalidate the cache when a concept is saved
+	 * @should not invalidate the cache for other methods
+	 */
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+		if (CONCEPT_CHANGES.contains(method.getName()))
+			NumericConceptIdCache.getInstance().invalidate();
+	}
+}
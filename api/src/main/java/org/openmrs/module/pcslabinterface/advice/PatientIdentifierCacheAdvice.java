@@ -0,0 +1,72 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface.advice;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.module.pcslabinterface.PatientIdentifierCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Makes the patient identifier cache forget the identifiers of a patient
+ * whenever the patient or one of its identifiers is changed through the
+ * PatientService, so a moved or voided identifier is not resolved to its
+ * old patient.
+ */
+public class PatientIdentifierCacheAdvice implements AfterReturningAdvice {
+
+	/**
+	 * PatientService methods that can change which patient holds an
+	 * identifier
+	 */
+	private static final Set<String> PATIENT_CHANGES = new HashSet<String>(Arrays.asList("savePatient",
+			"voidPatient", "unvoidPatient", "purgePatient", "mergePatients", "savePatientIdentifier",
+			"voidPatientIdentifier", "purgePatientIdentifier"));
+
+	/**
+	 * @see org.springframework.aop.AfterReturningAdvice#afterReturning(java.lang.Object,
+	 *      java.lang.reflect.Method, java.lang.Object[], java.lang.Object)
+	 * @should forget the identifiers of a saved patient
+	 * @should forget every identifier when the patient is not known
+	 * @should not change the cache for other methods
+	 */
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+		if (!PATIENT_CHANGES.contains(method.getName()))
+			return;
+
+		PatientIdentifierCache cache = PatientIdentifierCache.getInstance();
+		boolean found = false;
+		if (args != null) {
+			for (Object arg : args) {
+				Patient patient = null;
+				if (arg instanceof Patient)
+					patient = (Patient) arg;
+				else if (arg instanceof PatientIdentifier)
+					patient = ((PatientIdentifier) arg).getPatient();
+				if (patient != null) {
+					cache.invalidate(patient);
+					found = true;
+				}
+			}
+		}
+
+		if (!found)
+			cache.invalidate();
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface.advice;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openmrs.module.pcslabinterface.ProviderCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Empties the provider cache used by the HL7 handler whenever a provider is
+ * changed through the ProviderService or a user through the UserService, so
+ * a clinician given a new provider or system id is found straight away.
+ */
+public class ProviderCacheAdvice implements AfterReturningAdvice {
+
+	/**
+	 * ProviderService and UserService methods that can change which provider
+	 * a clinician resolves to
+	 */
+	private static final Set<String> PROVIDER_CHANGES = new HashSet<String>(Arrays.asList("saveProvider",
+			"retireProvider", "unretireProvider", "purgeProvider", "saveUser", "createUser", "updateUser",
+			"retireUser", "unretireUser", "purgeUser"));
+
+	/**
+	 * @see org.springframework.aop.AfterReturningAdvice#afterReturning(java.lang.Object,
+	 *      java.lang.reflect.Method, java.lang.Object[], java.lang.Object)
+	 * @should invalidate the cache when a provider is saved
+	 * @should not invalidate the cache for other methods
+	 */
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+		if (PROVIDER_CHANGES.contains(method.getName()))
+			ProviderCache.getInstance().invalidate();
+	}
+}
@@ -4,19 +4,35 @@
  */
 package org.openmrs.module.pcslabinterface.db;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Criteria;
+import org.hibernate.Query;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Projections;
-import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
 import org.openmrs.ConceptNumeric;
-import org.openmrs.Person;
+import org.openmrs.Obs;
+import org.openmrs.OpenmrsObject;
 import org.openmrs.Provider;
-import org.openmrs.User;
-import org.openmrs.api.context.Context;
+import org.openmrs.hl7.HL7Constants;
+import org.openmrs.hl7.HL7InQueue;
 import org.openmrs.module.pcslabinterface.PcsLabInterfaceDAO;
 
 /**
@@ -39,29 +55,232 @@ public class HibernatePcsLabInterfaceDAO implements PcsLabInterfaceDAO {
 		return crit.list();
 	}
 
+	/**
+	 * joins users to providers through their person, so the provider is
+	 * found in a single query; unretired providers come first
+	 */
 	public Provider getProviderBySystemId(String systemId) {
-		Criteria crit = sessionFactory.getCurrentSession().createCriteria(User.class)
-				.add(Restrictions.eq("systemId", systemId))
-				.setProjection(Projections.property("person"));
-
-        Person person = (Person)crit.uniqueResult();
-        Provider provider = null;
-        //Confirm if there is a provider associated with this person
-
-        if(person != null) {
-            try {
-                List<Provider> providers = (List<Provider>)Context.getProviderService().getProvidersByPerson(person);
-
-                //If it exists return the first provider
-                if(providers!=null && !providers.isEmpty()){
-                    provider = providers.get(0);
-                }
-
-            }catch (IllegalArgumentException ie) {
-                log.debug(ie.getMessage());
-            }
-        }
-        return provider;
+		Query query = sessionFactory.getCurrentSession().createQuery(
+				"select p from Provider p, User u where p.person = u.person and u.systemId = :systemId "
+						+ "order by p.retired asc, p.providerId asc");
+		query.setString("systemId", systemId);
+		query.setMaxResults(1);
+		return (Provider) query.uniqueResult();
+	}
+
+	/**
+	 * unretired providers come first
+	 */
+	public Provider getProviderByPersonId(Integer personId) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+				"select p from Provider p where p.person.personId = :personId "
+						+ "order by p.retired asc, p.providerId asc");
+		query.setInteger("personId", personId);
+		query.setMaxResults(1);
+		return (Provider) query.uniqueResult();
+	}
+
+	/**
+	 * matches identifiers exactly, so the lookup uses the index on
+	 * patient_identifier.identifier; voided identifiers and patients are left
+	 * out
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Set<Integer>> getPatientIdsByIdentifier(Collection<String> identifiers) {
+		Map<String, Set<Integer>> patientIds = new HashMap<String, Set<Integer>>();
+		if (identifiers == null || identifiers.isEmpty())
+			return patientIds;
+
+		Query query = sessionFactory.getCurrentSession().createQuery(
+				"select pi.identifier, pi.patient.patientId from PatientIdentifier pi "
+						+ "where pi.identifier in (:identifiers) and pi.voided = false and pi.patient.voided = false");
+		query.setParameterList("identifiers", identifiers);
+
+		for (Object[] row : (List<Object[]>) query.list()) {
+			String identifier = (String) row[0];
+			Set<Integer> ids = patientIds.get(identifier);
+			if (ids == null) {
+				ids = new HashSet<Integer>();
+				patientIds.put(identifier, ids);
+			}
+			ids.add((Integer) row[1]);
+		}
+		return patientIds;
+	}
+
+	/**
+	 * the newest attribute wins, should a person have more than one of the
+	 * type
+	 */
+	public String getPersonAttributeValue(Integer personId, Integer personAttributeTypeId) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+				"select a.value from PersonAttribute a where a.person.personId = :personId "
+						+ "and a.attributeType.personAttributeTypeId = :typeId and a.voided = false "
+						+ "order by a.personAttributeId desc");
+		query.setInteger("personId", personId);
+		query.setInteger("typeId", personAttributeTypeId);
+		query.setMaxResults(1);
+		return (String) query.uniqueResult();
+	}
+
+	/**
+	 * Hibernate cannot batch inserts into hl7_in_queue because its key is
+	 * generated by the database, so the rows are written with a plain JDBC
+	 * batch on the session's connection (and inside its transaction)
+	 */
+	public void saveHL7InQueues(final List<HL7InQueue> hl7InQueues) {
+		sessionFactory.getCurrentSession().doWork(new Work() {
+
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement ps = connection.prepareStatement("insert into hl7_in_queue "
+						+ "(hl7_source, hl7_source_key, hl7_data, message_state, date_created, uuid) "
+						+ "values (?, ?, ?, ?, ?, ?)");
+				try {
+					Timestamp now = new Timestamp(new Date().getTime());
+					for (HL7InQueue hl7InQueue : hl7InQueues) {
+						Date dateCreated = hl7InQueue.getDateCreated();
+						ps.setInt(1, hl7InQueue.getHL7Source().getHL7SourceId());
+						ps.setString(2, hl7InQueue.getHL7SourceKey());
+						ps.setString(3, hl7InQueue.getHL7Data());
+						ps.setInt(4, hl7InQueue.getMessageState() == null ? HL7Constants.HL7_STATUS_PENDING
+								: hl7InQueue.getMessageState());
+						ps.setTimestamp(5, dateCreated == null ? now : new Timestamp(dateCreated.getTime()));
+						ps.setString(6, hl7InQueue.getUuid());
+						ps.addBatch();
+					}
+					ps.executeBatch();
+				} finally {
+					ps.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * writes the obs with a plain JDBC batch, as for hl7_in_queue; the ids
+	 * the database generated are read back from the batch, or by uuid from
+	 * drivers that do not return a key for every row of a batch
+	 */
+	public void saveObs(final List<Obs> obs) {
+		sessionFactory.getCurrentSession().doWork(new Work() {
+
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement ps = connection.prepareStatement("insert into obs "
+						+ "(person_id, concept_id, encounter_id, order_id, obs_datetime, location_id, obs_group_id, "
+						+ "accession_number, value_group_id, value_coded, value_coded_name_id, value_drug, "
+						+ "value_datetime, value_numeric, value_modifier, value_text, value_complex, comments, "
+						+ "creator, date_created, voided, uuid) "
+						+ "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+						Statement.RETURN_GENERATED_KEYS);
+				List<Integer> obsIds = new ArrayList<Integer>();
+				try {
+					for (Obs o : obs) {
+						setId(ps, 1, o.getPerson());
+						setId(ps, 2, o.getConcept());
+						setId(ps, 3, o.getEncounter());
+						setId(ps, 4, o.getOrder());
+						setTimestamp(ps, 5, o.getObsDatetime());
+						setId(ps, 6, o.getLocation());
+						setId(ps, 7, o.getObsGroup());
+						ps.setString(8, o.getAccessionNumber());
+						if (o.getValueGroupId() == null)
+							ps.setNull(9, Types.INTEGER);
+						else
+							ps.setInt(9, o.getValueGroupId());
+						setId(ps, 10, o.getValueCoded());
+						setId(ps, 11, o.getValueCodedName());
+						setId(ps, 12, o.getValueDrug());
+						setTimestamp(ps, 13, o.getValueDatetime());
+						if (o.getValueNumeric() == null)
+							ps.setNull(14, Types.DOUBLE);
+						else
+							ps.setDouble(14, o.getValueNumeric());
+						ps.setString(15, o.getValueModifier());
+						ps.setString(16, o.getValueText());
+						ps.setString(17, o.getValueComplex());
+						ps.setString(18, o.getComment());
+						setId(ps, 19, o.getCreator());
+						setTimestamp(ps, 20, o.getDateCreated());
+						ps.setBoolean(21, Boolean.TRUE.equals(o.getVoided()));
+						ps.setString(22, o.getUuid());
+						ps.addBatch();
+					}
+					ps.executeBatch();
+
+					ResultSet keys = ps.getGeneratedKeys();
+					try {
+						while (keys.next())
+							obsIds.add(keys.getInt(1));
+					} finally {
+						keys.close();
+					}
+				} finally {
+					ps.close();
+				}
+
+				if (obsIds.size() == obs.size()) {
+					for (int i = 0; i < obs.size(); i++)
+						obs.get(i).setObsId(obsIds.get(i));
+				} else {
+					setObsIdsByUuid(connection, obs);
+				}
+			}
+		});
+	}
+
+	/**
+	 * one update for all of the obs
+	 */
+	public void setValueGroupIdsToObsIds(Collection<Integer> obsIds) {
+		if (obsIds == null || obsIds.isEmpty())
+			return;
+		Query query = sessionFactory.getCurrentSession().createQuery(
+				"update Obs set valueGroupId = obsId where obsId in (:obsIds)");
+		query.setParameterList("obsIds", obsIds);
+		query.executeUpdate();
+	}
+
+	/**
+	 * reads back the ids of obs that have just been inserted
+	 */
+	private static void setObsIdsByUuid(Connection connection, List<Obs> obs) throws SQLException {
+		Map<String, Obs> byUuid = new HashMap<String, Obs>();
+		StringBuilder sql = new StringBuilder("select obs_id, uuid from obs where uuid in (");
+		for (Obs o : obs) {
+			sql.append(byUuid.isEmpty() ? "?" : ", ?");
+			byUuid.put(o.getUuid(), o);
+		}
+		sql.append(")");
+
+		PreparedStatement ps = connection.prepareStatement(sql.toString());
+		try {
+			int i = 1;
+			for (Obs o : obs)
+				ps.setString(i++, o.getUuid());
+			ResultSet rs = ps.executeQuery();
+			try {
+				while (rs.next())
+					byUuid.get(rs.getString(2)).setObsId(rs.getInt(1));
+			} finally {
+				rs.close();
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	private static void setId(PreparedStatement ps, int index, OpenmrsObject object) throws SQLException {
+		if (object == null || object.getId() == null)
+			ps.setNull(index, Types.INTEGER);
+		else
+			ps.setInt(index, object.getId());
+	}
+
+	private static void setTimestamp(PreparedStatement ps, int index, Date date) throws SQLException {
+		if (date == null)
+			ps.setNull(index, Types.TIMESTAMP);
+		else
+			ps.setTimestamp(index, new Timestamp(date.getTime()));
 	}
 
 }
@@ -14,29 +14,56 @@
 package org.openmrs.module.pcslabinterface.impl;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.Vector;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.Obs;
 import org.openmrs.Person;
 import org.openmrs.Provider;
 import org.openmrs.User;
 import org.openmrs.api.APIAuthenticationException;
 import org.openmrs.api.context.Context;
+import org.openmrs.hl7.HL7InQueue;
 import org.openmrs.module.pcslabinterface.*;
 import org.openmrs.util.OpenmrsUtil;
 
 public class PcsLabInterfaceServiceImpl implements PcsLabInterfaceService {
 	private Log log = LogFactory.getLog(super.getClass());
+
+	/**
+	 * appended to the archive file name of a message's pre-processed text
+	 */
+	private static final String TRANSFORMED_SUFFIX = ".transformed";
+
 	private PcsLabInterfaceDAO dao;
 
+	/**
+	 * in-memory view of the queue directory
+	 *
+	 * @see #getQueueIndex()
+	 */
+	private LabMessageQueueIndex queueIndex = null;
+
+	/**
+	 * durable writer for new queue files
+	 *
+	 * @see #getQueueWriter()
+	 */
+	private LabMessageQueueWriter queueWriter = null;
+
 	public void setDao(PcsLabInterfaceDAO dao) {
 		this.dao = dao;
 	}
@@ -68,36 +95,27 @@ public class PcsLabInterfaceServiceImpl implements PcsLabInterfaceService {
 		File outFile = OpenmrsUtil.getOutFile(queueDir, labMessage
 				.getDateCreated(), creator);
 
-		FileWriter writer = null;
 		try {
-			writer = new FileWriter(outFile);
-
-			writer.write(labMessage.getData());
+			outFile = getQueueWriter().write(outFile, labMessage.getData());
 		} catch (IOException io) {
-		} finally {
-			try {
-				writer.close();
-			} catch (Exception e) {
-				this.log.debug("Error creating queue item", e);
-			}
+			throw new PcsLabInterfaceException(
+					"Unable to save lab message to the queue", io);
 		}
+		getQueueIndex().add(outFile);
 	}
 
 	public Collection<LabMessage> getLabMessages() {
 		List<LabMessage> messages = new Vector<LabMessage>();
 
-		File queueDir = PcsLabInterfaceUtil.getQueueDir();
+		LabMessageQueueIndex index = getQueueIndex();
 
-		if (!(queueDir.exists())) {
-			this.log.warn("Unable to open queue directory: " + queueDir);
+		if (!(index.getQueueDir().exists())) {
+			this.log.warn("Unable to open queue directory: " + index.getQueueDir());
 			return messages;
 		}
 
-		for (File file : queueDir.listFiles()) {
-			LabMessage queueItem = new LabMessage();
-			queueItem.setFileSystemUrl(file.getAbsolutePath());
-			queueItem.setDateCreated(new Date(file.lastModified()));
-			messages.add(queueItem);
+		for (File file : index.getFiles()) {
+			messages.add(toLabMessage(file));
 		}
 
 		return messages;
@@ -112,24 +130,18 @@ public class PcsLabInterfaceServiceImpl implements PcsLabInterfaceService {
 		File file = new File(labMessage.getFileSystemUrl());
 		log.debug("file path is " + file.getAbsolutePath());
 		if (file.exists()) {
-            String deleteError = "Unable to delete file from queue: " + file.getAbsolutePath();
-			// TODO: move file to an archive, not delete it
-            try{
-                Process p=Runtime.getRuntime().exec("rm -f "+file.getAbsolutePath());
-                if(p.waitFor()==0){
-                    log.debug("File deleted "+file.getAbsolutePath());
-                }
-            }
-            catch (SecurityException se){
+			String deleteError = "Unable to delete file from queue: " + file.getAbsolutePath();
+			try {
+				if (!file.delete() && file.exists())
+					throw new PcsLabInterfaceException(deleteError
+							+ " -- check file and folder write permissions");
+				log.debug("File deleted " + file.getAbsolutePath());
+				getQueueIndex().remove(file);
+			} catch (SecurityException se) {
 				throw new PcsLabInterfaceException(deleteError
-								+ " -- check file and folder write permissions"
-                                + se.getMessage());
-            }catch (IOException ioe){
-                throw new PcsLabInterfaceException(deleteError+ioe.getMessage());
-            } catch (InterruptedException e){
-                log.error("Unable to delete file from queue: ",e);
-            }
-        }
+						+ " -- check file and folder write permissions", se);
+			}
+		}
 	}
 
 	/**
@@ -139,26 +151,62 @@ public class PcsLabInterfaceServiceImpl implements PcsLabInterfaceService {
 	 * @return PcsLabInterfaceQueue the next item in the queue
 	 */
 	public LabMessage getNextLabMessage() {
-		File queueDir = PcsLabInterfaceUtil.getQueueDir();
-
-		File[] arr$ = queueDir.listFiles();
-		int len$ = arr$.length;
-		int i$ = 0;
-		if (i$ < len$) {
-			File file = arr$[i$];
-			LabMessage queueItem = new LabMessage();
-			queueItem.setFileSystemUrl(file.getAbsolutePath());
-			queueItem.setDateCreated(new Date(file.lastModified()));
-			return queueItem;
-		}
+		File file = getQueueIndex().peek();
+		if (file == null)
+			return null;
+		return toLabMessage(file);
+	}
 
-		return null;
+	/**
+	 * @see org.openmrs.module.pcslabinterface.PcsLabInterfaceService#getNextLabMessages(int)
+	 */
+	public List<LabMessage> getNextLabMessages(int max) {
+		List<LabMessage> messages = new Vector<LabMessage>();
+		for (File file : getQueueIndex().peek(max))
+			messages.add(toLabMessage(file));
+		return messages;
 	}
 
 	public Integer getLabMessageQueueSize() {
+		return Integer.valueOf(getQueueIndex().size());
+	}
+
+	/**
+	 * Gets the index of the queue directory, creating it on first use and
+	 * again whenever the queue directory global property moves it
+	 *
+	 * @return the queue index
+	 */
+	private synchronized LabMessageQueueIndex getQueueIndex() {
 		File queueDir = PcsLabInterfaceUtil.getQueueDir();
+		if (queueIndex == null
+				|| !queueIndex.getQueueDir().getAbsoluteFile().equals(queueDir.getAbsoluteFile()))
+			queueIndex = new LabMessageQueueIndex(queueDir);
+		return queueIndex;
+	}
 
-		return Integer.valueOf(queueDir.list().length);
+	/**
+	 * Gets the writer for new queue files, creating it on first use and again
+	 * whenever the queue directory global property moves it
+	 *
+	 * @return the queue writer
+	 */
+	private synchronized LabMessageQueueWriter getQueueWriter() {
+		File queueDir = PcsLabInterfaceUtil.getQueueDir();
+		if (queueWriter == null
+				|| !queueWriter.getQueueDir().getAbsoluteFile().equals(queueDir.getAbsoluteFile()))
+			queueWriter = new LabMessageQueueWriter(queueDir);
+		return queueWriter;
+	}
+
+	/**
+	 * creates a lazy-loading lab message for a queued file
+	 */
+	private LabMessage toLabMessage(File file) {
+		LabMessage queueItem = new LabMessage();
+		queueItem.setFileSystemUrl(file.getAbsolutePath());
+		queueItem.setDateCreated(new Date(file.lastModified()));
+		return queueItem;
 	}
 
 	/**
@@ -184,6 +232,161 @@ public class PcsLabInterfaceServiceImpl implements PcsLabInterfaceService {
 
 	}
 
+	/**
+	 * @see org.openmrs.module.pcslabinterface.PcsLabInterfaceService#saveHL7InQueues(java.util.List)
+	 */
+	public void saveHL7InQueues(List<HL7InQueue> hl7InQueues) {
+		if (hl7InQueues == null || hl7InQueues.isEmpty())
+			return;
+		dao.saveHL7InQueues(hl7InQueues);
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.PcsLabInterfaceService#saveObs(java.util.List, java.util.List)
+	 */
+	public void saveObs(List<Obs> obs, List<List<Obs>> valueGroups) {
+		if (obs == null || obs.isEmpty())
+			return;
+
+		// every obs of a value group but the first leaves its obs group
+		List<Obs> topLevel = new ArrayList<Obs>(obs);
+		for (List<Obs> valueGroup : valueGroups) {
+			for (Obs member : valueGroup.subList(1, valueGroup.size())) {
+				if (member.getObsGroup() != null) {
+					member.getObsGroup().removeGroupMember(member);
+					topLevel.add(member);
+				}
+			}
+		}
+
+		List<Obs> pending = new ArrayList<Obs>();
+		IdentityHashMap<Obs, Obs> toSave = new IdentityHashMap<Obs, Obs>();
+		for (Obs o : topLevel)
+			addWithGroupMembers(o, pending, toSave);
+
+		// the obs of a value group point at the first, if it is saved too
+		IdentityHashMap<Obs, Obs> initialObs = new IdentityHashMap<Obs, Obs>();
+		List<Obs> initials = new ArrayList<Obs>();
+		for (List<Obs> valueGroup : valueGroups) {
+			Obs initial = valueGroup.get(0);
+			if (!toSave.containsKey(initial))
+				continue;
+			initials.add(initial);
+			for (Obs member : valueGroup.subList(1, valueGroup.size()))
+				initialObs.put(member, initial);
+		}
+
+		Date now = new Date();
+		for (Obs o : pending) {
+			if (o.getCreator() == null)
+				o.setCreator(Context.getAuthenticatedUser());
+			if (o.getDateCreated() == null)
+				o.setDateCreated(now);
+			if (o.getVoided() == null)
+				o.setVoided(false);
+		}
+
+		// each batch holds the obs whose obs group and first value group obs
+		// already have ids
+		while (!pending.isEmpty()) {
+			List<Obs> batch = new ArrayList<Obs>();
+			for (Iterator<Obs> i = pending.iterator(); i.hasNext();) {
+				Obs o = i.next();
+				Obs initial = initialObs.get(o);
+				if ((o.getObsGroup() == null || o.getObsGroup().getObsId() != null)
+						&& (initial == null || initial.getObsId() != null)) {
+					if (initial != null)
+						o.setValueGroupId(initial.getObsId());
+					batch.add(o);
+					i.remove();
+				}
+			}
+			if (batch.isEmpty())
+				throw new PcsLabInterfaceException("Unable to order " + pending.size() + " obs for saving");
+			dao.saveObs(batch);
+		}
+
+		List<Integer> initialIds = new ArrayList<Integer>();
+		for (Obs initial : initials) {
+			initial.setValueGroupId(initial.getObsId());
+			initialIds.add(initial.getObsId());
+		}
+		dao.setValueGroupIdsToObsIds(initialIds);
+	}
+
+	/**
+	 * adds an obs and its group members to those to save, parents first
+	 */
+	private void addWithGroupMembers(Obs obs, List<Obs> pending, IdentityHashMap<Obs, Obs> toSave) {
+		if (toSave.containsKey(obs))
+			return;
+		pending.add(obs);
+		toSave.put(obs, obs);
+		if (obs.hasGroupMembers())
+			for (Obs member : obs.getGroupMembers())
+				addWithGroupMembers(member, pending, toSave);
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.PcsLabInterfaceService#archiveLabMessage(org.openmrs.module.pcslabinterface.LabMessage,
+	 *      java.lang.String)
+	 */
+	public void archiveLabMessage(LabMessage labMessage, String transformedData) {
+		if ((labMessage == null) || (labMessage.getFileSystemUrl() == null)) {
+			throw new PcsLabInterfaceException(
+					"Unable to load LabMessage with empty file system url");
+		}
+
+		File file = new File(labMessage.getFileSystemUrl());
+		File archiveDir = PcsLabInterfaceUtil.getArchiveDir(labMessage.getDateCreated());
+
+		// keep the queue file's name unless the archive already has one like it
+		File archiveFile = new File(archiveDir, file.getName());
+		if (archiveFile.exists())
+			archiveFile = PcsLabInterfaceUtil.getOutFile(archiveDir,
+					labMessage.getDateCreated(), Context.getAuthenticatedUser());
+
+		// the original text is only needed to see if pre-processing changed it
+		String data = (transformedData == null) ? null : labMessage.getData();
+
+		if (file.renameTo(archiveFile)) {
+			log.debug("Archived " + file.getAbsolutePath() + " to " + archiveFile.getAbsolutePath());
+			getQueueIndex().remove(file);
+		} else {
+			// renaming fails across file systems; fall back to copying
+			log.debug("Unable to move " + file.getAbsolutePath()
+					+ " into the archive, copying it instead");
+			try {
+				PcsLabInterfaceUtil.stringToFile(labMessage.getData(), archiveFile);
+			} catch (IOException io) {
+				throw new PcsLabInterfaceException(
+						"Unable to save lab message archive", io);
+			}
+			deleteLabMessage(labMessage);
+		}
+
+		if (data != null && !transformedData.equals(data)) {
+			File transformedFile = new File(archiveDir, archiveFile.getName()
+					+ TRANSFORMED_SUFFIX);
+			try {
+				PcsLabInterfaceUtil.stringToFile(transformedData, transformedFile);
+			} catch (IOException io) {
+				throw new PcsLabInterfaceException(
+						"Unable to save transformed lab message archive", io);
+			}
+		}
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.PcsLabInterfaceService#archiveLabMessages(java.util.List,
+	 *      java.util.List)
+	 */
+	public void archiveLabMessages(List<LabMessage> labMessages, List<String> transformedData) {
+		for (int i = 0; i < labMessages.size(); i++)
+			archiveLabMessage(labMessages.get(i),
+					(transformedData == null) ? null : transformedData.get(i));
+	}
+
 	/**
 	 * @see org.openmrs.module.pcslabinterface.PcsLabInterfaceService#getLabMessageArchives()
 	 */
@@ -198,7 +401,7 @@ public class PcsLabInterfaceServiceImpl implements PcsLabInterfaceService {
 		}
 
 		// loop over all files in archive dir and create lazy archive items
-		for (File file : archiveDir.listFiles()) {
+		for (File file : listArchiveFiles(archiveDir)) {
 			LabMessageArchive queueItem = new LabMessageArchive();
 			queueItem.setFileSystemUrl(file.getAbsolutePath());
 			queueItem.setDateCreated(new Date(file.lastModified()));
@@ -222,6 +425,12 @@ public class PcsLabInterfaceServiceImpl implements PcsLabInterfaceService {
 		if (file.exists()) {
 			file.delete();
 		}
+
+		// the transformed copy is not listed on its own, so it goes too
+		File transformed = new File(file.getPath() + TRANSFORMED_SUFFIX);
+		if (transformed.exists()) {
+			transformed.delete();
+		}
 	}
 
 	/**
@@ -230,11 +439,28 @@ public class PcsLabInterfaceServiceImpl implements PcsLabInterfaceService {
 	public Integer getLabMessageArchiveSize() {
 		File archiveDir = PcsLabInterfaceUtil.getArchiveDir(null);
 
-		return archiveDir.list().length;
+		return listArchiveFiles(archiveDir).length;
 	}
 
+	/**
+	 * lists the archived messages in an archive directory, leaving out the
+	 * transformed copies kept next to them
+	 */
+	private File[] listArchiveFiles(File archiveDir) {
+		File[] files = archiveDir.listFiles(new FileFilter() {
+
+			public boolean accept(File file) {
+				return file.isFile() && !file.getName().endsWith(TRANSFORMED_SUFFIX);
+			}
+		});
+		return (files == null) ? new File[0] : files;
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.PcsLabInterfaceService#garbageCollect()
+	 */
+	@Deprecated
 	public void garbageCollect() {
-		System.gc();
 	}
 
 	/**
@@ -250,4 +476,16 @@ public class PcsLabInterfaceServiceImpl implements PcsLabInterfaceService {
 		return dao.getProviderBySystemId(systemId);
 	}
 
+	public Provider getProviderByPersonId(Integer personId) {
+		return dao.getProviderByPersonId(personId);
+	}
+
+	public Map<String, Set<Integer>> getPatientIdsByIdentifier(Collection<String> identifiers) {
+		return dao.getPatientIdsByIdentifier(identifiers);
+	}
+
+	public String getPersonAttributeValue(Integer personId, Integer personAttributeTypeId) {
+		return dao.getPersonAttributeValue(personId, personAttributeTypeId);
+	}
+
 }
@@ -2,9 +2,6 @@ package org.openmrs.module.pcslabinterface.rules;
 
 import org.openmrs.module.pcslabinterface.PcsLabInterfaceConstants;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Several numeric values for HIV Viral Load are simply digits with commas in
  * the thousands and millions places. These should be converted to valid HL7
@@ -42,23 +39,25 @@ public abstract class AdjustNegativeConcept extends RegexTransformRule {
 	 */
 	@Override
 	public String transform(String test) {
+		return HL7MessageBuffer.transform(this, test);
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.RegexTransformRule#transform(org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer)
+	 */
+	@Override
+	public void transform(HL7MessageBuffer message) {
 		// check to make sure the value is truly just numbers and commas
-		Matcher m = getRegex().matcher(test);
-		if (!m.matches())
-			return test;
+		if (!message.matcher(getRegex()).matches())
+			return;
+		message.recordMatch();
 
-		// replace all occurrence of value with newValue
-        m.reset();
-        StringBuffer sb = new StringBuffer(test);
-        while(m.find()){
-            sb = sb.replace(m.start(1),m.end(1),"664^NEGATIVE^99DCT");
-        }
-        System.out.println(sb);
+		// replace the value with the proper concept reference
+		message.replaceField(5, "664^NEGATIVE^99DCT");
 
 		// append a comment describing the change
-		return sb.append(PcsLabInterfaceConstants.MESSAGE_EOL_SEQUENCE)
-				.append("NTE|||")
+		message.appendSegment().append("NTE|||")
 				.append(PcsLabInterfaceConstants.LAB_VALUE_MODIFIED)
-				.append("^Negative^99DCT").toString();
+				.append("^Negative^99DCT");
 	}
 }
@@ -21,4 +21,20 @@ public class AdjustNegativeConceptForAFB extends AdjustNegativeConcept {
 	public AdjustNegativeConceptForAFB() {
         super(pattern);
 	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+	 */
+	@Override
+	public String getSegmentType() {
+		return "OBX";
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getConceptIds()
+	 */
+	@Override
+	public int[] getConceptIds() {
+		return new int[] { 2339 };
+	}
 }
@@ -26,4 +26,20 @@ public class AdjustNegativeConceptForUrineProtein extends AdjustNegativeConcept
 	public AdjustNegativeConceptForUrineProtein() {
         super(pattern);
 	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+	 */
+	@Override
+	public String getSegmentType() {
+		return "OBX";
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getConceptIds()
+	 */
+	@Override
+	public int[] getConceptIds() {
+		return new int[] { 2339 };
+	}
 }
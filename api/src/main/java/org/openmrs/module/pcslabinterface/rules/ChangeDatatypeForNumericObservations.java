@@ -1,11 +1,7 @@
 package org.openmrs.module.pcslabinterface.rules;
 
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.openmrs.api.context.Context;
+import org.openmrs.module.pcslabinterface.NumericConceptIdCache;
 import org.openmrs.module.pcslabinterface.PcsLabInterfaceConstants;
-import org.openmrs.module.pcslabinterface.PcsLabInterfaceService;
 
 /**
  * PCS is sending some numeric data in OBX segments with ST datatypes.
@@ -14,13 +10,6 @@ import org.openmrs.module.pcslabinterface.PcsLabInterfaceService;
  */
 public class ChangeDatatypeForNumericObservations extends RegexTransformRule {
 
-	// this regex ensures that the value has only digits and/or commas in it
-	private Pattern valuePattern = Pattern
-			.compile("OBX\\|\\d*\\|ST\\|(\\d+)\\^.*");
-
-	// cache of numeric concept ids
-	private static List<Integer> numericConceptIds = null;
-	
 	/**
 	 * initializes the regex pattern for matching on a specific concept
 	 * 
@@ -42,32 +31,53 @@ public class ChangeDatatypeForNumericObservations extends RegexTransformRule {
 	 */
 	@Override
 	public String transform(String test) {
-		// check for numeric concept
-		Matcher m = valuePattern.matcher(test);
-		if (!m.matches())
-			return test;
+		return HL7MessageBuffer.transform(this, test);
+	}
 
-		// yank the value from the test string
-		String value = m.group(1);
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.RegexTransformRule#transform(org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer)
+	 */
+	@Override
+	public void transform(HL7MessageBuffer message) {
+		// make sure this is an ST observation of a coded concept
+		HL7Segment segment = message.getSegment();
+		if (segment.hasMoreSegments() || !segment.isType("OBX") || !segment.isDigits(1)
+				|| !segment.fieldEquals(2, "ST") || segment.getComponentCount(3) < 2)
+			return;
+		message.recordMatch();
+
+		// yank the concept id from the segment
+		int conceptId = segment.getComponentAsInt(3, 1);
 
 		// fail if concept is not numeric
-		if (!getNumericConceptIds().contains(Integer.parseInt(value)))
-			return test;
+		if (conceptId < 0 || !NumericConceptIdCache.getInstance().contains(conceptId))
+			return;
 
-		// replace first occurrence of ST with NM
-		test = test.replaceFirst("\\|ST\\|", "\\|NM\\|");
+		// replace the ST datatype with NM
+		message.replaceField(2, "NM");
 
 		// append a comment describing the change
-		return test.concat(PcsLabInterfaceConstants.MESSAGE_EOL_SEQUENCE)
-				.concat("NTE|||")
-				.concat(PcsLabInterfaceConstants.LAB_VALUE_MODIFIED)
-				.concat(PcsLabInterfaceConstants.ST_TO_NM);
+		message.appendSegment().append("NTE|||")
+				.append(PcsLabInterfaceConstants.LAB_VALUE_MODIFIED)
+				.append(PcsLabInterfaceConstants.ST_TO_NM);
 	}
 
-	private List<Integer> getNumericConceptIds() {
-		if (numericConceptIds == null)
-			numericConceptIds = Context.getService(PcsLabInterfaceService.class).getNumericConceptIds();
-		
-		return numericConceptIds;
+	/**
+	 * loads the numeric concept ids if they have not been loaded yet or are
+	 * out of date; this needs an OpenMRS session, so it should be called
+	 * before the rule is used from a thread that does not have one
+	 *
+	 * @see NumericConceptIdCache#refresh()
+	 */
+	public static void loadNumericConceptIds() {
+		NumericConceptIdCache.getInstance().refresh();
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+	 */
+	@Override
+	public String getSegmentType() {
+		return "OBX";
 	}
 }
@@ -1,10 +1,5 @@
 package org.openmrs.module.pcslabinterface.rules;
 
-import org.apache.commons.lang.StringUtils;
-
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * PCS messages need to be entered as headless (no encounter).  The signal
  * for this is removing the PV1 segment from the HL7.
@@ -28,34 +23,55 @@ public class ConvertPV1ToPD1 extends RegexTransformRule {
 	 */
 	@Override
 	public String transform(String test) {
+		return HL7MessageBuffer.transform(this, test);
+	}
 
-		String[] testParts = test.split("\\|");
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.RegexTransformRule#transform(org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer)
+	 */
+	@Override
+	public void transform(HL7MessageBuffer message) {
 
-		// give up silently if PV1 does not have enough information
-		if (testParts.length < 8) {
-			return test;
+		HL7Segment segment = message.getSegment();
+		if (!segment.isType("PV1")) {
+			return;
 		}
+		message.recordMatch();
 
-		String location = testParts[3];
-		String[] locationParts = location.split("\\^");
+		// give up silently if PV1 does not have enough information
+		if (segment.getLastNonEmptyField() < 7) {
+			return;
+		}
 
 		// give up silently if PV1 does not have enough information
-		if (locationParts.length < 2) {
-			return test;
+		if (!hasLocationName(segment)) {
+			return;
 		}
 
-		String locationId = locationParts[0];
-		String locationName = locationParts[1];
+		// PV1-3 is the location (id^name) and PV1-7 the provider
+		StringBuilder out = new StringBuilder("PD1|||");
+		segment.appendComponent(out, 3, 2).append("^D^");
+		segment.appendComponent(out, 3, 1).append("^^^AMRS^L^AMPATH|");
+		segment.appendField(out, 7);
 
-		String provider = testParts[7];
+		message.replaceSegment(out);
+	}
 
-		List<String> out = new ArrayList<String>();
-		out.add("PD1");
-		out.add("");
-		out.add("");
-		out.add(locationName + "^D^" + locationId + "^^^AMRS^L^AMPATH");
-		out.add(provider);
+	/**
+	 * @return true if anything follows the location id in PV1-3
+	 */
+	private static boolean hasLocationName(HL7Segment segment) {
+		for (int component = 2; component <= segment.getComponentCount(3); component++)
+			if (segment.getComponentLength(3, component) > 0)
+				return true;
+		return false;
+	}
 
-		return StringUtils.join(out, "|");
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+	 */
+	@Override
+	public String getSegmentType() {
+		return "PV1";
 	}
 }
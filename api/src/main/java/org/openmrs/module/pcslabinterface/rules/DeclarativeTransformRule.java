@@ -0,0 +1,215 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.openmrs.module.pcslabinterface.PcsLabInterfaceConstants;
+
+/**
+ * A TransformRule defined by data rather than code: a segment type, the
+ * concepts it applies to (for OBX segments), conditions on fields, and an
+ * action to take when they all hold. The action either replaces a field,
+ * with an optional comment (NTE segment), or drops the segment.
+ * <p/>
+ * Rules are compiled from their definition once, by
+ * {@link TransformRuleParser}; matching a segment then only compares field
+ * offsets, and regular expressions are run over the field in place.
+ */
+public class DeclarativeTransformRule implements IndexableTransformRule, SegmentTransformRule {
+
+	private final String name;
+
+	private final String segmentType;
+
+	private final int[] conceptIds;
+
+	private final List<FieldCondition> conditions = new ArrayList<FieldCondition>();
+
+	/**
+	 * the field to replace, or -1 to leave the segment alone
+	 */
+	private int replaceField = -1;
+
+	private String replacement = null;
+
+	private boolean drop = false;
+
+	/**
+	 * text of the comment to add, or null
+	 */
+	private String comment = null;
+
+	/**
+	 * the field whose original value is added as a comment, or -1
+	 */
+	private int commentField = -1;
+
+	/**
+	 * @param name describes the rule in log messages
+	 * @param segmentType the type of segment the rule applies to
+	 * @param conceptIds the concepts (OBX-3) the rule applies to, or null for
+	 *            any
+	 */
+	public DeclarativeTransformRule(String name, String segmentType, int[] conceptIds) {
+		this.name = name;
+		this.segmentType = segmentType;
+		this.conceptIds = conceptIds;
+	}
+
+	/**
+	 * only applies the rule if a field holds exactly the given value
+	 */
+	void addFieldEquals(int field, String value) {
+		conditions.add(new FieldCondition(field, value, null));
+	}
+
+	/**
+	 * only applies the rule if the whole of a field matches a pattern
+	 */
+	void addFieldMatches(int field, Pattern pattern) {
+		conditions.add(new FieldCondition(field, null, pattern));
+	}
+
+	void setReplacement(int field, String replacement) {
+		this.replaceField = field;
+		this.replacement = replacement;
+	}
+
+	void setComment(String comment) {
+		this.comment = comment;
+	}
+
+	void setCommentField(int field) {
+		this.commentField = field;
+	}
+
+	void setDrop(boolean drop) {
+		this.drop = drop;
+	}
+
+	/**
+	 * @return true if the rule changes segments it applies to
+	 */
+	boolean hasAction() {
+		return drop || replaceField >= 0 || comment != null || commentField >= 0;
+	}
+
+	/**
+	 * @return the name of the rule
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRule#matches(java.lang.String)
+	 * @should match segments meeting every condition
+	 * @should not match segments of another concept
+	 */
+	public boolean matches(String test) {
+		return test != null && matches(new HL7Segment(test));
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRule#transform(java.lang.String)
+	 */
+	public String transform(String test) {
+		return HL7MessageBuffer.transform(this, test);
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.SegmentTransformRule#transform(org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer)
+	 * @should replace a field and add a comment
+	 * @should comment with the original value of a field
+	 * @should drop the segment
+	 */
+	public void transform(HL7MessageBuffer message) {
+		HL7Segment segment = message.getSegment();
+		if (!matches(segment))
+			return;
+		message.recordMatch();
+
+		if (drop) {
+			message.dropSegment();
+			return;
+		}
+
+		if (replaceField >= segment.getFieldCount())
+			return;
+
+		String original = (commentField >= 0) ? segment.getField(commentField) : null;
+
+		if (replaceField >= 0)
+			message.replaceField(replaceField, replacement);
+
+		if (comment != null || original != null)
+			message.appendSegment().append("NTE|||")
+					.append(PcsLabInterfaceConstants.LAB_VALUE_MODIFIED)
+					.append(comment != null ? comment : original);
+	}
+
+	private boolean matches(HL7Segment segment) {
+		if (!segment.isType(segmentType))
+			return false;
+
+		if (conceptIds != null && !hasConcept(segment.getComponentAsInt(3, 1)))
+			return false;
+
+		for (FieldCondition condition : conditions)
+			if (!condition.matches(segment))
+				return false;
+		return true;
+	}
+
+	private boolean hasConcept(int conceptId) {
+		for (int id : conceptIds)
+			if (id == conceptId)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+	 */
+	public String getSegmentType() {
+		return segmentType;
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getConceptIds()
+	 */
+	public int[] getConceptIds() {
+		return conceptIds;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * a field that has to hold a given value, or match a given pattern
+	 */
+	private static class FieldCondition {
+
+		private final int field;
+
+		private final String value;
+
+		private final Pattern pattern;
+
+		public FieldCondition(int field, String value, Pattern pattern) {
+			this.field = field;
+			this.value = value;
+			this.pattern = pattern;
+		}
+
+		public boolean matches(HL7Segment segment) {
+			if (value != null)
+				return segment.fieldEquals(field, value);
+			return pattern.matcher(segment.getText())
+					.region(segment.getFieldStart(field), segment.getFieldEnd(field)).matches();
+		}
+	}
+}
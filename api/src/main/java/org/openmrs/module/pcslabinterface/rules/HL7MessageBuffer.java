@@ -0,0 +1,257 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openmrs.module.pcslabinterface.PcsLabInterfaceConstants;
+
+/**
+ * Holds an HL7 message while {@link SegmentTransformRule}s rewrite it, one
+ * segment at a time, in a single buffer.
+ * <p/>
+ * Each segment of the original message is copied onto the end of the buffer
+ * with {@link #startSegment(CharSequence, int, int)} and becomes the current
+ * segment. Rules then change it in place, append more segments after it or
+ * drop it; whatever they leave behind is the transformed message. Segments
+ * that end up empty or blank are left out, together with their line ending.
+ * <p/>
+ * Buffers are not thread safe.
+ */
+public class HL7MessageBuffer {
+
+	private static final String EOL = PcsLabInterfaceConstants.MESSAGE_EOL_SEQUENCE;
+
+	private final StringBuilder buffer;
+
+	/**
+	 * view of the current segment, reset after every change to it
+	 */
+	private final HL7Segment segment = new HL7Segment();
+
+	/**
+	 * offset of the current segment in the buffer
+	 */
+	private int segmentStart = 0;
+
+	/**
+	 * true if a rule has dropped the current segment
+	 */
+	private boolean dropped = false;
+
+	/**
+	 * number of changes rules have made to the message
+	 */
+	private int changes = 0;
+
+	/**
+	 * number of times a rule has found that it applies to a segment
+	 */
+	private int matches = 0;
+
+	/**
+	 * @param capacity the expected length of the transformed message
+	 */
+	public HL7MessageBuffer(int capacity) {
+		buffer = new StringBuilder(capacity);
+	}
+
+	/**
+	 * Runs a rule on a single line, for callers of the original
+	 * {@link TransformRule} API
+	 *
+	 * @param rule the rule to run
+	 * @param line single line of an HL7 message
+	 * @return the transformed line, or null if the rule dropped it
+	 */
+	public static String transform(SegmentTransformRule rule, String line) {
+		if (line == null)
+			return null;
+
+		HL7MessageBuffer message = new HL7MessageBuffer(line.length() + 64);
+		message.startSegment(line);
+		rule.transform(message);
+		return message.isDropped() ? null : message.getSegmentText();
+	}
+
+	/**
+	 * Finishes the current segment and starts a new one with a copy of a line
+	 *
+	 * @param line single line of an HL7 message
+	 * @return the new current segment
+	 */
+	public HL7Segment startSegment(CharSequence line) {
+		return startSegment(line, 0, line.length());
+	}
+
+	/**
+	 * Finishes the current segment and starts a new one with a copy of part of
+	 * a text, so a message can be read without splitting it first
+	 *
+	 * @param text the text holding the line
+	 * @param start the offset of the first character of the line
+	 * @param end the offset just past the end of the line
+	 * @return the new current segment
+	 * @should leave out segments that are empty or blank
+	 * @should separate segments with the message line ending
+	 */
+	public HL7Segment startSegment(CharSequence text, int start, int end) {
+		finishSegment();
+		if (buffer.length() > 0)
+			buffer.append(EOL);
+		segmentStart = buffer.length();
+		dropped = false;
+		buffer.append(text, start, end);
+		return segment.reset(buffer, segmentStart);
+	}
+
+	/**
+	 * @return the current segment; its offsets are into {@link #getText()}
+	 */
+	public HL7Segment getSegment() {
+		return segment;
+	}
+
+	/**
+	 * @return the whole message so far; the current segment and anything
+	 *         appended to it are at the end
+	 */
+	public CharSequence getText() {
+		return buffer;
+	}
+
+	/**
+	 * @return a copy of the current segment and any segments appended to it,
+	 *         for rules that only work on strings
+	 */
+	public String getSegmentText() {
+		return buffer.substring(segmentStart);
+	}
+
+	/**
+	 * @return a matcher over the current segment and any segments appended to
+	 *         it, without copying them
+	 */
+	public Matcher matcher(Pattern pattern) {
+		return pattern.matcher(buffer).region(segmentStart, buffer.length());
+	}
+
+	/**
+	 * Replaces a field of the current segment in place
+	 *
+	 * @param field the field to replace; it must exist
+	 * @param value the new contents of the field
+	 * @should replace a field without touching appended segments
+	 */
+	public void replaceField(int field, CharSequence value) {
+		if (field >= segment.getFieldCount())
+			throw new IndexOutOfBoundsException("Segment has no field " + field);
+
+		buffer.replace(segment.getFieldStart(field), segment.getFieldEnd(field), value.toString());
+		segment.reset(buffer, segmentStart);
+		changes++;
+	}
+
+	/**
+	 * Starts a new segment after the current one and any already appended to
+	 * it; the caller appends its contents to the returned buffer. The current
+	 * segment stays the same.
+	 *
+	 * @return the buffer to append the segment to
+	 * @should append a segment after the current one
+	 */
+	public StringBuilder appendSegment() {
+		changes++;
+		return buffer.append(EOL);
+	}
+
+	/**
+	 * Replaces the current segment, and any segments appended to it, with new
+	 * text, which becomes the current segment
+	 *
+	 * @param text the new text; null drops the segment
+	 */
+	public void replaceSegment(CharSequence text) {
+		if (text == null) {
+			dropSegment();
+			return;
+		}
+		buffer.setLength(segmentStart);
+		buffer.append(text);
+		segment.reset(buffer, segmentStart);
+		changes++;
+	}
+
+	/**
+	 * Removes the current segment, and any segments appended to it, from the
+	 * message; no later rule sees it
+	 *
+	 * @should remove the segment and its line ending
+	 */
+	public void dropSegment() {
+		buffer.setLength(segmentStart);
+		segment.reset(buffer, segmentStart);
+		dropped = true;
+		changes++;
+	}
+
+	/**
+	 * @return true if a rule has dropped the current segment
+	 */
+	public boolean isDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return the number of changes rules have made to the message; compare
+	 *         it before and after running a rule to tell if the rule did
+	 *         anything
+	 * @should count every change to the message
+	 */
+	public int getChangeCount() {
+		return changes;
+	}
+
+	/**
+	 * Notes that a rule applies to the current segment, whether or not it
+	 * goes on to change it; called by rules once their test passes
+	 */
+	public void recordMatch() {
+		matches++;
+	}
+
+	/**
+	 * @return the number of times rules have found they apply to a segment;
+	 *         compare it before and after running a rule to tell if the rule
+	 *         matched
+	 * @should count every match recorded
+	 */
+	public int getMatchCount() {
+		return matches;
+	}
+
+	/**
+	 * @return the transformed message
+	 */
+	@Override
+	public String toString() {
+		return buffer.substring(0, getFinishedLength());
+	}
+
+	/**
+	 * removes the current segment, with the line ending before it, if nothing
+	 * but whitespace is left of it
+	 */
+	private void finishSegment() {
+		buffer.setLength(getFinishedLength());
+	}
+
+	/**
+	 * @return the length of the message once the current segment is finished
+	 */
+	private int getFinishedLength() {
+		for (int i = segmentStart; i < buffer.length(); i++)
+			if (!Character.isWhitespace(buffer.charAt(i)))
+				return buffer.length();
+		return segmentStart > 0 ? segmentStart - EOL.length() : 0;
+	}
+}
@@ -0,0 +1,430 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+/**
+ * A view of one HL7 segment that finds fields, repetitions and components by
+ * their offsets in the original text, without copying any of it.
+ * <p/>
+ * The segment runs from where it starts to the next line ending, so a
+ * line that a previous rule has already added an NTE to can still be read.
+ * Fields are numbered by the separators before them: field 0 is the segment
+ * type and field 1 follows the first separator, as in OBX-1. (MSH is the
+ * exception in HL7, since MSH-1 is the separator itself; field n here is
+ * MSH-(n+1).) Repetitions and components are numbered from 1.
+ * <p/>
+ * A view can be reset onto another segment to avoid allocating a new one,
+ * including one that starts part way into a longer text such as a whole
+ * message; offsets are always relative to the start of the text. Views are
+ * not thread safe.
+ */
+public class HL7Segment {
+
+	public static final char FIELD_SEPARATOR = '|';
+
+	public static final char REPETITION_SEPARATOR = '~';
+
+	public static final char COMPONENT_SEPARATOR = '^';
+
+	private CharSequence text = "";
+
+	/**
+	 * offset of the first character of the segment
+	 */
+	private int start = 0;
+
+	/**
+	 * offset of the first line ending, or the length of the text
+	 */
+	private int end = 0;
+
+	/**
+	 * offset of the first character of each field
+	 */
+	private int[] fieldStarts = new int[32];
+
+	private int fieldCount = 0;
+
+	/**
+	 * creates an empty view, to be {@link #reset(CharSequence)} later
+	 */
+	public HL7Segment() {
+	}
+
+	/**
+	 * @param text the segment, optionally followed by more segments
+	 */
+	public HL7Segment(CharSequence text) {
+		reset(text);
+	}
+
+	/**
+	 * Points this view at another segment
+	 *
+	 * @param text the segment, optionally followed by more segments
+	 * @return this view
+	 * @should find every field in the segment
+	 * @should stop at the first line ending
+	 */
+	public HL7Segment reset(CharSequence text) {
+		return reset(text, 0);
+	}
+
+	/**
+	 * Points this view at a segment part way into a text
+	 *
+	 * @param text the text holding the segment
+	 * @param start the offset the segment starts at
+	 * @return this view
+	 */
+	public HL7Segment reset(CharSequence text, int start) {
+		this.text = text;
+		this.start = start;
+		fieldCount = 0;
+		addField(start);
+
+		int length = text.length();
+		int i = start;
+		for (; i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '\r' || c == '\n')
+				break;
+			if (c == FIELD_SEPARATOR)
+				addField(i + 1);
+		}
+		end = i;
+		return this;
+	}
+
+	private void addField(int start) {
+		if (fieldCount == fieldStarts.length) {
+			int[] grown = new int[fieldStarts.length * 2];
+			System.arraycopy(fieldStarts, 0, grown, 0, fieldCount);
+			fieldStarts = grown;
+		}
+		fieldStarts[fieldCount++] = start;
+	}
+
+	/**
+	 * @return the text this view is over
+	 */
+	public CharSequence getText() {
+		return text;
+	}
+
+	/**
+	 * @return the offset of the first character of this segment
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the offset just past the end of this segment
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return true if the text goes on past this segment
+	 */
+	public boolean hasMoreSegments() {
+		return end < text.length();
+	}
+
+	/**
+	 * @return the number of fields, counting the segment type
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * @param type a segment type such as OBX
+	 * @return true if this segment is of that type
+	 */
+	public boolean isType(String type) {
+		return fieldEquals(0, type);
+	}
+
+	/**
+	 * @return the offset of the first character of a field, or the end of the
+	 *         segment if there is no such field
+	 */
+	public int getFieldStart(int field) {
+		return (field < fieldCount) ? fieldStarts[field] : end;
+	}
+
+	/**
+	 * @return the offset just past the last character of a field, or the end
+	 *         of the segment if there is no such field
+	 */
+	public int getFieldEnd(int field) {
+		return (field + 1 < fieldCount) ? fieldStarts[field + 1] - 1 : end;
+	}
+
+	/**
+	 * @return the length of a field; 0 if it is empty or missing
+	 */
+	public int getFieldLength(int field) {
+		return getFieldEnd(field) - getFieldStart(field);
+	}
+
+	/**
+	 * @return the highest numbered field that is not empty, or -1 if there is
+	 *         none
+	 */
+	public int getLastNonEmptyField() {
+		for (int field = fieldCount - 1; field >= 0; field--)
+			if (getFieldLength(field) > 0)
+				return field;
+		return -1;
+	}
+
+	/**
+	 * @return the number of repetitions in a field; an empty field has one
+	 */
+	public int getRepetitionCount(int field) {
+		return count(getFieldStart(field), getFieldEnd(field), REPETITION_SEPARATOR) + 1;
+	}
+
+	/**
+	 * @return the offset of the first character of a repetition of a field,
+	 *         or the end of the field if there is no such repetition
+	 */
+	public int getRepetitionStart(int field, int repetition) {
+		return start(getFieldStart(field), getFieldEnd(field), REPETITION_SEPARATOR, repetition);
+	}
+
+	/**
+	 * @return the offset just past the last character of a repetition of a
+	 *         field
+	 */
+	public int getRepetitionEnd(int field, int repetition) {
+		return stop(getRepetitionStart(field, repetition), getFieldEnd(field), REPETITION_SEPARATOR);
+	}
+
+	/**
+	 * @return the number of components in the first repetition of a field
+	 */
+	public int getComponentCount(int field) {
+		return count(getFieldStart(field), getRepetitionEnd(field, 1), COMPONENT_SEPARATOR) + 1;
+	}
+
+	/**
+	 * @return the offset of the first character of a component in the first
+	 *         repetition of a field
+	 * @should find components by number
+	 */
+	public int getComponentStart(int field, int component) {
+		return getComponentStart(field, 1, component);
+	}
+
+	/**
+	 * @return the offset just past the last character of a component in the
+	 *         first repetition of a field
+	 */
+	public int getComponentEnd(int field, int component) {
+		return getComponentEnd(field, 1, component);
+	}
+
+	/**
+	 * @return the offset of the first character of a component in a
+	 *         repetition of a field, or the end of the repetition if there is
+	 *         no such component
+	 * @should find components within a repetition
+	 */
+	public int getComponentStart(int field, int repetition, int component) {
+		return start(getRepetitionStart(field, repetition), getRepetitionEnd(field, repetition),
+				COMPONENT_SEPARATOR, component);
+	}
+
+	/**
+	 * @return the offset just past the last character of a component in a
+	 *         repetition of a field
+	 */
+	public int getComponentEnd(int field, int repetition, int component) {
+		return stop(getComponentStart(field, repetition, component), getRepetitionEnd(field, repetition),
+				COMPONENT_SEPARATOR);
+	}
+
+	/**
+	 * @return the length of a component in the first repetition of a field
+	 */
+	public int getComponentLength(int field, int component) {
+		return getComponentEnd(field, component) - getComponentStart(field, component);
+	}
+
+	/**
+	 * @return true if a field holds exactly the given value
+	 * @should compare fields without copying them
+	 */
+	public boolean fieldEquals(int field, CharSequence value) {
+		return regionEquals(getFieldStart(field), getFieldEnd(field), value);
+	}
+
+	/**
+	 * @return true if a component in the first repetition of a field holds
+	 *         exactly the given value
+	 */
+	public boolean componentEquals(int field, int component, CharSequence value) {
+		return regionEquals(getComponentStart(field, component), getComponentEnd(field, component), value);
+	}
+
+	/**
+	 * @return true if a field begins with the given text
+	 */
+	public boolean fieldStartsWith(int field, CharSequence prefix) {
+		int start = getFieldStart(field);
+		return getFieldEnd(field) - start >= prefix.length()
+				&& regionEquals(start, start + prefix.length(), prefix);
+	}
+
+	/**
+	 * @return true if a field ends with the given text
+	 */
+	public boolean fieldEndsWith(int field, CharSequence suffix) {
+		int fieldEnd = getFieldEnd(field);
+		return fieldEnd - getFieldStart(field) >= suffix.length()
+				&& regionEquals(fieldEnd - suffix.length(), fieldEnd, suffix);
+	}
+
+	/**
+	 * @return true if a field is made up only of digits; an empty field is
+	 */
+	public boolean isDigits(int field) {
+		for (int i = getFieldStart(field); i < getFieldEnd(field); i++)
+			if (!isDigit(text.charAt(i)))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return true if a field is made up only of letters, digits and
+	 *         underscores; an empty field is
+	 */
+	public boolean isWord(int field) {
+		for (int i = getFieldStart(field); i < getFieldEnd(field); i++) {
+			char c = text.charAt(i);
+			if (!isDigit(c) && c != '_' && !(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z'))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a component of the first repetition of a field as a number
+	 *
+	 * @return the number, or -1 if the component is empty or is not a whole
+	 *         number that fits in an int
+	 * @should read a number without copying it
+	 * @should return -1 for a component that is not a number
+	 */
+	public int getComponentAsInt(int field, int component) {
+		int start = getComponentStart(field, component);
+		int stop = getComponentEnd(field, component);
+		if (stop == start || stop - start > 9)
+			return -1;
+
+		int value = 0;
+		for (int i = start; i < stop; i++) {
+			char c = text.charAt(i);
+			if (!isDigit(c))
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * @return a copy of a field
+	 */
+	public String getField(int field) {
+		return text.subSequence(getFieldStart(field), getFieldEnd(field)).toString();
+	}
+
+	/**
+	 * appends a field to a buffer without copying it first
+	 */
+	public StringBuilder appendField(StringBuilder buffer, int field) {
+		return buffer.append(text, getFieldStart(field), getFieldEnd(field));
+	}
+
+	/**
+	 * appends a component of the first repetition of a field to a buffer
+	 * without copying it first
+	 */
+	public StringBuilder appendComponent(StringBuilder buffer, int field, int component) {
+		return buffer.append(text, getComponentStart(field, component), getComponentEnd(field, component));
+	}
+
+	/**
+	 * Copies the text with one field replaced; anything before or after this
+	 * segment is kept as it is
+	 *
+	 * @param field the field to replace; it must exist
+	 * @param value the new contents of the field
+	 * @return the rewritten text
+	 * @should replace only the given field
+	 * @should keep text after the segment
+	 */
+	public String replaceField(int field, CharSequence value) {
+		if (field >= fieldCount)
+			throw new IndexOutOfBoundsException("Segment has no field " + field);
+
+		int start = getFieldStart(field);
+		int stop = getFieldEnd(field);
+		StringBuilder rewritten = new StringBuilder(text.length() - (stop - start) + value.length());
+		rewritten.append(text, 0, start).append(value).append(text, stop, text.length());
+		return rewritten.toString();
+	}
+
+	private boolean regionEquals(int start, int stop, CharSequence value) {
+		if (stop - start != value.length())
+			return false;
+		for (int i = 0; i < value.length(); i++)
+			if (text.charAt(start + i) != value.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return how many times a separator appears between two offsets
+	 */
+	private int count(int start, int stop, char separator) {
+		int count = 0;
+		for (int i = start; i < stop; i++)
+			if (text.charAt(i) == separator)
+				count++;
+		return count;
+	}
+
+	/**
+	 * @return the offset just after the (n-1)th separator between two offsets,
+	 *         or stop if there are not that many
+	 */
+	private int start(int start, int stop, char separator, int n) {
+		int pos = start;
+		for (int i = 1; i < n; i++) {
+			while (pos < stop && text.charAt(pos) != separator)
+				pos++;
+			if (pos >= stop)
+				return stop;
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * @return the offset of the next separator at or after start, or stop
+	 */
+	private int stop(int start, int stop, char separator) {
+		int pos = start;
+		while (pos < stop && text.charAt(pos) != separator)
+			pos++;
+		return pos;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
@@ -0,0 +1,93 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+/**
+ * Reads the segments of an HL7 message one at a time, straight from its text.
+ * <p/>
+ * A segment ends at a carriage return, a line feed or both together, so
+ * messages written with any of these line endings, or a mix of them, read
+ * the same way. Nothing is copied or split ahead of time: {@link #next()}
+ * finds the end of the next segment and exposes its offsets into the text,
+ * and {@link #next(HL7MessageBuffer)} hands it straight to a buffer for the
+ * transform rules.
+ * <p/>
+ * Readers are not thread safe.
+ */
+public class HL7SegmentReader {
+
+	private final CharSequence text;
+
+	/**
+	 * offset of the next segment, or past the end once all have been read
+	 */
+	private int position = 0;
+
+	private int start = -1;
+
+	private int end = -1;
+
+	/**
+	 * @param text the HL7 message to read
+	 */
+	public HL7SegmentReader(CharSequence text) {
+		this.text = text;
+	}
+
+	/**
+	 * Moves to the next segment. A message ending with a line ending is read
+	 * as having an empty last segment, which {@link HL7MessageBuffer} leaves
+	 * out.
+	 *
+	 * @return true if there was another segment
+	 * @should read segments ending in CR, LF or CRLF
+	 * @should read lines ending in CR LF as a single line ending
+	 * @should read a message without line endings as one segment
+	 */
+	public boolean next() {
+		if (position > text.length())
+			return false;
+
+		start = position;
+		int i = position;
+		while (i < text.length() && !isLineEnding(text.charAt(i)))
+			i++;
+		end = i;
+
+		if (i + 1 < text.length() && text.charAt(i) == '\r' && text.charAt(i + 1) == '\n')
+			i++;
+		position = i + 1;
+		return true;
+	}
+
+	/**
+	 * Moves to the next segment and starts it in a message buffer
+	 *
+	 * @param message the buffer to copy the segment into
+	 * @return true if there was another segment
+	 * @should copy every segment into the buffer
+	 */
+	public boolean next(HL7MessageBuffer message) {
+		if (!next())
+			return false;
+		message.startSegment(text, start, end);
+		return true;
+	}
+
+	/**
+	 * @return the offset of the first character of the current segment
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the offset just past the end of the current segment, before its
+	 *         line ending
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	private static boolean isLineEnding(char c) {
+		return c == '\r' || c == '\n';
+	}
+}
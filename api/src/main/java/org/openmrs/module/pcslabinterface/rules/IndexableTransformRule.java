@@ -0,0 +1,21 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+/**
+ * A TransformRule that declares which segments it can change, so that the
+ * {@link TransformRuleDispatcher} only tests it against those segments
+ */
+public interface IndexableTransformRule extends TransformRule {
+
+	/**
+	 * @return the type of segment (e.g. OBX) this rule can change, or null if
+	 *         it may change any segment
+	 */
+	public String getSegmentType();
+
+	/**
+	 * @return the concept ids (OBX-3) of the observations this rule can
+	 *         change, or null if it may change any observation; only used for
+	 *         OBX segments
+	 */
+	public int[] getConceptIds();
+}
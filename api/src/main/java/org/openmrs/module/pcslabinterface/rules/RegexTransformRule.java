@@ -8,8 +8,12 @@ import java.util.regex.Pattern;
 
 /**
  * an abstract TransformRule based on regular expression pattern matching
+ * <p/>
+ * Subclasses that only override {@link #transform(String)} are run through
+ * the original API; overriding {@link #transform(HL7MessageBuffer)} as well
+ * lets them change the message in place.
  */
-abstract public class RegexTransformRule implements TransformRule {
+abstract public class RegexTransformRule implements IndexableTransformRule, SegmentTransformRule {
 
 	private Pattern regex = null;
 
@@ -62,4 +66,32 @@ abstract public class RegexTransformRule implements TransformRule {
 		return test;
 	}
 
+	/**
+	 * by default, runs {@link #matches(String)} and {@link #transform(String)}
+	 * on a copy of the current segment
+	 *
+	 * @see org.openmrs.module.pcslabinterface.rules.SegmentTransformRule#transform(org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer)
+	 */
+	public void transform(HL7MessageBuffer message) {
+		TransformRuleAdapter.transform(this, message);
+	}
+
+	/**
+	 * by default a rule may change any segment; override to narrow it down
+	 *
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+	 */
+	public String getSegmentType() {
+		return null;
+	}
+
+	/**
+	 * by default a rule may change any observation; override to narrow it down
+	 *
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getConceptIds()
+	 */
+	public int[] getConceptIds() {
+		return null;
+	}
+
 }
@@ -1,7 +1,5 @@
 package org.openmrs.module.pcslabinterface.rules;
 
-import java.util.regex.Matcher;
-
 /**
  * PCS sends Confirmation results with null value, this rule stripes all segments of such type
  * to prevent errors in processing.
@@ -27,12 +25,37 @@ public class RemoveAfbConfirmationNullValueSegments extends RegexTransformRule{
      */
     @Override
     public String transform(String test) {
-        // check for numeric concept
-        Matcher m = getRegex().matcher(test);
-        if (!m.matches())
-            return test;
+        return HL7MessageBuffer.transform(this, test);
+    }
+
+    @Override
+    public void transform(HL7MessageBuffer message) {
+        // check for a null value
+        HL7Segment segment = message.getSegment();
+        if (segment.hasMoreSegments() || !segment.isType("OBX") || !segment.isDigits(1)
+                || !segment.fieldEquals(2, "CWE") || !segment.fieldEquals(3, "2311^CONFIRMATION^99DCT")
+                || segment.getFieldLength(4) > 0 || !segment.fieldEquals(5, "^^99DCT")
+                || segment.getFieldCount() < 7 || segment.getFieldEnd(5) + 1 >= segment.getEnd())
+            return;
+        message.recordMatch();
+
+        // remove the segment
+        message.dropSegment();
+    }
+
+    /**
+     * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+     */
+    @Override
+    public String getSegmentType() {
+        return "OBX";
+    }
 
-        // return nothing ... so that the test can be removed
-        return null;
+    /**
+     * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getConceptIds()
+     */
+    @Override
+    public int[] getConceptIds() {
+        return new int[] { 2311 };
     }
 }
@@ -1,8 +1,5 @@
 package org.openmrs.module.pcslabinterface.rules;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import org.openmrs.module.pcslabinterface.PcsLabInterfaceConstants;
 import org.springframework.util.StringUtils;
 
@@ -15,10 +12,6 @@ import org.springframework.util.StringUtils;
  */
 public class RemoveCommasFromHIVViralLoads extends RegexTransformRule {
 
-	// this regex ensures that the value has only digits and/or commas in it
-	private Pattern valuePattern = Pattern
-			.compile("OBX\\|\\d*\\|..\\|856\\^.+\\^99DCT\\|[^\\|]*\\|([^,\\|]*,[^\\|]*)\\|.*");
-
 	/**
 	 * initializes the regex pattern for matching on a specific concept
 	 * 
@@ -39,27 +32,63 @@ public class RemoveCommasFromHIVViralLoads extends RegexTransformRule {
 	 * 
 	 * @should remove commas from the original value
 	 * @should add a comment containing the original value
+	 * @should only change the value field
 	 */
 	@Override
 	public String transform(String test) {
-		// check to make sure the value is truly just numbers and commas
-		Matcher m = valuePattern.matcher(test);
-		if (!m.matches())
-			return test;
+		return HL7MessageBuffer.transform(this, test);
+	}
 
-		// yank the value from the test string
-		String value = m.group(1);
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.RegexTransformRule#transform(org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer)
+	 */
+	@Override
+	public void transform(HL7MessageBuffer message) {
+		// check to make sure this is a viral load with a comma in the value
+		HL7Segment segment = message.getSegment();
+		if (!isViralLoad(segment) || segment.hasMoreSegments() || segment.getFieldCount() < 7)
+			return;
+		message.recordMatch();
+
+		// yank the value from the segment
+		String value = segment.getField(5);
+		if (value.indexOf(',') < 0)
+			return;
 
 		// remove the commas
 		String newValue = StringUtils.deleteAny(value, ",");
 
-		// replace first occurrence of value with newValue
-		test = test.replaceFirst(value, newValue);
+		// replace the value where it is, rather than searching for it
+		message.replaceField(5, newValue);
 
 		// append a comment describing the change
-		return test.concat(PcsLabInterfaceConstants.MESSAGE_EOL_SEQUENCE)
-				.concat("NTE|||")
-				.concat(PcsLabInterfaceConstants.LAB_VALUE_MODIFIED)
-				.concat(value);
+		message.appendSegment().append("NTE|||")
+				.append(PcsLabInterfaceConstants.LAB_VALUE_MODIFIED)
+				.append(value);
+	}
+
+	/**
+	 * @return true if the segment is an OBX for HIV Viral Load (856)
+	 */
+	static boolean isViralLoad(HL7Segment segment) {
+		return segment.isType("OBX") && segment.isDigits(1) && segment.getFieldLength(2) == 2
+				&& segment.getFieldLength(3) > "856^^99DCT".length()
+				&& segment.fieldStartsWith(3, "856^") && segment.fieldEndsWith(3, "^99DCT");
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+	 */
+	@Override
+	public String getSegmentType() {
+		return "OBX";
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getConceptIds()
+	 */
+	@Override
+	public int[] getConceptIds() {
+		return new int[] { 856 };
 	}
 }
@@ -1,8 +1,5 @@
 package org.openmrs.module.pcslabinterface.rules;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * PCS is sending some Confirmation results with null values
  * 
@@ -10,9 +7,6 @@ import java.util.regex.Pattern;
  */
 public class RemoveConfirmationNullValueSegments extends RegexTransformRule {
 
-	// this regex ensures that the segment is for DNA PCR with a null value
-	private Pattern valuePattern = Pattern
-			.compile("OBX\\|\\d+\\|\\w+\\|2311\\^.+\\^99DCT\\|\\|\\^\\^99DCT\\|.+");
 
 	/**
 	 * initializes the regex pattern for matching
@@ -31,13 +25,31 @@ public class RemoveConfirmationNullValueSegments extends RegexTransformRule {
 	 */
 	@Override
 	public String transform(String test) {
-		// check for numeric concept
-		Matcher m = valuePattern.matcher(test);
-		if (!m.matches())
-			return test;
+		return HL7MessageBuffer.transform(this, test);
+	}
+
+	@Override
+	public void transform(HL7MessageBuffer message) {
+		// check for a null value, and remove the segment if there is one
+		if (!RemoveDNAPCRNullValueSegments.isNullValue(message.getSegment(), "2311"))
+			return;
+		message.recordMatch();
+		message.dropSegment();
+	}
 
-		// return nothing ... so that the test can be removed
-		return null;
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+	 */
+	@Override
+	public String getSegmentType() {
+		return "OBX";
 	}
 
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getConceptIds()
+	 */
+	@Override
+	public int[] getConceptIds() {
+		return new int[] { 2311 };
+	}
 }
@@ -1,8 +1,5 @@
 package org.openmrs.module.pcslabinterface.rules;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * PCS is sending some DNA PCR test results with null values
  * 
@@ -10,9 +7,6 @@ import java.util.regex.Pattern;
  */
 public class RemoveDNAPCRNullValueSegments extends RegexTransformRule {
 
-	// this regex ensures that the segment is for DNA PCR with a null value
-	private Pattern valuePattern = Pattern
-			.compile("OBX\\|\\d+\\|\\w+\\|1030\\^.+\\^99DCT\\|\\|\\^\\^99DCT\\|.+");
 	
 	/**
 	 * initializes the regex pattern for matching
@@ -31,13 +25,48 @@ public class RemoveDNAPCRNullValueSegments extends RegexTransformRule {
 	 */
 	@Override
 	public String transform(String test) {
-		// check for numeric concept
-		Matcher m = valuePattern.matcher(test);
-		if (!m.matches())
-			return test;
+		return HL7MessageBuffer.transform(this, test);
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.RegexTransformRule#transform(org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer)
+	 */
+	@Override
+	public void transform(HL7MessageBuffer message) {
+		// check for a null value, and remove the segment if there is one
+		if (!isNullValue(message.getSegment(), "1030"))
+			return;
+		message.recordMatch();
+		message.dropSegment();
+	}
+
+	/**
+	 * @return true if the segment is a single OBX for the given concept with
+	 *         an empty coded value (^^99DCT)
+	 */
+	static boolean isNullValue(HL7Segment segment, String conceptId) {
+		return !segment.hasMoreSegments() && segment.isType("OBX")
+				&& segment.getFieldLength(1) > 0 && segment.isDigits(1)
+				&& segment.getFieldLength(2) > 0 && segment.isWord(2)
+				&& segment.getFieldLength(3) > conceptId.length() + "^^99DCT".length()
+				&& segment.fieldStartsWith(3, conceptId + "^") && segment.fieldEndsWith(3, "^99DCT")
+				&& segment.getFieldLength(4) == 0 && segment.fieldEquals(5, "^^99DCT")
+				&& segment.getFieldCount() > 6 && segment.getFieldEnd(5) + 1 < segment.getEnd();
+	}
 
-		// return nothing ... so that the test can be removed
-		return null;
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+	 */
+	@Override
+	public String getSegmentType() {
+		return "OBX";
 	}
 
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getConceptIds()
+	 */
+	@Override
+	public int[] getConceptIds() {
+		return new int[] { 1030 };
+	}
 }
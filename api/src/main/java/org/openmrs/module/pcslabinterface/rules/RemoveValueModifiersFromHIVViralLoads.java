@@ -1,6 +1,5 @@
 package org.openmrs.module.pcslabinterface.rules;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.openmrs.module.pcslabinterface.PcsLabInterfaceConstants;
@@ -14,10 +13,6 @@ import org.openmrs.module.pcslabinterface.PcsLabInterfaceConstants;
  */
 public class RemoveValueModifiersFromHIVViralLoads extends RegexTransformRule {
 
-	// this regex ensures that the value has only digits and/or commas in it
-	private static final Pattern valuePattern = Pattern
-			.compile("OBX\\|\\d*\\|..\\|856\\^.+\\^99DCT\\|[^\\|]*\\|([<>] *\\d+)\\|");
-
 	// this regex describes a simple comment pattern
 	private static final Pattern commentPattern = Pattern.compile("NTE\\|\\|\\|" + PcsLabInterfaceConstants.LAB_VALUE_MODIFIED);
 	
@@ -41,16 +36,27 @@ public class RemoveValueModifiersFromHIVViralLoads extends RegexTransformRule {
 	 * 
 	 * @should decrease value by one if using less than modifier
 	 * @should increase value by one if using greater than modifier
+	 * @should only change the value field
 	 */
 	@Override
 	public String transform(String test) {
+		return HL7MessageBuffer.transform(this, test);
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.RegexTransformRule#transform(org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer)
+	 */
+	@Override
+	public void transform(HL7MessageBuffer message) {
 		// check to make sure the value is what we expect
-		Matcher m = valuePattern.matcher(test);
-		if (!m.lookingAt())
-			return test;
+		HL7Segment segment = message.getSegment();
+		if (!RemoveCommasFromHIVViralLoads.isViralLoad(segment) || segment.getFieldCount() < 7
+				|| !isModifiedNumber(segment, 5))
+			return;
+		message.recordMatch();
 
-		// yank the value from the test string
-		String original = m.group(1);
+		// yank the value from the segment
+		String original = segment.getField(5);
 
 		// get modifier from the first character
 		char modifier = original.charAt(0);
@@ -63,27 +69,63 @@ public class RemoveValueModifiersFromHIVViralLoads extends RegexTransformRule {
 		try {
 			newValue = Integer.valueOf(value);
 		} catch (NumberFormatException e) {
-			return test;
+			return;
 		}
 
 		// return if the value is not worth parsing
 		if (newValue == null)
-			return test;
+			return;
 
 		// modify the value based on the modifier; < means -1, > means + 1
 		newValue = (modifier == '<') ? newValue - 1 : newValue + 1;
 
-		// replace first occurrence of value with newValue
-		test = test.replaceFirst(original, newValue.toString());
+		// replace the value where it is, rather than searching for it
+		message.replaceField(5, newValue.toString());
 
 		// no need to comment if one already exists
-		if (commentPattern.matcher(test).find())
-			return test;
+		if (message.matcher(commentPattern).find())
+			return;
 		
 		// append a comment describing the change
-		return test.concat(PcsLabInterfaceConstants.MESSAGE_EOL_SEQUENCE)
-				.concat("NTE|||")
-				.concat(PcsLabInterfaceConstants.LAB_VALUE_MODIFIED)
-				.concat(original);
+		message.appendSegment().append("NTE|||")
+				.append(PcsLabInterfaceConstants.LAB_VALUE_MODIFIED)
+				.append(original);
+	}
+
+	/**
+	 * @return true if the field is a modifier (&lt; or &gt;) followed by any
+	 *         spaces and then digits
+	 */
+	private static boolean isModifiedNumber(HL7Segment segment, int field) {
+		CharSequence text = segment.getText();
+		int pos = segment.getFieldStart(field);
+		int end = segment.getFieldEnd(field);
+		if (pos >= end || (text.charAt(pos) != '<' && text.charAt(pos) != '>'))
+			return false;
+		pos++;
+		while (pos < end && text.charAt(pos) == ' ')
+			pos++;
+		if (pos >= end)
+			return false;
+		for (; pos < end; pos++)
+			if (text.charAt(pos) < '0' || text.charAt(pos) > '9')
+				return false;
+		return true;
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getSegmentType()
+	 */
+	@Override
+	public String getSegmentType() {
+		return "OBX";
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.IndexableTransformRule#getConceptIds()
+	 */
+	@Override
+	public int[] getConceptIds() {
+		return new int[] { 856 };
 	}
 }
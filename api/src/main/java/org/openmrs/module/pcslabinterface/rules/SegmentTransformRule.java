@@ -0,0 +1,25 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+/**
+ * The second version of {@link TransformRule}. Rather than returning a new
+ * string for every line it is given, a rule changes the current segment of a
+ * {@link HL7MessageBuffer} in place, appends segments after it or drops it,
+ * so the whole message is transformed in one buffer.
+ * <p/>
+ * Rules written against the original API are run through a
+ * {@link TransformRuleAdapter}.
+ */
+public interface SegmentTransformRule {
+
+	/**
+	 * transforms the current segment of the message, if this rule applies to
+	 * it; a rule that does not apply leaves the message alone, and one that
+	 * does calls {@link HL7MessageBuffer#recordMatch()} before deciding
+	 * whether to change it
+	 *
+	 * @param message the message being transformed; the current segment is
+	 *            the last in it, followed by any segments earlier rules
+	 *            appended
+	 */
+	public void transform(HL7MessageBuffer message);
+}
@@ -0,0 +1,51 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+/**
+ * Runs a rule written against the original {@link TransformRule} API as a
+ * {@link SegmentTransformRule}. The rule sees the current segment, with any
+ * segments earlier rules appended to it, as a string, just as it did when
+ * the rules were chained one string at a time.
+ */
+public class TransformRuleAdapter implements SegmentTransformRule {
+
+	private final TransformRule rule;
+
+	/**
+	 * @param rule the rule to run
+	 */
+	public TransformRuleAdapter(TransformRule rule) {
+		this.rule = rule;
+	}
+
+	/**
+	 * @return the rule being run
+	 */
+	public TransformRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.SegmentTransformRule#transform(org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer)
+	 * @should replace the segment with the result of the rule
+	 * @should drop the segment if the rule returns null
+	 * @should leave the segment alone if the rule does not match
+	 */
+	public void transform(HL7MessageBuffer message) {
+		transform(rule, message);
+	}
+
+	/**
+	 * runs a rule written against the original API on the current segment of
+	 * a message
+	 */
+	static void transform(TransformRule rule, HL7MessageBuffer message) {
+		String test = message.getSegmentText();
+		if (!rule.matches(test))
+			return;
+		message.recordMatch();
+
+		String result = rule.transform(test);
+		if (result != test)
+			message.replaceSegment(result);
+	}
+}
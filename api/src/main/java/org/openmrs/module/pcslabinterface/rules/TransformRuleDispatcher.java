@@ -0,0 +1,198 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies a list of TransformRules to the lines of an HL7 message, testing
+ * each line only against the rules that can possibly change it.
+ * <p/>
+ * Rules are indexed by segment type and, for OBX segments, by concept id
+ * (OBX-3), using the scope they declare through
+ * {@link IndexableTransformRule}. Rules that do not declare a scope are
+ * tested against every line. A line is tokenized once to find its segment
+ * type and concept, and the rules that apply to it are run in the same order
+ * as in the original list.
+ * <p/>
+ * Rules are run through the {@link SegmentTransformRule} API, so a whole
+ * message can be transformed in one {@link HL7MessageBuffer}; rules that only
+ * implement the original API are wrapped in a {@link TransformRuleAdapter}.
+ * Every rule run is timed and recorded in its {@link TransformRuleMetrics}.
+ */
+public class TransformRuleDispatcher {
+
+	private static final String OBX = "OBX";
+
+	/**
+	 * rules for segments of a type no rule is scoped to
+	 */
+	private final RuleSet anySegment;
+
+	/**
+	 * rules for each segment type some rule is scoped to
+	 */
+	private final Map<String, RuleSet> bySegmentType = new HashMap<String, RuleSet>();
+
+	/**
+	 * rules for OBX segments with each concept some rule is scoped to
+	 */
+	private final Map<Integer, RuleSet> byConceptId = new HashMap<Integer, RuleSet>();
+
+	/**
+	 * @param rules the rules to apply, in order
+	 * @should only test lines against rules scoped to their segment type
+	 * @should only test OBX lines against rules scoped to their concept
+	 * @should test every line against rules without a scope
+	 * @should apply rules in their original order
+	 */
+	public TransformRuleDispatcher(TransformRule[] rules) {
+		Set<String> segmentTypes = new LinkedHashSet<String>();
+		Set<Integer> conceptIds = new LinkedHashSet<Integer>();
+		for (TransformRule rule : rules) {
+			if (rule instanceof IndexableTransformRule) {
+				IndexableTransformRule indexable = (IndexableTransformRule) rule;
+				if (indexable.getSegmentType() != null)
+					segmentTypes.add(indexable.getSegmentType());
+				if (indexable.getConceptIds() != null)
+					for (int conceptId : indexable.getConceptIds())
+						conceptIds.add(conceptId);
+			}
+		}
+
+		anySegment = select(rules, null, null);
+		segmentTypes.add(OBX);
+		for (String segmentType : segmentTypes)
+			bySegmentType.put(segmentType, select(rules, segmentType, null));
+		for (Integer conceptId : conceptIds)
+			byConceptId.put(conceptId, select(rules, OBX, conceptId));
+	}
+
+	/**
+	 * Runs every rule that applies to a line, in order
+	 *
+	 * @param line single line of an HL7 message
+	 * @return the transformed line, or null if a rule removed it
+	 */
+	public String transform(String line) {
+		if (line == null)
+			return null;
+
+		HL7MessageBuffer message = new HL7MessageBuffer(line.length() + 64);
+		message.startSegment(line);
+		transform(message);
+		return message.isDropped() ? null : message.getSegmentText();
+	}
+
+	/**
+	 * Runs every rule that applies to the current segment of a message, in
+	 * order, stopping if one of them drops it
+	 *
+	 * @param message the message being transformed
+	 * @should run rules written against the original API
+	 * @should stop once a rule drops the segment
+	 * @should record metrics for each rule it runs
+	 * @should count a match that leaves the segment alone
+	 * @should count matches of the built-in rules
+	 * @should count a built-in rule match that leaves the segment alone
+	 */
+	public void transform(HL7MessageBuffer message) {
+		RuleSet rules = getRuleSet(message.getSegment());
+		for (int i = 0; i < rules.segmentRules.length; i++) {
+			int matches = message.getMatchCount();
+			int changes = message.getChangeCount();
+			long start = System.nanoTime();
+			rules.segmentRules[i].transform(message);
+			rules.metrics[i].record(System.nanoTime() - start, message.getMatchCount() != matches,
+					message.getChangeCount() != changes);
+			if (message.isDropped())
+				return;
+		}
+	}
+
+	/**
+	 * Finds the rules that can change a line
+	 *
+	 * @param line single line of an HL7 message
+	 * @return the rules to test the line against, in order
+	 */
+	public TransformRule[] getRules(String line) {
+		if (line == null)
+			return anySegment.rules;
+		return getRuleSet(new HL7Segment(line)).rules;
+	}
+
+	private RuleSet getRuleSet(HL7Segment segment) {
+		if (segment.isType(OBX)) {
+			int conceptId = segment.getComponentAsInt(3, 1);
+			if (conceptId >= 0) {
+				RuleSet rules = byConceptId.get(Integer.valueOf(conceptId));
+				if (rules != null)
+					return rules;
+			}
+			return bySegmentType.get(OBX);
+		}
+
+		for (Map.Entry<String, RuleSet> entry : bySegmentType.entrySet())
+			if (segment.isType(entry.getKey()))
+				return entry.getValue();
+		return anySegment;
+	}
+
+	/**
+	 * @return the rules that apply to the given segment type and concept, in
+	 *         their original order
+	 */
+	private static RuleSet select(TransformRule[] rules, String segmentType, Integer conceptId) {
+		List<TransformRule> selected = new ArrayList<TransformRule>();
+		for (TransformRule rule : rules)
+			if (appliesTo(rule, segmentType, conceptId))
+				selected.add(rule);
+		return new RuleSet(selected.toArray(new TransformRule[selected.size()]));
+	}
+
+	private static boolean appliesTo(TransformRule rule, String segmentType, Integer conceptId) {
+		if (!(rule instanceof IndexableTransformRule))
+			return true;
+
+		IndexableTransformRule indexable = (IndexableTransformRule) rule;
+		if (indexable.getSegmentType() == null)
+			return true;
+		if (!indexable.getSegmentType().equals(segmentType))
+			return false;
+		if (!OBX.equals(segmentType) || indexable.getConceptIds() == null)
+			return true;
+		if (conceptId == null)
+			return false;
+		for (int id : indexable.getConceptIds())
+			if (id == conceptId.intValue())
+				return true;
+		return false;
+	}
+
+	/**
+	 * the rules for one kind of segment, as given and as run
+	 */
+	private static class RuleSet {
+
+		private final TransformRule[] rules;
+
+		private final SegmentTransformRule[] segmentRules;
+
+		private final TransformRuleMetrics[] metrics;
+
+		public RuleSet(TransformRule[] rules) {
+			this.rules = rules;
+			this.segmentRules = new SegmentTransformRule[rules.length];
+			this.metrics = new TransformRuleMetrics[rules.length];
+			for (int i = 0; i < rules.length; i++) {
+				segmentRules[i] = (rules[i] instanceof SegmentTransformRule) ? (SegmentTransformRule) rules[i]
+						: new TransformRuleAdapter(rules[i]);
+				metrics[i] = TransformRuleMetrics.forRule(rules[i]);
+			}
+		}
+	}
+}
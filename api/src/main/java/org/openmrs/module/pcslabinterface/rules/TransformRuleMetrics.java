@@ -0,0 +1,253 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openmrs.module.pcslabinterface.PcsLabInterfaceMBeans;
+
+/**
+ * Counts how often a transform rule is tested against a segment, how often it
+ * matches one and how often it changes one, and how long it takes, so rules
+ * that are expensive or never fire can be found. A rule can match a segment
+ * and still leave it as it was.
+ * <p/>
+ * Times are kept as a total and as a histogram with one bucket per power of
+ * two nanoseconds, from which percentiles are estimated to within a factor
+ * of two without keeping every sample. Recording is lock free, so the
+ * pre-processing workers can share the metrics of a rule.
+ * <p/>
+ * Metrics are kept per rule name, and survive the rules being reloaded. Each
+ * is published over JMX as a {@link TransformRuleMetricsMBean}, and they are
+ * shown on the module's admin page.
+ */
+public class TransformRuleMetrics implements TransformRuleMetricsMBean {
+
+	private static final String MBEAN_TYPE = "TransformRule";
+
+	private static final ConcurrentMap<String, TransformRuleMetrics> metrics = new ConcurrentHashMap<String, TransformRuleMetrics>();
+
+	private final String name;
+
+	private final AtomicLong tested = new AtomicLong();
+
+	private final AtomicLong matched = new AtomicLong();
+
+	private final AtomicLong transformed = new AtomicLong();
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * bucket b counts the times that need b bits, i.e. from 2^(b-1) up to
+	 * 2^b - 1 nanoseconds
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+	/**
+	 * @param name the name of the rule
+	 */
+	public TransformRuleMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Finds the metrics of a rule, creating and publishing them the first time
+	 * the rule is seen
+	 *
+	 * @param rule the rule
+	 * @return the metrics of the rule
+	 * @should share metrics between rules with the same name
+	 */
+	public static TransformRuleMetrics forRule(TransformRule rule) {
+		String name = getName(rule);
+		TransformRuleMetrics ruleMetrics = metrics.get(name);
+		if (ruleMetrics == null) {
+			TransformRuleMetrics created = new TransformRuleMetrics(name);
+			ruleMetrics = metrics.putIfAbsent(name, created);
+			if (ruleMetrics == null) {
+				ruleMetrics = created;
+				PcsLabInterfaceMBeans.register(created, PcsLabInterfaceMBeans.getObjectName(MBEAN_TYPE, name));
+			}
+		}
+		return ruleMetrics;
+	}
+
+	/**
+	 * @return the metrics of every rule seen, most expensive first
+	 */
+	public static List<TransformRuleMetrics> getAll() {
+		List<TransformRuleMetrics> all = new ArrayList<TransformRuleMetrics>(metrics.values());
+		Collections.sort(all, new Comparator<TransformRuleMetrics>() {
+
+			public int compare(TransformRuleMetrics a, TransformRuleMetrics b) {
+				long difference = b.getTotalNanos() - a.getTotalNanos();
+				return difference > 0 ? 1 : difference < 0 ? -1 : a.getName().compareTo(b.getName());
+			}
+		});
+		return all;
+	}
+
+	/**
+	 * withdraws the metrics of every rule from JMX, when the module stops
+	 */
+	public static void unregisterAll() {
+		for (String name : metrics.keySet())
+			PcsLabInterfaceMBeans.unregister(PcsLabInterfaceMBeans.getObjectName(MBEAN_TYPE, name));
+	}
+
+	/**
+	 * @return the name rules are reported under: the name of a declarative
+	 *         rule, otherwise the name of its class
+	 */
+	public static String getName(TransformRule rule) {
+		if (rule instanceof DeclarativeTransformRule)
+			return ((DeclarativeTransformRule) rule).getName();
+		String name = rule.getClass().getSimpleName();
+		return name.length() > 0 ? name : rule.getClass().getName();
+	}
+
+	/**
+	 * Records one test of the rule against a segment
+	 *
+	 * @param nanos how long the rule took
+	 * @param matched true if the rule found it applies to the segment
+	 * @param changed true if the rule changed the segment
+	 * @should count tests, matches and transforms
+	 * @should estimate percentiles to within a factor of two
+	 */
+	public void record(long nanos, boolean matched, boolean changed) {
+		if (nanos < 0)
+			nanos = 0;
+
+		tested.incrementAndGet();
+		if (matched)
+			this.matched.incrementAndGet();
+		if (changed)
+			transformed.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+			max = maxNanos.get();
+	}
+
+	/**
+	 * @param percent the percentile, from 0 to 100
+	 * @return an upper bound on the time taken by that percentage of tests,
+	 *         at most twice the actual time; 0 if there have been none
+	 */
+	public long getPercentileNanos(double percent) {
+		long count = 0;
+		for (int b = 0; b < buckets.length(); b++)
+			count += buckets.get(b);
+		if (count == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(count * percent / 100);
+		long seen = 0;
+		for (int b = 0; b < buckets.length(); b++) {
+			seen += buckets.get(b);
+			if (seen >= rank && seen > 0)
+				return Math.min(b == 0 ? 0 : (1L << b) - 1, getMaxNanos());
+		}
+		return getMaxNanos();
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#getName()
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#getTested()
+	 */
+	public long getTested() {
+		return tested.get();
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#getMatched()
+	 */
+	public long getMatched() {
+		return matched.get();
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#getTransformed()
+	 */
+	public long getTransformed() {
+		return transformed.get();
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#getTotalNanos()
+	 */
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#getMeanNanos()
+	 */
+	public long getMeanNanos() {
+		long count = getTested();
+		return count == 0 ? 0 : getTotalNanos() / count;
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#getP50Nanos()
+	 */
+	public long getP50Nanos() {
+		return getPercentileNanos(50);
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#getP95Nanos()
+	 */
+	public long getP95Nanos() {
+		return getPercentileNanos(95);
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#getP99Nanos()
+	 */
+	public long getP99Nanos() {
+		return getPercentileNanos(99);
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#getMaxNanos()
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * @see org.openmrs.module.pcslabinterface.rules.TransformRuleMetricsMBean#reset()
+	 */
+	public void reset() {
+		tested.set(0);
+		matched.set(0);
+		transformed.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+		for (int b = 0; b < buckets.length(); b++)
+			buckets.set(b, 0);
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + getTested() + " tested, " + getMatched() + " matched, " + getTransformed() + " transformed, " + getTotalNanos()
+				+ "ns total, " + getP50Nanos() + "ns p50, " + getP99Nanos() + "ns p99";
+	}
+}
@@ -0,0 +1,30 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+/**
+ * Management interface of the {@link TransformRuleMetrics} of one rule; times
+ * are in nanoseconds
+ */
+public interface TransformRuleMetricsMBean {
+
+	public String getName();
+
+	public long getTested();
+
+	public long getMatched();
+
+	public long getTransformed();
+
+	public long getTotalNanos();
+
+	public long getMeanNanos();
+
+	public long getP50Nanos();
+
+	public long getP95Nanos();
+
+	public long getP99Nanos();
+
+	public long getMaxNanos();
+
+	public void reset();
+}
@@ -0,0 +1,179 @@
+package org.openmrs.module.pcslabinterface.rules;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.openmrs.module.pcslabinterface.PcsLabInterfaceException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Compiles transform rules defined in XML into {@link DeclarativeTransformRule}s.
+ * For example, the urine protein fix could be written as:
+ *
+ * <pre>
+ * &lt;rules&gt;
+ *   &lt;rule name="negative urine protein" segment="OBX" concepts="2339"&gt;
+ *     &lt;field number="2" equals="CWE"/&gt;
+ *     &lt;field number="5" equals="^Negative^99DCT"/&gt;
+ *     &lt;replace field="5" with="664^NEGATIVE^99DCT"/&gt;
+ *     &lt;comment&gt;^Negative^99DCT&lt;/comment&gt;
+ *   &lt;/rule&gt;
+ *   &lt;rule name="null DNA PCR" segment="OBX" concepts="1030"&gt;
+ *     &lt;field number="5" matches="\^\^99DCT"/&gt;
+ *     &lt;drop/&gt;
+ *   &lt;/rule&gt;
+ * &lt;/rules&gt;
+ * </pre>
+ *
+ * A rule applies to segments of its type and, if concepts (a comma separated
+ * list of ids) are given, to observations of those concepts. Each field
+ * condition must hold: <code>equals</code> compares the field as it is,
+ * <code>matches</code> is a regular expression the whole field must match.
+ * Fields are numbered as in HL7 (OBX-5 is field 5), except for MSH, where
+ * field n is MSH-(n+1).
+ * <p/>
+ * A rule takes one action: <code>replace</code> a field, add a
+ * <code>comment</code> (either the given text, or the original value of a
+ * <code>field</code>), both, or <code>drop</code> the segment.
+ */
+public class TransformRuleParser {
+
+	/**
+	 * Compiles a rule definition
+	 *
+	 * @param definition the XML definition of the rules; null or blank for
+	 *            none
+	 * @return the compiled rules, in the order they are defined
+	 * @throws PcsLabInterfaceException if the definition is not valid
+	 * @should compile every rule in the definition
+	 * @should return no rules for a blank definition
+	 * @should fail for a rule without an action
+	 * @should fail for an invalid pattern
+	 * @should fail for a definition that is not XML
+	 */
+	public static List<TransformRule> parse(String definition) {
+		List<TransformRule> rules = new ArrayList<TransformRule>();
+		if (definition == null || definition.trim().length() == 0)
+			return rules;
+
+		Document document = read(definition);
+		NodeList ruleElements = document.getDocumentElement().getElementsByTagName("rule");
+		for (int i = 0; i < ruleElements.getLength(); i++)
+			rules.add(parseRule((Element) ruleElements.item(i), i + 1));
+		return rules;
+	}
+
+	private static Document read(String definition) {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			factory.setExpandEntityReferences(false);
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			return builder.parse(new InputSource(new StringReader(definition)));
+		} catch (ParserConfigurationException e) {
+			throw new PcsLabInterfaceException("Unable to read transform rules", e);
+		} catch (SAXException e) {
+			throw new PcsLabInterfaceException("Transform rules are not valid XML: " + e.getMessage(), e);
+		} catch (IOException e) {
+			throw new PcsLabInterfaceException("Unable to read transform rules", e);
+		}
+	}
+
+	private static DeclarativeTransformRule parseRule(Element element, int number) {
+		String name = element.getAttribute("name");
+		if (name.length() == 0)
+			name = "rule " + number;
+
+		String segmentType = element.getAttribute("segment");
+		if (segmentType.length() == 0)
+			throw new PcsLabInterfaceException("Transform rule '" + name + "' has no segment type");
+
+		DeclarativeTransformRule rule = new DeclarativeTransformRule(name, segmentType, parseConceptIds(element
+				.getAttribute("concepts"), name));
+
+		NodeList children = element.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			if (children.item(i).getNodeType() != Node.ELEMENT_NODE)
+				continue;
+
+			Element child = (Element) children.item(i);
+			String tag = child.getTagName();
+			if ("field".equals(tag)) {
+				int field = parseInt(child, "number", name);
+				if (child.hasAttribute("equals"))
+					rule.addFieldEquals(field, child.getAttribute("equals"));
+				else if (child.hasAttribute("matches"))
+					rule.addFieldMatches(field, parsePattern(child.getAttribute("matches"), name));
+				else
+					throw new PcsLabInterfaceException("Field " + field + " of transform rule '" + name
+							+ "' needs either equals or matches");
+			} else if ("replace".equals(tag)) {
+				rule.setReplacement(parseInt(child, "field", name), child.getAttribute("with"));
+			} else if ("comment".equals(tag)) {
+				if (child.hasAttribute("field"))
+					rule.setCommentField(parseInt(child, "field", name));
+				else
+					rule.setComment(child.getTextContent());
+			} else if ("drop".equals(tag)) {
+				rule.setDrop(true);
+			} else {
+				throw new PcsLabInterfaceException("Transform rule '" + name + "' has an unknown element: " + tag);
+			}
+		}
+
+		if (!rule.hasAction())
+			throw new PcsLabInterfaceException("Transform rule '" + name + "' does not do anything");
+		return rule;
+	}
+
+	private static int[] parseConceptIds(String concepts, String name) {
+		if (concepts.trim().length() == 0)
+			return null;
+
+		String[] ids = concepts.split(",");
+		int[] conceptIds = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			try {
+				conceptIds[i] = Integer.parseInt(ids[i].trim());
+			} catch (NumberFormatException e) {
+				throw new PcsLabInterfaceException("Transform rule '" + name + "' has an invalid concept id: "
+						+ ids[i]);
+			}
+		}
+		return conceptIds;
+	}
+
+	private static int parseInt(Element element, String attribute, String name) {
+		try {
+			int value = Integer.parseInt(element.getAttribute(attribute).trim());
+			if (value >= 0)
+				return value;
+		} catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new PcsLabInterfaceException("Transform rule '" + name + "' has an invalid " + attribute + " in "
+				+ element.getTagName() + ": " + element.getAttribute(attribute));
+	}
+
+	private static Pattern parsePattern(String pattern, String name) {
+		try {
+			return Pattern.compile(pattern);
+		} catch (PatternSyntaxException e) {
+			throw new PcsLabInterfaceException("Transform rule '" + name + "' has an invalid pattern: "
+					+ e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.pcslabinterface.ConceptCache.CachedConcept;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ConceptCacheTest {
+
+	/**
+	 * a cache over a map of codes that can be changed, which counts its
+	 * lookups
+	 */
+	private static class TestCache extends ConceptCache {
+
+		private final Map<String, Integer> codes = new HashMap<String, Integer>();
+
+		private final int maxSize;
+
+		private int lookUps = 0;
+
+		private int answerLookUps = 0;
+
+		private int booleanLookUps = 0;
+
+		public TestCache(int maxSize) {
+			this.maxSize = maxSize;
+			codes.put("856", 856);
+			codes.put("5497", 5497);
+			codes.put("1030", 1030);
+			codes.put("LOINC-20447-9", 856);
+		}
+
+		@Override
+		protected CachedConcept lookUp(String code, String codingSystem) {
+			lookUps++;
+			Integer conceptId = codes.get(code);
+			if (conceptId == null)
+				return null;
+			return new CachedConcept(conceptId, false, true, false);
+		}
+
+		@Override
+		protected int[] lookUpAnswerConceptIds(Integer conceptId) {
+			answerLookUps++;
+			return new int[] { 1066, 664, 1065, 703 };
+		}
+
+		@Override
+		protected Integer lookUpBooleanConceptId(boolean value) {
+			booleanLookUps++;
+			return value ? 1065 : 1066;
+		}
+
+		@Override
+		protected int getMaxSize() {
+			return maxSize;
+		}
+	}
+
+	/**
+	 * @verifies look up a concept only once
+	 * @see ConceptCache#get(String, String)
+	 */
+	@Test
+	public void get_shouldLookUpAConceptOnlyOnce() throws Exception {
+		TestCache cache = new TestCache(10);
+		Assert.assertEquals(Integer.valueOf(856), cache.get("856", "99DCT").getConceptId());
+		Assert.assertEquals(Integer.valueOf(856), cache.get("856", "99DCT").getConceptId());
+		Assert.assertEquals(Integer.valueOf(856), cache.get("LOINC-20447-9", "LN").getConceptId());
+
+		Assert.assertEquals(2, cache.lookUps);
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+		Assert.assertEquals(2, cache.getSize());
+		Assert.assertEquals(1 / 3.0, cache.getHitRate(), 0.0001);
+	}
+
+	/**
+	 * @verifies not cache concepts that are not found
+	 * @see ConceptCache#get(String, String)
+	 */
+	@Test
+	public void get_shouldNotCacheConceptsThatAreNotFound() throws Exception {
+		TestCache cache = new TestCache(10);
+		Assert.assertNull(cache.get("9999", "99DCT"));
+		cache.codes.put("9999", 9999);
+		Assert.assertEquals(Integer.valueOf(9999), cache.get("9999", "99DCT").getConceptId());
+		Assert.assertEquals(2, cache.lookUps);
+	}
+
+	/**
+	 * @verifies index the answers of a question only once
+	 * @see ConceptCache#isAnswer(CachedConcept, Integer)
+	 */
+	@Test
+	public void isAnswer_shouldIndexTheAnswersOfAQuestionOnlyOnce() throws Exception {
+		TestCache cache = new TestCache(10);
+		CachedConcept question = cache.get("1030", "99DCT");
+		Assert.assertTrue(cache.isAnswer(question, 1065));
+		Assert.assertTrue(cache.isAnswer(question, 664));
+		Assert.assertTrue(cache.isAnswer(cache.get("1030", "99DCT"), 703));
+		Assert.assertEquals(1, cache.answerLookUps);
+	}
+
+	/**
+	 * @verifies not allow answers that are not in the index
+	 * @see ConceptCache#isAnswer(CachedConcept, Integer)
+	 */
+	@Test
+	public void isAnswer_shouldNotAllowAnswersThatAreNotInTheIndex() throws Exception {
+		TestCache cache = new TestCache(10);
+		CachedConcept question = cache.get("1030", "99DCT");
+		Assert.assertFalse(cache.isAnswer(question, 1067));
+		Assert.assertFalse(cache.isAnswer(question, 0));
+		Assert.assertFalse(cache.isAnswer(question, null));
+	}
+
+	/**
+	 * @verifies look up the true and false concepts only once
+	 * @see ConceptCache#getBooleanConceptId(boolean)
+	 */
+	@Test
+	public void getBooleanConceptId_shouldLookUpTheTrueAndFalseConceptsOnlyOnce() throws Exception {
+		TestCache cache = new TestCache(10);
+		Assert.assertEquals(Integer.valueOf(1065), cache.getBooleanConceptId(true));
+		Assert.assertEquals(Integer.valueOf(1066), cache.getBooleanConceptId(false));
+		Assert.assertEquals(Integer.valueOf(1065), cache.getBooleanConceptId(true));
+		Assert.assertEquals(2, cache.booleanLookUps);
+
+		cache.invalidate();
+		Assert.assertEquals(Integer.valueOf(1065), cache.getBooleanConceptId(true));
+		Assert.assertEquals(3, cache.booleanLookUps);
+	}
+}
@@ -0,0 +1,125 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.PersonAttributeType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class HealthCenterCacheTest {
+
+	/**
+	 * a cache over a map of health centers that can be changed, which counts
+	 * its lookups
+	 */
+	private static class TestCache extends HealthCenterCache {
+
+		private final Map<Integer, String> healthCenters = new HashMap<Integer, String>();
+
+		private int attributeTypeLookUps = 0;
+
+		private int lookUps = 0;
+
+		public TestCache() {
+			healthCenters.put(2, "7");
+		}
+
+		@Override
+		protected PersonAttributeType lookUpAttributeType() {
+			attributeTypeLookUps++;
+			return new PersonAttributeType(9);
+		}
+
+		@Override
+		protected String lookUpHealthCenter(Integer patientId, Integer attributeTypeId) {
+			Assert.assertEquals(Integer.valueOf(9), attributeTypeId);
+			lookUps++;
+			return healthCenters.get(patientId);
+		}
+	}
+
+	/**
+	 * @verifies look up the attribute type only once
+	 * @see HealthCenterCache#getAttributeTypeId()
+	 */
+	@Test
+	public void getAttributeTypeId_shouldLookUpTheAttributeTypeOnlyOnce() throws Exception {
+		TestCache cache = new TestCache();
+		Assert.assertEquals(Integer.valueOf(9), cache.getAttributeTypeId());
+		Assert.assertEquals(Integer.valueOf(9), cache.getAttributeTypeId());
+		Assert.assertEquals(1, cache.attributeTypeLookUps);
+	}
+
+	/**
+	 * @verifies look up a patient only once
+	 * @see HealthCenterCache#isHealthCenter(Integer, String)
+	 */
+	@Test
+	public void isHealthCenter_shouldLookUpAPatientOnlyOnce() throws Exception {
+		TestCache cache = new TestCache();
+		Assert.assertTrue(cache.isHealthCenter(2, "7"));
+		Assert.assertTrue(cache.isHealthCenter(2, "7"));
+		Assert.assertEquals(1, cache.lookUps);
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(2, cache.getUnchanged());
+	}
+
+	/**
+	 * @verifies not match a patient without a health center
+	 * @see HealthCenterCache#isHealthCenter(Integer, String)
+	 */
+	@Test
+	public void isHealthCenter_shouldNotMatchAPatientWithoutAHealthCenter() throws Exception {
+		TestCache cache = new TestCache();
+		Assert.assertFalse(cache.isHealthCenter(3, "7"));
+		Assert.assertFalse(cache.isHealthCenter(3, ""));
+		Assert.assertEquals(1, cache.lookUps);
+		Assert.assertEquals(2, cache.getChanged());
+	}
+
+	/**
+	 * @verifies not match a patient with another health center
+	 * @see HealthCenterCache#isHealthCenter(Integer, String)
+	 */
+	@Test
+	public void isHealthCenter_shouldNotMatchAPatientWithAnotherHealthCenter() throws Exception {
+		TestCache cache = new TestCache();
+		Assert.assertFalse(cache.isHealthCenter(2, "8"));
+		Assert.assertEquals(1, cache.getChanged());
+		Assert.assertEquals(0, cache.getUnchanged());
+	}
+
+	/**
+	 * @verifies look up the patient again once invalidated
+	 * @see HealthCenterCache#invalidate(Integer)
+	 */
+	@Test
+	public void invalidate_shouldLookUpThePatientAgainOnceInvalidated() throws Exception {
+		TestCache cache = new TestCache();
+		Assert.assertFalse(cache.isHealthCenter(2, "8"));
+
+		cache.healthCenters.put(2, "8");
+		cache.invalidate(2);
+		Assert.assertTrue(cache.isHealthCenter(2, "8"));
+		Assert.assertEquals(2, cache.lookUps);
+		Assert.assertEquals(1, cache.attributeTypeLookUps);
+	}
+
+	/**
+	 * @verifies look up the attribute type again once invalidated
+	 * @see HealthCenterCache#invalidate()
+	 */
+	@Test
+	public void invalidate_shouldLookUpTheAttributeTypeAgainOnceInvalidated() throws Exception {
+		TestCache cache = new TestCache();
+		cache.isHealthCenter(2, "7");
+
+		cache.invalidate();
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertTrue(cache.isHealthCenter(2, "7"));
+		Assert.assertEquals(2, cache.lookUps);
+		Assert.assertEquals(2, cache.attributeTypeLookUps);
+	}
+}
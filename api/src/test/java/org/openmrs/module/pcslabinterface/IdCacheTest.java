@@ -0,0 +1,170 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class IdCacheTest {
+
+	/**
+	 * loads ids from a map that can be changed, counting its lookups
+	 */
+	private static class TestLoader implements IdCache.Loader<String, Integer> {
+
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		private int lookUps = 0;
+
+		public TestLoader() {
+			ids.put("a", 1);
+			ids.put("b", 2);
+			ids.put("c", 3);
+		}
+
+		public Integer load(String key) {
+			lookUps++;
+			return ids.get(key);
+		}
+	}
+
+	/**
+	 * @verifies look up a key only once
+	 * @see IdCache#get(Object, IdCache.Loader)
+	 */
+	@Test
+	public void get_shouldLookUpAKeyOnlyOnce() throws Exception {
+		IdCache<String, Integer> cache = new IdCache<String, Integer>(10);
+		TestLoader loader = new TestLoader();
+		Assert.assertEquals(Integer.valueOf(1), cache.get("a", loader));
+		Assert.assertEquals(Integer.valueOf(1), cache.get("a", loader));
+		Assert.assertEquals(Integer.valueOf(2), cache.get("b", loader));
+
+		Assert.assertEquals(2, loader.lookUps);
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+		Assert.assertEquals(2, cache.getSize());
+	}
+
+	/**
+	 * @verifies not remember null
+	 * @see IdCache#get(Object, IdCache.Loader)
+	 */
+	@Test
+	public void get_shouldNotRememberNull() throws Exception {
+		IdCache<String, Integer> cache = new IdCache<String, Integer>(10);
+		TestLoader loader = new TestLoader();
+		Assert.assertNull(cache.get("d", loader));
+		loader.ids.put("d", 4);
+		Assert.assertEquals(Integer.valueOf(4), cache.get("d", loader));
+		Assert.assertEquals(2, loader.lookUps);
+	}
+
+	/**
+	 * @verifies evict the least recently used entry
+	 * @see IdCache#get(Object, IdCache.Loader)
+	 */
+	@Test
+	public void get_shouldEvictTheLeastRecentlyUsedEntry() throws Exception {
+		IdCache<String, Integer> cache = new IdCache<String, Integer>(2);
+		TestLoader loader = new TestLoader();
+		cache.get("a", loader);
+		cache.get("b", loader);
+		cache.get("a", loader);
+		cache.get("c", loader);
+
+		Assert.assertEquals(2, cache.getSize());
+		Assert.assertEquals(1, cache.getEvictions());
+
+		// b was used least recently, so it was the one evicted
+		loader.lookUps = 0;
+		cache.get("a", loader);
+		cache.get("c", loader);
+		Assert.assertEquals(0, loader.lookUps);
+		cache.get("b", loader);
+		Assert.assertEquals(1, loader.lookUps);
+	}
+
+	/**
+	 * @verifies look up a key again once it expires
+	 * @see IdCache#get(Object, IdCache.Loader)
+	 */
+	@Test
+	public void get_shouldLookUpAKeyAgainOnceItExpires() throws Exception {
+		final Set<Integer> expired = new HashSet<Integer>();
+		IdCache<String, Integer> cache = new IdCache<String, Integer>(10) {
+
+			@Override
+			protected boolean isExpired(Integer value) {
+				return expired.contains(value);
+			}
+		};
+		TestLoader loader = new TestLoader();
+		cache.get("a", loader);
+		expired.add(1);
+		loader.ids.put("a", 5);
+
+		Assert.assertEquals(Integer.valueOf(5), cache.get("a", loader));
+		Assert.assertEquals(2, loader.lookUps);
+		Assert.assertEquals(1, cache.getExpirations());
+		Assert.assertEquals(2, cache.getMisses());
+	}
+
+	/**
+	 * @verifies not add a value looked up before an invalidation
+	 * @see IdCache#put(Object, Object, long)
+	 */
+	@Test
+	public void put_shouldNotAddAValueLookedUpBeforeAnInvalidation() throws Exception {
+		IdCache<String, Integer> cache = new IdCache<String, Integer>(10);
+		long lookupGeneration = cache.getGeneration();
+		cache.invalidate("a");
+		cache.put("a", 1, lookupGeneration);
+		Assert.assertEquals(0, cache.getSize());
+
+		cache.put("a", 1, cache.getGeneration());
+		Assert.assertEquals(1, cache.getSize());
+	}
+
+	/**
+	 * @verifies look up keys again once invalidated
+	 * @see IdCache#invalidate()
+	 */
+	@Test
+	public void invalidate_shouldLookUpKeysAgainOnceInvalidated() throws Exception {
+		IdCache<String, Integer> cache = new IdCache<String, Integer>(10);
+		TestLoader loader = new TestLoader();
+		cache.get("a", loader);
+		loader.ids.put("a", 5);
+		cache.invalidate();
+
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertEquals(Integer.valueOf(5), cache.get("a", loader));
+		Assert.assertEquals(1, cache.getInvalidations());
+	}
+
+	/**
+	 * @verifies forget the keys and every key resolving to the value
+	 * @see IdCache#invalidate(java.util.Collection, Object)
+	 */
+	@Test
+	public void invalidate_shouldForgetTheKeysAndEveryKeyResolvingToTheValue() throws Exception {
+		IdCache<String, Integer> cache = new IdCache<String, Integer>(10);
+		TestLoader loader = new TestLoader();
+		loader.ids.put("d", 3);
+		for (String key : Arrays.asList("a", "b", "c", "d"))
+			cache.get(key, loader);
+
+		cache.invalidate(Arrays.asList("a"), 3);
+
+		Assert.assertEquals(1, cache.getSize());
+		Assert.assertEquals(1, cache.getInvalidations());
+		loader.lookUps = 0;
+		cache.get("b", loader);
+		Assert.assertEquals(0, loader.lookUps);
+	}
+}
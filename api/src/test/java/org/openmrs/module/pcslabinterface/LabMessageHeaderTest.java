@@ -0,0 +1,66 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.pcslabinterface.LabMessageHeader.SendingApplication;
+
+public class LabMessageHeaderTest {
+
+	private static final String MSH = "MSH|^~\\&|PCSLABPLUS|AMRS.ELD|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|JqnfhKKtouEz8kzTk6Zo|P|2.5";
+
+	/**
+	 * @verifies classify the sending application
+	 * @see LabMessageHeader#parse(String)
+	 */
+	@Test
+	public void parse_shouldClassifyTheSendingApplication() throws Exception {
+		Assert.assertEquals(SendingApplication.PCSLABPLUS, LabMessageHeader.parse(MSH).getSendingApplication());
+		Assert.assertTrue(LabMessageHeader.parse(MSH).isPcsLabPlus());
+		Assert.assertEquals(SendingApplication.REFPACS, LabMessageHeader.parse(MSH.replace("PCSLABPLUS", "RefPacs^IU"))
+				.getSendingApplication());
+		Assert.assertEquals("RefPacs", LabMessageHeader.parse(MSH.replace("PCSLABPLUS", "RefPacs^IU"))
+				.getSendingApplicationName());
+		Assert.assertEquals(SendingApplication.EID, LabMessageHeader.parse(MSH.replace("PCSLABPLUS", "eid"))
+				.getSendingApplication());
+		Assert.assertEquals(SendingApplication.OTHER, LabMessageHeader.parse(MSH.replace("PCSLABPLUS", "FORMENTRY"))
+				.getSendingApplication());
+		Assert.assertEquals(SendingApplication.OTHER, LabMessageHeader.parse(MSH.replace("PCSLABPLUS", "OTHER"))
+				.getSendingApplication());
+	}
+
+	/**
+	 * @verifies find the message control id
+	 * @see LabMessageHeader#parse(String)
+	 */
+	@Test
+	public void parse_shouldFindTheMessageControlId() throws Exception {
+		Assert.assertEquals("JqnfhKKtouEz8kzTk6Zo", LabMessageHeader.parse(MSH).getControlId());
+		Assert.assertNull(LabMessageHeader.parse(MSH.replace("JqnfhKKtouEz8kzTk6Zo", "")).getControlId());
+		Assert.assertNull(LabMessageHeader.parse(MSH.replace("JqnfhKKtouEz8kzTk6Zo", "ABC-1")).getControlId());
+		Assert.assertNull(LabMessageHeader.parse("MSH|^~\\&|PCSLABPLUS|AMRS.ELD").getControlId());
+	}
+
+	/**
+	 * @verifies read only the first segment
+	 * @see LabMessageHeader#parse(String)
+	 */
+	@Test
+	public void parse_shouldReadOnlyTheFirstSegment() throws Exception {
+		LabMessageHeader header = LabMessageHeader.parse("\r\n" + MSH.replace("PCSLABPLUS", "REFPACS")
+				+ "\nNTE|||R01|NOTTHEKEY|PCSLABPLUS");
+		Assert.assertEquals(SendingApplication.REFPACS, header.getSendingApplication());
+		Assert.assertEquals("JqnfhKKtouEz8kzTk6Zo", header.getControlId());
+	}
+
+	/**
+	 * @verifies ignore messages without an MSH segment
+	 * @see LabMessageHeader#parse(String)
+	 */
+	@Test
+	public void parse_shouldIgnoreMessagesWithoutAnMSHSegment() throws Exception {
+		Assert.assertEquals(SendingApplication.OTHER, LabMessageHeader.parse(null).getSendingApplication());
+		Assert.assertNull(LabMessageHeader.parse("").getControlId());
+		Assert.assertEquals(SendingApplication.OTHER, LabMessageHeader.parse("PID|||PCSLABPLUS|R01|ABC|")
+				.getSendingApplication());
+	}
+}
@@ -0,0 +1,113 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LabMessageMemoryPolicyTest {
+
+	/**
+	 * a policy that reports whatever heap use the test sets
+	 */
+	private static class FixedHeapPolicy extends LabMessageMemoryPolicy {
+
+		private int used = 0;
+
+		public FixedHeapPolicy(int thresholdPercent) {
+			super(thresholdPercent);
+		}
+
+		@Override
+		protected int getHeapUsedPercent() {
+			return used;
+		}
+	}
+
+	/**
+	 * @verifies allow the configured batch size while under the threshold
+	 * @see LabMessageMemoryPolicy#getBatchSize(int)
+	 */
+	@Test
+	public void getBatchSize_shouldAllowTheConfiguredBatchSizeWhileUnderTheThreshold() throws Exception {
+		FixedHeapPolicy policy = new FixedHeapPolicy(80);
+		policy.used = 50;
+		Assert.assertEquals(25, policy.getBatchSize(25));
+		Assert.assertEquals(25, policy.getBatchSize(25));
+		Assert.assertEquals(0, policy.getShrinks());
+		Assert.assertEquals(0, policy.getPauses());
+	}
+
+	/**
+	 * @verifies halve the batch size while over the threshold
+	 * @see LabMessageMemoryPolicy#getBatchSize(int)
+	 */
+	@Test
+	public void getBatchSize_shouldHalveTheBatchSizeWhileOverTheThreshold() throws Exception {
+		FixedHeapPolicy policy = new FixedHeapPolicy(80);
+		policy.used = 90;
+		Assert.assertEquals(12, policy.getBatchSize(25));
+		Assert.assertEquals(6, policy.getBatchSize(25));
+		Assert.assertEquals(2, policy.getShrinks());
+	}
+
+	/**
+	 * @verifies pause once a single message is over the threshold
+	 * @see LabMessageMemoryPolicy#getBatchSize(int)
+	 */
+	@Test
+	public void getBatchSize_shouldPauseOnceASingleMessageIsOverTheThreshold() throws Exception {
+		FixedHeapPolicy policy = new FixedHeapPolicy(80);
+		policy.used = 80;
+		Assert.assertEquals(0, policy.getBatchSize(1));
+		Assert.assertEquals(1, policy.getPauses());
+	}
+
+	/**
+	 * @verifies grow the batch size back once under the threshold
+	 * @see LabMessageMemoryPolicy#getBatchSize(int)
+	 */
+	@Test
+	public void getBatchSize_shouldGrowTheBatchSizeBackOnceUnderTheThreshold() throws Exception {
+		FixedHeapPolicy policy = new FixedHeapPolicy(80);
+		policy.used = 95;
+		Assert.assertEquals(4, policy.getBatchSize(8));
+		Assert.assertEquals(2, policy.getBatchSize(8));
+		policy.used = 40;
+		Assert.assertEquals(4, policy.getBatchSize(8));
+		Assert.assertEquals(8, policy.getBatchSize(8));
+		Assert.assertEquals(8, policy.getBatchSize(8));
+	}
+
+	/**
+	 * @verifies report zero while paused
+	 * @see LabMessageMemoryPolicy#getCurrentBatchSize()
+	 */
+	@Test
+	public void getCurrentBatchSize_shouldReportZeroWhilePaused() throws Exception {
+		FixedHeapPolicy policy = new FixedHeapPolicy(80);
+		policy.used = 90;
+		policy.getBatchSize(4);
+		Assert.assertEquals(2, policy.getCurrentBatchSize());
+		policy.getBatchSize(4);
+		policy.getBatchSize(4);
+		Assert.assertEquals(0, policy.getCurrentBatchSize());
+	}
+
+	/**
+	 * @verifies replace the policy published before it
+	 * @see LabMessageMemoryPolicy#publish()
+	 */
+	@Test
+	public void publish_shouldReplaceThePolicyPublishedBeforeIt() throws Exception {
+		LabMessageMemoryPolicy first = new LabMessageMemoryPolicy(80);
+		LabMessageMemoryPolicy second = new LabMessageMemoryPolicy(90);
+		try {
+			first.publish();
+			Assert.assertSame(first, LabMessageMemoryPolicy.getPublished());
+			second.publish();
+			Assert.assertSame(second, LabMessageMemoryPolicy.getPublished());
+		} finally {
+			LabMessageMemoryPolicy.unpublish();
+		}
+		Assert.assertNull(LabMessageMemoryPolicy.getPublished());
+	}
+}
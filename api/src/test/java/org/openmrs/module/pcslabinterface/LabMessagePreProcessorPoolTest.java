@@ -0,0 +1,66 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+public class LabMessagePreProcessorPoolTest {
+
+	/**
+	 * @verifies run work for the same patient in submission order
+	 * @see LabMessagePreProcessorPool#submit(String, java.util.concurrent.Callable)
+	 */
+	@Test
+	public void submit_shouldRunWorkForTheSamePatientInSubmissionOrder() throws Exception {
+		LabMessagePreProcessorPool pool = new LabMessagePreProcessorPool(4);
+		final List<Integer> seen = Collections.synchronizedList(new ArrayList<Integer>());
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		try {
+			for (int i = 0; i < 50; i++) {
+				final int n = i;
+				results.add(pool.submit("12345^^M10^AMRS^MR", new Callable<Integer>() {
+
+					public Integer call() throws Exception {
+						seen.add(n);
+						return n;
+					}
+				}));
+			}
+			for (int i = 0; i < 50; i++)
+				Assert.assertEquals(Integer.valueOf(i), results.get(i).get());
+		} finally {
+			pool.shutdown();
+		}
+
+		for (int i = 0; i < 50; i++)
+			Assert.assertEquals(Integer.valueOf(i), seen.get(i));
+	}
+
+	/**
+	 * @verifies return the patient identifier list
+	 * @see LabMessagePreProcessorPool#getPatientIdentifier(String)
+	 */
+	@Test
+	public void getPatientIdentifier_shouldReturnThePatientIdentifierList() throws Exception {
+		String hl7string = "MSH|^~\\&|PCSLABPLUS|AMRS.ELD|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|JqnfhKKtouEz8kzTk6Zo|P|2.5\r"
+				+ "PID|||12345^^M10^AMRS^MR||John3^Doe^||\r"
+				+ "OBR|1|||1238^MEDICAL RECORD OBSERVATIONS^99DCT";
+
+		Assert.assertEquals("12345^^M10^AMRS^MR", LabMessagePreProcessorPool.getPatientIdentifier(hl7string));
+	}
+
+	/**
+	 * @verifies return null if there is no PID segment
+	 * @see LabMessagePreProcessorPool#getPatientIdentifier(String)
+	 */
+	@Test
+	public void getPatientIdentifier_shouldReturnNullIfThereIsNoPIDSegment() throws Exception {
+		Assert.assertNull(LabMessagePreProcessorPool.getPatientIdentifier("MSH|^~\\&|PCSLABPLUS"));
+		Assert.assertNull(LabMessagePreProcessorPool.getPatientIdentifier("MSH|^~\\&|PCSLABPLUS\rPID|1"));
+	}
+}
@@ -0,0 +1,218 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+public class LabMessageQueueIndexTest {
+
+	private File queueDir;
+
+	@Before
+	public void createQueueDir() throws Exception {
+		queueDir = File.createTempFile("pcsqueue", "");
+		queueDir.delete();
+		queueDir.mkdir();
+	}
+
+	@After
+	public void deleteQueueDir() throws Exception {
+		for (File file : queueDir.listFiles()) {
+			File[] children = file.listFiles();
+			if (children != null)
+				for (File child : children)
+					child.delete();
+			file.delete();
+		}
+		queueDir.delete();
+	}
+
+	private File drop(String name) throws IOException {
+		File file = new File(queueDir, name);
+		FileWriter writer = new FileWriter(file);
+		writer.write("MSH|^~\\&|PCSLABPLUS");
+		writer.close();
+		return file;
+	}
+
+	/**
+	 * @verifies return files in name order
+	 * @see LabMessageQueueIndex#peek()
+	 */
+	@Test
+	public void peek_shouldReturnFilesInNameOrder() throws Exception {
+		drop("2012.01.02-0000-00000-1-2.txt");
+		drop("2012.01.01-0000-00000-1-1.txt");
+
+		LabMessageQueueIndex index = new LabMessageQueueIndex(queueDir);
+
+		Assert.assertEquals("2012.01.01-0000-00000-1-1.txt", index.peek().getName());
+		Assert.assertEquals(2, index.size());
+	}
+
+	/**
+	 * @verifies pick up files dropped into the directory after the first scan
+	 * @see LabMessageQueueIndex#peek()
+	 */
+	@Test
+	public void peek_shouldPickUpFilesDroppedIntoTheDirectoryAfterTheFirstScan() throws Exception {
+		File first = drop("a.txt");
+		LabMessageQueueIndex index = new LabMessageQueueIndex(queueDir);
+		Assert.assertEquals(1, index.size());
+
+		drop("b.txt");
+		// make sure the directory timestamp moves even on coarse filesystems
+		queueDir.setLastModified(queueDir.lastModified() + 2000);
+
+		Assert.assertEquals(2, index.size());
+
+		first.delete();
+		index.remove(first);
+		Assert.assertEquals("b.txt", index.peek().getName());
+	}
+
+	/**
+	 * @verifies skip files removed from the directory behind its back
+	 * @see LabMessageQueueIndex#peek()
+	 */
+	@Test
+	public void peek_shouldSkipFilesRemovedFromTheDirectoryBehindItsBack() throws Exception {
+		File first = drop("a.txt");
+		drop("b.txt");
+		LabMessageQueueIndex index = new LabMessageQueueIndex(queueDir);
+		Assert.assertEquals(first, index.peek());
+
+		first.delete();
+
+		Assert.assertEquals("b.txt", index.peek().getName());
+	}
+
+	/**
+	 * @verifies not return a removed file
+	 * @see LabMessageQueueIndex#remove(File)
+	 */
+	@Test
+	public void remove_shouldNotReturnARemovedFile() throws Exception {
+		File first = drop("a.txt");
+		drop("b.txt");
+		LabMessageQueueIndex index = new LabMessageQueueIndex(queueDir);
+		Assert.assertEquals(2, index.size());
+
+		first.delete();
+		index.remove(first);
+
+		Assert.assertEquals(1, index.getFiles().size());
+		Assert.assertEquals("b.txt", index.getFiles().get(0).getName());
+	}
+
+	/**
+	 * @verifies not list the directory again for its own change
+	 * @see LabMessageQueueIndex#remove(File)
+	 */
+	@Test
+	public void remove_shouldNotListTheDirectoryAgainForItsOwnChange() throws Exception {
+		File first = drop("a.txt");
+		drop("b.txt");
+		LabMessageQueueIndex index = new LabMessageQueueIndex(queueDir);
+		Assert.assertEquals(2, index.size());
+
+		first.delete();
+		index.remove(first);
+
+		// a file that appears without moving the timestamp again is only
+		// seen by a listing
+		long lastModified = queueDir.lastModified();
+		drop("c.txt");
+		queueDir.setLastModified(lastModified);
+
+		Assert.assertEquals(1, index.size());
+	}
+
+	/**
+	 * @verifies not list the directory again for its own change
+	 * @see LabMessageQueueIndex#add(File)
+	 */
+	@Test
+	public void add_shouldNotListTheDirectoryAgainForItsOwnChange() throws Exception {
+		drop("b.txt");
+		LabMessageQueueIndex index = new LabMessageQueueIndex(queueDir);
+		Assert.assertEquals(1, index.size());
+
+		index.add(drop("a.txt"));
+		long lastModified = queueDir.lastModified();
+		drop("c.txt");
+		queueDir.setLastModified(lastModified);
+
+		Assert.assertEquals(2, index.size());
+		Assert.assertEquals("a.txt", index.peek().getName());
+	}
+
+	/**
+	 * @verifies pick up a file dropped by another process along with its own change once it runs dry
+	 * @see LabMessageQueueIndex#remove(File)
+	 */
+	@Test
+	public void remove_shouldPickUpAFileDroppedByAnotherProcessAlongWithItsOwnChangeOnceItRunsDry() throws Exception {
+		File first = drop("a.txt");
+		LabMessageQueueIndex index = new LabMessageQueueIndex(queueDir);
+		Assert.assertEquals(1, index.size());
+
+		drop("b.txt");
+		first.delete();
+		index.remove(first);
+
+		Assert.assertEquals("b.txt", index.peek().getName());
+		Assert.assertEquals(1, index.size());
+	}
+
+	/**
+	 * @verifies leave hidden names and the processor's subdirectories out
+	 * @see LabMessageQueueIndex#rescan()
+	 */
+	@Test
+	public void rescan_shouldLeaveHiddenNamesAndTheProcessorsSubdirectoriesOut() throws Exception {
+		drop("a.txt");
+		new File(queueDir, LabMessageQueueWriter.TEMP_DIR_NAME).mkdir();
+		new File(queueDir, PcsLabInterfaceQueueProcessor.ERROR_DIR).mkdir();
+		new File(queueDir, PcsLabInterfaceQueueProcessor.PROGRESS_DIR).mkdir();
+
+		LabMessageQueueIndex index = new LabMessageQueueIndex(queueDir);
+
+		Assert.assertEquals(1, index.getFiles().size());
+		Assert.assertEquals("a.txt", index.getFiles().get(0).getName());
+	}
+
+	/**
+	 * @verifies return null when the queue is empty
+	 * @see LabMessageQueueIndex#peek()
+	 */
+	@Test
+	public void peek_shouldReturnNullWhenTheQueueIsEmpty() throws Exception {
+		Assert.assertNull(new LabMessageQueueIndex(queueDir).peek());
+	}
+
+	/**
+	 * @verifies return no more than the requested number of files
+	 * @see LabMessageQueueIndex#peek(int)
+	 */
+	@Test
+	public void peek_shouldReturnNoMoreThanTheRequestedNumberOfFiles() throws Exception {
+		drop("a.txt");
+		drop("b.txt");
+		drop("c.txt");
+		LabMessageQueueIndex index = new LabMessageQueueIndex(queueDir);
+
+		List<File> files = index.peek(2);
+
+		Assert.assertEquals(2, files.size());
+		Assert.assertEquals("a.txt", files.get(0).getName());
+		Assert.assertEquals("b.txt", files.get(1).getName());
+		Assert.assertEquals(3, index.peek(10).size());
+	}
+}
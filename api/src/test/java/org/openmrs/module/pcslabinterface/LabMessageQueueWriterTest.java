@@ -0,0 +1,217 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.util.OpenmrsUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class LabMessageQueueWriterTest {
+
+	private File queueDir;
+
+	@Before
+	public void createQueueDir() throws Exception {
+		queueDir = File.createTempFile("pcsqueue", "");
+		queueDir.delete();
+		queueDir.mkdir();
+	}
+
+	@After
+	public void deleteQueueDir() throws Exception {
+		File tempDir = new File(queueDir, LabMessageQueueWriter.TEMP_DIR_NAME);
+		if (tempDir.exists()) {
+			for (File file : tempDir.listFiles())
+				file.delete();
+			tempDir.delete();
+		}
+		for (File file : queueDir.listFiles())
+			file.delete();
+		queueDir.delete();
+	}
+
+	/**
+	 * @verifies write the message into the queue directory
+	 * @see LabMessageQueueWriter#write(java.io.File, String)
+	 */
+	@Test
+	public void write_shouldWriteTheMessageIntoTheQueueDirectory() throws Exception {
+		LabMessageQueueWriter writer = new LabMessageQueueWriter(queueDir);
+		writer.write(new File(queueDir, "a.txt"), "MSH|^~\\&|PCSLABPLUS");
+
+		Assert.assertEquals("MSH|^~\\&|PCSLABPLUS", OpenmrsUtil.getFileAsString(new File(queueDir, "a.txt")));
+		Assert.assertEquals(1, new LabMessageQueueIndex(queueDir).size());
+	}
+
+	/**
+	 * @verifies not leave anything in the temporary directory
+	 * @see LabMessageQueueWriter#write(java.io.File, String)
+	 */
+	@Test
+	public void write_shouldNotLeaveAnythingInTheTemporaryDirectory() throws Exception {
+		LabMessageQueueWriter writer = new LabMessageQueueWriter(queueDir);
+		writer.write(new File(queueDir, "a.txt"), "MSH|^~\\&|PCSLABPLUS");
+
+		Assert.assertEquals(0, new File(queueDir, LabMessageQueueWriter.TEMP_DIR_NAME).list().length);
+	}
+
+	/**
+	 * @verifies not overwrite a file already in the queue
+	 * @see LabMessageQueueWriter#write(java.io.File, String)
+	 */
+	@Test
+	public void write_shouldNotOverwriteAFileAlreadyInTheQueue() throws Exception {
+		LabMessageQueueWriter writer = new LabMessageQueueWriter(queueDir);
+		File first = writer.write(new File(queueDir, "a.txt"), "MSH|^~\\&|PCSLABPLUS|1");
+		File second = writer.write(new File(queueDir, "a.txt"), "MSH|^~\\&|PCSLABPLUS|2");
+
+		Assert.assertEquals(new File(queueDir, "a.txt"), first);
+		Assert.assertFalse(first.equals(second));
+		Assert.assertEquals("MSH|^~\\&|PCSLABPLUS|1", OpenmrsUtil.getFileAsString(first));
+		Assert.assertEquals("MSH|^~\\&|PCSLABPLUS|2", OpenmrsUtil.getFileAsString(second));
+		Assert.assertEquals(2, new LabMessageQueueIndex(queueDir).size());
+	}
+
+	/**
+	 * @verifies commit concurrent writes
+	 * @see LabMessageQueueWriter#write(java.io.File, String)
+	 */
+	@Test
+	public void write_shouldCommitConcurrentWrites() throws Exception {
+		final LabMessageQueueWriter writer = new LabMessageQueueWriter(queueDir);
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 20; i++) {
+			final int n = i;
+			threads.add(new Thread() {
+
+				public void run() {
+					try {
+						writer.write(new File(queueDir, "message-" + n + ".txt"), "MSH|^~\\&|PCSLABPLUS|" + n);
+					} catch (Exception e) {
+						errors.add(e);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+
+		Assert.assertTrue(errors.isEmpty());
+		for (int i = 0; i < 20; i++)
+			Assert.assertEquals("MSH|^~\\&|PCSLABPLUS|" + i,
+					OpenmrsUtil.getFileAsString(new File(queueDir, "message-" + i + ".txt")));
+		Assert.assertEquals(20, new LabMessageQueueIndex(queueDir).size());
+	}
+
+	/**
+	 * @verifies commit writes that arrive together as one group
+	 * @see LabMessageQueueWriter#write(java.io.File, String)
+	 */
+	@Test
+	public void write_shouldCommitWritesThatArriveTogetherAsOneGroup() throws Exception {
+		final CountDownLatch firstSyncStarted = new CountDownLatch(1);
+		final CountDownLatch firstSyncReleased = new CountDownLatch(1);
+		final List<Thread> syncedBy = Collections.synchronizedList(new ArrayList<Thread>());
+		final LabMessageQueueWriter writer = new LabMessageQueueWriter(queueDir) {
+
+			@Override
+			protected void sync(FileOutputStream out) throws IOException {
+				syncedBy.add(Thread.currentThread());
+				if (syncedBy.size() == 1) {
+					// hold the first group until the others are waiting
+					firstSyncStarted.countDown();
+					try {
+						firstSyncReleased.await();
+					} catch (InterruptedException e) {
+						throw new IOException("interrupted");
+					}
+				}
+				super.sync(out);
+			}
+		};
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 5; i++) {
+			final int n = i;
+			threads.add(new Thread() {
+
+				public void run() {
+					try {
+						writer.write(new File(queueDir, "message-" + n + ".txt"), "MSH|^~\\&|PCSLABPLUS|" + n);
+					} catch (Exception e) {
+						errors.add(e);
+					}
+				}
+			});
+		}
+		threads.get(0).start();
+		firstSyncStarted.await();
+		for (Thread thread : threads.subList(1, threads.size()))
+			thread.start();
+		while (writer.getPendingCount() < 4)
+			Thread.sleep(10);
+		firstSyncReleased.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		Assert.assertTrue(errors.isEmpty());
+		Assert.assertEquals(5, syncedBy.size());
+		// the four writes that waited were all synced by the one leader
+		Assert.assertEquals(1, new HashSet<Thread>(syncedBy.subList(1, 5)).size());
+		Assert.assertEquals(5, new LabMessageQueueIndex(queueDir).size());
+	}
+
+	/**
+	 * @verifies give concurrent writes of the same name names of their own
+	 * @see LabMessageQueueWriter#write(java.io.File, String)
+	 */
+	@Test
+	public void write_shouldGiveConcurrentWritesOfTheSameNameNamesOfTheirOwn() throws Exception {
+		final LabMessageQueueWriter writer = new LabMessageQueueWriter(queueDir);
+		final List<File> queued = Collections.synchronizedList(new ArrayList<File>());
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 20; i++) {
+			final int n = i;
+			threads.add(new Thread() {
+
+				public void run() {
+					try {
+						File file = writer.write(new File(queueDir, "a.txt"), "MSH|^~\\&|PCSLABPLUS|" + n);
+						queued.add(file);
+					} catch (Exception e) {
+						errors.add(e);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+
+		Assert.assertTrue(errors.isEmpty());
+		Assert.assertEquals(20, new HashSet<File>(queued).size());
+		Set<String> contents = new HashSet<String>();
+		for (File file : queued)
+			contents.add(OpenmrsUtil.getFileAsString(file));
+		Assert.assertEquals(20, contents.size());
+		Assert.assertEquals(20, new LabMessageQueueIndex(queueDir).size());
+	}
+}
@@ -0,0 +1,90 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class LabMessageSplitterTest {
+
+	private static final String FIRST = "MSH|^~\\&|PCSLABPLUS|AMRS.ELD|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|FIRST|P|2.5\r"
+			+ "PID|||12345^^M10^AMRS^MR||Doe^John\r"
+			+ "OBX|1|NM|5497^CD4 COUNT^99DCT||450|||||||||20080206";
+
+	private static final String SECOND = "MSH|^~\\&|PCSLABPLUS|AMRS.ELD|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|SECOND|P|2.5\r"
+			+ "PID|||67890^^M10^AMRS^MR||Doe^Jane\r"
+			+ "OBX|1|NM|5497^CD4 COUNT^99DCT||600|||||||||20080206";
+
+	/**
+	 * @verifies return each message in a file
+	 * @see LabMessageSplitter#next()
+	 */
+	@Test
+	public void next_shouldReturnEachMessageInAFile() throws Exception {
+		LabMessageSplitter splitter = new LabMessageSplitter(new StringReader(FIRST + "\r\n" + SECOND + "\r\n"));
+		Assert.assertEquals(FIRST, splitter.next());
+		Assert.assertEquals(SECOND, splitter.next());
+		Assert.assertNull(splitter.next());
+	}
+
+	/**
+	 * @verifies fail for a segment longer than the limit
+	 * @see LabMessageSplitter#next()
+	 */
+	@Test(expected = IOException.class)
+	public void next_shouldFailForASegmentLongerThanTheLimit() throws Exception {
+		new LabMessageSplitter(new StringReader(FIRST), 40).next();
+	}
+
+	/**
+	 * @verifies return a single message unchanged
+	 * @see LabMessageSplitter#next()
+	 */
+	@Test
+	public void next_shouldReturnASingleMessageUnchanged() throws Exception {
+		LabMessageSplitter splitter = new LabMessageSplitter(new StringReader(FIRST));
+		Assert.assertEquals(FIRST, splitter.next());
+		Assert.assertNull(splitter.next());
+	}
+
+	/**
+	 * @verifies not split on MSH in the middle of a segment
+	 * @see LabMessageSplitter#next()
+	 */
+	@Test
+	public void next_shouldNotSplitOnMSHInTheMiddleOfASegment() throws Exception {
+		String message = FIRST + "\rNTE|||see MSH|12 for details";
+		LabMessageSplitter splitter = new LabMessageSplitter(new StringReader(message));
+		Assert.assertEquals(message, splitter.next());
+		Assert.assertNull(splitter.next());
+	}
+
+	/**
+	 * @verifies return null for a blank file
+	 * @see LabMessageSplitter#next()
+	 */
+	@Test
+	public void next_shouldReturnNullForABlankFile() throws Exception {
+		Assert.assertNull(new LabMessageSplitter(new StringReader(" \r\n")).next());
+	}
+
+	/**
+	 * @verifies find a second message
+	 * @see LabMessageSplitter#containsMultipleMessages(String)
+	 */
+	@Test
+	public void containsMultipleMessages_shouldFindASecondMessage() throws Exception {
+		Assert.assertTrue(LabMessageSplitter.containsMultipleMessages(FIRST + "\n" + SECOND));
+		Assert.assertFalse(LabMessageSplitter.containsMultipleMessages(FIRST));
+	}
+
+	/**
+	 * @verifies not count blank lines before the first message
+	 * @see LabMessageSplitter#containsMultipleMessages(String)
+	 */
+	@Test
+	public void containsMultipleMessages_shouldNotCountBlankLinesBeforeTheFirstMessage() throws Exception {
+		Assert.assertFalse(LabMessageSplitter.containsMultipleMessages("\r\n" + FIRST));
+	}
+}
@@ -0,0 +1,143 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.EncounterType;
+import org.openmrs.Form;
+
+import ca.uhn.hl7v2.HL7Exception;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class LabMetadataCacheTest {
+
+	/**
+	 * a cache over a map of forms that can be changed, which counts its
+	 * lookups
+	 */
+	private static class TestCache extends LabMetadataCache {
+
+		private final Map<Integer, Form> forms = new HashMap<Integer, Form>();
+
+		private int lookUps = 0;
+
+		public TestCache() {
+			Form form = new Form(12);
+			form.setEncounterType(new EncounterType(4));
+			forms.put(12, form);
+		}
+
+		@Override
+		protected Form lookUpForm(Integer formId) {
+			lookUps++;
+			return forms.get(formId);
+		}
+	}
+
+	/**
+	 * resolves a location to a fixed id, counting how often it is asked
+	 */
+	private static class TestResolver implements LabMetadataCache.LocationResolver {
+
+		private final Integer locationId;
+
+		private int resolved = 0;
+
+		public TestResolver(Integer locationId) {
+			this.locationId = locationId;
+		}
+
+		public Integer resolveLocationId() throws HL7Exception {
+			resolved++;
+			return locationId;
+		}
+	}
+
+	/**
+	 * @verifies resolve a location only once
+	 * @see LabMetadataCache#getLocationId(String, String, LabMetadataCache.LocationResolver)
+	 */
+	@Test
+	public void getLocationId_shouldResolveALocationOnlyOnce() throws Exception {
+		LabMetadataCache cache = new TestCache();
+		TestResolver resolver = new TestResolver(7);
+		Assert.assertEquals(Integer.valueOf(7), cache.getLocationId("7", null, resolver));
+		Assert.assertEquals(Integer.valueOf(7), cache.getLocationId("7", null, resolver));
+		Assert.assertEquals(1, resolver.resolved);
+
+		TestResolver other = new TestResolver(8);
+		Assert.assertEquals(Integer.valueOf(8), cache.getLocationId("7", "Clinic", other));
+		Assert.assertEquals(1, other.resolved);
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+	}
+
+	/**
+	 * @verifies remember locations that do not exist
+	 * @see LabMetadataCache#getLocationId(String, String, LabMetadataCache.LocationResolver)
+	 */
+	@Test
+	public void getLocationId_shouldRememberLocationsThatDoNotExist() throws Exception {
+		LabMetadataCache cache = new TestCache();
+		TestResolver resolver = new TestResolver(null);
+		Assert.assertNull(cache.getLocationId("Nowhere", null, resolver));
+		Assert.assertNull(cache.getLocationId("Nowhere", null, resolver));
+		Assert.assertEquals(1, resolver.resolved);
+	}
+
+	/**
+	 * @verifies look up a form only once
+	 * @see LabMetadataCache#isForm(Integer)
+	 */
+	@Test
+	public void isForm_shouldLookUpAFormOnlyOnce() throws Exception {
+		TestCache cache = new TestCache();
+		Assert.assertTrue(cache.isForm(12));
+		Assert.assertTrue(cache.isForm(12));
+		Assert.assertEquals(Integer.valueOf(4), cache.getEncounterTypeId(12));
+		Assert.assertEquals(1, cache.lookUps);
+	}
+
+	/**
+	 * @verifies remember forms that do not exist
+	 * @see LabMetadataCache#isForm(Integer)
+	 */
+	@Test
+	public void isForm_shouldRememberFormsThatDoNotExist() throws Exception {
+		TestCache cache = new TestCache();
+		Assert.assertFalse(cache.isForm(13));
+		Assert.assertNull(cache.getEncounterTypeId(13));
+		Assert.assertEquals(1, cache.lookUps);
+	}
+
+	/**
+	 * @verifies find the encounter type of a form
+	 * @see LabMetadataCache#getEncounterTypeId(Integer)
+	 */
+	@Test
+	public void getEncounterTypeId_shouldFindTheEncounterTypeOfAForm() throws Exception {
+		TestCache cache = new TestCache();
+		cache.forms.put(14, new Form(14));
+		Assert.assertEquals(Integer.valueOf(4), cache.getEncounterTypeId(12));
+		Assert.assertNull(cache.getEncounterTypeId(14));
+		Assert.assertTrue(cache.isForm(14));
+	}
+
+	/**
+	 * @verifies look up forms again once invalidated
+	 * @see LabMetadataCache#invalidate()
+	 */
+	@Test
+	public void invalidate_shouldLookUpFormsAgainOnceInvalidated() throws Exception {
+		TestCache cache = new TestCache();
+		cache.getEncounterTypeId(12);
+		cache.getLocationId("7", null, new TestResolver(7));
+
+		cache.forms.get(12).setEncounterType(new EncounterType(5));
+		cache.invalidate();
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertEquals(Integer.valueOf(5), cache.getEncounterTypeId(12));
+		Assert.assertEquals(2, cache.lookUps);
+	}
+}
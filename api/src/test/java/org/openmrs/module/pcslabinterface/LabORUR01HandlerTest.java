@@ -59,6 +59,13 @@ public class LabORUR01HandlerTest extends BaseModuleContextSensitiveTest {
 	public void runBeforeEachTest() throws Exception {
 		executeDataSet(ORU_INITIAL_DATA_XML);
         executeDataSet(PCS_TEST_DATA_XML);
+		// concepts, patients and providers cached by an earlier test may
+		// differ from this test's data
+		ConceptCache.getInstance().invalidate();
+		PatientIdentifierCache.getInstance().invalidate();
+		ProviderCache.getInstance().invalidate();
+		LabMetadataCache.getInstance().invalidate();
+		HealthCenterCache.getInstance().invalidate();
 	}
 
 	/**
@@ -0,0 +1,124 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class NumericConceptIdCacheTest {
+
+	/**
+	 * a cache over a list of ids that can be changed, with a fixed time to
+	 * live and a session that can be closed
+	 */
+	private static class TestCache extends NumericConceptIdCache {
+
+		private final List<Integer> ids = new ArrayList<Integer>(Arrays.asList(5497, 856, 5089));
+
+		private final long timeToLive;
+
+		private boolean sessionOpen = true;
+
+		public TestCache(long timeToLive) {
+			this.timeToLive = timeToLive;
+		}
+
+		@Override
+		protected List<Integer> loadNumericConceptIds() {
+			return new ArrayList<Integer>(ids);
+		}
+
+		@Override
+		protected long getTimeToLive() {
+			return timeToLive;
+		}
+
+		@Override
+		protected boolean canLoad() {
+			return sessionOpen;
+		}
+	}
+
+	/**
+	 * @verifies find numeric concepts
+	 * @see NumericConceptIdCache#contains(int)
+	 */
+	@Test
+	public void contains_shouldFindNumericConcepts() throws Exception {
+		NumericConceptIdCache cache = new TestCache(0);
+		Assert.assertTrue(cache.contains(5497));
+		Assert.assertTrue(cache.contains(856));
+		Assert.assertFalse(cache.contains(19));
+		Assert.assertFalse(cache.contains(-1));
+	}
+
+	/**
+	 * @verifies load the ids only once
+	 * @see NumericConceptIdCache#contains(int)
+	 */
+	@Test
+	public void contains_shouldLoadTheIdsOnlyOnce() throws Exception {
+		NumericConceptIdCache cache = new TestCache(0);
+		cache.contains(5497);
+		cache.contains(856);
+		cache.contains(19);
+
+		Assert.assertEquals(1, cache.getLoads());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(2, cache.getHits());
+	}
+
+	/**
+	 * @verifies reload the ids once they are invalidated
+	 * @see NumericConceptIdCache#contains(int)
+	 */
+	@Test
+	public void contains_shouldReloadTheIdsOnceTheyAreInvalidated() throws Exception {
+		TestCache cache = new TestCache(0);
+		Assert.assertFalse(cache.contains(6000));
+
+		cache.ids.add(6000);
+		Assert.assertFalse(cache.contains(6000));
+
+		cache.invalidate();
+		Assert.assertTrue(cache.contains(6000));
+		Assert.assertEquals(2, cache.getLoads());
+		Assert.assertFalse(cache.isStale());
+	}
+
+	/**
+	 * @verifies reload the ids once they expire
+	 * @see NumericConceptIdCache#contains(int)
+	 */
+	@Test
+	public void contains_shouldReloadTheIdsOnceTheyExpire() throws Exception {
+		TestCache cache = new TestCache(1);
+		Assert.assertFalse(cache.contains(6000));
+
+		cache.ids.add(6000);
+		Thread.sleep(10);
+		Assert.assertTrue(cache.isStale());
+		Assert.assertTrue(cache.contains(6000));
+	}
+
+	/**
+	 * @verifies keep using the loaded ids without a session
+	 * @see NumericConceptIdCache#contains(int)
+	 */
+	@Test
+	public void contains_shouldKeepUsingTheLoadedIdsWithoutASession() throws Exception {
+		TestCache cache = new TestCache(0);
+		cache.refresh();
+		cache.ids.add(6000);
+		cache.invalidate();
+
+		cache.sessionOpen = false;
+		Assert.assertFalse(cache.contains(6000));
+		Assert.assertEquals(1, cache.getLoads());
+
+		cache.sessionOpen = true;
+		Assert.assertTrue(cache.contains(6000));
+	}
+}
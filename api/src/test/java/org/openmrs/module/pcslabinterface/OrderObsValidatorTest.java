@@ -0,0 +1,72 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.springframework.validation.Errors;
+
+import java.util.List;
+
+public class OrderObsValidatorTest {
+
+	/**
+	 * a validator that only requires a concept, so the tests do not depend on
+	 * the rules of the ObsValidator
+	 */
+	private static class TestValidator extends OrderObsValidator<String> {
+
+		@Override
+		protected void validate(Obs obs, Errors errors) {
+			if (obs.getConcept() == null) {
+				errors.rejectValue("concept", "error.null");
+				errors.rejectValue("valueCoded", "error.null");
+			}
+		}
+	}
+
+	/**
+	 * @verifies collect the errors of every obs
+	 * @see OrderObsValidator#validate(org.openmrs.Obs, Object)
+	 */
+	@Test
+	public void validate_shouldCollectTheErrorsOfEveryObs() throws Exception {
+		OrderObsValidator<String> validator = new TestValidator();
+		Assert.assertFalse(validator.validate(new Obs(), "OBX|1"));
+		Assert.assertFalse(validator.validate(new Obs(), "OBX|2"));
+
+		List<OrderObsValidator.Failure<String>> failures = validator.getFailures();
+		Assert.assertTrue(validator.hasErrors());
+		Assert.assertEquals(2, failures.size());
+		Assert.assertEquals("OBX|1", failures.get(0).getSource());
+		Assert.assertEquals("OBX|2", failures.get(1).getSource());
+		Assert.assertEquals(2, failures.get(0).getErrors().size());
+		Assert.assertEquals(2, failures.get(1).getErrors().size());
+	}
+
+	/**
+	 * @verifies not remember valid obs
+	 * @see OrderObsValidator#validate(org.openmrs.Obs, Object)
+	 */
+	@Test
+	public void validate_shouldNotRememberValidObs() throws Exception {
+		OrderObsValidator<String> validator = new TestValidator();
+		Assert.assertFalse(validator.validate(new Obs(), "OBX|1"));
+
+		Obs obs = new Obs();
+		obs.setConcept(new Concept(5497));
+		Assert.assertTrue(validator.validate(obs, "OBX|2"));
+		Assert.assertEquals(1, validator.getFailures().size());
+	}
+
+	/**
+	 * @verifies not have errors before validating
+	 * @see OrderObsValidator#hasErrors()
+	 */
+	@Test
+	public void hasErrors_shouldNotHaveErrorsBeforeValidating() throws Exception {
+		OrderObsValidator<String> validator = new TestValidator();
+		Assert.assertFalse(validator.hasErrors());
+		Assert.assertTrue(validator.getFailures().isEmpty());
+	}
+}
@@ -0,0 +1,135 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class PatientIdentifierCacheTest {
+
+	/**
+	 * a cache over a map of identifiers that can be changed, which records
+	 * its lookups
+	 */
+	private static class TestCache extends PatientIdentifierCache {
+
+		private final Map<String, Set<Integer>> identifiers = new HashMap<String, Set<Integer>>();
+
+		private final List<Collection<String>> lookUps = new ArrayList<Collection<String>>();
+
+		private final int maxSize;
+
+		public TestCache(int maxSize) {
+			this.maxSize = maxSize;
+			hold("12345-6", 3);
+			hold("AMRS-7", 3);
+			hold("98765-4", 7);
+			hold("SHARED-1", 7);
+			hold("SHARED-1", 8);
+		}
+
+		public void hold(String identifier, Integer patientId) {
+			if (!identifiers.containsKey(identifier))
+				identifiers.put(identifier, new HashSet<Integer>());
+			identifiers.get(identifier).add(patientId);
+		}
+
+		@Override
+		protected Map<String, Set<Integer>> lookUp(Collection<String> identifiers) {
+			lookUps.add(new HashSet<String>(identifiers));
+			Map<String, Set<Integer>> found = new HashMap<String, Set<Integer>>();
+			for (String identifier : identifiers)
+				if (this.identifiers.containsKey(identifier))
+					found.put(identifier, new HashSet<Integer>(this.identifiers.get(identifier)));
+			return found;
+		}
+
+		@Override
+		protected int getMaxSize() {
+			return maxSize;
+		}
+	}
+
+	private static Set<Integer> ids(Integer... ids) {
+		return new HashSet<Integer>(Arrays.asList(ids));
+	}
+
+	/**
+	 * @verifies look up all identifiers that are not cached in one query
+	 * @see PatientIdentifierCache#getPatientIds(java.util.Collection)
+	 */
+	@Test
+	public void getPatientIds_shouldLookUpAllIdentifiersThatAreNotCachedInOneQuery() throws Exception {
+		TestCache cache = new TestCache(10);
+		Assert.assertEquals(ids(3), cache.getPatientIds(Arrays.asList("12345-6")));
+		Assert.assertEquals(ids(3), cache.getPatientIds(Arrays.asList("12345-6", "AMRS-7", "UNKNOWN-1")));
+
+		Assert.assertEquals(2, cache.lookUps.size());
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("AMRS-7", "UNKNOWN-1")), cache.lookUps.get(1));
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(3, cache.getMisses());
+	}
+
+	/**
+	 * @verifies only cache identifiers held by a single patient
+	 * @see PatientIdentifierCache#getPatientIds(java.util.Collection)
+	 */
+	@Test
+	public void getPatientIds_shouldOnlyCacheIdentifiersHeldByASinglePatient() throws Exception {
+		TestCache cache = new TestCache(10);
+		Assert.assertEquals(ids(), cache.getPatientIds(Arrays.asList("NEW-1")));
+		cache.getPatientIds(Arrays.asList("SHARED-1"));
+		Assert.assertEquals(0, cache.getSize());
+
+		// a patient registered since is found
+		cache.hold("NEW-1", 12);
+		Assert.assertEquals(ids(12), cache.getPatientIds(Arrays.asList("NEW-1")));
+		Assert.assertEquals(1, cache.getSize());
+	}
+
+	/**
+	 * @verifies count ambiguous matches
+	 * @see PatientIdentifierCache#getPatientIds(java.util.Collection)
+	 */
+	@Test
+	public void getPatientIds_shouldCountAmbiguousMatches() throws Exception {
+		TestCache cache = new TestCache(10);
+		Assert.assertEquals(ids(7, 8), cache.getPatientIds(Arrays.asList("SHARED-1")));
+		Assert.assertEquals(ids(3, 7), cache.getPatientIds(Arrays.asList("12345-6", "98765-4")));
+		Assert.assertEquals(ids(7), cache.getPatientIds(Arrays.asList("98765-4")));
+		Assert.assertEquals(2, cache.getAmbiguousMatches());
+	}
+
+	/**
+	 * @verifies forget every identifier of the patient
+	 * @see PatientIdentifierCache#invalidate(org.openmrs.Patient)
+	 */
+	@Test
+	public void invalidate_shouldForgetEveryIdentifierOfThePatient() throws Exception {
+		TestCache cache = new TestCache(10);
+		cache.getPatientIds(Arrays.asList("12345-6", "AMRS-7", "98765-4"));
+		Assert.assertEquals(3, cache.getSize());
+
+		// AMRS-7 has moved to patient 7, whose identifiers do not include
+		// 12345-6 any more
+		Patient patient = new Patient(7);
+		PatientIdentifier identifier = new PatientIdentifier();
+		identifier.setIdentifier("AMRS-7");
+		patient.addIdentifier(identifier);
+		cache.invalidate(patient);
+
+		Assert.assertEquals(1, cache.getSize());
+		cache.identifiers.get("AMRS-7").clear();
+		cache.hold("AMRS-7", 7);
+		Assert.assertEquals(ids(7), cache.getPatientIds(Arrays.asList("AMRS-7")));
+	}
+}
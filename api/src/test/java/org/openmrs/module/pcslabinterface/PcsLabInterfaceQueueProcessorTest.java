@@ -5,6 +5,7 @@ import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.openmrs.api.context.Context;
+import org.openmrs.hl7.HL7InQueue;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
 import org.openmrs.util.OpenmrsUtil;
@@ -13,6 +14,8 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 
@@ -346,4 +349,166 @@ public class PcsLabInterfaceQueueProcessorTest extends BaseModuleContextSensitiv
 
 		assertEquals(hl7string, actual);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @verifies only process messages sent by PCS
+	 * @see PcsLabInterfaceQueueProcessor#preProcessMessage(LabMessageHeader, String)
+	 */
+	@Test
+	public void preProcessMessage_shouldOnlyProcessMessagesSentByPCS() throws Exception {
+		String refpacs = PcsLabInterfaceTestUtil.makeMessage(
+				"MSH|^~\\&|REFPACS|IU|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|ABC101083591|P|2.5",
+				"PID|||12345^^M10^AMRS^MR||John3^Doe^",
+				"NTE|||copied from PCSLABPLUS",
+				"OBX|1|NM|856^HIV VIRAL LOAD, QUANTITATIVE^99DCT||1,000|||||||||20080206");
+		assertEquals(refpacs, new PcsLabInterfaceQueueProcessor().preProcessMessage(refpacs));
+
+		String pcs = PcsLabInterfaceTestUtil.makeMessage(
+				"MSH|^~\\&|pcslabplus^AMRS|AMRS.ELD|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|ABC101083591|P|2.5",
+				"OBX|1|NM|856^HIV VIRAL LOAD, QUANTITATIVE^99DCT||1,000|||||||||20080206");
+		String expected = PcsLabInterfaceTestUtil.makeMessage(
+				"MSH|^~\\&|pcslabplus^AMRS|AMRS.ELD|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|ABC101083591|P|2.5",
+				"OBX|1|NM|856^HIV VIRAL LOAD, QUANTITATIVE^99DCT||1000|||||||||20080206",
+				"NTE|||" + PcsLabInterfaceConstants.LAB_VALUE_MODIFIED + "1,000");
+		assertEquals(expected, new PcsLabInterfaceQueueProcessor().preProcessMessage(pcs));
+	}
+
+	/**
+	 * @verifies read lines ending in CR, LF or CRLF
+	 * @see PcsLabInterfaceQueueProcessor#preProcessMessage(LabMessageHeader, String)
+	 */
+	@Test
+	public void preProcessMessage_shouldReadLinesEndingInCRLFOrCRLF() throws Exception {
+		String[] lines = {
+				"MSH|^~\\&|PCSLABPLUS|AMRS.ELD|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|JqnfhKKtouEz8kzTk6Zo|P|2.5",
+				"PID|||12345^^M10^AMRS^MR||John3^Doe^",
+				"OBX|1|NM|856^HIV VIRAL LOAD, QUANTITATIVE^99DCT||1,000|||||||||20080206" };
+		String expected = PcsLabInterfaceTestUtil.makeMessage(lines[0], lines[1],
+				"OBX|1|NM|856^HIV VIRAL LOAD, QUANTITATIVE^99DCT||1000|||||||||20080206",
+				"NTE|||" + PcsLabInterfaceConstants.LAB_VALUE_MODIFIED + "1,000");
+
+		PcsLabInterfaceQueueProcessor processor = new PcsLabInterfaceQueueProcessor();
+		assertEquals(expected, processor.preProcessMessage(lines[0] + "\r\n" + lines[1] + "\r\n" + lines[2] + "\r\n"));
+		assertEquals(expected, processor.preProcessMessage(lines[0] + "\n" + lines[1] + "\n" + lines[2]));
+		assertEquals(expected, processor.preProcessMessage(lines[0] + "\r" + lines[1] + "\n" + lines[2] + "\r\n"));
+	}
+
+	/**
+	 * @verifies save each message in a file as its own HL7 queue item
+	 * @see PcsLabInterfaceQueueProcessor#parseLabMessage(LabMessage)
+	 */
+	@Test
+	public void parseLabMessage_shouldSaveEachMessageInAFileAsItsOwnHL7QueueItem() throws Exception {
+		String first = "MSH|^~\\&|EID|PCS|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|SPLIT1|P|2.5\r"
+				+ "PID|||12345^^M10^AMRS^MR||John3^Doe^";
+		String second = "MSH|^~\\&|EID|PCS|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|SPLIT2|P|2.5\r"
+				+ "PID|||12345^^M10^AMRS^MR||John3^Doe^";
+
+		PcsLabInterfaceService service = Context.getService(PcsLabInterfaceService.class);
+		LabMessage labMessage = new LabMessage();
+		labMessage.setData(first + "\r\n" + second);
+		service.createLabMessage(labMessage);
+
+		int before = Context.getHL7Service().getAllHL7InQueues().size();
+		for (LabMessage queued : service.getLabMessages())
+			if (queued.getData().contains("SPLIT1"))
+				new PcsLabInterfaceQueueProcessor().parseLabMessage(queued);
+		Context.flushSession();
+		Context.clearSession();
+
+		List<String> keys = new ArrayList<String>();
+		for (HL7InQueue hl7InQueue : Context.getHL7Service().getAllHL7InQueues())
+			keys.add(hl7InQueue.getHL7SourceKey());
+		assertEquals(before + 2, keys.size());
+		Assert.assertTrue(keys.contains("SPLIT1"));
+		Assert.assertTrue(keys.contains("SPLIT2"));
+	}
+
+	/**
+	 * @verifies resume after the messages already saved
+	 * @see PcsLabInterfaceQueueProcessor#parseLabMessage(LabMessage)
+	 */
+	@Test
+	public void parseLabMessage_shouldResumeAfterTheMessagesAlreadySaved() throws Exception {
+		String data = "";
+		for (int i = 1; i <= 3; i++)
+			data += "MSH|^~\\&|EID|PCS|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|RESUME" + i + "|P|2.5\r"
+					+ "PID|||12345^^M10^AMRS^MR||John3^Doe^\r\n";
+
+		PcsLabInterfaceService service = Context.getService(PcsLabInterfaceService.class);
+		LabMessage labMessage = new LabMessage();
+		labMessage.setData(data);
+		service.createLabMessage(labMessage);
+
+		PcsLabInterfaceQueueProcessor processor = new PcsLabInterfaceQueueProcessor();
+		int before = Context.getHL7Service().getAllHL7InQueues().size();
+		for (LabMessage queued : service.getLabMessages()) {
+			if (queued.getData().contains("RESUME1")) {
+				// an earlier attempt saved the first message, then failed
+				File progress = processor.getProgressFile(queued);
+				progress.getParentFile().mkdirs();
+				PcsLabInterfaceUtil.stringToFile("1", progress);
+
+				processor.parseLabMessage(queued);
+				Assert.assertFalse(progress.exists());
+			}
+		}
+		Context.flushSession();
+		Context.clearSession();
+
+		List<String> keys = new ArrayList<String>();
+		for (HL7InQueue hl7InQueue : Context.getHL7Service().getAllHL7InQueues())
+			keys.add(hl7InQueue.getHL7SourceKey());
+		assertEquals(before + 2, keys.size());
+		Assert.assertFalse(keys.contains("RESUME1"));
+		Assert.assertTrue(keys.contains("RESUME2"));
+		Assert.assertTrue(keys.contains("RESUME3"));
+	}
+
+	/**
+	 * @verifies move the file into the error directory
+	 * @see PcsLabInterfaceQueueProcessor#setAside(LabMessage)
+	 */
+	@Test
+	public void setAside_shouldMoveTheFileIntoTheErrorDirectory() throws Exception {
+		File queueDir = createTempDir();
+		File file = new File(queueDir, "bad.hl7");
+		PcsLabInterfaceUtil.stringToFile("bad", file);
+		LabMessage labMessage = new LabMessage();
+		labMessage.setFileSystemUrl(file.getAbsolutePath());
+
+		new PcsLabInterfaceQueueProcessor().setAside(labMessage);
+
+		Assert.assertFalse(file.exists());
+		assertEquals("bad", OpenmrsUtil.getFileAsString(new File(new File(queueDir, "error"), "bad.hl7")));
+	}
+
+	/**
+	 * @verifies not overwrite a file already in the error directory
+	 * @see PcsLabInterfaceQueueProcessor#setAside(LabMessage)
+	 */
+	@Test
+	public void setAside_shouldNotOverwriteAFileAlreadyInTheErrorDirectory() throws Exception {
+		File queueDir = createTempDir();
+		File errorDir = new File(queueDir, "error");
+		errorDir.mkdirs();
+		PcsLabInterfaceUtil.stringToFile("first", new File(errorDir, "bad.hl7"));
+		File file = new File(queueDir, "bad.hl7");
+		PcsLabInterfaceUtil.stringToFile("second", file);
+		LabMessage labMessage = new LabMessage();
+		labMessage.setFileSystemUrl(file.getAbsolutePath());
+
+		new PcsLabInterfaceQueueProcessor().setAside(labMessage);
+
+		Assert.assertFalse(file.exists());
+		assertEquals("first", OpenmrsUtil.getFileAsString(new File(errorDir, "bad.hl7")));
+		assertEquals("second", OpenmrsUtil.getFileAsString(new File(errorDir, "bad.hl7-1")));
+	}
+
+	private File createTempDir() throws Exception {
+		File dir = File.createTempFile("pcsqueue", "");
+		dir.delete();
+		dir.mkdirs();
+		return dir;
+	}
+}
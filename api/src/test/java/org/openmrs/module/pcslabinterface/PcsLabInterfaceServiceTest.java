@@ -0,0 +1,268 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.Person;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.Provider;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.hl7.HL7InQueue;
+import org.openmrs.hl7.HL7Source;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.util.OpenmrsUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class PcsLabInterfaceServiceTest extends BaseModuleContextSensitiveTest {
+
+	/**
+	 * @verifies save every HL7 message in the batch
+	 * @see PcsLabInterfaceService#saveHL7InQueues(java.util.List)
+	 */
+	@Test
+	public void saveHL7InQueues_shouldSaveEveryHL7MessageInTheBatch() throws Exception {
+		int before = Context.getHL7Service().getAllHL7InQueues().size();
+		HL7Source source = Context.getHL7Service().getHL7Source(1);
+
+		List<HL7InQueue> batch = new ArrayList<HL7InQueue>();
+		for (int i = 0; i < 3; i++) {
+			HL7InQueue hl7InQueue = new HL7InQueue();
+			hl7InQueue.setHL7Source(source);
+			hl7InQueue.setHL7SourceKey("BATCH" + i);
+			hl7InQueue.setHL7Data("MSH|^~\\&|PCSLABPLUS|AMRS.ELD|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|BATCH" + i);
+			batch.add(hl7InQueue);
+		}
+
+		Context.getService(PcsLabInterfaceService.class).saveHL7InQueues(batch);
+		Context.flushSession();
+		Context.clearSession();
+
+		Assert.assertEquals(before + 3, Context.getHL7Service().getAllHL7InQueues().size());
+	}
+
+	/**
+	 * @verifies move the queue file into the archive directory
+	 * @see PcsLabInterfaceService#archiveLabMessage(LabMessage, String)
+	 */
+	@Test
+	public void archiveLabMessage_shouldMoveTheQueueFileIntoTheArchiveDirectory() throws Exception {
+		PcsLabInterfaceService service = Context.getService(PcsLabInterfaceService.class);
+		LabMessage labMessage = queueLabMessage(service, "MSH|^~\\&|PCSLABPLUS|AMRS.ELD");
+		File queued = new File(labMessage.getFileSystemUrl());
+
+		service.archiveLabMessage(labMessage, labMessage.getData());
+
+		File archived = new File(PcsLabInterfaceUtil.getArchiveDir(labMessage.getDateCreated()), queued.getName());
+		Assert.assertFalse(queued.exists());
+		Assert.assertTrue(archived.exists());
+		Assert.assertEquals("MSH|^~\\&|PCSLABPLUS|AMRS.ELD", OpenmrsUtil.getFileAsString(archived));
+		Assert.assertFalse(new File(archived.getPath() + ".transformed").exists());
+	}
+
+	/**
+	 * @verifies only write a transformed copy if the text was changed
+	 * @see PcsLabInterfaceService#archiveLabMessage(LabMessage, String)
+	 */
+	@Test
+	public void archiveLabMessage_shouldOnlyWriteATransformedCopyIfTheTextWasChanged() throws Exception {
+		PcsLabInterfaceService service = Context.getService(PcsLabInterfaceService.class);
+		LabMessage labMessage = queueLabMessage(service, "MSH|^~\\&|PCSLABPLUS|AMRS.ELD|TRANSFORM");
+		File queued = new File(labMessage.getFileSystemUrl());
+
+		service.archiveLabMessage(labMessage, "MSH|^~\\&|PCSLABPLUS|AMRS.ELD|TRANSFORM|CHANGED");
+
+		File transformed = new File(PcsLabInterfaceUtil.getArchiveDir(labMessage.getDateCreated()), queued.getName()
+				+ ".transformed");
+		Assert.assertTrue(transformed.exists());
+		Assert.assertEquals("MSH|^~\\&|PCSLABPLUS|AMRS.ELD|TRANSFORM|CHANGED", OpenmrsUtil.getFileAsString(transformed));
+	}
+
+	/**
+	 * @verifies not list transformed copies
+	 * @see PcsLabInterfaceService#getLabMessageArchives()
+	 */
+	@Test
+	public void getLabMessageArchives_shouldNotListTransformedCopies() throws Exception {
+		PcsLabInterfaceService service = Context.getService(PcsLabInterfaceService.class);
+		int before = service.getLabMessageArchiveSize();
+		LabMessage labMessage = queueLabMessage(service, "MSH|^~\\&|PCSLABPLUS|AMRS.ELD|COUNT");
+
+		service.archiveLabMessage(labMessage, "MSH|^~\\&|PCSLABPLUS|AMRS.ELD|COUNT|CHANGED");
+
+		Assert.assertEquals(before + 1, service.getLabMessageArchiveSize().intValue());
+		Assert.assertEquals(before + 1, service.getLabMessageArchives().size());
+		for (LabMessageArchive archive : service.getLabMessageArchives())
+			Assert.assertFalse(archive.getFileSystemUrl().endsWith(".transformed"));
+	}
+
+	/**
+	 * @verifies find the patient holding each identifier
+	 * @see PcsLabInterfaceService#getPatientIdsByIdentifier(java.util.Collection)
+	 */
+	@Test
+	public void getPatientIdsByIdentifier_shouldFindThePatientHoldingEachIdentifier() throws Exception {
+		PatientIdentifier identifier = Context.getPatientService().getPatient(2).getPatientIdentifier();
+		Map<String, Set<Integer>> patientIds = Context.getService(PcsLabInterfaceService.class)
+				.getPatientIdsByIdentifier(Arrays.asList(identifier.getIdentifier()));
+
+		Assert.assertEquals(1, patientIds.size());
+		Assert.assertEquals(Collections.singleton(2), patientIds.get(identifier.getIdentifier()));
+	}
+
+	/**
+	 * @verifies leave out identifiers that are not found
+	 * @see PcsLabInterfaceService#getPatientIdsByIdentifier(java.util.Collection)
+	 */
+	@Test
+	public void getPatientIdsByIdentifier_shouldLeaveOutIdentifiersThatAreNotFound() throws Exception {
+		Map<String, Set<Integer>> patientIds = Context.getService(PcsLabInterfaceService.class)
+				.getPatientIdsByIdentifier(Arrays.asList("NO-SUCH-IDENTIFIER"));
+
+		Assert.assertTrue(patientIds.isEmpty());
+	}
+
+	/**
+	 * @verifies find the provider of a user in one query
+	 * @see PcsLabInterfaceService#getProviderBySystemId(String)
+	 */
+	@Test
+	public void getProviderBySystemId_shouldFindTheProviderOfAUserInOneQuery() throws Exception {
+		User user = Context.getUserService().getUser(1);
+		saveProvider(user.getPerson());
+
+		Provider provider = Context.getService(PcsLabInterfaceService.class).getProviderBySystemId(user.getSystemId());
+		Assert.assertNotNull(provider);
+		Assert.assertEquals(user.getPerson(), provider.getPerson());
+	}
+
+	/**
+	 * @verifies find the provider of a person
+	 * @see PcsLabInterfaceService#getProviderByPersonId(Integer)
+	 */
+	@Test
+	public void getProviderByPersonId_shouldFindTheProviderOfAPerson() throws Exception {
+		Person person = Context.getPersonService().getPerson(1);
+		saveProvider(person);
+
+		Provider provider = Context.getService(PcsLabInterfaceService.class).getProviderByPersonId(1);
+		Assert.assertNotNull(provider);
+		Assert.assertEquals(person, provider.getPerson());
+	}
+
+	/**
+	 * @verifies find the value of a person's attribute
+	 * @see PcsLabInterfaceService#getPersonAttributeValue(Integer, Integer)
+	 */
+	@Test
+	public void getPersonAttributeValue_shouldFindTheValueOfAPersonsAttribute() throws Exception {
+		Person person = Context.getPersonService().getPerson(2);
+		PersonAttributeType attributeType = Context.getPersonService().getPersonAttributeType(1);
+		person.addAttribute(new PersonAttribute(attributeType, "7"));
+		Context.getPersonService().savePerson(person);
+		Context.flushSession();
+
+		Assert.assertEquals("7", Context.getService(PcsLabInterfaceService.class).getPersonAttributeValue(2,
+				attributeType.getPersonAttributeTypeId()));
+	}
+
+	/**
+	 * @verifies return null for a person without the attribute
+	 * @see PcsLabInterfaceService#getPersonAttributeValue(Integer, Integer)
+	 */
+	@Test
+	public void getPersonAttributeValue_shouldReturnNullForAPersonWithoutTheAttribute() throws Exception {
+		Assert.assertNull(Context.getService(PcsLabInterfaceService.class).getPersonAttributeValue(2, 999));
+	}
+
+	/**
+	 * @verifies save the obs and their group members
+	 * @see PcsLabInterfaceService#saveObs(java.util.List, java.util.List)
+	 */
+	@Test
+	public void saveObs_shouldSaveTheObsAndTheirGroupMembers() throws Exception {
+		Obs grouper = newObs();
+		Obs member = newObs();
+		grouper.addGroupMember(member);
+
+		Context.getService(PcsLabInterfaceService.class).saveObs(Arrays.asList(grouper),
+				Collections.<List<Obs>> emptyList());
+		Context.flushSession();
+		Context.clearSession();
+
+		Assert.assertNotNull(grouper.getObsId());
+		Obs saved = Context.getObsService().getObs(member.getObsId());
+		Assert.assertEquals(grouper.getObsId(), saved.getObsGroup().getObsId());
+		Assert.assertNull(saved.getEncounter());
+	}
+
+	/**
+	 * @verifies point the obs of a value group at the first one
+	 * @see PcsLabInterfaceService#saveObs(java.util.List, java.util.List)
+	 */
+	@Test
+	public void saveObs_shouldPointTheObsOfAValueGroupAtTheFirstOne() throws Exception {
+		Obs grouper = newObs();
+		Obs first = newObs();
+		Obs second = newObs();
+		grouper.addGroupMember(first);
+		grouper.addGroupMember(second);
+		List<List<Obs>> valueGroups = new ArrayList<List<Obs>>();
+		valueGroups.add(Arrays.asList(first, second));
+
+		Context.getService(PcsLabInterfaceService.class).saveObs(Arrays.asList(grouper), valueGroups);
+		Context.flushSession();
+		Context.clearSession();
+
+		Obs savedFirst = Context.getObsService().getObs(first.getObsId());
+		Obs savedSecond = Context.getObsService().getObs(second.getObsId());
+		Assert.assertEquals(first.getObsId(), savedFirst.getValueGroupId());
+		Assert.assertEquals(first.getObsId(), savedSecond.getValueGroupId());
+		Assert.assertEquals(grouper.getObsId(), savedFirst.getObsGroup().getObsId());
+		Assert.assertNull(savedSecond.getObsGroup());
+	}
+
+	private Obs newObs() {
+		Obs obs = new Obs();
+		obs.setPerson(Context.getPersonService().getPerson(7));
+		obs.setConcept(new Concept(5089));
+		obs.setLocation(new Location(1));
+		obs.setObsDatetime(new Date());
+		obs.setValueNumeric(50.0);
+		return obs;
+	}
+
+	private void saveProvider(Person person) {
+		Provider provider = new Provider();
+		provider.setPerson(person);
+		provider.setIdentifier("PCS-" + person.getPersonId());
+		Context.getProviderService().saveProvider(provider);
+	}
+
+	/**
+	 * puts a message in the queue and loads it back the way the processor does
+	 */
+	private LabMessage queueLabMessage(PcsLabInterfaceService service, String data) {
+		LabMessage labMessage = new LabMessage();
+		labMessage.setData(data);
+		service.createLabMessage(labMessage);
+
+		for (LabMessage queued : service.getLabMessages())
+			if (data.equals(queued.getData()))
+				return queued;
+		Assert.fail("the message was not queued");
+		return null;
+	}
+}
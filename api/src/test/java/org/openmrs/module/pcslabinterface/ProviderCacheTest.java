@@ -0,0 +1,152 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Provider;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ProviderCacheTest {
+
+	/**
+	 * a cache over maps of clinicians that can be changed, with a fixed time
+	 * to live, which counts its lookups
+	 */
+	private static class TestCache extends ProviderCache {
+
+		private final Map<String, Integer> bySystemId = new HashMap<String, Integer>();
+
+		private final Map<Integer, Integer> byPersonId = new HashMap<Integer, Integer>();
+
+		private long timeToLive;
+
+		private int lookUps = 0;
+
+		public TestCache(long timeToLive) {
+			this.timeToLive = timeToLive;
+			bySystemId.put("1234-5", 1);
+			bySystemId.put("2345-6", 2);
+			byPersonId.put(501, 1);
+		}
+
+		@Override
+		protected Provider lookUpBySystemId(String systemId) {
+			lookUps++;
+			return getProvider(bySystemId.get(systemId));
+		}
+
+		@Override
+		protected Provider lookUpByPersonId(Integer personId) {
+			lookUps++;
+			return getProvider(byPersonId.get(personId));
+		}
+
+		@Override
+		protected Provider getProvider(Integer providerId) {
+			return providerId == null ? null : new Provider(providerId);
+		}
+
+		@Override
+		protected long getTimeToLive() {
+			return timeToLive;
+		}
+	}
+
+	/**
+	 * @verifies look up a system id only once
+	 * @see ProviderCache#getProviderBySystemId(String)
+	 */
+	@Test
+	public void getProviderBySystemId_shouldLookUpASystemIdOnlyOnce() throws Exception {
+		TestCache cache = new TestCache(0);
+		Assert.assertEquals(Integer.valueOf(1), cache.getProviderBySystemId("1234-5").getProviderId());
+		Assert.assertEquals(Integer.valueOf(1), cache.getProviderBySystemId("1234-5").getProviderId());
+		Assert.assertEquals(Integer.valueOf(2), cache.getProviderBySystemId("2345-6").getProviderId());
+
+		Assert.assertEquals(2, cache.lookUps);
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+	}
+
+	/**
+	 * @verifies remember system ids without a provider
+	 * @see ProviderCache#getProviderBySystemId(String)
+	 */
+	@Test
+	public void getProviderBySystemId_shouldRememberSystemIdsWithoutAProvider() throws Exception {
+		TestCache cache = new TestCache(0);
+		Assert.assertNull(cache.getProviderBySystemId("9999-9"));
+		Assert.assertNull(cache.getProviderBySystemId("9999-9"));
+		Assert.assertEquals(1, cache.lookUps);
+	}
+
+	/**
+	 * @verifies look up a system id again once it expires
+	 * @see ProviderCache#getProviderBySystemId(String)
+	 */
+	@Test
+	public void getProviderBySystemId_shouldLookUpASystemIdAgainOnceItExpires() throws Exception {
+		TestCache cache = new TestCache(1);
+		Assert.assertEquals(Integer.valueOf(1), cache.getProviderBySystemId("1234-5").getProviderId());
+
+		cache.bySystemId.put("1234-5", 3);
+		Thread.sleep(10);
+		Assert.assertEquals(Integer.valueOf(3), cache.getProviderBySystemId("1234-5").getProviderId());
+		Assert.assertEquals(1, cache.getExpirations());
+	}
+
+	/**
+	 * @verifies look up a person only once
+	 * @see ProviderCache#getProviderByPersonId(Integer)
+	 */
+	@Test
+	public void getProviderByPersonId_shouldLookUpAPersonOnlyOnce() throws Exception {
+		TestCache cache = new TestCache(0);
+		Assert.assertEquals(Integer.valueOf(1), cache.getProviderByPersonId(501).getProviderId());
+		Assert.assertEquals(Integer.valueOf(1), cache.getProviderByPersonId(501).getProviderId());
+		Assert.assertNull(cache.getProviderByPersonId(502));
+		Assert.assertEquals(2, cache.lookUps);
+		Assert.assertEquals(2, cache.getSize());
+	}
+
+	/**
+	 * @verifies look up providers again once invalidated
+	 * @see ProviderCache#invalidate()
+	 */
+	@Test
+	public void invalidate_shouldLookUpProvidersAgainOnceInvalidated() throws Exception {
+		TestCache cache = new TestCache(0);
+		cache.getProviderBySystemId("1234-5");
+		cache.getProviderByPersonId(501);
+
+		cache.bySystemId.put("1234-5", 3);
+		cache.invalidate();
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertEquals(Integer.valueOf(3), cache.getProviderBySystemId("1234-5").getProviderId());
+		Assert.assertEquals(3, cache.lookUps);
+	}
+
+	/**
+	 * @verifies use the new time to live for clinicians already remembered
+	 * @see ProviderCache#globalPropertyChanged(GlobalProperty)
+	 */
+	@Test
+	public void globalPropertyChanged_shouldUseTheNewTimeToLiveForCliniciansAlreadyRemembered() throws Exception {
+		TestCache cache = new TestCache(0);
+		cache.getProviderBySystemId("1234-5");
+		cache.getProviderBySystemId("1234-5");
+		Assert.assertEquals(1, cache.lookUps);
+
+		cache.timeToLive = 1;
+		Thread.sleep(5);
+		cache.getProviderBySystemId("1234-5");
+		Assert.assertEquals(1, cache.lookUps);
+
+		cache.globalPropertyChanged(new GlobalProperty(PcsLabInterfaceConstants.PCSLABINTERFACE_GP_PROVIDER_CACHE_TTL, "0"));
+		cache.getProviderBySystemId("1234-5");
+		Assert.assertEquals(2, cache.lookUps);
+		Assert.assertEquals(0, cache.getInvalidations());
+	}
+}
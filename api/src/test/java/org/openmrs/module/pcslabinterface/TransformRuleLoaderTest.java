@@ -0,0 +1,63 @@
+package org.openmrs.module.pcslabinterface;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.pcslabinterface.rules.TransformRuleDispatcher;
+
+public class TransformRuleLoaderTest {
+
+	private static final String NULL_VALUE = "OBX|1|CWE|1040^HIV RAPID TEST^99DCT||^^99DCT";
+
+	private static final String RULES = "<rules><rule segment=\"OBX\" concepts=\"1040\">"
+			+ "<field number=\"5\" equals=\"^^99DCT\"/><drop/></rule></rules>";
+
+	@After
+	public void resetRules() {
+		TransformRuleLoader.load(null);
+	}
+
+	/**
+	 * @verifies add the defined rules after the built-in rules
+	 * @see TransformRuleLoader#load(String)
+	 */
+	@Test
+	public void load_shouldAddTheDefinedRulesAfterTheBuiltinRules() throws Exception {
+		Assert.assertTrue(TransformRuleLoader.load(RULES));
+
+		TransformRuleDispatcher dispatcher = TransformRuleLoader.getDispatcher();
+		Assert.assertSame(dispatcher, PcsLabInterfaceConstants.TRANSFORM_RULE_DISPATCHER());
+		Assert.assertNull(dispatcher.transform(NULL_VALUE));
+		Assert.assertEquals("OBX|1|CWE|1030^HIV DNA PCR^99DCT||664^NEGATIVE^99DCT",
+				dispatcher.transform("OBX|1|CWE|1030^HIV DNA PCR^99DCT||664^NEGATIVE^99DCT"));
+	}
+
+	/**
+	 * @verifies keep the current rules if the definition is not valid
+	 * @see TransformRuleLoader#load(String)
+	 */
+	@Test
+	public void load_shouldKeepTheCurrentRulesIfTheDefinitionIsNotValid() throws Exception {
+		TransformRuleLoader.load(RULES);
+		TransformRuleDispatcher dispatcher = TransformRuleLoader.getDispatcher();
+
+		Assert.assertFalse(TransformRuleLoader.load("<rules><rule segment=\"OBX\"/></rules>"));
+		Assert.assertSame(dispatcher, TransformRuleLoader.getDispatcher());
+		Assert.assertNull(TransformRuleLoader.getDispatcher().transform(NULL_VALUE));
+	}
+
+	/**
+	 * @verifies go back to the built-in rules once the property is deleted
+	 * @see TransformRuleLoader#globalPropertyDeleted(String)
+	 */
+	@Test
+	public void globalPropertyDeleted_shouldGoBackToTheBuiltinRulesOnceThePropertyIsDeleted() throws Exception {
+		TransformRuleLoader loader = new TransformRuleLoader();
+		Assert.assertTrue(loader.supportsPropertyName(PcsLabInterfaceConstants.PCSLABINTERFACE_GP_TRANSFORM_RULES));
+		Assert.assertFalse(loader.supportsPropertyName(PcsLabInterfaceConstants.PCSLABINTERFACE_GP_BATCH_SIZE));
+
+		TransformRuleLoader.load(RULES);
+		loader.globalPropertyDeleted(PcsLabInterfaceConstants.PCSLABINTERFACE_GP_TRANSFORM_RULES);
+		Assert.assertEquals(NULL_VALUE, TransformRuleLoader.getDispatcher().transform(NULL_VALUE));
+	}
+}
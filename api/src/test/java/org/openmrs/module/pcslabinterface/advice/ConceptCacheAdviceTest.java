@@ -0,0 +1,41 @@
+package org.openmrs.module.pcslabinterface.advice;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.api.ConceptService;
+import org.openmrs.module.pcslabinterface.ConceptCache;
+
+import java.lang.reflect.Method;
+
+public class ConceptCacheAdviceTest {
+
+	/**
+	 * @verifies invalidate the cache when a concept is saved
+	 * @see ConceptCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldInvalidateTheCacheWhenAConceptIsSaved() throws Exception {
+		ConceptCache cache = ConceptCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method saveConcept = ConceptService.class.getMethod("saveConcept", org.openmrs.Concept.class);
+		new ConceptCacheAdvice().afterReturning(null, saveConcept, new Object[1], null);
+
+		Assert.assertEquals(invalidations + 1, cache.getInvalidations());
+	}
+
+	/**
+	 * @verifies not invalidate the cache for other methods
+	 * @see ConceptCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldNotInvalidateTheCacheForOtherMethods() throws Exception {
+		ConceptCache cache = ConceptCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method getConcept = ConceptService.class.getMethod("getConcept", Integer.class);
+		new ConceptCacheAdvice().afterReturning(null, getConcept, new Object[1], null);
+
+		Assert.assertEquals(invalidations, cache.getInvalidations());
+	}
+}
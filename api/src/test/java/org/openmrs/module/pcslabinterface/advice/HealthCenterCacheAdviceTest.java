@@ -0,0 +1,61 @@
+package org.openmrs.module.pcslabinterface.advice;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.PersonService;
+import org.openmrs.module.pcslabinterface.HealthCenterCache;
+
+import java.lang.reflect.Method;
+
+public class HealthCenterCacheAdviceTest {
+
+	/**
+	 * @verifies forget a saved patient
+	 * @see HealthCenterCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldForgetASavedPatient() throws Exception {
+		HealthCenterCache cache = HealthCenterCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method savePatient = PatientService.class.getMethod("savePatient", Patient.class);
+		new HealthCenterCacheAdvice().afterReturning(null, savePatient, new Object[] { new Patient(2) }, null);
+
+		Assert.assertEquals(invalidations + 1, cache.getInvalidations());
+	}
+
+	/**
+	 * @verifies forget every patient when an attribute type is saved
+	 * @see HealthCenterCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldForgetEveryPatientWhenAnAttributeTypeIsSaved() throws Exception {
+		HealthCenterCache cache = HealthCenterCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method saveType = PersonService.class.getMethod("savePersonAttributeType", PersonAttributeType.class);
+		new HealthCenterCacheAdvice().afterReturning(null, saveType, new Object[] { new PersonAttributeType(9) },
+				null);
+
+		Assert.assertEquals(invalidations + 1, cache.getInvalidations());
+		Assert.assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * @verifies not change the cache for other methods
+	 * @see HealthCenterCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldNotChangeTheCacheForOtherMethods() throws Exception {
+		HealthCenterCache cache = HealthCenterCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method getPatient = PatientService.class.getMethod("getPatient", Integer.class);
+		new HealthCenterCacheAdvice().afterReturning(null, getPatient, new Object[] { 2 }, null);
+
+		Assert.assertEquals(invalidations, cache.getInvalidations());
+	}
+}
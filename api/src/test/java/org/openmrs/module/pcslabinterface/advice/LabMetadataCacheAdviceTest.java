@@ -0,0 +1,42 @@
+package org.openmrs.module.pcslabinterface.advice;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Form;
+import org.openmrs.api.FormService;
+import org.openmrs.module.pcslabinterface.LabMetadataCache;
+
+import java.lang.reflect.Method;
+
+public class LabMetadataCacheAdviceTest {
+
+	/**
+	 * @verifies invalidate the cache when a form is saved
+	 * @see LabMetadataCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldInvalidateTheCacheWhenAFormIsSaved() throws Exception {
+		LabMetadataCache cache = LabMetadataCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method saveForm = FormService.class.getMethod("saveForm", Form.class);
+		new LabMetadataCacheAdvice().afterReturning(null, saveForm, new Object[1], null);
+
+		Assert.assertEquals(invalidations + 1, cache.getInvalidations());
+	}
+
+	/**
+	 * @verifies not invalidate the cache for other methods
+	 * @see LabMetadataCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldNotInvalidateTheCacheForOtherMethods() throws Exception {
+		LabMetadataCache cache = LabMetadataCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method getForm = FormService.class.getMethod("getForm", Integer.class);
+		new LabMetadataCacheAdvice().afterReturning(null, getForm, new Object[1], null);
+
+		Assert.assertEquals(invalidations, cache.getInvalidations());
+	}
+}
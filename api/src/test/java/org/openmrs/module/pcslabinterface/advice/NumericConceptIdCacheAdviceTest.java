@@ -0,0 +1,42 @@
+package org.openmrs.module.pcslabinterface.advice;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.api.ConceptService;
+import org.openmrs.module.pcslabinterface.NumericConceptIdCache;
+
+import java.lang.reflect.Method;
+
+public class NumericConceptIdCacheAdviceTest {
+
+	/**
+	 * @verifies invalidate the cache when a concept is saved
+	 * @see NumericConceptIdCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldInvalidateTheCacheWhenAConceptIsSaved() throws Exception {
+		NumericConceptIdCache cache = NumericConceptIdCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method saveConcept = ConceptService.class.getMethod("saveConcept", org.openmrs.Concept.class);
+		new NumericConceptIdCacheAdvice().afterReturning(null, saveConcept, new Object[1], null);
+
+		Assert.assertEquals(invalidations + 1, cache.getInvalidations());
+		Assert.assertTrue(cache.isStale());
+	}
+
+	/**
+	 * @verifies not invalidate the cache for other methods
+	 * @see NumericConceptIdCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldNotInvalidateTheCacheForOtherMethods() throws Exception {
+		NumericConceptIdCache cache = NumericConceptIdCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method getConcept = ConceptService.class.getMethod("getConcept", Integer.class);
+		new NumericConceptIdCacheAdvice().afterReturning(null, getConcept, new Object[1], null);
+
+		Assert.assertEquals(invalidations, cache.getInvalidations());
+	}
+}
@@ -0,0 +1,67 @@
+package org.openmrs.module.pcslabinterface.advice;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.pcslabinterface.PatientIdentifierCache;
+
+import java.lang.reflect.Method;
+
+public class PatientIdentifierCacheAdviceTest {
+
+	/**
+	 * @verifies forget the identifiers of a saved patient
+	 * @see PatientIdentifierCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldForgetTheIdentifiersOfASavedPatient() throws Exception {
+		PatientIdentifierCache cache = PatientIdentifierCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Patient patient = new Patient(2);
+		Method savePatient = PatientService.class.getMethod("savePatient", Patient.class);
+		new PatientIdentifierCacheAdvice().afterReturning(patient, savePatient, new Object[] { patient }, null);
+
+		PatientIdentifier identifier = new PatientIdentifier();
+		identifier.setPatient(patient);
+		Method voidPatientIdentifier = PatientService.class.getMethod("voidPatientIdentifier",
+				PatientIdentifier.class, String.class);
+		new PatientIdentifierCacheAdvice().afterReturning(identifier, voidPatientIdentifier, new Object[] {
+				identifier, "moved" }, null);
+
+		Assert.assertEquals(invalidations + 2, cache.getInvalidations());
+	}
+
+	/**
+	 * @verifies forget every identifier when the patient is not known
+	 * @see PatientIdentifierCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldForgetEveryIdentifierWhenThePatientIsNotKnown() throws Exception {
+		PatientIdentifierCache cache = PatientIdentifierCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method savePatient = PatientService.class.getMethod("savePatient", Patient.class);
+		new PatientIdentifierCacheAdvice().afterReturning(null, savePatient, new Object[1], null);
+
+		Assert.assertEquals(invalidations + 1, cache.getInvalidations());
+		Assert.assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * @verifies not change the cache for other methods
+	 * @see PatientIdentifierCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldNotChangeTheCacheForOtherMethods() throws Exception {
+		PatientIdentifierCache cache = PatientIdentifierCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method getPatient = PatientService.class.getMethod("getPatient", Integer.class);
+		new PatientIdentifierCacheAdvice().afterReturning(null, getPatient, new Object[1], null);
+
+		Assert.assertEquals(invalidations, cache.getInvalidations());
+	}
+}
@@ -0,0 +1,46 @@
+package org.openmrs.module.pcslabinterface.advice;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Provider;
+import org.openmrs.User;
+import org.openmrs.api.ProviderService;
+import org.openmrs.api.UserService;
+import org.openmrs.module.pcslabinterface.ProviderCache;
+
+import java.lang.reflect.Method;
+
+public class ProviderCacheAdviceTest {
+
+	/**
+	 * @verifies invalidate the cache when a provider is saved
+	 * @see ProviderCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldInvalidateTheCacheWhenAProviderIsSaved() throws Exception {
+		ProviderCache cache = ProviderCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method saveProvider = ProviderService.class.getMethod("saveProvider", Provider.class);
+		new ProviderCacheAdvice().afterReturning(null, saveProvider, new Object[1], null);
+		Method saveUser = UserService.class.getMethod("saveUser", User.class, String.class);
+		new ProviderCacheAdvice().afterReturning(null, saveUser, new Object[2], null);
+
+		Assert.assertEquals(invalidations + 2, cache.getInvalidations());
+	}
+
+	/**
+	 * @verifies not invalidate the cache for other methods
+	 * @see ProviderCacheAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Test
+	public void afterReturning_shouldNotInvalidateTheCacheForOtherMethods() throws Exception {
+		ProviderCache cache = ProviderCache.getInstance();
+		long invalidations = cache.getInvalidations();
+
+		Method getProvider = ProviderService.class.getMethod("getProvider", Integer.class);
+		new ProviderCacheAdvice().afterReturning(null, getProvider, new Object[1], null);
+
+		Assert.assertEquals(invalidations, cache.getInvalidations());
+	}
+}
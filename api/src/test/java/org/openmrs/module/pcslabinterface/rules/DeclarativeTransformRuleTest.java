@@ -0,0 +1,104 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.pcslabinterface.rules;
+
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeclarativeTransformRuleTest {
+
+	private static final String URINE_PROTEIN = "OBX|1|CWE|2339^URINE Protein^99DCT||^Negative^99DCT|||||||||20080206";
+
+	/**
+	 * @return the urine protein fix written as a declarative rule
+	 */
+	private DeclarativeTransformRule getUrineProteinRule() {
+		DeclarativeTransformRule rule = new DeclarativeTransformRule("negative urine protein", "OBX",
+				new int[] { 2339 });
+		rule.addFieldEquals(2, "CWE");
+		rule.addFieldMatches(5, Pattern.compile("\\^Negative\\^99DCT"));
+		rule.setReplacement(5, "664^NEGATIVE^99DCT");
+		rule.setComment("^Negative^99DCT");
+		return rule;
+	}
+
+	/**
+	 * @verifies match segments meeting every condition
+	 * @see DeclarativeTransformRule#matches(String)
+	 */
+	@Test
+	public void matches_shouldMatchSegmentsMeetingEveryCondition() throws Exception {
+		DeclarativeTransformRule rule = getUrineProteinRule();
+		Assert.assertTrue(rule.matches(URINE_PROTEIN));
+		Assert.assertFalse(rule.matches(URINE_PROTEIN.replace("|CWE|", "|ST|")));
+		Assert.assertFalse(rule.matches(URINE_PROTEIN.replace("^Negative^", "^Negatives^")));
+		Assert.assertFalse(rule.matches(null));
+	}
+
+	/**
+	 * @verifies not match segments of another concept
+	 * @see DeclarativeTransformRule#matches(String)
+	 */
+	@Test
+	public void matches_shouldNotMatchSegmentsOfAnotherConcept() throws Exception {
+		DeclarativeTransformRule rule = getUrineProteinRule();
+		Assert.assertFalse(rule.matches(URINE_PROTEIN.replace("2339^", "23390^")));
+		Assert.assertFalse(rule.matches("NTE|1|CWE|2339^URINE Protein^99DCT||^Negative^99DCT"));
+	}
+
+	/**
+	 * @verifies replace a field and add a comment
+	 * @see DeclarativeTransformRule#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldReplaceAFieldAndAddAComment() throws Exception {
+		Assert.assertEquals(new AdjustNegativeConceptForUrineProtein().transform(URINE_PROTEIN),
+				getUrineProteinRule().transform(URINE_PROTEIN));
+		Assert.assertEquals("OBX|1|CWE|2339^URINE Protein^99DCT||664^NEGATIVE^99DCT|||||||||20080206\r"
+				+ "NTE|||PCS Value: ^Negative^99DCT", getUrineProteinRule().transform(URINE_PROTEIN));
+	}
+
+	/**
+	 * @verifies comment with the original value of a field
+	 * @see DeclarativeTransformRule#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldCommentWithTheOriginalValueOfAField() throws Exception {
+		DeclarativeTransformRule rule = new DeclarativeTransformRule("rounded viral load", "OBX", new int[] { 856 });
+		rule.addFieldMatches(5, Pattern.compile("<\\d+"));
+		rule.setReplacement(5, "0");
+		rule.setCommentField(5);
+
+		Assert.assertEquals("OBX|1|NM|856^HIV VIRAL LOAD^99DCT||0|||||||||20080206\rNTE|||PCS Value: <40",
+				rule.transform("OBX|1|NM|856^HIV VIRAL LOAD^99DCT||<40|||||||||20080206"));
+	}
+
+	/**
+	 * @verifies drop the segment
+	 * @see DeclarativeTransformRule#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldDropTheSegment() throws Exception {
+		DeclarativeTransformRule rule = new DeclarativeTransformRule("null DNA PCR", "OBX", new int[] { 1030 });
+		rule.addFieldEquals(5, "^^99DCT");
+		rule.setDrop(true);
+
+		Assert.assertNull(rule.transform("OBX|1|CWE|1030^HIV DNA PCR^99DCT||^^99DCT|||||||||20080206"));
+		Assert.assertEquals("OBX|1|CWE|1030^HIV DNA PCR^99DCT||664^NEGATIVE^99DCT|||||||||20080206",
+				rule.transform("OBX|1|CWE|1030^HIV DNA PCR^99DCT||664^NEGATIVE^99DCT|||||||||20080206"));
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.pcslabinterface.rules;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HL7MessageBufferTest {
+
+	private static final String OBX = "OBX|1|NM|856^HIV VIRAL LOAD^99DCT||<40|||||||||20080206";
+
+	/**
+	 * @verifies leave out segments that are empty or blank
+	 * @see HL7MessageBuffer#startSegment(CharSequence, int, int)
+	 */
+	@Test
+	public void startSegment_shouldLeaveOutSegmentsThatAreEmptyOrBlank() throws Exception {
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment("");
+		message.startSegment("MSH|^~\\&|PCSLABPLUS");
+		message.startSegment("  ");
+		message.startSegment("PID|||12345");
+		message.startSegment("");
+		Assert.assertEquals("MSH|^~\\&|PCSLABPLUS\rPID|||12345", message.toString());
+
+		message.startSegment("PV1||O");
+		Assert.assertEquals("MSH|^~\\&|PCSLABPLUS\rPID|||12345\rPV1||O", message.toString());
+	}
+
+	/**
+	 * @verifies separate segments with the message line ending
+	 * @see HL7MessageBuffer#startSegment(CharSequence, int, int)
+	 */
+	@Test
+	public void startSegment_shouldSeparateSegmentsWithTheMessageLineEnding() throws Exception {
+		String data = "MSH|^~\\&|PCSLABPLUS\rPID|||12345";
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment(data, 0, 19);
+		HL7Segment segment = message.startSegment(data, 20, data.length());
+
+		Assert.assertTrue(segment.isType("PID"));
+		Assert.assertEquals("12345", segment.getField(3));
+		Assert.assertEquals(data, message.toString());
+	}
+
+	/**
+	 * @verifies replace a field without touching appended segments
+	 * @see HL7MessageBuffer#replaceField(int, CharSequence)
+	 */
+	@Test
+	public void replaceField_shouldReplaceAFieldWithoutTouchingAppendedSegments() throws Exception {
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment("PID|||12345");
+		message.startSegment(OBX);
+		message.appendSegment().append("NTE|||PCS Value: <40");
+		message.replaceField(5, "39");
+
+		Assert.assertEquals("39", message.getSegment().getField(5));
+		Assert.assertEquals("PID|||12345\rOBX|1|NM|856^HIV VIRAL LOAD^99DCT||39|||||||||20080206\rNTE|||PCS Value: <40",
+				message.toString());
+	}
+
+	/**
+	 * @verifies append a segment after the current one
+	 * @see HL7MessageBuffer#appendSegment()
+	 */
+	@Test
+	public void appendSegment_shouldAppendASegmentAfterTheCurrentOne() throws Exception {
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment(OBX);
+		message.appendSegment().append("NTE|||PCS Value: <40");
+
+		Assert.assertTrue(message.getSegment().isType("OBX"));
+		Assert.assertTrue(message.getSegment().hasMoreSegments());
+		Assert.assertEquals(OBX + "\rNTE|||PCS Value: <40", message.getSegmentText());
+	}
+
+	/**
+	 * @verifies count every change to the message
+	 * @see HL7MessageBuffer#getChangeCount()
+	 */
+	@Test
+	public void getChangeCount_shouldCountEveryChangeToTheMessage() throws Exception {
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment(OBX);
+		Assert.assertEquals(0, message.getChangeCount());
+
+		message.replaceField(5, "39");
+		message.appendSegment().append("NTE|||PCS Value: <40");
+		message.replaceSegment(message.getSegmentText());
+		message.dropSegment();
+		Assert.assertEquals(4, message.getChangeCount());
+	}
+
+	/**
+	 * @verifies count every match recorded
+	 * @see HL7MessageBuffer#getMatchCount()
+	 */
+	@Test
+	public void getMatchCount_shouldCountEveryMatchRecorded() throws Exception {
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment(OBX);
+		Assert.assertEquals(0, message.getMatchCount());
+
+		message.recordMatch();
+		message.recordMatch();
+		Assert.assertEquals(2, message.getMatchCount());
+		Assert.assertEquals(0, message.getChangeCount());
+	}
+
+	/**
+	 * @verifies remove the segment and its line ending
+	 * @see HL7MessageBuffer#dropSegment()
+	 */
+	@Test
+	public void dropSegment_shouldRemoveTheSegmentAndItsLineEnding() throws Exception {
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment("PID|||12345");
+		message.startSegment(OBX);
+		message.appendSegment().append("NTE|||PCS Value: <40");
+		message.dropSegment();
+
+		Assert.assertTrue(message.isDropped());
+		Assert.assertEquals("PID|||12345", message.toString());
+
+		message.startSegment("PV1||O");
+		Assert.assertFalse(message.isDropped());
+		Assert.assertEquals("PID|||12345\rPV1||O", message.toString());
+	}
+}
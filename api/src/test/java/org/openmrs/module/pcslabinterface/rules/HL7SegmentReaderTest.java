@@ -0,0 +1,87 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.pcslabinterface.rules;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HL7SegmentReaderTest {
+
+	/**
+	 * @verifies read segments ending in CR, LF or CRLF
+	 * @see HL7SegmentReader#next()
+	 */
+	@Test
+	public void next_shouldReadSegmentsEndingInCRLFOrCRLF() throws Exception {
+		String text = "MSH|1\rPID|2\nPV1|3\r\nOBX|4";
+		HL7SegmentReader reader = new HL7SegmentReader(text);
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals("MSH|1", text.substring(reader.getStart(), reader.getEnd()));
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals("PID|2", text.substring(reader.getStart(), reader.getEnd()));
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals("PV1|3", text.substring(reader.getStart(), reader.getEnd()));
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals("OBX|4", text.substring(reader.getStart(), reader.getEnd()));
+		Assert.assertFalse(reader.next());
+	}
+
+	/**
+	 * @verifies read lines ending in CR LF as a single line ending
+	 * @see HL7SegmentReader#next()
+	 */
+	@Test
+	public void next_shouldReadLinesEndingInCRLFAsASingleLineEnding() throws Exception {
+		String text = "MSH|1\r\n\n\rPID|2\r\n";
+		HL7SegmentReader reader = new HL7SegmentReader(text);
+		StringBuilder segments = new StringBuilder();
+		while (reader.next())
+			segments.append('[').append(text, reader.getStart(), reader.getEnd()).append(']');
+		Assert.assertEquals("[MSH|1][][][PID|2][]", segments.toString());
+	}
+
+	/**
+	 * @verifies read a message without line endings as one segment
+	 * @see HL7SegmentReader#next()
+	 */
+	@Test
+	public void next_shouldReadAMessageWithoutLineEndingsAsOneSegment() throws Exception {
+		HL7SegmentReader reader = new HL7SegmentReader("MSH|^~\\&|PCSLABPLUS");
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals(0, reader.getStart());
+		Assert.assertEquals(19, reader.getEnd());
+		Assert.assertFalse(reader.next());
+
+		reader = new HL7SegmentReader("");
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals(reader.getStart(), reader.getEnd());
+		Assert.assertFalse(reader.next());
+	}
+
+	/**
+	 * @verifies copy every segment into the buffer
+	 * @see HL7SegmentReader#next(HL7MessageBuffer)
+	 */
+	@Test
+	public void next_shouldCopyEverySegmentIntoTheBuffer() throws Exception {
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		HL7SegmentReader reader = new HL7SegmentReader("MSH|1\r\nPID|2\nPV1|3\r\n");
+		int count = 0;
+		while (reader.next(message))
+			count++;
+		Assert.assertEquals(4, count);
+		Assert.assertEquals("MSH|1\rPID|2\rPV1|3", message.toString());
+	}
+}
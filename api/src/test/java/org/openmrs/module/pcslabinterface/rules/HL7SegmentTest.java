@@ -0,0 +1,144 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.pcslabinterface.rules;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HL7SegmentTest {
+
+	private static final String OBX = "OBX|1|NM|856^HIV VIRAL LOAD, QUANTITATIVE^99DCT||1,000|||||||||20080206";
+
+	/**
+	 * @verifies find every field in the segment
+	 * @see HL7Segment#reset(CharSequence)
+	 */
+	@Test
+	public void reset_shouldFindEveryFieldInTheSegment() throws Exception {
+		HL7Segment segment = new HL7Segment(OBX);
+		Assert.assertEquals(15, segment.getFieldCount());
+		Assert.assertTrue(segment.isType("OBX"));
+		Assert.assertEquals("NM", segment.getField(2));
+		Assert.assertEquals("1,000", segment.getField(5));
+		Assert.assertEquals("", segment.getField(4));
+		Assert.assertEquals("20080206", segment.getField(14));
+		Assert.assertEquals("", segment.getField(20));
+	}
+
+	/**
+	 * @verifies stop at the first line ending
+	 * @see HL7Segment#reset(CharSequence)
+	 */
+	@Test
+	public void reset_shouldStopAtTheFirstLineEnding() throws Exception {
+		HL7Segment segment = new HL7Segment(OBX + "\rNTE|||PCS Value: 1,000");
+		Assert.assertEquals(15, segment.getFieldCount());
+		Assert.assertEquals("20080206", segment.getField(14));
+		Assert.assertTrue(segment.hasMoreSegments());
+		Assert.assertFalse(new HL7Segment(OBX).hasMoreSegments());
+
+		segment.reset("PID|||12345\nPV1||O");
+		Assert.assertEquals(4, segment.getFieldCount());
+		Assert.assertEquals("12345", segment.getField(3));
+	}
+
+	/**
+	 * @verifies find components by number
+	 * @see HL7Segment#getComponentStart(int, int)
+	 */
+	@Test
+	public void getComponentStart_shouldFindComponentsByNumber() throws Exception {
+		HL7Segment segment = new HL7Segment(OBX);
+		Assert.assertEquals(3, segment.getComponentCount(3));
+		Assert.assertTrue(segment.componentEquals(3, 1, "856"));
+		Assert.assertTrue(segment.componentEquals(3, 2, "HIV VIRAL LOAD, QUANTITATIVE"));
+		Assert.assertTrue(segment.componentEquals(3, 3, "99DCT"));
+		Assert.assertEquals(0, segment.getComponentLength(3, 4));
+	}
+
+	/**
+	 * @verifies find components within a repetition
+	 * @see HL7Segment#getComponentStart(int, int, int)
+	 */
+	@Test
+	public void getComponentStart_shouldFindComponentsWithinARepetition() throws Exception {
+		HL7Segment segment = new HL7Segment("PID|||12345^^M10^AMRS^MR~67890^^M11^AMRS^MR||Doe^John");
+		Assert.assertEquals(2, segment.getRepetitionCount(3));
+
+		String text = segment.getText().toString();
+		Assert.assertEquals("67890", text.substring(segment.getComponentStart(3, 2, 1), segment.getComponentEnd(3, 2, 1)));
+		Assert.assertEquals("M11", text.substring(segment.getComponentStart(3, 2, 3), segment.getComponentEnd(3, 2, 3)));
+		Assert.assertEquals("MR", text.substring(segment.getComponentStart(3, 1, 5), segment.getComponentEnd(3, 1, 5)));
+	}
+
+	/**
+	 * @verifies compare fields without copying them
+	 * @see HL7Segment#fieldEquals(int, CharSequence)
+	 */
+	@Test
+	public void fieldEquals_shouldCompareFieldsWithoutCopyingThem() throws Exception {
+		HL7Segment segment = new HL7Segment(OBX);
+		Assert.assertTrue(segment.fieldEquals(2, "NM"));
+		Assert.assertFalse(segment.fieldEquals(2, "ST"));
+		Assert.assertFalse(segment.fieldEquals(2, "N"));
+		Assert.assertTrue(segment.fieldStartsWith(3, "856^"));
+		Assert.assertTrue(segment.fieldEndsWith(3, "^99DCT"));
+	}
+
+	/**
+	 * @verifies read a number without copying it
+	 * @see HL7Segment#getComponentAsInt(int, int)
+	 */
+	@Test
+	public void getComponentAsInt_shouldReadANumberWithoutCopyingIt() throws Exception {
+		Assert.assertEquals(856, new HL7Segment(OBX).getComponentAsInt(3, 1));
+	}
+
+	/**
+	 * @verifies return -1 for a component that is not a number
+	 * @see HL7Segment#getComponentAsInt(int, int)
+	 */
+	@Test
+	public void getComponentAsInt_shouldReturn1ForAComponentThatIsNotANumber() throws Exception {
+		HL7Segment segment = new HL7Segment(OBX);
+		Assert.assertEquals(-1, segment.getComponentAsInt(3, 2));
+		Assert.assertEquals(-1, segment.getComponentAsInt(4, 1));
+		Assert.assertEquals(-1, new HL7Segment("OBX|1|NM|12345678901^X^99DCT").getComponentAsInt(3, 1));
+	}
+
+	/**
+	 * @verifies replace only the given field
+	 * @see HL7Segment#replaceField(int, CharSequence)
+	 */
+	@Test
+	public void replaceField_shouldReplaceOnlyTheGivenField() throws Exception {
+		String line = "OBX|1|ST|856^HIV VIRAL LOAD^99DCT|ST|ST|||||||||20080206";
+		Assert.assertEquals("OBX|1|NM|856^HIV VIRAL LOAD^99DCT|ST|ST|||||||||20080206",
+				new HL7Segment(line).replaceField(2, "NM"));
+		Assert.assertEquals("OBX|1|ST|856^HIV VIRAL LOAD^99DCT|ST|1000|||||||||20080206",
+				new HL7Segment(line).replaceField(5, "1000"));
+	}
+
+	/**
+	 * @verifies keep text after the segment
+	 * @see HL7Segment#replaceField(int, CharSequence)
+	 */
+	@Test
+	public void replaceField_shouldKeepTextAfterTheSegment() throws Exception {
+		String line = "OBX|1|NM|856^HIV VIRAL LOAD^99DCT||<40|||||||||20080206\rNTE|||PCS Value: <40";
+		Assert.assertEquals("OBX|1|NM|856^HIV VIRAL LOAD^99DCT||39|||||||||20080206\rNTE|||PCS Value: <40",
+				new HL7Segment(line).replaceField(5, "39"));
+	}
+}
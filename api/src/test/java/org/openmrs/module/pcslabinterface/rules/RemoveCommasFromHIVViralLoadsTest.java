@@ -44,6 +44,24 @@ public class RemoveCommasFromHIVViralLoadsTest {
 				new RemoveCommasFromHIVViralLoads().transform(hl7string));
 	}
 
+	/**
+	 * @see {@link RemoveCommasFromHIVViralLoads#transform(String)}
+	 */
+	@Test
+	@Verifies(value = "should only change the value field", method = "transform(String)")
+	public void transform_shouldOnlyChangeTheValueField() throws Exception {
+		String hl7string = "OBX|1|NM|856^HIV Viral Load^99DCT|1,000+|1,000+|||||||||20080206";
+
+		String expected = "OBX|1|NM|856^HIV Viral Load^99DCT|1,000+|1000+|||||||||20080206"
+				+ PcsLabInterfaceConstants.MESSAGE_EOL_SEQUENCE
+				+ "NTE|||"
+				+ PcsLabInterfaceConstants.LAB_VALUE_MODIFIED
+				+ "1,000+";
+
+		Assert.assertEquals(expected,
+				new RemoveCommasFromHIVViralLoads().transform(hl7string));
+	}
+
 	/**
 	 * @see {@link RemoveCommasFromHIVViralLoads#RemoveCommasFromHIVViralLoads()}
 	 */
@@ -148,4 +148,22 @@ public class RemoveValueModifiersFromHIVViralLoadsTest {
 		Assert.assertEquals(expected,
 				new RemoveValueModifiersFromHIVViralLoads().transform(hl7string));
 	}
+
+	/**
+	 * @see {@link RemoveValueModifiersFromHIVViralLoads#transform(String)}
+	 */
+	@Test
+	@Verifies(value = "should only change the value field", method = "transform(String)")
+	public void transform_shouldOnlyChangeTheValueField() throws Exception {
+		String hl7string = "OBX|1|NM|856^HIV Viral Load^99DCT|>10000|>10000|||||||||20080206";
+
+		String expected = "OBX|1|NM|856^HIV Viral Load^99DCT|>10000|10001|||||||||20080206"
+				+ PcsLabInterfaceConstants.MESSAGE_EOL_SEQUENCE
+				+ "NTE|||"
+				+ PcsLabInterfaceConstants.LAB_VALUE_MODIFIED
+				+ ">10000";
+
+		Assert.assertEquals(expected,
+				new RemoveValueModifiersFromHIVViralLoads().transform(hl7string));
+	}
 }
\ No newline at end of file
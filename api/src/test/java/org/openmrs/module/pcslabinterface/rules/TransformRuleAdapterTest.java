@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.pcslabinterface.rules;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransformRuleAdapterTest {
+
+	/**
+	 * a rule written against the original API that marks PID segments and
+	 * removes NTE segments
+	 */
+	private static final TransformRule RULE = new TransformRule() {
+
+		public boolean matches(String test) {
+			return test.startsWith("PID") || test.startsWith("NTE");
+		}
+
+		public String transform(String test) {
+			return test.startsWith("NTE") ? null : test + "|MARKED";
+		}
+	};
+
+	/**
+	 * @verifies replace the segment with the result of the rule
+	 * @see TransformRuleAdapter#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldReplaceTheSegmentWithTheResultOfTheRule() throws Exception {
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment("MSH|^~\\&|PCSLABPLUS");
+		message.startSegment("PID|||12345");
+		new TransformRuleAdapter(RULE).transform(message);
+
+		Assert.assertTrue(message.getSegment().isType("PID"));
+		Assert.assertEquals("MSH|^~\\&|PCSLABPLUS\rPID|||12345|MARKED", message.toString());
+	}
+
+	/**
+	 * @verifies drop the segment if the rule returns null
+	 * @see TransformRuleAdapter#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldDropTheSegmentIfTheRuleReturnsNull() throws Exception {
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment("MSH|^~\\&|PCSLABPLUS");
+		message.startSegment("NTE|||comment");
+		new TransformRuleAdapter(RULE).transform(message);
+
+		Assert.assertTrue(message.isDropped());
+		Assert.assertEquals("MSH|^~\\&|PCSLABPLUS", message.toString());
+	}
+
+	/**
+	 * @verifies leave the segment alone if the rule does not match
+	 * @see TransformRuleAdapter#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldLeaveTheSegmentAloneIfTheRuleDoesNotMatch() throws Exception {
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment("OBX|1|NM|5497^CD4^99DCT||450");
+		new TransformRuleAdapter(RULE).transform(message);
+
+		Assert.assertFalse(message.isDropped());
+		Assert.assertEquals("OBX|1|NM|5497^CD4^99DCT||450", message.toString());
+	}
+}
@@ -0,0 +1,240 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.pcslabinterface.rules;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TransformRuleDispatcherTest {
+
+	private static final TransformRule[] RULES = new TransformRule[] {
+			new ChangeDatatypeForNumericObservations(),
+			new RemoveCommasFromHIVViralLoads(),
+			new RemoveValueModifiersFromHIVViralLoads(),
+			new AdjustNegativeConceptForUrineProtein(),
+			new RemoveDNAPCRNullValueSegments(),
+			new RemoveConfirmationNullValueSegments(),
+			new AdjustNegativeConceptForAFB(),
+			new ConvertPV1ToPD1()
+	};
+
+	/**
+	 * a rule without a scope that marks every line it sees
+	 */
+	private static final TransformRule MARK_EVERYTHING = new TransformRule() {
+
+		public boolean matches(String test) {
+			return test != null;
+		}
+
+		public String transform(String test) {
+			return test + "|MARKED";
+		}
+	};
+
+	/**
+	 * @verifies only test lines against rules scoped to their segment type
+	 * @see TransformRuleDispatcher#TransformRuleDispatcher(TransformRule[])
+	 */
+	@Test
+	public void TransformRuleDispatcher_shouldOnlyTestLinesAgainstRulesScopedToTheirSegmentType() throws Exception {
+		TransformRuleDispatcher dispatcher = new TransformRuleDispatcher(RULES);
+
+		Assert.assertEquals(0, dispatcher.getRules("PID|||12345^^M10^AMRS^MR||John3^Doe^").length);
+		Assert.assertEquals(0, dispatcher.getRules("MSH|^~\\&|PCSLABPLUS|AMRS.ELD").length);
+
+		TransformRule[] pv1Rules = dispatcher.getRules("PV1||O|1^Unknown Location||||1^Super User (1-8)");
+		Assert.assertEquals(1, pv1Rules.length);
+		Assert.assertTrue(pv1Rules[0] instanceof ConvertPV1ToPD1);
+	}
+
+	/**
+	 * @verifies only test OBX lines against rules scoped to their concept
+	 * @see TransformRuleDispatcher#TransformRuleDispatcher(TransformRule[])
+	 */
+	@Test
+	public void TransformRuleDispatcher_shouldOnlyTestOBXLinesAgainstRulesScopedToTheirConcept() throws Exception {
+		TransformRuleDispatcher dispatcher = new TransformRuleDispatcher(RULES);
+
+		List<TransformRule> urineRules = Arrays.asList(dispatcher
+				.getRules("OBX|1|CWE|2339^URINE Protein^99DCT||^Negative^99DCT|||||||||20080206"));
+		Assert.assertEquals(3, urineRules.size());
+		Assert.assertTrue(urineRules.contains(RULES[3]));
+		Assert.assertTrue(urineRules.contains(RULES[6]));
+
+		TransformRule[] otherRules = dispatcher.getRules("OBX|1|NM|5497^CD4, BY FACS^99DCT||450|||||||||20080206");
+		Assert.assertEquals(1, otherRules.length);
+		Assert.assertTrue(otherRules[0] instanceof ChangeDatatypeForNumericObservations);
+	}
+
+	/**
+	 * @verifies test every line against rules without a scope
+	 * @see TransformRuleDispatcher#TransformRuleDispatcher(TransformRule[])
+	 */
+	@Test
+	public void TransformRuleDispatcher_shouldTestEveryLineAgainstRulesWithoutAScope() throws Exception {
+		TransformRuleDispatcher dispatcher = new TransformRuleDispatcher(new TransformRule[] { new ConvertPV1ToPD1(),
+				MARK_EVERYTHING });
+
+		Assert.assertEquals("PID|||12345|MARKED", dispatcher.transform("PID|||12345"));
+		Assert.assertEquals("OBX|1|NM|5497^CD4^99DCT||450|MARKED", dispatcher.transform("OBX|1|NM|5497^CD4^99DCT||450"));
+		Assert.assertEquals(2, dispatcher.getRules("PV1||O|1^Unknown Location").length);
+	}
+
+	/**
+	 * @verifies apply rules in their original order
+	 * @see TransformRuleDispatcher#TransformRuleDispatcher(TransformRule[])
+	 */
+	@Test
+	public void TransformRuleDispatcher_shouldApplyRulesInTheirOriginalOrder() throws Exception {
+		TransformRuleDispatcher dispatcher = new TransformRuleDispatcher(RULES);
+
+		TransformRule[] viralLoadRules = dispatcher.getRules("OBX|1|NM|856^HIV VIRAL LOAD^99DCT||1,000|||||||||20080206");
+		Assert.assertEquals(3, viralLoadRules.length);
+		Assert.assertSame(RULES[0], viralLoadRules[0]);
+		Assert.assertSame(RULES[1], viralLoadRules[1]);
+		Assert.assertSame(RULES[2], viralLoadRules[2]);
+	}
+
+	/**
+	 * @verifies run rules written against the original API
+	 * @see TransformRuleDispatcher#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldRunRulesWrittenAgainstTheOriginalAPI() throws Exception {
+		TransformRuleDispatcher dispatcher = new TransformRuleDispatcher(new TransformRule[] {
+				new ChangeDatatypeForNumericObservations(), MARK_EVERYTHING });
+
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment("PID|||12345");
+		dispatcher.transform(message);
+		message.startSegment("OBX|1|NM|5497^CD4^99DCT||450");
+		dispatcher.transform(message);
+
+		Assert.assertEquals("PID|||12345|MARKED\rOBX|1|NM|5497^CD4^99DCT||450|MARKED", message.toString());
+	}
+
+	/**
+	 * @verifies stop once a rule drops the segment
+	 * @see TransformRuleDispatcher#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldStopOnceARuleDropsTheSegment() throws Exception {
+		TransformRuleDispatcher dispatcher = new TransformRuleDispatcher(new TransformRule[] {
+				new RemoveDNAPCRNullValueSegments(), MARK_EVERYTHING });
+
+		HL7MessageBuffer message = new HL7MessageBuffer(64);
+		message.startSegment("PID|||12345");
+		dispatcher.transform(message);
+		message.startSegment("OBX|2|CWE|1030^HIV DNA PCR^99DCT||^^99DCT|||||||||20080206");
+		dispatcher.transform(message);
+
+		Assert.assertTrue(message.isDropped());
+		Assert.assertEquals("PID|||12345|MARKED", message.toString());
+		Assert.assertNull(dispatcher.transform("OBX|2|CWE|1030^HIV DNA PCR^99DCT||^^99DCT|||||||||20080206"));
+	}
+
+	/**
+	 * @verifies record metrics for each rule it runs
+	 * @see TransformRuleDispatcher#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldRecordMetricsForEachRuleItRuns() throws Exception {
+		DeclarativeTransformRule rule = new DeclarativeTransformRule("dispatcher metrics", "OBX", new int[] { 1030 });
+		rule.addFieldEquals(5, "^^99DCT");
+		rule.setDrop(true);
+		TransformRuleMetrics metrics = TransformRuleMetrics.forRule(rule);
+		metrics.reset();
+
+		TransformRuleDispatcher dispatcher = new TransformRuleDispatcher(new TransformRule[] { rule });
+		dispatcher.transform("PID|||12345");
+		dispatcher.transform("OBX|1|CWE|1030^HIV DNA PCR^99DCT||664^NEGATIVE^99DCT");
+		dispatcher.transform("OBX|2|CWE|1030^HIV DNA PCR^99DCT||^^99DCT");
+
+		Assert.assertEquals(2, metrics.getTested());
+		Assert.assertEquals(1, metrics.getMatched());
+		Assert.assertEquals(1, metrics.getTransformed());
+		Assert.assertTrue(TransformRuleMetrics.getAll().contains(metrics));
+	}
+
+	/**
+	 * @verifies count a match that leaves the segment alone
+	 * @see TransformRuleDispatcher#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldCountAMatchThatLeavesTheSegmentAlone() throws Exception {
+		TransformRule rule = new TransformRule() {
+
+			public boolean matches(String test) {
+				return test.startsWith("OBX");
+			}
+
+			public String transform(String test) {
+				return test;
+			}
+		};
+		TransformRuleMetrics metrics = TransformRuleMetrics.forRule(rule);
+		metrics.reset();
+
+		TransformRuleDispatcher dispatcher = new TransformRuleDispatcher(new TransformRule[] { rule });
+		dispatcher.transform("PID|||12345");
+		dispatcher.transform("OBX|1|CWE|1030^HIV DNA PCR^99DCT||664^NEGATIVE^99DCT");
+
+		Assert.assertEquals(2, metrics.getTested());
+		Assert.assertEquals(1, metrics.getMatched());
+		Assert.assertEquals(0, metrics.getTransformed());
+	}
+
+	/**
+	 * @verifies count matches of the built-in rules
+	 * @see TransformRuleDispatcher#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldCountMatchesOfTheBuiltinRules() throws Exception {
+		TransformRule rule = new RemoveCommasFromHIVViralLoads();
+		TransformRuleMetrics metrics = TransformRuleMetrics.forRule(rule);
+		metrics.reset();
+
+		TransformRuleDispatcher dispatcher = new TransformRuleDispatcher(new TransformRule[] { rule });
+		dispatcher.transform("OBX|1|NM|856^HIV VIRAL LOAD, QUANTITATIVE^99DCT||1,234|||||||F");
+		dispatcher.transform("OBX|2|NM|1030^HIV DNA PCR^99DCT||1,234|||||||F");
+
+		Assert.assertEquals(1, metrics.getTested());
+		Assert.assertEquals(1, metrics.getMatched());
+		Assert.assertEquals(1, metrics.getTransformed());
+	}
+
+	/**
+	 * @verifies count a built-in rule match that leaves the segment alone
+	 * @see TransformRuleDispatcher#transform(HL7MessageBuffer)
+	 */
+	@Test
+	public void transform_shouldCountABuiltinRuleMatchThatLeavesTheSegmentAlone() throws Exception {
+		TransformRule rule = new RemoveCommasFromHIVViralLoads();
+		TransformRuleMetrics metrics = TransformRuleMetrics.forRule(rule);
+		metrics.reset();
+
+		TransformRuleDispatcher dispatcher = new TransformRuleDispatcher(new TransformRule[] { rule });
+		String line = "OBX|1|NM|856^HIV VIRAL LOAD, QUANTITATIVE^99DCT||1234|||||||F";
+		Assert.assertEquals(line, dispatcher.transform(line));
+
+		Assert.assertEquals(1, metrics.getTested());
+		Assert.assertEquals(1, metrics.getMatched());
+		Assert.assertEquals(0, metrics.getTransformed());
+	}
+}
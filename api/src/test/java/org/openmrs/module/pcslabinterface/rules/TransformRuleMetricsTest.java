@@ -0,0 +1,84 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.pcslabinterface.rules;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransformRuleMetricsTest {
+
+	/**
+	 * @verifies share metrics between rules with the same name
+	 * @see TransformRuleMetrics#forRule(TransformRule)
+	 */
+	@Test
+	public void forRule_shouldShareMetricsBetweenRulesWithTheSameName() throws Exception {
+		Assert.assertSame(TransformRuleMetrics.forRule(new RemoveCommasFromHIVViralLoads()),
+				TransformRuleMetrics.forRule(new RemoveCommasFromHIVViralLoads()));
+		Assert.assertEquals("RemoveCommasFromHIVViralLoads",
+				TransformRuleMetrics.forRule(new RemoveCommasFromHIVViralLoads()).getName());
+
+		DeclarativeTransformRule rule = new DeclarativeTransformRule("shared name", "OBX", null);
+		Assert.assertSame(TransformRuleMetrics.forRule(rule),
+				TransformRuleMetrics.forRule(new DeclarativeTransformRule("shared name", "PV1", null)));
+		Assert.assertNotSame(TransformRuleMetrics.forRule(rule),
+				TransformRuleMetrics.forRule(new DeclarativeTransformRule("another name", "OBX", null)));
+	}
+
+	/**
+	 * @verifies count tests, matches and transforms
+	 * @see TransformRuleMetrics#record(long, boolean, boolean)
+	 */
+	@Test
+	public void record_shouldCountTestsMatchesAndTransforms() throws Exception {
+		TransformRuleMetrics metrics = new TransformRuleMetrics("test");
+		metrics.record(100, false, false);
+		metrics.record(300, true, true);
+		metrics.record(200, true, false);
+
+		Assert.assertEquals(3, metrics.getTested());
+		Assert.assertEquals(2, metrics.getMatched());
+		Assert.assertEquals(1, metrics.getTransformed());
+		Assert.assertEquals(600, metrics.getTotalNanos());
+		Assert.assertEquals(200, metrics.getMeanNanos());
+		Assert.assertEquals(300, metrics.getMaxNanos());
+
+		metrics.reset();
+		Assert.assertEquals(0, metrics.getTested());
+		Assert.assertEquals(0, metrics.getMatched());
+		Assert.assertEquals(0, metrics.getP99Nanos());
+	}
+
+	/**
+	 * @verifies estimate percentiles to within a factor of two
+	 * @see TransformRuleMetrics#record(long, boolean, boolean)
+	 */
+	@Test
+	public void record_shouldEstimatePercentilesToWithinAFactorOfTwo() throws Exception {
+		TransformRuleMetrics metrics = new TransformRuleMetrics("test");
+		for (int i = 1; i <= 1000; i++)
+			metrics.record(i * 1000L, false, false);
+
+		assertWithinFactorOfTwo(500000, metrics.getP50Nanos());
+		assertWithinFactorOfTwo(950000, metrics.getP95Nanos());
+		assertWithinFactorOfTwo(990000, metrics.getP99Nanos());
+		Assert.assertTrue(metrics.getP99Nanos() <= metrics.getMaxNanos());
+	}
+
+	private static void assertWithinFactorOfTwo(long expected, long actual) {
+		Assert.assertTrue(actual + " should be at least " + expected, actual >= expected);
+		Assert.assertTrue(actual + " should be under twice " + expected, actual < 2 * expected);
+	}
+}
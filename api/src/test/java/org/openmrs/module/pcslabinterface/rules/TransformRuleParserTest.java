@@ -0,0 +1,96 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.pcslabinterface.rules;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.pcslabinterface.PcsLabInterfaceException;
+
+public class TransformRuleParserTest {
+
+	private static final String RULES = "<rules>"
+			+ "<rule name=\"negative urine protein\" segment=\"OBX\" concepts=\"2339\">"
+			+ "<field number=\"2\" equals=\"CWE\"/>"
+			+ "<field number=\"5\" equals=\"^Negative^99DCT\"/>"
+			+ "<replace field=\"5\" with=\"664^NEGATIVE^99DCT\"/>"
+			+ "<comment>^Negative^99DCT</comment>"
+			+ "</rule>"
+			+ "<rule segment=\"OBX\" concepts=\"1030, 1040\">"
+			+ "<field number=\"5\" matches=\"\\^\\^99DCT\"/>"
+			+ "<drop/>"
+			+ "</rule>"
+			+ "</rules>";
+
+	/**
+	 * @verifies compile every rule in the definition
+	 * @see TransformRuleParser#parse(String)
+	 */
+	@Test
+	public void parse_shouldCompileEveryRuleInTheDefinition() throws Exception {
+		List<TransformRule> rules = TransformRuleParser.parse(RULES);
+		Assert.assertEquals(2, rules.size());
+
+		DeclarativeTransformRule urineProtein = (DeclarativeTransformRule) rules.get(0);
+		Assert.assertEquals("negative urine protein", urineProtein.getName());
+		Assert.assertEquals("OBX", urineProtein.getSegmentType());
+		Assert.assertEquals("OBX|1|CWE|2339^URINE Protein^99DCT||664^NEGATIVE^99DCT\rNTE|||PCS Value: ^Negative^99DCT",
+				urineProtein.transform("OBX|1|CWE|2339^URINE Protein^99DCT||^Negative^99DCT"));
+
+		DeclarativeTransformRule nullValue = (DeclarativeTransformRule) rules.get(1);
+		Assert.assertEquals("rule 2", nullValue.getName());
+		Assert.assertEquals(1040, nullValue.getConceptIds()[1]);
+		Assert.assertNull(nullValue.transform("OBX|1|CWE|1040^HIV RAPID TEST^99DCT||^^99DCT"));
+	}
+
+	/**
+	 * @verifies return no rules for a blank definition
+	 * @see TransformRuleParser#parse(String)
+	 */
+	@Test
+	public void parse_shouldReturnNoRulesForABlankDefinition() throws Exception {
+		Assert.assertTrue(TransformRuleParser.parse(null).isEmpty());
+		Assert.assertTrue(TransformRuleParser.parse("  ").isEmpty());
+		Assert.assertTrue(TransformRuleParser.parse("<rules/>").isEmpty());
+	}
+
+	/**
+	 * @verifies fail for a rule without an action
+	 * @see TransformRuleParser#parse(String)
+	 */
+	@Test(expected = PcsLabInterfaceException.class)
+	public void parse_shouldFailForARuleWithoutAnAction() throws Exception {
+		TransformRuleParser.parse("<rules><rule segment=\"OBX\"><field number=\"2\" equals=\"ST\"/></rule></rules>");
+	}
+
+	/**
+	 * @verifies fail for an invalid pattern
+	 * @see TransformRuleParser#parse(String)
+	 */
+	@Test(expected = PcsLabInterfaceException.class)
+	public void parse_shouldFailForAnInvalidPattern() throws Exception {
+		TransformRuleParser.parse("<rules><rule segment=\"OBX\"><field number=\"5\" matches=\"(\"/><drop/></rule></rules>");
+	}
+
+	/**
+	 * @verifies fail for a definition that is not XML
+	 * @see TransformRuleParser#parse(String)
+	 */
+	@Test(expected = PcsLabInterfaceException.class)
+	public void parse_shouldFailForADefinitionThatIsNotXML() throws Exception {
+		TransformRuleParser.parse("<rules><rule segment=\"OBX\">");
+	}
+}
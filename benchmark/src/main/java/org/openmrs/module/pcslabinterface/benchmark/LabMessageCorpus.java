@@ -0,0 +1,197 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openmrs.module.pcslabinterface.PcsLabInterfaceConstants;
+
+/**
+ * Generates lab messages shaped like those each sending application sends,
+ * for the benchmarks to run over. The same seed always gives the same
+ * messages, so results from different builds measure the same work.
+ * <p/>
+ * PCS (PCSLABPLUS) messages carry the results the transform rules fix up:
+ * viral loads with commas and value modifiers, numeric results sent as
+ * strings, negative urine protein and AFB results, null DNA PCR and
+ * confirmation results, and a PV1 segment. REFPACS messages carry coded and
+ * text radiology results, and EID messages early infant diagnosis results;
+ * neither is pre-processed, so they measure how quickly other messages are
+ * passed through.
+ */
+public class LabMessageCorpus {
+
+	public static final String PCS = "pcs";
+
+	public static final String REFPACS = "refpacs";
+
+	public static final String EID = "eid";
+
+	private static final String EOL = PcsLabInterfaceConstants.MESSAGE_EOL_SEQUENCE;
+
+	private static final String[] VIRAL_LOADS = { "1,000", "12,345", "1,234,567", "<40", "< 40", ">10000", "<400",
+			"250", "0", "39" };
+
+	/**
+	 * ids of the numeric concepts used in the messages
+	 */
+	public static final int[] NUMERIC_CONCEPT_IDS = { 856, 5497, 730, 21, 5089, 5085, 5086 };
+
+	private final Random random;
+
+	/**
+	 * @param seed seed for the choice of results
+	 */
+	public LabMessageCorpus(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * @param source {@link #PCS}, {@link #REFPACS} or {@link #EID}
+	 * @param count the number of messages
+	 * @return that many messages from the source
+	 */
+	public List<String> getMessages(String source, int count) {
+		List<String> messages = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			if (PCS.equals(source))
+				messages.add(makePcsMessage(i));
+			else if (REFPACS.equals(source))
+				messages.add(makeRefpacsMessage(i));
+			else if (EID.equals(source))
+				messages.add(makeEidMessage(i));
+			else
+				throw new IllegalArgumentException("Unknown message source: " + source);
+		}
+		return messages;
+	}
+
+	/**
+	 * @return every line of the messages, for benchmarking rules one line at
+	 *         a time
+	 */
+	public static List<String> getLines(List<String> messages) {
+		List<String> lines = new ArrayList<String>();
+		for (String message : messages)
+			for (String line : message.split(EOL))
+				lines.add(line);
+		return lines;
+	}
+
+	private String makePcsMessage(int n) {
+		StringBuilder message = new StringBuilder(2048);
+		message.append(header("PCSLABPLUS", "AMRS.ELD", n));
+		message.append(EOL).append("PID|||").append(patientId(n)).append("^^M10^AMRS^MR||Doe^John").append(n);
+		message.append(EOL).append("PV1||O|").append(1 + random.nextInt(60))
+				.append("^Unknown Location||||1^Super User (1-8)|||||||||||||||||||||||||||||||||||||20080212|||||||V");
+		message.append(EOL).append("ORC|RE||||||||20080226102537|1^Super User");
+		message.append(EOL).append("OBR|1|||1238^MEDICAL RECORD OBSERVATIONS^99DCT");
+
+		int results = 3 + random.nextInt(10);
+		for (int i = 1; i <= results; i++) {
+			message.append(EOL).append("OBX|").append(i).append('|');
+			switch (random.nextInt(10)) {
+				case 0:
+				case 1:
+					message.append("NM|856^HIV VIRAL LOAD, QUANTITATIVE^99DCT||")
+							.append(VIRAL_LOADS[random.nextInt(VIRAL_LOADS.length)]);
+					break;
+				case 2:
+					message.append("ST|5497^CD4, BY FACS^99DCT||").append(random.nextInt(1500));
+					break;
+				case 3:
+					message.append("NM|730^CD4%^99DCT||").append(random.nextInt(60));
+					break;
+				case 4:
+					message.append("ST|21^HEMOGLOBIN^99DCT||").append(8 + random.nextInt(10)).append('.')
+							.append(random.nextInt(10));
+					break;
+				case 5:
+					message.append("CWE|2339^URINE Protein^99DCT||")
+							.append(random.nextBoolean() ? "^Negative^99DCT" : "664^NEGATIVE^99DCT");
+					break;
+				case 6:
+					message.append("CWE|2339^AFB Microscopy sputum^99DCT||")
+							.append(random.nextBoolean() ? "^Negative^99DCT" : "703^POSITIVE^99DCT");
+					break;
+				case 7:
+					message.append("CWE|1030^HIV DNA PCR^99DCT||")
+							.append(random.nextBoolean() ? "^^99DCT" : "664^NEGATIVE^99DCT");
+					break;
+				case 8:
+					message.append("CWE|2311^CONFIRMATION^99DCT||")
+							.append(random.nextBoolean() ? "^^99DCT" : "703^POSITIVE^99DCT");
+					break;
+				default:
+					message.append("ST|1040^HIV RAPID TEST, QUALITATIVE^99DCT||Reactive, see comment");
+					break;
+			}
+			message.append("|||||||||2008").append(date());
+		}
+		return message.toString();
+	}
+
+	private String makeRefpacsMessage(int n) {
+		StringBuilder message = new StringBuilder(1024);
+		message.append(header("REFPACS", "IU", n));
+		message.append(EOL).append("PID|||").append(patientId(n)).append("^^^^||Doe^John").append(n).append("^||");
+		message.append(EOL).append("PV1||O|1^Unknown Location||||1^Super User (1-8)|||||||||||||||||||||||||||||||||||||20080212|||||||V");
+		message.append(EOL).append("ORC|RE||||||||20080226102537|1^Super User");
+		message.append(EOL).append("OBR|1|||1238^MEDICAL RECORD OBSERVATIONS^99DCT");
+		message.append(EOL).append("OBX|1|CWE|12^X-RAY, CHEST, PRELIMINARY FINDINGS^99DCT||")
+				.append(random.nextBoolean() ? "1115^NORMAL^99DCT" : "5158^EVIDENCE OF CARDIAC ENLARGEMENT^99DCT")
+				.append("|||||||||2008").append(date());
+		message.append(EOL).append("OBX|2|TX|7222^RADIOLOGY REPORT^99DCT||Heart size within normal limits, lungs clear, ")
+				.append("no effusion. Compared with film of ").append(date()).append(".|||||||||2008").append(date());
+		message.append(EOL).append("OBX|3|DT|5096^RETURN VISIT DATE^99DCT||2008").append(date())
+				.append("|||||||||20080212");
+		return message.toString();
+	}
+
+	private String makeEidMessage(int n) {
+		StringBuilder message = new StringBuilder(1024);
+		message.append(header("EID", "PCS", n));
+		message.append(EOL).append("PID|||").append(patientId(n)).append("^^M10^AMRS^MR||Doe^Baby").append(n);
+		message.append(EOL).append("PD1|||Unknown Location^D^1^^^AMRS^L^AMPATH|1^Super User (1-8)");
+		message.append(EOL).append("ORC|RE||||||||20080226102537|1^Super User");
+		message.append(EOL).append("OBR|1|||1238^MEDICAL RECORD OBSERVATIONS^99DCT");
+		message.append(EOL).append("OBX|1|CWE|1030^HIV DNA PCR^99DCT||")
+				.append(random.nextInt(4) == 0 ? "703^POSITIVE^99DCT" : "664^NEGATIVE^99DCT")
+				.append("|||||||||2008").append(date());
+		message.append(EOL).append("OBX|2|NM|5089^WEIGHT (KG)^99DCT||").append(2 + random.nextInt(10))
+				.append("|||||||||2008").append(date());
+		return message.toString();
+	}
+
+	private String header(String sendingApplication, String sendingFacility, int n) {
+		return "MSH|^~\\&|" + sendingApplication + "|" + sendingFacility
+				+ "|HL7LISTENER|AMRS.ELD|20080226102656||ORU^R01|" + sendingApplication + n
+				+ "|P|2.5|1||||||||16^AMRS.ELD.FORMID";
+	}
+
+	private String patientId(int n) {
+		return (10000 + random.nextInt(900000)) + "MT-" + (n % 10);
+	}
+
+	/**
+	 * @return a month and day in 2008, as MMdd
+	 */
+	private String date() {
+		int month = 1 + random.nextInt(12);
+		int day = 1 + random.nextInt(28);
+		return (month < 10 ? "0" : "") + month + (day < 10 ? "0" : "") + day;
+	}
+}
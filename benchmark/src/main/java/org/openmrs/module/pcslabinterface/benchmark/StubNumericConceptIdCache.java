@@ -0,0 +1,54 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmrs.module.pcslabinterface.NumericConceptIdCache;
+import org.openmrs.module.pcslabinterface.TransformRuleLoader;
+
+/**
+ * Sets up the transform rules to run without an OpenMRS context: the numeric
+ * concept lookup answers from {@link LabMessageCorpus#NUMERIC_CONCEPT_IDS}
+ * instead of the database, and only the built-in rules are loaded.
+ */
+public class StubNumericConceptIdCache extends NumericConceptIdCache {
+
+	/**
+	 * installs the stub and loads the built-in rules
+	 */
+	public static void install() {
+		NumericConceptIdCache.setInstance(new StubNumericConceptIdCache());
+		TransformRuleLoader.load(null);
+	}
+
+	@Override
+	protected boolean canLoad() {
+		return true;
+	}
+
+	@Override
+	protected List<Integer> loadNumericConceptIds() {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (int id : LabMessageCorpus.NUMERIC_CONCEPT_IDS)
+			ids.add(id);
+		return ids;
+	}
+
+	@Override
+	protected long getTimeToLive() {
+		return 0;
+	}
+}
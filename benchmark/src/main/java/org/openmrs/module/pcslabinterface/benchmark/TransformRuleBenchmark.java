@@ -0,0 +1,119 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.pcslabinterface.PcsLabInterfaceConstants;
+import org.openmrs.module.pcslabinterface.rules.TransformRule;
+
+/**
+ * Measures each built-in rule on its own, one line at a time, through the
+ * original {@link TransformRule} API: <code>matches</code> over every line of
+ * the corpus, and <code>transform</code> over the lines the rule matches.
+ * Where a rule matches none of the lines from a source, there is nothing for
+ * <code>transform</code> to measure, so its setup fails and JMH reports that
+ * pair as an error and moves on; <code>matches</code> is still measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class TransformRuleBenchmark {
+
+	@Param( { "ChangeDatatypeForNumericObservations", "RemoveCommasFromHIVViralLoads",
+			"RemoveValueModifiersFromHIVViralLoads", "AdjustNegativeConceptForUrineProtein",
+			"RemoveDNAPCRNullValueSegments", "RemoveConfirmationNullValueSegments", "AdjustNegativeConceptForAFB",
+			"ConvertPV1ToPD1" })
+	public String rule;
+
+	@Param( { LabMessageCorpus.PCS, LabMessageCorpus.REFPACS, LabMessageCorpus.EID })
+	public String source;
+
+	private TransformRule transformRule;
+
+	private String[] lines;
+
+	private int nextLine = 0;
+
+	@Setup
+	public void setUp() {
+		StubNumericConceptIdCache.install();
+
+		for (TransformRule candidate : PcsLabInterfaceConstants.TRANSFORM_RULES())
+			if (candidate.getClass().getSimpleName().equals(rule))
+				transformRule = candidate;
+		if (transformRule == null)
+			throw new IllegalArgumentException("Unknown rule: " + rule);
+
+		List<String> all = LabMessageCorpus.getLines(new LabMessageCorpus(20080226L).getMessages(source, 1000));
+		lines = all.toArray(new String[all.size()]);
+	}
+
+	@Benchmark
+	public boolean matches() {
+		String line = lines[nextLine];
+		if (++nextLine == lines.length)
+			nextLine = 0;
+		return transformRule.matches(line);
+	}
+
+	@Benchmark
+	public String transform(MatchingLines matching) {
+		String line = matching.lines[matching.next];
+		if (++matching.next == matching.lines.length)
+			matching.next = 0;
+		return transformRule.transform(line);
+	}
+
+	/**
+	 * the lines of the corpus the rule matches, which are the only ones it is
+	 * ever asked to transform
+	 */
+	@State(Scope.Thread)
+	public static class MatchingLines {
+
+		private String[] lines;
+
+		private int next = 0;
+
+		@Setup
+		public void setUp(TransformRuleBenchmark benchmark) {
+			List<String> matching = new ArrayList<String>();
+			for (String line : benchmark.lines)
+				if (benchmark.transformRule.matches(line))
+					matching.add(line);
+			if (matching.isEmpty())
+				throw new IllegalStateException(benchmark.rule + " matches no " + benchmark.source
+						+ " lines, so there is nothing to transform");
+
+			lines = matching.toArray(new String[matching.size()]);
+		}
+	}
+}
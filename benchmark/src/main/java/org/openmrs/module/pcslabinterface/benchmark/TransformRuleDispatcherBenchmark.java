@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.pcslabinterface.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.module.pcslabinterface.TransformRuleLoader;
+import org.openmrs.module.pcslabinterface.rules.HL7MessageBuffer;
+import org.openmrs.module.pcslabinterface.rules.HL7SegmentReader;
+import org.openmrs.module.pcslabinterface.rules.TransformRuleDispatcher;
+
+/**
+ * Measures running the built-in rules over a whole message through
+ * {@link TransformRuleDispatcher#transform(HL7MessageBuffer)}, one segment at
+ * a time in a single buffer, as pre-processing does. Unlike
+ * {@link PreProcessMessageBenchmark} the header is not parsed and every
+ * message goes through the rules, whichever application sent it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class TransformRuleDispatcherBenchmark {
+
+	@Param( { LabMessageCorpus.PCS, LabMessageCorpus.REFPACS, LabMessageCorpus.EID })
+	public String source;
+
+	private String[] messages;
+
+	private int next = 0;
+
+	private TransformRuleDispatcher dispatcher;
+
+	@Setup
+	public void setUp() {
+		StubNumericConceptIdCache.install();
+		dispatcher = TransformRuleLoader.getDispatcher();
+
+		List<String> corpus = new LabMessageCorpus(20080226L).getMessages(source, 1000);
+		messages = corpus.toArray(new String[corpus.size()]);
+	}
+
+	@Benchmark
+	public HL7MessageBuffer transform() {
+		String data = messages[next];
+		if (++next == messages.length)
+			next = 0;
+
+		HL7MessageBuffer message = new HL7MessageBuffer(data.length() + 256);
+		HL7SegmentReader reader = new HL7SegmentReader(data);
+		while (reader.next(message))
+			dispatcher.transform(message);
+		return message;
+	}
+}
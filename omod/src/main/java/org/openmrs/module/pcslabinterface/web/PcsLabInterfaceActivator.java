@@ -15,20 +15,65 @@ package org.openmrs.module.pcslabinterface.web;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.Activator;
+import org.openmrs.module.pcslabinterface.ConceptCache;
+import org.openmrs.module.pcslabinterface.HealthCenterCache;
+import org.openmrs.module.pcslabinterface.LabMessageMemoryPolicy;
+import org.openmrs.module.pcslabinterface.LabMetadataCache;
+import org.openmrs.module.pcslabinterface.NumericConceptIdCache;
+import org.openmrs.module.pcslabinterface.PatientIdentifierCache;
+import org.openmrs.module.pcslabinterface.PcsLabInterfaceMBeans;
+import org.openmrs.module.pcslabinterface.ProviderCache;
+import org.openmrs.module.pcslabinterface.TransformRuleLoader;
+import org.openmrs.module.pcslabinterface.rules.TransformRuleMetrics;
 
 public class PcsLabInterfaceActivator implements Activator {
 	private Log log;
 
+	private final TransformRuleLoader transformRuleLoader = new TransformRuleLoader();
+
 	public PcsLabInterfaceActivator() {
 		this.log = LogFactory.getLog(super.getClass());
 	}
 
 	public void startup() {
 		this.log.info("Starting the PcsLabInterface module");
+		Context.getAdministrationService().addGlobalPropertyListener(transformRuleLoader);
+		Context.getAdministrationService().addGlobalPropertyListener(ConceptCache.getInstance());
+		Context.getAdministrationService().addGlobalPropertyListener(ProviderCache.getInstance());
+		PcsLabInterfaceMBeans.register(NumericConceptIdCache.getInstance(), PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.NUMERIC_CONCEPT_ID_CACHE, null));
+		PcsLabInterfaceMBeans.register(ConceptCache.getInstance(), PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.CONCEPT_CACHE, null));
+		PcsLabInterfaceMBeans.register(PatientIdentifierCache.getInstance(), PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.PATIENT_IDENTIFIER_CACHE, null));
+		PcsLabInterfaceMBeans.register(ProviderCache.getInstance(), PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.PROVIDER_CACHE, null));
+		PcsLabInterfaceMBeans.register(LabMetadataCache.getInstance(), PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.LAB_METADATA_CACHE, null));
+		PcsLabInterfaceMBeans.register(HealthCenterCache.getInstance(), PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.HEALTH_CENTER_CACHE, null));
 	}
 
 	public void shutdown() {
 		this.log.info("Shutting down the PcsLabInterface module");
+		Context.getAdministrationService().removeGlobalPropertyListener(transformRuleLoader);
+		Context.getAdministrationService().removeGlobalPropertyListener(ConceptCache.getInstance());
+		Context.getAdministrationService().removeGlobalPropertyListener(ProviderCache.getInstance());
+		PcsLabInterfaceMBeans.unregister(PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.NUMERIC_CONCEPT_ID_CACHE, null));
+		PcsLabInterfaceMBeans.unregister(PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.CONCEPT_CACHE, null));
+		PcsLabInterfaceMBeans.unregister(PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.PATIENT_IDENTIFIER_CACHE, null));
+		PcsLabInterfaceMBeans.unregister(PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.PROVIDER_CACHE, null));
+		PcsLabInterfaceMBeans.unregister(PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.LAB_METADATA_CACHE, null));
+		PcsLabInterfaceMBeans.unregister(PcsLabInterfaceMBeans.getObjectName(
+				PcsLabInterfaceMBeans.HEALTH_CENTER_CACHE, null));
+		LabMessageMemoryPolicy.unpublish();
+		TransformRuleMetrics.unregisterAll();
 	}
 }
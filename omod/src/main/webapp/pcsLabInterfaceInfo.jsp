@@ -5,6 +5,23 @@
 <%@ include file="/WEB-INF/template/header.jsp" %>
 <%@ include file="localHeader.jsp" %>
 
+<%@ page import="org.openmrs.module.pcslabinterface.ConceptCache" %>
+<%@ page import="org.openmrs.module.pcslabinterface.NumericConceptIdCache" %>
+<%@ page import="org.openmrs.module.pcslabinterface.PatientIdentifierCache" %>
+<%@ page import="org.openmrs.module.pcslabinterface.ProviderCache" %>
+<%@ page import="org.openmrs.module.pcslabinterface.LabMetadataCache" %>
+<%@ page import="org.openmrs.module.pcslabinterface.HealthCenterCache" %>
+<%@ page import="org.openmrs.module.pcslabinterface.LabMessageMemoryPolicy" %>
+<%@ page import="org.openmrs.module.pcslabinterface.rules.TransformRuleMetrics" %>
+<c:set var="ruleMetrics" value="<%= TransformRuleMetrics.getAll() %>"/>
+<c:set var="numericConceptIdCache" value="<%= NumericConceptIdCache.getInstance() %>"/>
+<c:set var="conceptCache" value="<%= ConceptCache.getInstance() %>"/>
+<c:set var="patientIdentifierCache" value="<%= PatientIdentifierCache.getInstance() %>"/>
+<c:set var="providerCache" value="<%= ProviderCache.getInstance() %>"/>
+<c:set var="labMetadataCache" value="<%= LabMetadataCache.getInstance() %>"/>
+<c:set var="healthCenterCache" value="<%= HealthCenterCache.getInstance() %>"/>
+<c:set var="memoryPolicy" value="<%= LabMessageMemoryPolicy.getPublished() %>"/>
+
 <br />
 <h2><spring:message code="pcslabinterface.info"/></h2>
 <br />
@@ -13,6 +30,125 @@
     url="globalProperties"
     parameters="title=${title}|propertyPrefix=pcslabinterface.|excludePrefix=pcslabinterface.started|hidePrefix=true|readOnly=false"/>
 
+<br/>
+<b class="boxHeader"><spring:message code="pcslabinterface.metrics.rules"/></b>
+<div class="box">
+	<i><spring:message code="pcslabinterface.metrics.rules.help"/></i>
+	<table cellpadding="2" cellspacing="0">
+		<tr>
+			<th><spring:message code="pcslabinterface.metrics.rule"/></th>
+			<th><spring:message code="pcslabinterface.metrics.tested"/></th>
+			<th><spring:message code="pcslabinterface.metrics.matched"/></th>
+			<th><spring:message code="pcslabinterface.metrics.transformed"/></th>
+			<th><spring:message code="pcslabinterface.metrics.total"/></th>
+			<th><spring:message code="pcslabinterface.metrics.mean"/></th>
+			<th><spring:message code="pcslabinterface.metrics.p50"/></th>
+			<th><spring:message code="pcslabinterface.metrics.p95"/></th>
+			<th><spring:message code="pcslabinterface.metrics.p99"/></th>
+			<th><spring:message code="pcslabinterface.metrics.max"/></th>
+		</tr>
+		<c:forEach items="${ruleMetrics}" var="metrics" varStatus="status">
+			<tr class="<c:choose><c:when test="${status.index % 2 == 0}">evenRow</c:when><c:otherwise>oddRow</c:otherwise></c:choose>">
+				<td>${metrics.name}</td>
+				<td>${metrics.tested}</td>
+				<td>${metrics.matched}</td>
+				<td>${metrics.transformed}</td>
+				<td><fmt:formatNumber value="${metrics.totalNanos / 1000}" maxFractionDigits="0"/></td>
+				<td><fmt:formatNumber value="${metrics.meanNanos / 1000}" maxFractionDigits="1"/></td>
+				<td><fmt:formatNumber value="${metrics.p50Nanos / 1000}" maxFractionDigits="1"/></td>
+				<td><fmt:formatNumber value="${metrics.p95Nanos / 1000}" maxFractionDigits="1"/></td>
+				<td><fmt:formatNumber value="${metrics.p99Nanos / 1000}" maxFractionDigits="1"/></td>
+				<td><fmt:formatNumber value="${metrics.maxNanos / 1000}" maxFractionDigits="1"/></td>
+			</tr>
+		</c:forEach>
+		<c:if test="${empty ruleMetrics}">
+			<tr><td colspan="10"><spring:message code="pcslabinterface.metrics.none"/></td></tr>
+		</c:if>
+	</table>
+</div>
+
+<br/>
+<b class="boxHeader"><spring:message code="pcslabinterface.metrics.numericConceptIdCache"/></b>
+<div class="box">
+	<spring:message code="pcslabinterface.metrics.hits"/>: ${numericConceptIdCache.hits}&nbsp;
+	<spring:message code="pcslabinterface.metrics.misses"/>: ${numericConceptIdCache.misses}&nbsp;
+	<spring:message code="pcslabinterface.metrics.loads"/>: ${numericConceptIdCache.loads}&nbsp;
+	<spring:message code="pcslabinterface.metrics.invalidations"/>: ${numericConceptIdCache.invalidations}
+</div>
+
+<br/>
+<b class="boxHeader"><spring:message code="pcslabinterface.metrics.conceptCache"/></b>
+<div class="box">
+	<spring:message code="pcslabinterface.metrics.size"/>: ${conceptCache.size}&nbsp;
+	<spring:message code="pcslabinterface.metrics.hits"/>: ${conceptCache.hits}&nbsp;
+	<spring:message code="pcslabinterface.metrics.misses"/>: ${conceptCache.misses}&nbsp;
+	<spring:message code="pcslabinterface.metrics.hitRate"/>: <fmt:formatNumber value="${conceptCache.hitRate}" type="percent"/>&nbsp;
+	<spring:message code="pcslabinterface.metrics.evictions"/>: ${conceptCache.evictions}&nbsp;
+	<spring:message code="pcslabinterface.metrics.invalidations"/>: ${conceptCache.invalidations}
+</div>
+
+<br/>
+<b class="boxHeader"><spring:message code="pcslabinterface.metrics.patientIdentifierCache"/></b>
+<div class="box">
+	<spring:message code="pcslabinterface.metrics.size"/>: ${patientIdentifierCache.size}&nbsp;
+	<spring:message code="pcslabinterface.metrics.hits"/>: ${patientIdentifierCache.hits}&nbsp;
+	<spring:message code="pcslabinterface.metrics.misses"/>: ${patientIdentifierCache.misses}&nbsp;
+	<spring:message code="pcslabinterface.metrics.ambiguousMatches"/>: ${patientIdentifierCache.ambiguousMatches}&nbsp;
+	<spring:message code="pcslabinterface.metrics.evictions"/>: ${patientIdentifierCache.evictions}&nbsp;
+	<spring:message code="pcslabinterface.metrics.invalidations"/>: ${patientIdentifierCache.invalidations}
+</div>
+
+<br/>
+<b class="boxHeader"><spring:message code="pcslabinterface.metrics.providerCache"/></b>
+<div class="box">
+	<spring:message code="pcslabinterface.metrics.size"/>: ${providerCache.size}&nbsp;
+	<spring:message code="pcslabinterface.metrics.hits"/>: ${providerCache.hits}&nbsp;
+	<spring:message code="pcslabinterface.metrics.misses"/>: ${providerCache.misses}&nbsp;
+	<spring:message code="pcslabinterface.metrics.expirations"/>: ${providerCache.expirations}&nbsp;
+	<spring:message code="pcslabinterface.metrics.evictions"/>: ${providerCache.evictions}&nbsp;
+	<spring:message code="pcslabinterface.metrics.invalidations"/>: ${providerCache.invalidations}
+</div>
+
+<br/>
+<b class="boxHeader"><spring:message code="pcslabinterface.metrics.labMetadataCache"/></b>
+<div class="box">
+	<spring:message code="pcslabinterface.metrics.size"/>: ${labMetadataCache.size}&nbsp;
+	<spring:message code="pcslabinterface.metrics.hits"/>: ${labMetadataCache.hits}&nbsp;
+	<spring:message code="pcslabinterface.metrics.misses"/>: ${labMetadataCache.misses}&nbsp;
+	<spring:message code="pcslabinterface.metrics.evictions"/>: ${labMetadataCache.evictions}&nbsp;
+	<spring:message code="pcslabinterface.metrics.invalidations"/>: ${labMetadataCache.invalidations}
+</div>
+
+<br/>
+<b class="boxHeader"><spring:message code="pcslabinterface.metrics.healthCenterCache"/></b>
+<div class="box">
+	<spring:message code="pcslabinterface.metrics.size"/>: ${healthCenterCache.size}&nbsp;
+	<spring:message code="pcslabinterface.metrics.hits"/>: ${healthCenterCache.hits}&nbsp;
+	<spring:message code="pcslabinterface.metrics.misses"/>: ${healthCenterCache.misses}&nbsp;
+	<spring:message code="pcslabinterface.metrics.unchanged"/>: ${healthCenterCache.unchanged}&nbsp;
+	<spring:message code="pcslabinterface.metrics.changed"/>: ${healthCenterCache.changed}&nbsp;
+	<spring:message code="pcslabinterface.metrics.evictions"/>: ${healthCenterCache.evictions}&nbsp;
+	<spring:message code="pcslabinterface.metrics.invalidations"/>: ${healthCenterCache.invalidations}
+</div>
+
+<br/>
+<b class="boxHeader"><spring:message code="pcslabinterface.metrics.memoryPolicy"/></b>
+<div class="box">
+	<c:choose>
+		<c:when test="${empty memoryPolicy}">
+			<spring:message code="pcslabinterface.metrics.memoryPolicy.none"/>
+		</c:when>
+		<c:otherwise>
+			<spring:message code="pcslabinterface.metrics.heapThreshold"/>: ${memoryPolicy.thresholdPercent}%&nbsp;
+			<spring:message code="pcslabinterface.metrics.batchSize"/>: ${memoryPolicy.currentBatchSize}&nbsp;
+			<spring:message code="pcslabinterface.metrics.garbageCollections"/>: ${memoryPolicy.garbageCollections}&nbsp;
+			<spring:message code="pcslabinterface.metrics.garbageCollectionTime"/>: ${memoryPolicy.garbageCollectionTime}&nbsp;
+			<spring:message code="pcslabinterface.metrics.shrinks"/>: ${memoryPolicy.shrinks}&nbsp;
+			<spring:message code="pcslabinterface.metrics.pauses"/>: ${memoryPolicy.pauses}
+		</c:otherwise>
+	</c:choose>
+</div>
+
 <br/>
 <br/>
 <%@ include file="/WEB-INF/template/footer.jsp" %>
\ No newline at end of file